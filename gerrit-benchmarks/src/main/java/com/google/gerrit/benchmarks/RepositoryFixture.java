@@ -0,0 +1,279 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.benchmarks;
+
+import com.google.gerrit.reviewdb.Project;
+import com.google.gerrit.server.git.GitRepositoryManager;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Synthetic repository for benchmarks, created in a temporary directory.
+ * <p>
+ * File content is generated from a fixed seed, so every run of a benchmark
+ * compares the same commits. Files are named {@code dir/NN/FileNNNN.java} and
+ * hold source-like lines of about 40 characters.
+ */
+public class RepositoryFixture {
+  /** Name of the only project served by {@link #getRepositoryManager()}. */
+  public static final Project.NameKey PROJECT = new Project.NameKey("bench");
+
+  private static final String[] WORDS = {"int", "final", "return", "value",
+      "count", "index", "buffer", "result", "if", "for", "while", "null",
+      "this", "new", "String", "List", "get", "set", "size", "add"};
+
+  private final File dir;
+  private final FileRepository repo;
+  private final ObjectInserter ins;
+  private final RevWalk rw;
+  private final PersonIdent ident;
+  private final Random rnd;
+
+  public RepositoryFixture() throws IOException {
+    dir = File.createTempFile("gerrit-benchmark", ".git");
+    if (!dir.delete()) {
+      throw new IOException("Cannot create " + dir);
+    }
+    repo = new FileRepository(dir);
+    repo.create(true);
+    ins = repo.newObjectInserter();
+    rw = new RevWalk(repo);
+    ident = new PersonIdent("Benchmark", "benchmark@example.com",
+        1300000000000L, 0);
+    rnd = new Random(42);
+  }
+
+  public Repository getRepository() {
+    return repo;
+  }
+
+  /** @return manager serving this repository as {@link #PROJECT}. */
+  public GitRepositoryManager getRepositoryManager() {
+    return new GitRepositoryManager() {
+      @Override
+      public Repository openRepository(Project.NameKey name)
+          throws RepositoryNotFoundException {
+        if (!PROJECT.equals(name)) {
+          throw new RepositoryNotFoundException(name.get());
+        }
+        repo.incrementOpen();
+        return repo;
+      }
+
+      @Override
+      public Repository createRepository(Project.NameKey name)
+          throws RepositoryNotFoundException {
+        throw new RepositoryNotFoundException(name.get());
+      }
+
+      @Override
+      public SortedSet<Project.NameKey> list() {
+        return new TreeSet<Project.NameKey>(Collections.singleton(PROJECT));
+      }
+
+      @Override
+      public String getProjectDescription(Project.NameKey name) {
+        return null;
+      }
+
+      @Override
+      public void setProjectDescription(Project.NameKey name,
+          String description) {
+      }
+    };
+  }
+
+  /** @return path of the {@code i}th file created by {@link #createBase}. */
+  public static String path(final int i) {
+    return String.format("dir/%02d/File%04d.java", i % 100, i);
+  }
+
+  /**
+   * Create a root commit.
+   *
+   * @param files number of files to create.
+   * @param lines number of lines in each file.
+   * @return the new commit.
+   */
+  public RevCommit createBase(final int files, final int lines)
+      throws Exception {
+    final DirCache dc = DirCache.newInCore();
+    final DirCacheEditor ed = dc.editor();
+    for (int i = 0; i < files; i++) {
+      add(ed, path(i), text(lines));
+    }
+    ed.finish();
+    return commit(null, dc, "base\n");
+  }
+
+  /**
+   * Create a child commit replacing lines of some files.
+   *
+   * @param parent commit to modify, created by this fixture.
+   * @param files number of files in {@code parent}.
+   * @param fileStride modify every {@code fileStride}th file.
+   * @param lineStride replace every {@code lineStride}th line of those files.
+   * @return the new commit.
+   */
+  public RevCommit modify(final RevCommit parent, final int files,
+      final int fileStride, final int lineStride) throws Exception {
+    final DirCache dc = read(parent);
+    final DirCacheEditor ed = dc.editor();
+    for (int i = 0; i < files; i += fileStride) {
+      add(ed, path(i), edit(read(parent, path(i)), lineStride));
+    }
+    ed.finish();
+    return commit(parent, dc, "modify\n");
+  }
+
+  /**
+   * Create a child commit moving some files and lightly editing them, so
+   * that rename detection has to compare content.
+   *
+   * @param parent commit to modify, created by this fixture.
+   * @param files number of files in {@code parent}.
+   * @param fileStride move every {@code fileStride}th file.
+   * @return the new commit.
+   */
+  public RevCommit rename(final RevCommit parent, final int files,
+      final int fileStride) throws Exception {
+    final DirCache dc = read(parent);
+    final DirCacheEditor ed = dc.editor();
+    for (int i = 0; i < files; i += fileStride) {
+      final String content = read(parent, path(i));
+      ed.add(new DirCacheEditor.DeletePath(path(i)));
+      add(ed, "moved/" + path(i), edit(content, 20));
+    }
+    ed.finish();
+    return commit(parent, dc, "rename\n");
+  }
+
+  /** Delete the repository. */
+  public void close() throws IOException {
+    rw.release();
+    ins.release();
+    repo.close();
+    FileUtils.delete(dir, FileUtils.RECURSIVE);
+  }
+
+  private DirCache read(final RevCommit c) throws IOException {
+    final DirCache dc = DirCache.newInCore();
+    final DirCacheBuilder b = dc.builder();
+    final ObjectReader reader = repo.newObjectReader();
+    try {
+      b.addTree(new byte[0], 0, reader, c.getTree());
+    } finally {
+      reader.release();
+    }
+    b.finish();
+    return dc;
+  }
+
+  private void add(final DirCacheEditor ed, final String path,
+      final String content) throws IOException {
+    final ObjectId blob =
+        ins.insert(Constants.OBJ_BLOB, Constants.encode(content));
+    ed.add(new DirCacheEditor.PathEdit(path) {
+      @Override
+      public void apply(final DirCacheEntry ent) {
+        ent.setFileMode(FileMode.REGULAR_FILE);
+        ent.setObjectId(blob);
+      }
+    });
+  }
+
+  private RevCommit commit(final RevCommit parent, final DirCache dc,
+      final String message) throws IOException {
+    final CommitBuilder c = new CommitBuilder();
+    c.setTreeId(dc.writeTree(ins));
+    if (parent != null) {
+      c.setParentId(parent);
+    }
+    c.setAuthor(ident);
+    c.setCommitter(ident);
+    c.setMessage(message);
+    final ObjectId id = ins.insert(c);
+    ins.flush();
+    return rw.parseCommit(id);
+  }
+
+  private String read(final RevCommit c, final String path) throws Exception {
+    final TreeWalk tw = TreeWalk.forPath(repo, path, c.getTree());
+    final byte[] raw =
+        repo.open(tw.getObjectId(0), Constants.OBJ_BLOB).getCachedBytes();
+    return RawParseUtils.decode(raw);
+  }
+
+  private String text(final int lines) {
+    final StringBuilder b = new StringBuilder(lines * 40);
+    for (int i = 0; i < lines; i++) {
+      line(b);
+    }
+    return b.toString();
+  }
+
+  private String edit(final String content, final int lineStride) {
+    final String[] lines = content.split("\n", -1);
+    final StringBuilder b = new StringBuilder(content.length());
+    for (int i = 0; i < lines.length - 1; i++) {
+      if (i % lineStride == 0) {
+        line(b);
+      } else {
+        b.append(lines[i]).append('\n');
+      }
+    }
+    return b.toString();
+  }
+
+  private void line(final StringBuilder b) {
+    final int indent = rnd.nextInt(4);
+    for (int i = 0; i < indent; i++) {
+      b.append("  ");
+    }
+    final int words = 3 + rnd.nextInt(6);
+    for (int i = 0; i < words; i++) {
+      if (i > 0) {
+        b.append(' ');
+      }
+      b.append(WORDS[rnd.nextInt(WORDS.length)]);
+    }
+    b.append(rnd.nextInt(1000)).append(";\n");
+  }
+}
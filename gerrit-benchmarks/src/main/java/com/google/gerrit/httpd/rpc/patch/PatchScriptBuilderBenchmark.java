@@ -0,0 +1,157 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.httpd.rpc.patch;
+
+import com.google.gerrit.benchmarks.RepositoryFixture;
+import com.google.gerrit.common.data.CommentDetail;
+import com.google.gerrit.common.data.PatchScript;
+import com.google.gerrit.reviewdb.Account;
+import com.google.gerrit.reviewdb.AccountDiffPreference;
+import com.google.gerrit.reviewdb.Branch;
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.Patch;
+import com.google.gerrit.reviewdb.PatchSet;
+import com.google.gerrit.server.FileTypeRegistry;
+import com.google.gerrit.server.patch.ChangedFileList;
+import com.google.gerrit.server.patch.DiffFixtures;
+import com.google.gerrit.server.patch.IntraLineDiff;
+import com.google.gerrit.server.patch.IntraLineDiffKey;
+import com.google.gerrit.server.patch.PatchList;
+import com.google.gerrit.server.patch.PatchListCache;
+import com.google.gerrit.server.patch.PatchListEntry;
+import com.google.gerrit.server.patch.PatchListKey;
+
+import eu.medsea.mimeutil.MimeType;
+import eu.medsea.mimeutil.MimeUtil2;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the {@link PatchScript} of one large modified file, as opening the
+ * file in the web UI does. Intraline differences are disabled, they are
+ * measured by the IntraLineLoader benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PatchScriptBuilderBenchmark {
+  private static final String CHANGE_KEY =
+      "I0123456789abcdef0123456789abcdef01234567";
+
+  /** Lines in the file; 50000 lines are large enough to be streamed. */
+  @Param({"5000", "50000"})
+  public int lines;
+
+  private RepositoryFixture repo;
+  private Change change;
+  private AccountDiffPreference diffPrefs;
+  private PatchList list;
+  private PatchListEntry entry;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    repo = new RepositoryFixture();
+    final DiffFixtures diff = new DiffFixtures(repo, new Config());
+    try {
+      final RevCommit base = repo.createBase(1, lines);
+      list = diff.loadPatchList(repo.modify(base, 1, 1, 100));
+    } finally {
+      diff.stop();
+    }
+    entry = list.get(RepositoryFixture.path(0));
+
+    final Account.Id owner = new Account.Id(1);
+    final Branch.NameKey dest =
+        new Branch.NameKey(RepositoryFixture.PROJECT, "refs/heads/master");
+    change = new Change(new Change.Key(CHANGE_KEY), new Change.Id(1), owner,
+        dest);
+    diffPrefs = AccountDiffPreference.createDefault(owner);
+    diffPrefs.setIntralineDifference(false);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    repo.close();
+  }
+
+  @Benchmark
+  public PatchScript build() throws Exception {
+    final PatchScriptBuilder b =
+        new PatchScriptBuilder(new UnknownFileTypes(), new NoPatchLists());
+    b.setRepository(repo.getRepository(), RepositoryFixture.PROJECT);
+    b.setChange(change);
+    b.setDiffPrefs(new AccountDiffPreference(diffPrefs));
+    b.setTrees(list.isAgainstParent(), list.getOldId(), list.getNewId());
+
+    final PatchSet.Id psId = new PatchSet.Id(change.getId(), 1);
+    return b.toPatchScript(entry, new CommentDetail(null, psId),
+        new ArrayList<Patch>());
+  }
+
+  private static class UnknownFileTypes implements FileTypeRegistry {
+    @Override
+    public MimeType getMimeType(String path, byte[] content) {
+      return MimeUtil2.UNKNOWN_MIME_TYPE;
+    }
+
+    @Override
+    public boolean isSafeInline(MimeType type) {
+      return false;
+    }
+  }
+
+  /** The builder only asks for intraline differences, which are disabled. */
+  private static class NoPatchLists implements PatchListCache {
+    @Override
+    public PatchList get(PatchListKey key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PatchList get(Change change, PatchSet patchSet) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ChangedFileList getChangedFiles(Change change, PatchSet patchSet) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public IntraLineDiff getIntraLineDiff(IntraLineDiffKey key) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
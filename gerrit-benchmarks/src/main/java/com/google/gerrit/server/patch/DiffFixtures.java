@@ -0,0 +1,79 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.benchmarks.RepositoryFixture;
+import com.google.gerrit.reviewdb.AccountDiffPreference.Whitespace;
+import com.google.gerrit.server.cache.ConcurrentHashMapCache;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Creates the diff loaders outside of Guice, for benchmarks.
+ * <p>
+ * The caches the loaders write to are plain maps, so each benchmark decides
+ * itself what is cached between invocations.
+ */
+public class DiffFixtures {
+  private final Injector injector;
+  private final RepositoryFixture repo;
+  private final Config cfg;
+
+  final ConcurrentHashMapCache<ObjectId, SimilarityHash> similarityCache;
+  final ConcurrentHashMapCache<PatchListKey, ChangedFileList> filesCache;
+
+  /**
+   * @param repo repository holding the commits to compare.
+   * @param cfg server configuration read by the loaders.
+   */
+  public DiffFixtures(final RepositoryFixture repo, final Config cfg) {
+    this.injector = Guice.createInjector();
+    this.repo = repo;
+    this.cfg = cfg;
+    this.similarityCache = new ConcurrentHashMapCache<ObjectId, SimilarityHash>();
+    this.filesCache = new ConcurrentHashMapCache<PatchListKey, ChangedFileList>();
+  }
+
+  public static PatchListKey key(final AnyObjectId commit) {
+    return new PatchListKey(RepositoryFixture.PROJECT, null, commit,
+        Whitespace.IGNORE_NONE);
+  }
+
+  /** Compute the differences of a commit against its parent. */
+  public PatchList loadPatchList(final AnyObjectId commit) throws Exception {
+    return newPatchListLoader().createEntry(key(commit));
+  }
+
+  PatchListLoader newPatchListLoader() {
+    final WorkQueue queues = injector.getInstance(WorkQueue.class);
+    return new PatchListLoader(repo.getRepositoryManager(),
+        new AutoMerger(repo.getRepositoryManager(), queues), queues,
+        similarityCache, filesCache, cfg);
+  }
+
+  IntraLineLoader newIntraLineLoader() {
+    return new IntraLineLoader(cfg, injector.getInstance(WorkQueue.class));
+  }
+
+  /** Stop the threads of all loaders created by this instance. */
+  public void stop() {
+    injector.getInstance(WorkQueue.Lifecycle.class).stop();
+  }
+}
@@ -0,0 +1,90 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.benchmarks.RepositoryFixture;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Computes the intraline difference of one modified file. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IntraLineLoaderBenchmark {
+  /** Lines in the file; every fifth line is replaced. */
+  @Param({"500", "5000"})
+  public int lines;
+
+  private RepositoryFixture repo;
+  private DiffFixtures diff;
+  private IntraLineLoader loader;
+  private IntraLineDiffKey key;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    repo = new RepositoryFixture();
+    final RevCommit base = repo.createBase(1, lines);
+    final RevCommit change = repo.modify(base, 1, 1, 5);
+
+    diff = new DiffFixtures(repo, new Config());
+    loader = diff.newIntraLineLoader();
+
+    final String path = RepositoryFixture.path(0);
+    final Repository git = repo.getRepository();
+    final ObjectId aId = TreeWalk.forPath(git, path, base.getTree())
+        .getObjectId(0);
+    final ObjectId bId = TreeWalk.forPath(git, path, change.getTree())
+        .getObjectId(0);
+    final Text a = new Text(git.open(aId, Constants.OBJ_BLOB));
+    final Text b = new Text(git.open(bId, Constants.OBJ_BLOB));
+    final PatchListEntry e = diff.loadPatchList(change).get(path);
+    key = new IntraLineDiffKey(aId, a, bId, b, e.getEdits(),
+        RepositoryFixture.PROJECT, change, path);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    diff.stop();
+    repo.close();
+  }
+
+  @Benchmark
+  public IntraLineDiff compute() throws Exception {
+    return loader.createEntry(key);
+  }
+}
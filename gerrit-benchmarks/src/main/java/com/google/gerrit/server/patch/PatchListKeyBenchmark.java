@@ -0,0 +1,91 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.benchmarks.RepositoryFixture;
+import com.google.gerrit.reviewdb.AccountDiffPreference.Whitespace;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Hashes and compares {@link PatchListKey}s, as every cache lookup does. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PatchListKeyBenchmark {
+  private static final int KEYS = 1024;
+
+  private PatchListKey[] keys;
+  private PatchListKey[] copies;
+  private Map<PatchListKey, Integer> map;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final Random rnd = new Random(42);
+    final Whitespace[] ws = Whitespace.values();
+    keys = new PatchListKey[KEYS];
+    copies = new PatchListKey[KEYS];
+    map = new HashMap<PatchListKey, Integer>();
+    for (int i = 0; i < KEYS; i++) {
+      final ObjectId a = i % 2 == 0 ? null : randomId(rnd);
+      final ObjectId b = randomId(rnd);
+      final Whitespace w = ws[i % ws.length];
+      keys[i] = new PatchListKey(RepositoryFixture.PROJECT, a, b, w);
+      copies[i] = new PatchListKey(RepositoryFixture.PROJECT, a, b, w);
+      map.put(keys[i], i);
+    }
+  }
+
+  @Benchmark
+  public int hash() {
+    return keys[next++ & (KEYS - 1)].hashCode();
+  }
+
+  @Benchmark
+  public boolean equalKeys() {
+    final int i = next++ & (KEYS - 1);
+    return keys[i].equals(copies[i]);
+  }
+
+  @Benchmark
+  public Integer mapLookup() {
+    return map.get(copies[next++ & (KEYS - 1)]);
+  }
+
+  private static ObjectId randomId(final Random rnd) {
+    final byte[] raw = new byte[20];
+    rnd.nextBytes(raw);
+    return ObjectId.fromRaw(raw);
+  }
+}
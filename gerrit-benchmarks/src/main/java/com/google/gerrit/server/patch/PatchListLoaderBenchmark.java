@@ -0,0 +1,89 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.benchmarks.RepositoryFixture;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes the {@link PatchList} of a commit against its parent, as a miss
+ * in the {@code diff} cache does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PatchListLoaderBenchmark {
+  /** Number of files in the repository; every other file is modified. */
+  @Param({"10", "1000"})
+  public int files;
+
+  /** Move every fourth file instead, to measure rename detection. */
+  @Param({"false", "true"})
+  public boolean renames;
+
+  private RepositoryFixture repo;
+  private DiffFixtures diff;
+  private PatchListLoader loader;
+  private PatchListKey key;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    repo = new RepositoryFixture();
+    final RevCommit base = repo.createBase(files, 200);
+    final RevCommit change = renames
+        ? repo.rename(base, files, 4)
+        : repo.modify(base, files, 2, 10);
+
+    diff = new DiffFixtures(repo, new Config());
+    loader = diff.newPatchListLoader();
+    key = DiffFixtures.key(change);
+  }
+
+  @Setup(Level.Invocation)
+  public void clearCaches() {
+    diff.similarityCache.removeAll();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    diff.stop();
+    repo.close();
+  }
+
+  @Benchmark
+  public PatchList readPatchList() throws Exception {
+    return loader.createEntry(key);
+  }
+}
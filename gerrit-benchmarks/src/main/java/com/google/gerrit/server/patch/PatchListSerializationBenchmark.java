@@ -0,0 +1,87 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.benchmarks.RepositoryFixture;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Writes and reads a {@link PatchList} as the disk cache stores it. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PatchListSerializationBenchmark {
+  /** Number of files in the list. */
+  @Param({"10", "1000"})
+  public int files;
+
+  private final PatchList.Codec codec = new PatchList.Codec();
+  private PatchList list;
+  private byte[] encoded;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    final RepositoryFixture repo = new RepositoryFixture();
+    final DiffFixtures diff = new DiffFixtures(repo, new Config());
+    try {
+      final RevCommit base = repo.createBase(files, 200);
+      list = diff.loadPatchList(repo.modify(base, files, 1, 10));
+    } finally {
+      diff.stop();
+      repo.close();
+    }
+    encoded = write();
+  }
+
+  @Benchmark
+  public byte[] write() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    codec.encode(out, list);
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public PatchList read() throws IOException {
+    return codec.decode(new ByteArrayInputStream(encoded));
+  }
+
+  @Benchmark
+  public PatchList roundTrip() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    codec.encode(out, list);
+    return codec.decode(new ByteArrayInputStream(out.toByteArray()));
+  }
+}
@@ -15,6 +15,7 @@
 package com.google.gerrit.common.data;
 
 import com.google.gerrit.common.auth.SignInRequired;
+import com.google.gerrit.prettify.common.SparseFileContent;
 import com.google.gerrit.reviewdb.Account;
 import com.google.gerrit.reviewdb.AccountDiffPreference;
 import com.google.gerrit.reviewdb.ApprovalCategoryValue;
@@ -37,6 +38,34 @@ public interface PatchDetailService extends RemoteJsonService {
   void patchScript(Patch.Key key, PatchSet.Id a, PatchSet.Id b,
       AccountDiffPreference diffPrefs, AsyncCallback<PatchScript> callback);
 
+  /**
+   * Compute the {@link PatchScript}s of several files of a change at once.
+   * <p>
+   * Returns the same scripts as {@link #patchScript}, in the order requested,
+   * without repeating the per-request overhead for each file. At most 100
+   * files are returned per call; files not modified between the two patch
+   * sets are skipped.
+   *
+   * @param a patch set to compare against; null for the parent commit.
+   * @param b patch set whose files are shown.
+   * @param fileNames files to return; null or empty for all files.
+   */
+  void patchScripts(PatchSet.Id a, PatchSet.Id b, List<String> fileNames,
+      AccountDiffPreference diffPrefs, AsyncCallback<List<PatchScript>> callback);
+
+  /**
+   * Read more lines of a file than were sent with its {@link PatchScript}.
+   * <p>
+   * Used to show context lines that were skipped, for example around the
+   * edits of a very large file. At most 1000 lines are returned per call.
+   *
+   * @param key file and patch set the lines are read from.
+   * @param begin first line to return, 0 based.
+   * @param end line after the last line to return.
+   */
+  void patchContext(Patch.Key key, int begin, int end,
+      AsyncCallback<SparseFileContent> callback);
+
   @SignInRequired
   void saveDraft(PatchLineComment comment,
       AsyncCallback<PatchLineComment> callback);
@@ -38,6 +38,7 @@ import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.ChangeDataSource;
 import com.google.gerrit.server.query.change.ChangeQueryBuilder;
 import com.google.gerrit.server.query.change.ChangeQueryRewriter;
+import com.google.gerrit.server.util.TopN;
 import com.google.gwt.user.client.rpc.AsyncCallback;
 import com.google.gwtjsonrpc.client.VoidResult;
 import com.google.gwtorm.client.OrmException;
@@ -165,7 +166,7 @@ public class ChangeListServiceImpl extends BaseServiceImplementation implements
       }
 
       if (s instanceof ChangeDataSource) {
-        ArrayList<Change> r = new ArrayList<Change>();
+        TopN<Change> r = new TopN<Change>(limit, cmp);
         HashSet<Change.Id> want = new HashSet<Change.Id>();
         for (ChangeData d : ((ChangeDataSource) s).read()) {
           if (d.hasChange()) {
@@ -173,7 +174,7 @@ public class ChangeListServiceImpl extends BaseServiceImplementation implements
             // query should have already performed it.  But we don't
             // want to trust the query rewriter that much yet.
             //
-            if (visibleToMe.match(d)) {
+            if (r.accepts(d.getChange()) && visibleToMe.match(d)) {
               r.add(d.getChange());
             }
           } else {
@@ -187,14 +188,13 @@ public class ChangeListServiceImpl extends BaseServiceImplementation implements
         //
         if (!want.isEmpty()) {
           for (Change c : db.changes().get(want)) {
-            if (canRead(c)) {
+            if (r.accepts(c) && canRead(c)) {
               r.add(c);
             }
           }
         }
 
-        Collections.sort(r, cmp);
-        return new ListResultSet<Change>(r);
+        return new ListResultSet<Change>(r.drain());
       } else {
         throw new InvalidQueryException("Not Supported", s.toString());
       }
@@ -23,8 +23,10 @@ import com.google.gerrit.reviewdb.PatchSet;
 import com.google.gerrit.reviewdb.ReviewDb;
 import com.google.gerrit.server.ChangeUtil;
 import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.mail.AbandonedSender;
 import com.google.gerrit.server.mail.EmailException;
+import com.google.gerrit.server.patch.AutoMerger;
 import com.google.gerrit.server.patch.PatchSetInfoNotAvailableException;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gerrit.server.project.InvalidChangeOperationException;
@@ -51,6 +53,8 @@ class AbandonChange extends Handler<ChangeDetail> {
   private final String message;
 
   private final ChangeHookRunner hooks;
+  private final AutoMerger autoMerger;
+  private final ChangeIndexer changeIndexer;
 
   @Inject
   AbandonChange(final ChangeControl.Factory changeControlFactory,
@@ -58,7 +62,8 @@ class AbandonChange extends Handler<ChangeDetail> {
       final AbandonedSender.Factory senderFactory,
       final ChangeDetailFactory.Factory changeDetailFactory,
       @Assisted final PatchSet.Id patchSetId,
-      @Assisted @Nullable final String message, final ChangeHookRunner hooks) {
+      @Assisted @Nullable final String message, final ChangeHookRunner hooks,
+      final AutoMerger autoMerger, final ChangeIndexer changeIndexer) {
     this.changeControlFactory = changeControlFactory;
     this.db = db;
     this.currentUser = currentUser;
@@ -68,6 +73,8 @@ class AbandonChange extends Handler<ChangeDetail> {
     this.patchSetId = patchSetId;
     this.message = message;
     this.hooks = hooks;
+    this.autoMerger = autoMerger;
+    this.changeIndexer = changeIndexer;
   }
 
   @Override
@@ -82,7 +89,7 @@ class AbandonChange extends Handler<ChangeDetail> {
     }
 
     ChangeUtil.abandon(patchSetId, currentUser, message, db, senderFactory,
-        hooks);
+        hooks, autoMerger, changeIndexer);
 
     return changeDetailFactory.create(changeId).call();
   }
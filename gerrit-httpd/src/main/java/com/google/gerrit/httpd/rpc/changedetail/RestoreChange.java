@@ -23,6 +23,7 @@ import com.google.gerrit.reviewdb.PatchSet;
 import com.google.gerrit.reviewdb.ReviewDb;
 import com.google.gerrit.server.ChangeUtil;
 import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.mail.EmailException;
 import com.google.gerrit.server.mail.RestoredSender;
 import com.google.gerrit.server.patch.PatchSetInfoNotAvailableException;
@@ -51,6 +52,7 @@ class RestoreChange extends Handler<ChangeDetail> {
   private final String message;
 
   private final ChangeHookRunner hooks;
+  private final ChangeIndexer changeIndexer;
 
   @Inject
   RestoreChange(final ChangeControl.Factory changeControlFactory,
@@ -58,7 +60,8 @@ class RestoreChange extends Handler<ChangeDetail> {
       final RestoredSender.Factory senderFactory,
       final ChangeDetailFactory.Factory changeDetailFactory,
       @Assisted final PatchSet.Id patchSetId,
-      @Assisted @Nullable final String message, final ChangeHookRunner hooks) {
+      @Assisted @Nullable final String message, final ChangeHookRunner hooks,
+      final ChangeIndexer changeIndexer) {
     this.changeControlFactory = changeControlFactory;
     this.db = db;
     this.currentUser = currentUser;
@@ -68,6 +71,7 @@ class RestoreChange extends Handler<ChangeDetail> {
     this.patchSetId = patchSetId;
     this.message = message;
     this.hooks = hooks;
+    this.changeIndexer = changeIndexer;
   }
 
   @Override
@@ -82,7 +86,7 @@ class RestoreChange extends Handler<ChangeDetail> {
     }
 
     ChangeUtil.restore(patchSetId, currentUser, message, db, senderFactory,
-        hooks);
+        hooks, changeIndexer);
 
     return changeDetailFactory.create(changeId).call();
   }
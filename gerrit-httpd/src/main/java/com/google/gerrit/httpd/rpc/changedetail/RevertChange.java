@@ -26,6 +26,7 @@ import com.google.gerrit.server.GerritPersonIdent;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.ReplicationQueue;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.mail.EmailException;
 import com.google.gerrit.server.mail.RevertedSender;
 import com.google.gerrit.server.patch.PatchSetInfoFactory;
@@ -66,6 +67,7 @@ class RevertChange extends Handler<ChangeDetail> {
   private final PatchSetInfoFactory patchSetInfoFactory;
 
   private final PersonIdent myIdent;
+  private final ChangeIndexer changeIndexer;
 
   @Inject
   RevertChange(final ChangeControl.Factory changeControlFactory,
@@ -77,7 +79,8 @@ class RevertChange extends Handler<ChangeDetail> {
       final GitRepositoryManager gitManager,
       final PatchSetInfoFactory patchSetInfoFactory,
       final ReplicationQueue replication,
-      @GerritPersonIdent final PersonIdent myIdent) {
+      @GerritPersonIdent final PersonIdent myIdent,
+      final ChangeIndexer changeIndexer) {
     this.changeControlFactory = changeControlFactory;
     this.db = db;
     this.currentUser = currentUser;
@@ -92,6 +95,7 @@ class RevertChange extends Handler<ChangeDetail> {
     this.patchSetInfoFactory = patchSetInfoFactory;
     this.replication = replication;
     this.myIdent = myIdent;
+    this.changeIndexer = changeIndexer;
   }
 
   @Override
@@ -107,7 +111,7 @@ class RevertChange extends Handler<ChangeDetail> {
 
     ChangeUtil.revert(patchSetId, currentUser, message, db,
         revertedSenderFactory, hooks, gitManager, patchSetInfoFactory,
-        replication, myIdent);
+        replication, myIdent, changeIndexer);
 
     return changeDetailFactory.create(changeId).call();
   }
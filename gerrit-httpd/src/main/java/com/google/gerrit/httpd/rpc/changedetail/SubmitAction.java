@@ -25,6 +25,7 @@ import com.google.gerrit.server.ChangeUtil;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.git.MergeOp;
 import com.google.gerrit.server.git.MergeQueue;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.patch.PatchSetInfoNotAvailableException;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gerrit.server.project.NoSuchChangeException;
@@ -45,6 +46,7 @@ class SubmitAction extends Handler<ChangeDetail> {
   private final ChangeDetailFactory.Factory changeDetailFactory;
   private final ChangeControl.Factory changeControlFactory;
   private final MergeOp.Factory opFactory;
+  private final ChangeIndexer changeIndexer;
 
   private final PatchSet.Id patchSetId;
 
@@ -53,7 +55,7 @@ class SubmitAction extends Handler<ChangeDetail> {
       final IdentifiedUser user,
       final ChangeDetailFactory.Factory changeDetailFactory,
       final ChangeControl.Factory changeControlFactory,
-      final MergeOp.Factory opFactory,
+      final MergeOp.Factory opFactory, final ChangeIndexer changeIndexer,
       @Assisted final PatchSet.Id patchSetId) {
     this.db = db;
     this.merger = mq;
@@ -61,6 +63,7 @@ class SubmitAction extends Handler<ChangeDetail> {
     this.changeControlFactory = changeControlFactory;
     this.changeDetailFactory = changeDetailFactory;
     this.opFactory = opFactory;
+    this.changeIndexer = changeIndexer;
 
     this.patchSetId = patchSetId;
   }
@@ -81,7 +84,8 @@ class SubmitAction extends Handler<ChangeDetail> {
 
     switch (result.get(0).status) {
       case OK:
-        ChangeUtil.submit(patchSetId, user, db, opFactory, merger);
+        ChangeUtil.submit(patchSetId, user, db, opFactory, merger,
+            changeIndexer);
         return changeDetailFactory.create(changeId).call();
 
       case NOT_READY: {
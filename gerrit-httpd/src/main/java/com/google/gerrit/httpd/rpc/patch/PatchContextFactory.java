@@ -0,0 +1,172 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.httpd.rpc.patch;
+
+import com.google.gerrit.httpd.rpc.Handler;
+import com.google.gerrit.prettify.common.SparseFileContent;
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.Patch;
+import com.google.gerrit.reviewdb.PatchSet;
+import com.google.gerrit.reviewdb.Project;
+import com.google.gerrit.reviewdb.ReviewDb;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.patch.LargeText;
+import com.google.gerrit.server.patch.Text;
+import com.google.gerrit.server.project.ChangeControl;
+import com.google.gerrit.server.project.NoSuchChangeException;
+import com.google.gwtorm.client.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/** Reads a range of lines of a file, to expand context skipped in a diff. */
+class PatchContextFactory extends Handler<SparseFileContent> {
+  interface Factory {
+    PatchContextFactory create(Patch.Key patchKey,
+        @Assisted("begin") int begin, @Assisted("end") int end);
+  }
+
+  private static final Logger log =
+      LoggerFactory.getLogger(PatchContextFactory.class);
+
+  static final int MAX_LINES = 1000;
+
+  private final GitRepositoryManager repoManager;
+  private final ReviewDb db;
+  private final ChangeControl.Factory changeControlFactory;
+
+  private final Patch.Key patchKey;
+  private final int begin;
+  private final int end;
+
+  @Inject
+  PatchContextFactory(final GitRepositoryManager grm, final ReviewDb db,
+      final ChangeControl.Factory changeControlFactory,
+      @Assisted final Patch.Key patchKey, @Assisted("begin") final int begin,
+      @Assisted("end") final int end) {
+    this.repoManager = grm;
+    this.db = db;
+    this.changeControlFactory = changeControlFactory;
+
+    this.patchKey = patchKey;
+    this.begin = Math.max(0, begin);
+    this.end = Math.min(end, this.begin + MAX_LINES);
+  }
+
+  @Override
+  public SparseFileContent call() throws OrmException, NoSuchChangeException {
+    final PatchSet.Id psId = patchKey.getParentKey();
+    final Change.Id changeId = psId.getParentKey();
+    final ChangeControl control = changeControlFactory.validateFor(changeId);
+    final Project.NameKey projectKey = control.getChange().getProject();
+
+    final PatchSet ps = db.patchSets().get(psId);
+    if (ps == null || ps.getRevision() == null
+        || ps.getRevision().get() == null) {
+      throw new NoSuchChangeException(changeId);
+    }
+    final ObjectId revision;
+    try {
+      revision = ObjectId.fromString(ps.getRevision().get());
+    } catch (IllegalArgumentException e) {
+      log.error("Patch set " + psId + " has invalid revision");
+      throw new NoSuchChangeException(changeId, e);
+    }
+
+    final Repository git;
+    try {
+      git = repoManager.openRepository(projectKey);
+    } catch (RepositoryNotFoundException e) {
+      log.error("Repository " + projectKey + " not found", e);
+      throw new NoSuchChangeException(changeId, e);
+    }
+    try {
+      final ObjectReader reader = git.newObjectReader();
+      try {
+        return read(git, reader, revision);
+      } finally {
+        reader.release();
+      }
+    } catch (IOException e) {
+      log.error("File content unavailable", e);
+      throw new NoSuchChangeException(changeId, e);
+    } finally {
+      git.close();
+    }
+  }
+
+  private SparseFileContent read(final Repository git,
+      final ObjectReader reader, final ObjectId revision) throws IOException,
+      NoSuchChangeException {
+    final String path = patchKey.getFileName();
+    final SparseFileContent r = new SparseFileContent();
+    r.setPath(path);
+
+    if (Patch.COMMIT_MSG.equals(path)) {
+      final Text src = Text.forCommit(git, reader, revision);
+      r.setSize(src.size());
+      for (int i = begin; i < Math.min(end, src.size()); i++) {
+        r.addLine(i, src.getString(i));
+      }
+      return r;
+    }
+
+    final RevWalk rw = new RevWalk(reader);
+    final TreeWalk tw = TreeWalk.forPath(reader, path, rw.parseTree(revision));
+    if (tw == null || tw.getFileMode(0) == FileMode.GITLINK
+        || tw.getFileMode(0).getObjectType() != Constants.OBJ_BLOB) {
+      throw new NoSuchChangeException(patchKey.getParentKey().getParentKey());
+    }
+
+    final ObjectLoader ldr = git.open(tw.getObjectId(0), Constants.OBJ_BLOB);
+    if (LargeText.STREAM_THRESHOLD < ldr.getSize()) {
+      final LargeText src = new LargeText(ldr);
+      final int last = Math.min(end, src.size());
+      if (begin < last) {
+        final BitSet want = new BitSet();
+        want.set(begin, last);
+        src.load(want);
+      }
+      r.setSize(src.size());
+      r.setMissingNewlineAtEnd(src.isMissingNewlineAtEnd());
+      for (int i = begin; i < last; i++) {
+        r.addLine(i, src.getString(i));
+      }
+    } else {
+      final Text src = new Text(ldr);
+      final byte[] raw = src.getContent();
+      r.setSize(src.size());
+      r.setMissingNewlineAtEnd(raw.length > 0 && raw[raw.length - 1] != '\n');
+      for (int i = begin; i < Math.min(end, src.size()); i++) {
+        r.addLine(i, src.getString(i));
+      }
+    }
+    return r;
+  }
+}
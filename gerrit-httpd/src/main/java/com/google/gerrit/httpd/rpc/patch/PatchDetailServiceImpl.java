@@ -23,6 +23,7 @@ import com.google.gerrit.common.data.PatchScript;
 import com.google.gerrit.common.errors.NoSuchEntityException;
 import com.google.gerrit.httpd.rpc.BaseServiceImplementation;
 import com.google.gerrit.httpd.rpc.Handler;
+import com.google.gerrit.prettify.common.SparseFileContent;
 import com.google.gerrit.reviewdb.Account;
 import com.google.gerrit.reviewdb.AccountDiffPreference;
 import com.google.gerrit.reviewdb.AccountPatchReview;
@@ -64,6 +65,8 @@ class PatchDetailServiceImpl extends BaseServiceImplementation implements
   private final FunctionState.Factory functionStateFactory;
   private final PublishComments.Factory publishCommentsFactory;
   private final PatchScriptFactory.Factory patchScriptFactoryFactory;
+  private final PatchScriptListFactory.Factory patchScriptListFactoryFactory;
+  private final PatchContextFactory.Factory patchContextFactoryFactory;
   private final SaveDraft.Factory saveDraftFactory;
 
   @Inject
@@ -76,6 +79,8 @@ class PatchDetailServiceImpl extends BaseServiceImplementation implements
       final ChangeControl.Factory changeControlFactory,
       final FunctionState.Factory functionStateFactory,
       final PatchScriptFactory.Factory patchScriptFactoryFactory,
+      final PatchScriptListFactory.Factory patchScriptListFactoryFactory,
+      final PatchContextFactory.Factory patchContextFactoryFactory,
       final PublishComments.Factory publishCommentsFactory,
       final SaveDraft.Factory saveDraftFactory) {
     super(schema, currentUser);
@@ -87,6 +92,8 @@ class PatchDetailServiceImpl extends BaseServiceImplementation implements
     this.changeControlFactory = changeControlFactory;
     this.functionStateFactory = functionStateFactory;
     this.patchScriptFactoryFactory = patchScriptFactoryFactory;
+    this.patchScriptListFactoryFactory = patchScriptListFactoryFactory;
+    this.patchContextFactoryFactory = patchContextFactoryFactory;
     this.publishCommentsFactory = publishCommentsFactory;
     this.saveDraftFactory = saveDraftFactory;
   }
@@ -101,6 +108,21 @@ class PatchDetailServiceImpl extends BaseServiceImplementation implements
     patchScriptFactoryFactory.create(patchKey, psa, psb, dp).to(callback);
   }
 
+  public void patchScripts(final PatchSet.Id psa, final PatchSet.Id psb,
+      final List<String> fileNames, final AccountDiffPreference dp,
+      final AsyncCallback<List<PatchScript>> callback) {
+    if (psb == null) {
+      callback.onFailure(new NoSuchEntityException());
+      return;
+    }
+    patchScriptListFactoryFactory.create(psa, psb, fileNames, dp).to(callback);
+  }
+
+  public void patchContext(final Patch.Key patchKey, final int begin,
+      final int end, final AsyncCallback<SparseFileContent> callback) {
+    patchContextFactoryFactory.create(patchKey, begin, end).to(callback);
+  }
+
   public void saveDraft(final PatchLineComment comment,
       final AsyncCallback<PatchLineComment> callback) {
     saveDraftFactory.create(comment).to(callback);
@@ -30,7 +30,9 @@ public class PatchModule extends RpcServletModule {
       protected void configure() {
         factory(AddReviewerHandler.Factory.class);
         factory(RemoveReviewerHandler.Factory.class);
+        factory(PatchContextFactory.Factory.class);
         factory(PatchScriptFactory.Factory.class);
+        factory(PatchScriptListFactory.Factory.class);
         factory(SaveDraft.Factory.class);
       }
     });
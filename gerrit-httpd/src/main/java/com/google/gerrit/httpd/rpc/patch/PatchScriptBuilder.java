@@ -28,6 +28,7 @@ import com.google.gerrit.reviewdb.Project;
 import com.google.gerrit.server.FileTypeRegistry;
 import com.google.gerrit.server.patch.IntraLineDiff;
 import com.google.gerrit.server.patch.IntraLineDiffKey;
+import com.google.gerrit.server.patch.LargeText;
 import com.google.gerrit.server.patch.PatchListCache;
 import com.google.gerrit.server.patch.PatchListEntry;
 import com.google.gerrit.server.patch.Text;
@@ -43,6 +44,7 @@ import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevTree;
@@ -51,6 +53,7 @@ import org.eclipse.jgit.treewalk.TreeWalk;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -128,6 +131,13 @@ class PatchScriptBuilder {
     }
   }
 
+  PatchScript toPatchScript(final ObjectReader r,
+      final PatchListEntry content, final CommentDetail comments,
+      final List<Patch> history) throws IOException {
+    reader = r;
+    return build(content, comments, history);
+  }
+
   private PatchScript build(final PatchListEntry content,
       final CommentDetail comments, final List<Patch> history)
       throws IOException {
@@ -142,7 +152,7 @@ class PatchScriptBuilder {
 
     edits = new ArrayList<Edit>(content.getEdits());
 
-    if (!isModify(content)) {
+    if (!isModify(content) || a.isLarge() || b.isLarge()) {
       intralineDifferenceIsPossible = false;
     } else if (diffPrefs.isIntralineDifference()) {
       IntraLineDiff d =
@@ -175,7 +185,7 @@ class PatchScriptBuilder {
     boolean hugeFile = false;
     if (a.mode == FileMode.GITLINK || b.mode == FileMode.GITLINK) {
 
-    } else if (a.src == b.src && a.size() <= context
+    } else if (!a.isLarge() && a.src == b.src && a.size() <= context
         && content.getEdits().isEmpty()) {
       // Odd special case; the files are identical (100% rename or copy)
       // and the user has asked for context that is larger than the file.
@@ -188,9 +198,11 @@ class PatchScriptBuilder {
       edits.add(new Edit(a.size(), a.size()));
 
     } else {
-      if (BIG_FILE < Math.max(a.size(), b.size())) {
+      if (BIG_FILE < Math.max(a.size(), b.size()) || a.isLarge()
+          || b.isLarge()) {
         // IF the file is really large, we disable things to avoid choking
-        // the browser client.
+        // the browser client. Streamed files are always sent as a window
+        // of context around each edit, as only those lines are read.
         //
         diffPrefs.setContext((short) Math.min(25, context));
         diffPrefs.setSyntaxHighlighting(false);
@@ -369,19 +381,22 @@ class PatchScriptBuilder {
     return last.getBeginA() + (b - last.getEndB());
   }
 
-  private void packContent(boolean ignoredWhitespace) {
+  private void packContent(boolean ignoredWhitespace) throws IOException {
     EditList list = new EditList(edits, context, a.size(), b.size());
+    if (a.isLarge() || b.isLarge()) {
+      loadLines(list, ignoredWhitespace);
+    }
     for (final EditList.Hunk hunk : list.getHunks()) {
       while (hunk.next()) {
         if (hunk.isContextLine()) {
-          final String lineA = a.src.getString(hunk.getCurA());
+          final String lineA = a.getString(hunk.getCurA());
           a.dst.addLine(hunk.getCurA(), lineA);
 
           if (ignoredWhitespace) {
             // If we ignored whitespace in some form, also get the line
             // from b when it does not exactly match the line from a.
             //
-            final String lineB = b.src.getString(hunk.getCurB());
+            final String lineB = b.getString(hunk.getCurB());
             if (!lineA.equals(lineB)) {
               b.dst.addLine(hunk.getCurB(), lineB);
             }
@@ -403,23 +418,76 @@ class PatchScriptBuilder {
     }
   }
 
+  /** Read the lines of streamed sides that {@link #packContent} will use. */
+  private void loadLines(final EditList list, final boolean ignoredWhitespace)
+      throws IOException {
+    final BitSet wantA = new BitSet();
+    final BitSet wantB = new BitSet();
+    for (final EditList.Hunk hunk : list.getHunks()) {
+      while (hunk.next()) {
+        if (hunk.isContextLine()) {
+          wantA.set(hunk.getCurA());
+          if (ignoredWhitespace) {
+            wantB.set(hunk.getCurB());
+          }
+          hunk.incBoth();
+          continue;
+        }
+
+        if (hunk.isDeletedA()) {
+          wantA.set(hunk.getCurA());
+          hunk.incA();
+        }
+
+        if (hunk.isInsertedB()) {
+          wantB.set(hunk.getCurB());
+          hunk.incB();
+        }
+      }
+    }
+
+    if (a.large != null && a.large == b.large) {
+      wantA.or(wantB);
+      a.large.load(wantA);
+    } else {
+      if (a.large != null) {
+        a.large.load(wantA);
+      }
+      if (b.large != null) {
+        b.large.load(wantB);
+      }
+    }
+  }
+
   private class Side {
     String path;
     ObjectId id;
     FileMode mode;
     byte[] srcContent;
     Text src;
+    LargeText large;
     MimeType mimeType = MimeUtil2.UNKNOWN_MIME_TYPE;
     DisplayMethod displayMethod = DisplayMethod.DIFF;
     PatchScript.FileMode fileMode = PatchScript.FileMode.FILE;
     final SparseFileContent dst = new SparseFileContent();
 
     int size() {
+      if (large != null) {
+        return large.size();
+      }
       return src != null ? src.size() : 0;
     }
 
+    boolean isLarge() {
+      return large != null;
+    }
+
+    String getString(int line) {
+      return large != null ? large.getString(line) : src.getString(line);
+    }
+
     void addLine(int line) {
-      dst.addLine(line, src.getString(line));
+      dst.addLine(line, getString(line));
     }
 
     void resolve(final Side other, final ObjectId within) throws IOException {
@@ -454,9 +522,16 @@ class PatchScriptBuilder {
 
           if (reuse) {
             srcContent = other.srcContent;
+            large = other.large;
 
           } else if (mode.getObjectType() == Constants.OBJ_BLOB) {
-            srcContent = Text.asByteArray(db.open(id, Constants.OBJ_BLOB));
+            final ObjectLoader ldr = db.open(id, Constants.OBJ_BLOB);
+            if (LargeText.STREAM_THRESHOLD < ldr.getSize()) {
+              large = new LargeText(ldr);
+              srcContent = large.getHead();
+            } else {
+              srcContent = Text.asByteArray(ldr);
+            }
 
           } else {
             srcContent = Text.NO_BYTES;
@@ -483,12 +558,15 @@ class PatchScriptBuilder {
         if (!reuse) {
           if (srcContent == Text.NO_BYTES) {
             src = Text.EMPTY;
-          } else {
+          } else if (large == null) {
             src = new Text(srcContent);
           }
         }
 
-        if (srcContent.length > 0 && srcContent[srcContent.length - 1] != '\n') {
+        if (large != null) {
+          dst.setMissingNewlineAtEnd(large.isMissingNewlineAtEnd());
+        } else if (srcContent.length > 0
+            && srcContent[srcContent.length - 1] != '\n') {
           dst.setMissingNewlineAtEnd(true);
         }
         dst.setSize(size());
@@ -0,0 +1,347 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.httpd.rpc.patch;
+
+import com.google.gerrit.common.data.AccountInfoCache;
+import com.google.gerrit.common.data.CommentDetail;
+import com.google.gerrit.common.data.PatchScript;
+import com.google.gerrit.httpd.rpc.Handler;
+import com.google.gerrit.reviewdb.Account;
+import com.google.gerrit.reviewdb.AccountDiffPreference;
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.Patch;
+import com.google.gerrit.reviewdb.PatchLineComment;
+import com.google.gerrit.reviewdb.PatchSet;
+import com.google.gerrit.reviewdb.Project;
+import com.google.gerrit.reviewdb.ReviewDb;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.account.AccountInfoCacheFactory;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.patch.PatchList;
+import com.google.gerrit.server.patch.PatchListCache;
+import com.google.gerrit.server.patch.PatchListEntry;
+import com.google.gerrit.server.patch.PatchListKey;
+import com.google.gerrit.server.project.ChangeControl;
+import com.google.gerrit.server.project.NoSuchChangeException;
+import com.google.gwtorm.client.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.assistedinject.Assisted;
+
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Builds the {@link PatchScript}s of several files of a change at once.
+ * <p>
+ * The access check, patch set lookup, repository, object reader and comments
+ * of the change are loaded once and shared by all files, rather than once per
+ * file as {@link PatchScriptFactory} does.
+ */
+class PatchScriptListFactory extends Handler<List<PatchScript>> {
+  interface Factory {
+    PatchScriptListFactory create(
+        @Assisted("patchSetA") PatchSet.Id patchSetA,
+        @Assisted("patchSetB") PatchSet.Id patchSetB,
+        List<String> fileNames, AccountDiffPreference diffPrefs);
+  }
+
+  private static final Logger log =
+      LoggerFactory.getLogger(PatchScriptListFactory.class);
+
+  /** Maximum number of files returned by one call. */
+  static final int MAX_FILES = 100;
+
+  private static final Comparator<PatchLineComment> COMMENT_ORDER =
+      new Comparator<PatchLineComment>() {
+        @Override
+        public int compare(PatchLineComment a, PatchLineComment b) {
+          if (a.getLine() != b.getLine()) {
+            return a.getLine() - b.getLine();
+          }
+          return a.getWrittenOn().compareTo(b.getWrittenOn());
+        }
+      };
+
+  private final GitRepositoryManager repoManager;
+  private final Provider<PatchScriptBuilder> builderFactory;
+  private final PatchListCache patchListCache;
+  private final ReviewDb db;
+  private final ChangeControl.Factory changeControlFactory;
+  private final AccountInfoCacheFactory.Factory aicFactory;
+
+  @Nullable
+  private final PatchSet.Id psa;
+  private final PatchSet.Id psb;
+  @Nullable
+  private final List<String> fileNames;
+  private final AccountDiffPreference diffPrefs;
+
+  private final Change.Id changeId;
+
+  private Change change;
+  private ChangeControl control;
+  private List<PatchSet> patchSets;
+  private Map<String, List<PatchLineComment>> commentsByFile;
+
+  @Inject
+  PatchScriptListFactory(final GitRepositoryManager grm,
+      Provider<PatchScriptBuilder> builderFactory,
+      final PatchListCache patchListCache, final ReviewDb db,
+      final ChangeControl.Factory changeControlFactory,
+      final AccountInfoCacheFactory.Factory aicFactory,
+      @Assisted("patchSetA") @Nullable final PatchSet.Id patchSetA,
+      @Assisted("patchSetB") final PatchSet.Id patchSetB,
+      @Assisted @Nullable final List<String> fileNames,
+      @Assisted final AccountDiffPreference diffPrefs) {
+    this.repoManager = grm;
+    this.builderFactory = builderFactory;
+    this.patchListCache = patchListCache;
+    this.db = db;
+    this.changeControlFactory = changeControlFactory;
+    this.aicFactory = aicFactory;
+
+    this.psa = patchSetA;
+    this.psb = patchSetB;
+    this.fileNames = fileNames;
+    this.diffPrefs = diffPrefs;
+
+    changeId = patchSetB.getParentKey();
+  }
+
+  @Override
+  public List<PatchScript> call() throws OrmException, NoSuchChangeException {
+    if (psa != null && !changeId.equals(psa.getParentKey())) {
+      throw new NoSuchChangeException(changeId);
+    }
+
+    control = changeControlFactory.validateFor(changeId);
+    change = control.getChange();
+    final Project.NameKey projectKey = change.getProject();
+
+    patchSets = db.patchSets().byChange(changeId).toList();
+    final ObjectId aId = psa != null ? toObjectId(psa) : null;
+    final ObjectId bId = toObjectId(psb);
+
+    final PatchList list = patchListCache.get(new PatchListKey(projectKey,
+        aId, bId, diffPrefs.getIgnoreWhitespace()));
+    final List<PatchListEntry> entries = select(list);
+    loadComments();
+
+    final Repository git;
+    try {
+      git = repoManager.openRepository(projectKey);
+    } catch (RepositoryNotFoundException e) {
+      log.error("Repository " + projectKey + " not found", e);
+      throw new NoSuchChangeException(changeId, e);
+    }
+    try {
+      final ObjectReader reader = git.newObjectReader();
+      try {
+        final AccountInfoCacheFactory aic = aicFactory.create();
+        final List<CommentDetail> details = new ArrayList<CommentDetail>();
+        final List<PatchScript> r = new ArrayList<PatchScript>(entries.size());
+        for (PatchListEntry content : entries) {
+          final List<Patch> history = new ArrayList<Patch>();
+          final CommentDetail comments = new CommentDetail(psa, psb);
+          loadCommentsAndHistory(content, history, comments, aic);
+          details.add(comments);
+
+          final PatchScriptBuilder b = builderFactory.get();
+          b.setRepository(git, projectKey);
+          b.setChange(change);
+          b.setDiffPrefs(new AccountDiffPreference(diffPrefs));
+          b.setTrees(list.isAgainstParent(), list.getOldId(), list.getNewId());
+          try {
+            r.add(b.toPatchScript(reader, content, comments, history));
+          } catch (IOException e) {
+            log.error("File content unavailable", e);
+            throw new NoSuchChangeException(changeId, e);
+          }
+        }
+
+        final AccountInfoCache accounts = aic.create();
+        for (CommentDetail d : details) {
+          d.setAccountInfoCache(accounts);
+        }
+        return r;
+      } finally {
+        reader.release();
+      }
+    } finally {
+      git.close();
+    }
+  }
+
+  private List<PatchListEntry> select(final PatchList list) {
+    final List<PatchListEntry> r = new ArrayList<PatchListEntry>();
+    if (fileNames == null || fileNames.isEmpty()) {
+      for (PatchListEntry e : list.getPatches()) {
+        if (MAX_FILES <= r.size()) {
+          break;
+        }
+        r.add(e);
+      }
+    } else {
+      for (String name : new LinkedHashSet<String>(fileNames)) {
+        if (MAX_FILES <= r.size()) {
+          break;
+        }
+        final PatchListEntry e = list.get(name);
+        if (e != null) {
+          r.add(e);
+        }
+      }
+    }
+    return r;
+  }
+
+  private ObjectId toObjectId(final PatchSet.Id psId)
+      throws NoSuchChangeException {
+    for (PatchSet ps : patchSets) {
+      if (ps.getId().equals(psId)) {
+        if (ps.getRevision() == null || ps.getRevision().get() == null) {
+          break;
+        }
+        try {
+          return ObjectId.fromString(ps.getRevision().get());
+        } catch (IllegalArgumentException e) {
+          log.error("Patch set " + psId + " has invalid revision");
+          throw new NoSuchChangeException(changeId, e);
+        }
+      }
+    }
+    throw new NoSuchChangeException(changeId);
+  }
+
+  /** Load the comments of the change visible to the user, by file name. */
+  private void loadComments() throws OrmException {
+    Account.Id me = null;
+    final CurrentUser user = control.getCurrentUser();
+    if (user instanceof IdentifiedUser) {
+      me = ((IdentifiedUser) user).getAccountId();
+    }
+
+    commentsByFile = new HashMap<String, List<PatchLineComment>>();
+    for (PatchLineComment c : db.patchComments().byChange(changeId)) {
+      switch (c.getStatus()) {
+        case PUBLISHED:
+          break;
+        case DRAFT:
+          if (me != null && me.equals(c.getAuthor())) {
+            break;
+          }
+          continue;
+        default:
+          continue;
+      }
+
+      final String file = c.getKey().getParentKey().getFileName();
+      List<PatchLineComment> l = commentsByFile.get(file);
+      if (l == null) {
+        l = new ArrayList<PatchLineComment>();
+        commentsByFile.put(file, l);
+      }
+      l.add(c);
+    }
+    for (List<PatchLineComment> l : commentsByFile.values()) {
+      Collections.sort(l, COMMENT_ORDER);
+    }
+  }
+
+  private void loadCommentsAndHistory(final PatchListEntry content,
+      final List<Patch> history, final CommentDetail comments,
+      final AccountInfoCacheFactory aic) {
+    final String oldName = content.getOldName();
+    final String newName = content.getNewName();
+    final Map<Patch.Key, Patch> byKey = new HashMap<Patch.Key, Patch>();
+
+    for (final PatchSet ps : patchSets) {
+      String name = newName;
+      if (psa != null) {
+        switch (content.getChangeType()) {
+          case COPIED:
+          case RENAMED:
+            if (ps.getId().equals(psa)) {
+              name = oldName;
+            }
+            break;
+        }
+      }
+
+      final Patch p = new Patch(new Patch.Key(ps.getId(), name));
+      history.add(p);
+      byKey.put(p.getKey(), p);
+    }
+
+    final Set<String> files = new LinkedHashSet<String>();
+    switch (content.getChangeType()) {
+      case ADDED:
+      case MODIFIED:
+        files.add(newName);
+        break;
+
+      case DELETED:
+        files.add(oldName);
+        break;
+
+      case COPIED:
+      case RENAMED:
+        if (psa != null) {
+          files.add(oldName);
+        }
+        files.add(newName);
+        break;
+    }
+
+    for (String file : files) {
+      final List<PatchLineComment> l = commentsByFile.get(file);
+      if (l == null) {
+        continue;
+      }
+      for (PatchLineComment c : l) {
+        if (comments.include(c)) {
+          aic.want(c.getAuthor());
+        }
+
+        final Patch p = byKey.get(c.getKey().getParentKey());
+        if (p != null) {
+          if (c.getStatus() == PatchLineComment.Status.DRAFT) {
+            p.setDraftCount(p.getDraftCount() + 1);
+          } else {
+            p.setCommentCount(p.getCommentCount() + 1);
+          }
+        }
+      }
+    }
+  }
+}
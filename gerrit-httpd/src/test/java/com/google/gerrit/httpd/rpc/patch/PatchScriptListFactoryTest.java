@@ -0,0 +1,295 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.httpd.rpc.patch;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.gerrit.common.data.AccountInfo;
+import com.google.gerrit.common.data.AccountInfoCache;
+import com.google.gerrit.common.data.CommentDetail;
+import com.google.gerrit.common.data.PatchScript;
+import com.google.gerrit.reviewdb.Account;
+import com.google.gerrit.reviewdb.AccountDiffPreference;
+import com.google.gerrit.reviewdb.Branch;
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.Patch;
+import com.google.gerrit.reviewdb.PatchLineComment;
+import com.google.gerrit.reviewdb.PatchLineCommentAccess;
+import com.google.gerrit.reviewdb.PatchSet;
+import com.google.gerrit.reviewdb.PatchSetAccess;
+import com.google.gerrit.reviewdb.Project;
+import com.google.gerrit.reviewdb.RevId;
+import com.google.gerrit.reviewdb.ReviewDb;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.account.AccountInfoCacheFactory;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.patch.PatchList;
+import com.google.gerrit.server.patch.PatchListCache;
+import com.google.gerrit.server.patch.PatchListEntry;
+import com.google.gerrit.server.patch.PatchListKey;
+import com.google.gerrit.server.project.ChangeControl;
+import com.google.gwtorm.client.KeyUtil;
+import com.google.gwtorm.client.impl.ListResultSet;
+import com.google.gwtorm.server.StandardKeyEncoder;
+import com.google.inject.Provider;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class PatchScriptListFactoryTest extends LocalDiskRepositoryTestCase {
+  static {
+    KeyUtil.setEncoderImpl(new StandardKeyEncoder());
+  }
+
+  private Project.NameKey projectKey;
+  private Change.Id changeId;
+  private PatchSet.Id psId;
+  private Account.Id me;
+  private Account.Id other;
+  private Repository realDb;
+
+  private GitRepositoryManager grm;
+  private PatchListCache plc;
+  private PatchList list;
+  private ReviewDb db;
+  private PatchSetAccess patchSets;
+  private PatchLineCommentAccess comments;
+  private ChangeControl.Factory ccf;
+  private ChangeControl cc;
+  private IdentifiedUser user;
+  private AccountInfoCacheFactory.Factory aicf;
+  private AccountInfoCacheFactory aic;
+  private List<Built> built;
+  private List<Object> mocks;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+
+    projectKey = new Project.NameKey("test");
+    changeId = new Change.Id(1);
+    psId = new PatchSet.Id(changeId, 1);
+    me = new Account.Id(1000);
+    other = new Account.Id(1001);
+    realDb = createBareRepository();
+
+    grm = mock(GitRepositoryManager.class);
+    plc = mock(PatchListCache.class);
+    list = mock(PatchList.class);
+    db = mock(ReviewDb.class);
+    patchSets = mock(PatchSetAccess.class);
+    comments = mock(PatchLineCommentAccess.class);
+    ccf = mock(ChangeControl.Factory.class);
+    cc = mock(ChangeControl.class);
+    user = mock(IdentifiedUser.class);
+    aicf = mock(AccountInfoCacheFactory.Factory.class);
+    aic = mock(AccountInfoCacheFactory.class);
+    built = new ArrayList<Built>();
+  }
+
+  @Test
+  public void testScriptsOfRequestedFilesInRequestOrder() throws Exception {
+    final PatchListEntry a = entry("a.txt");
+    final PatchListEntry b = entry("b.txt");
+    expect(list.get("a.txt")).andReturn(a);
+    expect(list.get("b.txt")).andReturn(b);
+    expect(list.get("missing.txt")).andReturn(null);
+
+    final PatchLineComment onA = comment("a.txt", "1", me);
+    onA.setStatus(PatchLineComment.Status.PUBLISHED);
+    final PatchLineComment draftOnB = comment("b.txt", "2", me);
+    final PatchLineComment otherDraftOnB = comment("b.txt", "3", other);
+    expectCall(onA, draftOnB, otherDraftOnB);
+
+    final List<PatchScript> r = call("b.txt", "missing.txt", "a.txt", "b.txt");
+    verifyMocks();
+
+    assertEquals(2, r.size());
+    assertEquals(2, built.size());
+    assertSame(b, built.get(0).content);
+    assertSame(a, built.get(1).content);
+    assertSame(built.get(0).script, r.get(0));
+    assertSame(built.get(1).script, r.get(1));
+    for (Built x : built) {
+      assertSame(realDb, x.git);
+      assertSame(built.get(0).reader, x.reader);
+    }
+
+    assertEquals(Collections.singletonList(draftOnB),
+        built.get(0).comments.getCommentsB());
+    assertEquals(1, built.get(0).history.get(0).getDraftCount());
+    assertEquals(0, built.get(0).history.get(0).getCommentCount());
+
+    assertEquals(Collections.singletonList(onA),
+        built.get(1).comments.getCommentsB());
+    assertEquals(0, built.get(1).history.get(0).getDraftCount());
+    assertEquals(1, built.get(1).history.get(0).getCommentCount());
+  }
+
+  @Test
+  public void testAtMostMaxFilesScripts() throws Exception {
+    final List<String> names = new ArrayList<String>();
+    for (int i = 0; i < PatchScriptListFactory.MAX_FILES + 10; i++) {
+      final String name = "f" + i;
+      names.add(name);
+      if (i < PatchScriptListFactory.MAX_FILES) {
+        expect(list.get(name)).andReturn(entry(name));
+      }
+    }
+    expectCall();
+
+    final List<PatchScript> r = call(names.toArray(new String[names.size()]));
+    verifyMocks();
+
+    assertEquals(PatchScriptListFactory.MAX_FILES, r.size());
+    for (int i = 0; i < r.size(); i++) {
+      assertEquals("f" + i, built.get(i).content.getNewName());
+    }
+  }
+
+  private void expectCall(final PatchLineComment... c) throws Exception {
+    final Change change = new Change(new Change.Key("I1"), changeId, me,
+        new Branch.NameKey(projectKey, "refs/heads/master"));
+    final PatchSet ps = new PatchSet(psId);
+    final ObjectId rev =
+        ObjectId.fromString("deadbeefdeadbeefdeadbeefdeadbeefdeadbeef");
+    ps.setRevision(new RevId(rev.name()));
+
+    expect(ccf.validateFor(eq(changeId))).andReturn(cc);
+    expect(cc.getChange()).andReturn(change).anyTimes();
+    expect(cc.getCurrentUser()).andReturn(user).anyTimes();
+    expect(user.getAccountId()).andReturn(me).anyTimes();
+
+    expect(db.patchSets()).andReturn(patchSets);
+    expect(patchSets.byChange(eq(changeId))).andReturn(
+        new ListResultSet<PatchSet>(Collections.singletonList(ps)));
+    expect(db.patchComments()).andReturn(comments);
+    expect(comments.byChange(eq(changeId))).andReturn(
+        new ListResultSet<PatchLineComment>(Arrays.asList(c)));
+
+    expect(plc.get(eq(new PatchListKey(projectKey, null, rev,
+        AccountDiffPreference.Whitespace.IGNORE_NONE)))).andReturn(list);
+    expect(list.isAgainstParent()).andReturn(true).anyTimes();
+    expect(list.getOldId()).andReturn(null).anyTimes();
+    expect(list.getNewId()).andReturn(rev).anyTimes();
+
+    realDb.incrementOpen();
+    expect(grm.openRepository(eq(projectKey))).andReturn(realDb);
+
+    expect(aicf.create()).andReturn(aic);
+    aic.want(anyObject(Account.Id.class));
+    expectLastCall().anyTimes();
+    expect(aic.create()).andReturn(
+        new AccountInfoCache(Collections.<AccountInfo> emptyList()));
+
+    replay(mocks.toArray());
+  }
+
+  private List<PatchScript> call(final String... fileNames) throws Exception {
+    final Provider<PatchScriptBuilder> builders =
+        new Provider<PatchScriptBuilder>() {
+          @Override
+          public PatchScriptBuilder get() {
+            return new RecordingBuilder();
+          }
+        };
+    return new PatchScriptListFactory(grm, builders, plc, db, ccf, aicf,
+        null, psId, Arrays.asList(fileNames),
+        AccountDiffPreference.createDefault(me)).call();
+  }
+
+  private void verifyMocks() {
+    verify(mocks.toArray());
+  }
+
+  private <T> T mock(final Class<T> type) {
+    if (mocks == null) {
+      mocks = new ArrayList<Object>();
+    }
+    final T m = createMock(type);
+    mocks.add(m);
+    return m;
+  }
+
+  private PatchListEntry entry(final String name) {
+    final PatchListEntry e = createMock(PatchListEntry.class);
+    expect(e.getChangeType()).andReturn(Patch.ChangeType.MODIFIED).anyTimes();
+    expect(e.getOldName()).andReturn(null).anyTimes();
+    expect(e.getNewName()).andReturn(name).anyTimes();
+    replay(e);
+    return e;
+  }
+
+  private PatchLineComment comment(final String file, final String uuid,
+      final Account.Id author) {
+    final PatchLineComment c = new PatchLineComment(new PatchLineComment.Key(
+        new Patch.Key(psId, file), uuid), 1, author, null);
+    c.setSide((short) 1);
+    return c;
+  }
+
+  private static class Built {
+    Repository git;
+    ObjectReader reader;
+    PatchListEntry content;
+    CommentDetail comments;
+    List<Patch> history;
+    PatchScript script;
+  }
+
+  private class RecordingBuilder extends PatchScriptBuilder {
+    private final Built b = new Built();
+
+    RecordingBuilder() {
+      super(null, null);
+    }
+
+    @Override
+    void setRepository(Repository r, Project.NameKey projectKey) {
+      b.git = r;
+    }
+
+    @Override
+    PatchScript toPatchScript(final ObjectReader r,
+        final PatchListEntry content, final CommentDetail comments,
+        final List<Patch> history) {
+      b.reader = r;
+      b.content = content;
+      b.comments = comments;
+      b.history = history;
+      b.script = new PatchScript() {};
+      built.add(b);
+      return b.script;
+    }
+  }
+}
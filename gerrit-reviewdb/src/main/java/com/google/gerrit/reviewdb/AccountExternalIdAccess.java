@@ -32,6 +32,10 @@ public interface AccountExternalIdAccess extends
   @Query("WHERE accountId = ?")
   ResultSet<AccountExternalId> byAccount(Account.Id id) throws OrmException;
 
+  @Query("WHERE accountId >= ? AND accountId <= ?")
+  ResultSet<AccountExternalId> byAccountRange(Account.Id from, Account.Id to)
+      throws OrmException;
+
   @Query("WHERE accountId = ? AND emailAddress = ?")
   ResultSet<AccountExternalId> byAccountEmail(Account.Id id, String email)
       throws OrmException;
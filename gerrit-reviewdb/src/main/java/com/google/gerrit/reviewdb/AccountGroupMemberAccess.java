@@ -28,6 +28,10 @@ public interface AccountGroupMemberAccess extends
   @Query("WHERE key.accountId = ?")
   ResultSet<AccountGroupMember> byAccount(Account.Id id) throws OrmException;
 
+  @Query("WHERE key.accountId >= ? AND key.accountId <= ?")
+  ResultSet<AccountGroupMember> byAccountRange(Account.Id from, Account.Id to)
+      throws OrmException;
+
   @Query("WHERE key.groupId = ?")
   ResultSet<AccountGroupMember> byGroup(AccountGroup.Id id) throws OrmException;
 }
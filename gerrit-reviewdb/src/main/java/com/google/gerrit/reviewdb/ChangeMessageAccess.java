@@ -27,4 +27,8 @@ public interface ChangeMessageAccess extends
 
   @Query("WHERE key.changeId = ? ORDER BY writtenOn")
   ResultSet<ChangeMessage> byChange(Change.Id id) throws OrmException;
+
+  @Query("WHERE key.changeId >= ? AND key.changeId <= ? ORDER BY writtenOn")
+  ResultSet<ChangeMessage> byChangeRange(Change.Id from, Change.Id to)
+      throws OrmException;
 }
@@ -28,6 +28,11 @@ public interface PatchLineCommentAccess extends
   @Query("WHERE key.patchKey.patchSetId.changeId = ?")
   ResultSet<PatchLineComment> byChange(Change.Id id) throws OrmException;
 
+  @Query("WHERE key.patchKey.patchSetId.changeId >= ?"
+      + " AND key.patchKey.patchSetId.changeId <= ?")
+  ResultSet<PatchLineComment> byChangeRange(Change.Id from, Change.Id to)
+      throws OrmException;
+
   @Query("WHERE key.patchKey = ? AND status = '"
       + PatchLineComment.STATUS_PUBLISHED + "' ORDER BY lineNbr,writtenOn")
   ResultSet<PatchLineComment> published(Patch.Key patch) throws OrmException;
@@ -28,6 +28,10 @@ public interface PatchSetApprovalAccess extends
   @Query("WHERE key.patchSetId.changeId = ?")
   ResultSet<PatchSetApproval> byChange(Change.Id id) throws OrmException;
 
+  @Query("WHERE key.patchSetId.changeId >= ? AND key.patchSetId.changeId <= ?")
+  ResultSet<PatchSetApproval> byChangeRange(Change.Id from, Change.Id to)
+      throws OrmException;
+
   @Query("WHERE key.patchSetId = ?")
   ResultSet<PatchSetApproval> byPatchSet(PatchSet.Id id) throws OrmException;
 
@@ -31,11 +31,13 @@ import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.MergeOp;
 import com.google.gerrit.server.git.MergeQueue;
 import com.google.gerrit.server.git.ReplicationQueue;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.mail.AbandonedSender;
 import com.google.gerrit.server.mail.EmailException;
 import com.google.gerrit.server.mail.ReplyToChangeSender;
 import com.google.gerrit.server.mail.RestoredSender;
 import com.google.gerrit.server.mail.RevertedSender;
+import com.google.gerrit.server.patch.AutoMerger;
 import com.google.gerrit.server.patch.PatchSetInfoFactory;
 import com.google.gerrit.server.patch.PatchSetInfoNotAvailableException;
 import com.google.gerrit.server.project.InvalidChangeOperationException;
@@ -169,8 +171,8 @@ public class ChangeUtil {
 
   public static void submit(final PatchSet.Id patchSetId,
       final IdentifiedUser user, final ReviewDb db,
-      final MergeOp.Factory opFactory, final MergeQueue merger)
-      throws OrmException {
+      final MergeOp.Factory opFactory, final MergeQueue merger,
+      final ChangeIndexer changeIndexer) throws OrmException {
     final Change.Id changeId = patchSetId.getParentKey();
     final PatchSetApproval approval = createSubmitApproval(patchSetId, user, db);
 
@@ -187,6 +189,7 @@ public class ChangeUtil {
         return change;
       }
     });
+    changeIndexer.index(changeId);
 
     if (updatedChange.getStatus() == Change.Status.SUBMITTED) {
       merger.merge(opFactory, updatedChange.getDest());
@@ -216,7 +219,8 @@ public class ChangeUtil {
   public static void abandon(final PatchSet.Id patchSetId,
       final IdentifiedUser user, final String message, final ReviewDb db,
       final AbandonedSender.Factory senderFactory,
-      final ChangeHookRunner hooks) throws NoSuchChangeException,
+      final ChangeHookRunner hooks, final AutoMerger autoMerger,
+      final ChangeIndexer changeIndexer) throws NoSuchChangeException,
       InvalidChangeOperationException, EmailException, OrmException {
     final Change.Id changeId = patchSetId.getParentKey();
     final PatchSet patch = db.patchSets().get(patchSetId);
@@ -252,8 +256,10 @@ public class ChangeUtil {
 
     updatedChange(db, user, updatedChange, cmsg, senderFactory,
         "Change is no longer open or patchset is not latest");
+    changeIndexer.index(changeId);
 
     hooks.doChangeAbandonedHook(updatedChange, user.getAccount(), message);
+    autoMerger.prune(db, updatedChange);
   }
 
   public static void revert(final PatchSet.Id patchSetId,
@@ -261,8 +267,8 @@ public class ChangeUtil {
       final RevertedSender.Factory revertedSenderFactory,
       final ChangeHookRunner hooks, GitRepositoryManager gitManager,
       final PatchSetInfoFactory patchSetInfoFactory,
-      final ReplicationQueue replication, PersonIdent myIdent)
-      throws NoSuchChangeException, EmailException, OrmException,
+      final ReplicationQueue replication, PersonIdent myIdent,
+      final ChangeIndexer changeIndexer) throws NoSuchChangeException, EmailException, OrmException,
       MissingObjectException, IncorrectObjectTypeException, IOException,
       PatchSetInfoNotAvailableException {
 
@@ -351,6 +357,7 @@ public class ChangeUtil {
       cm.setChangeMessage(cmsg);
       cm.send();
 
+      changeIndexer.index(change.getId());
       hooks.doPatchsetCreatedHook(change, ps);
     } finally {
       revWalk.release();
@@ -361,8 +368,9 @@ public class ChangeUtil {
   public static void restore(final PatchSet.Id patchSetId,
       final IdentifiedUser user, final String message, final ReviewDb db,
       final RestoredSender.Factory senderFactory,
-      final ChangeHookRunner hooks) throws NoSuchChangeException,
-      InvalidChangeOperationException, EmailException, OrmException {
+      final ChangeHookRunner hooks, final ChangeIndexer changeIndexer)
+      throws NoSuchChangeException, InvalidChangeOperationException,
+      EmailException, OrmException {
     final Change.Id changeId = patchSetId.getParentKey();
     final PatchSet patch = db.patchSets().get(patchSetId);
     if (patch == null) {
@@ -397,6 +405,7 @@ public class ChangeUtil {
 
     updatedChange(db, user, updatedChange, cmsg, senderFactory,
        "Change is not abandoned or patchset is not latest");
+    changeIndexer.index(changeId);
 
     hooks.doChangeRestoreHook(updatedChange, user.getAccount(), message);
   }
@@ -16,10 +16,21 @@ package com.google.gerrit.server.account;
 
 import com.google.gerrit.reviewdb.Account;
 
+import java.util.Collection;
+import java.util.Map;
+
 /** Caches important (but small) account state to avoid database hits. */
 public interface AccountCache {
   public AccountState get(Account.Id accountId);
 
+  /**
+   * Get the state of several accounts at once.
+   *
+   * @param accountIds accounts to get.
+   * @return state of each account, keyed by its identity.
+   */
+  public Map<Account.Id, AccountState> getAll(Collection<Account.Id> accountIds);
+
   public AccountState getByUsername(String username);
 
   public void evict(Account.Id accountId);
@@ -22,7 +22,8 @@ import com.google.gerrit.reviewdb.ReviewDb;
 import com.google.gerrit.server.cache.Cache;
 import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.cache.EntryCreator;
-import com.google.gwtorm.client.OrmException;
+import com.google.gerrit.server.util.IdRanges;
+import com.google.gwtorm.client.ResultSet;
 import com.google.gwtorm.client.SchemaFactory;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -30,9 +31,13 @@ import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import com.google.inject.name.Named;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /** Caches important (but small) account state to avoid database hits. */
@@ -73,6 +78,12 @@ public class AccountCacheImpl implements AccountCache {
     return byId.get(accountId);
   }
 
+  @Override
+  public Map<Account.Id, AccountState> getAll(
+      final Collection<Account.Id> accountIds) {
+    return byId.getAll(accountIds);
+  }
+
   @Override
   public AccountState getByUsername(String username) {
     Account.Id id = byName.get(username);
@@ -104,31 +115,91 @@ public class AccountCacheImpl implements AccountCache {
     public AccountState createEntry(final Account.Id key) throws Exception {
       final ReviewDb db = schema.open();
       try {
-        final AccountState state = load(db, key);
-        if (state.getUserName() != null) {
-          byName.put(state.getUserName(), state.getAccount().getId());
+        final Account account = db.accounts().get(key);
+        if (account == null) {
+          // Account no longer exists? They are anonymous.
+          //
+          return missing(key);
         }
-        return state;
+        return load(account, //
+            db.accountExternalIds().byAccount(key).toList(), //
+            db.accountGroupMembers().byAccount(key).toList());
       } finally {
         db.close();
       }
     }
 
-    private AccountState load(final ReviewDb db, final Account.Id who)
-        throws OrmException {
-      final Account account = db.accounts().get(who);
-      if (account == null) {
-        // Account no longer exists? They are anonymous.
-        //
-        return missing(who);
+    @Override
+    public Map<Account.Id, AccountState> createAll(
+        final Collection<Account.Id> keys) throws Exception {
+      final Map<Account.Id, Account> accounts =
+          new HashMap<Account.Id, Account>();
+      final Map<Account.Id, List<AccountExternalId>> externalIds =
+          new HashMap<Account.Id, List<AccountExternalId>>();
+      final Map<Account.Id, List<AccountGroupMember>> members =
+          new HashMap<Account.Id, List<AccountGroupMember>>();
+
+      final ReviewDb db = schema.open();
+      try {
+        for (Account account : db.accounts().get(keys)) {
+          accounts.put(account.getId(), account);
+          externalIds.put(account.getId(), new ArrayList<AccountExternalId>());
+          members.put(account.getId(), new ArrayList<AccountGroupMember>());
+        }
+
+        for (int[] range : IdRanges.split(accounts.keySet())) {
+          final Account.Id from = new Account.Id(range[0]);
+          final Account.Id to = new Account.Id(range[1]);
+          final ResultSet<AccountExternalId> ids;
+          final ResultSet<AccountGroupMember> groups;
+          if (range[0] == range[1]) {
+            ids = db.accountExternalIds().byAccount(from);
+            groups = db.accountGroupMembers().byAccount(from);
+          } else {
+            ids = db.accountExternalIds().byAccountRange(from, to);
+            groups = db.accountGroupMembers().byAccountRange(from, to);
+          }
+
+          for (AccountExternalId e : ids) {
+            final List<AccountExternalId> l = externalIds.get(e.getAccountId());
+            if (l != null) {
+              l.add(e);
+            }
+          }
+          for (AccountGroupMember g : groups) {
+            final List<AccountGroupMember> l = members.get(g.getAccountId());
+            if (l != null) {
+              l.add(g);
+            }
+          }
+        }
+      } finally {
+        db.close();
       }
 
+      final Map<Account.Id, AccountState> r =
+          new HashMap<Account.Id, AccountState>();
+      for (Account account : accounts.values()) {
+        final Account.Id who = account.getId();
+        r.put(who, load(account, externalIds.get(who), members.get(who)));
+      }
+      for (Account.Id id : keys) {
+        if (!r.containsKey(id)) {
+          r.put(id, missing(id));
+        }
+      }
+      return r;
+    }
+
+    private AccountState load(final Account account,
+        final Collection<AccountExternalId> ids,
+        final Collection<AccountGroupMember> groups) {
+      final Account.Id who = account.getId();
       final Collection<AccountExternalId> externalIds =
-          Collections.unmodifiableCollection(db.accountExternalIds().byAccount(
-              who).toList());
+          Collections.unmodifiableCollection(ids);
 
       Set<AccountGroup.UUID> internalGroups = new HashSet<AccountGroup.UUID>();
-      for (AccountGroupMember g : db.accountGroupMembers().byAccount(who)) {
+      for (AccountGroupMember g : groups) {
         final AccountGroup.Id groupId = g.getAccountGroupId();
         final AccountGroup group = groupCache.get(groupId);
         if (group != null && group.getType() == AccountGroup.Type.INTERNAL) {
@@ -140,7 +211,12 @@ public class AccountCacheImpl implements AccountCache {
       internalGroups.add(AccountGroup.ANONYMOUS_USERS);
       internalGroups = Collections.unmodifiableSet(internalGroups);
 
-      return new AccountState(account, internalGroups, externalIds);
+      final AccountState state =
+          new AccountState(account, internalGroups, externalIds);
+      if (state.getUserName() != null) {
+        byName.put(state.getUserName(), who);
+      }
+      return state;
     }
 
     @Override
@@ -21,8 +21,10 @@ import com.google.inject.Inject;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /** Efficiently builds an {@link AccountInfoCache}. */
 public class AccountInfoCacheFactory {
@@ -32,21 +34,25 @@ public class AccountInfoCacheFactory {
 
   private final AccountCache accountCache;
   private final Map<Account.Id, Account> out;
+  private final Set<Account.Id> pending;
 
   @Inject
   AccountInfoCacheFactory(final AccountCache accountCache) {
     this.accountCache = accountCache;
     this.out = new HashMap<Account.Id, Account>();
+    this.pending = new HashSet<Account.Id>();
   }
 
   /**
    * Indicate an account will be needed later on.
+   * <p>
+   * Accounts are loaded together, the next time one is needed.
    *
    * @param id identity that will be needed in the future; may be null.
    */
   public void want(final Account.Id id) {
     if (id != null && !out.containsKey(id)) {
-      out.put(id, accountCache.get(id).getAccount());
+      pending.add(id);
     }
   }
 
@@ -59,6 +65,7 @@ public class AccountInfoCacheFactory {
 
   public Account get(final Account.Id id) {
     want(id);
+    load();
     return out.get(id);
   }
 
@@ -66,10 +73,20 @@ public class AccountInfoCacheFactory {
    * Create an AccountInfoCache with the currently loaded Account entities.
    * */
   public AccountInfoCache create() {
+    load();
     final List<AccountInfo> r = new ArrayList<AccountInfo>(out.size());
     for (final Account a : out.values()) {
       r.add(new AccountInfo(a));
     }
     return new AccountInfoCache(r);
   }
+
+  private void load() {
+    if (!pending.isEmpty()) {
+      for (AccountState s : accountCache.getAll(pending).values()) {
+        out.put(s.getAccount().getId(), s.getAccount());
+      }
+      pending.clear();
+    }
+  }
 }
@@ -15,6 +15,7 @@
 package com.google.gerrit.server.auth.ldap;
 
 import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 
 import com.google.gerrit.reviewdb.Account;
 import com.google.gerrit.reviewdb.AccountGroup;
@@ -35,6 +36,7 @@ public class LdapModule extends CacheModule {
     final TypeLiteral<Cache<String, Set<AccountGroup.UUID>>> groups =
         new TypeLiteral<Cache<String, Set<AccountGroup.UUID>>>() {};
     core(groups, GROUP_CACHE).maxAge(1, HOURS) //
+        .refreshAfter(30, MINUTES) //
         .populateWith(LdapRealm.MemberLoader.class);
 
     final TypeLiteral<Cache<String, Account.Id>> usernames =
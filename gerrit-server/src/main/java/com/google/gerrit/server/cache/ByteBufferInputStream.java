@@ -0,0 +1,57 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/** Reads from a {@link ByteBuffer}, without copying its content. */
+final class ByteBufferInputStream extends InputStream {
+  private final ByteBuffer buf;
+
+  ByteBufferInputStream(final ByteBuffer buf) {
+    this.buf = buf;
+  }
+
+  @Override
+  public int read() {
+    return buf.hasRemaining() ? buf.get() & 0xff : -1;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) {
+    if (len == 0) {
+      return 0;
+    }
+    if (!buf.hasRemaining()) {
+      return -1;
+    }
+    final int n = Math.min(len, buf.remaining());
+    buf.get(b, off, n);
+    return n;
+  }
+
+  @Override
+  public long skip(final long n) {
+    final int cnt = (int) Math.min(Math.max(n, 0), buf.remaining());
+    buf.position(buf.position() + cnt);
+    return cnt;
+  }
+
+  @Override
+  public int available() {
+    return buf.remaining();
+  }
+}
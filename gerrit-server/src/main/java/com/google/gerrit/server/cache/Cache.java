@@ -14,6 +14,8 @@
 
 package com.google.gerrit.server.cache;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 
@@ -27,6 +29,18 @@ public interface Cache<K, V> {
   /** Get the element from the cache, or null if not stored in the cache. */
   public V get(K key);
 
+  /**
+   * Get several elements from the cache.
+   * <p>
+   * Caches populated by an {@link EntryCreator} create all missing elements,
+   * in one batch if the creator supports {@link EntryCreator#createAll}.
+   *
+   * @param keys keys to locate; null keys are ignored.
+   * @return the element of each key stored in the cache. Keys that are not
+   *         stored in the cache are not in the map.
+   */
+  public Map<K, V> getAll(Collection<K> keys);
+
   /** Put one element into the cache, replacing any existing value. */
   public void put(K key, V value);
 
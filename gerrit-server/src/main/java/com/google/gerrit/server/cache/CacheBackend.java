@@ -0,0 +1,41 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+/**
+ * Storage engine for caches declared by a {@link CacheModule}.
+ * <p>
+ * The {@link CachePool} asks a backend to create a store for every cache
+ * assigned to it, and only then starts the backend. Stores handed out before
+ * {@link #start()} may be retained by callers, but are not accessed until the
+ * backend has been started.
+ */
+public interface CacheBackend {
+  /**
+   * Create the storage of a cache.
+   *
+   * @param <K> type of key used to lookup entries.
+   * @param <V> type of value stored by the cache.
+   * @param settings effective configuration of the cache.
+   * @return store for the cache entries.
+   */
+  public <K, V> CacheStore<K, V> create(CacheSettings<K, V> settings);
+
+  /** Start the backend, after all of its caches have been created. */
+  public void start();
+
+  /** Stop the backend, releasing any resources held by its caches. */
+  public void stop();
+}
@@ -0,0 +1,56 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Converts cache keys or values to and from a compact binary form.
+ * <p>
+ * Codecs are used by backends that hold entries outside of the Java heap, such
+ * as on disk. Implementations should use the varint helpers in
+ * {@link com.google.gerrit.server.ioutil.BasicSerialization}, and must be safe
+ * for use by multiple threads.
+ *
+ * @param <T> type of object converted by the codec.
+ */
+public interface CacheCodec<T> {
+  /**
+   * @return version of the binary form. Change it whenever the encoding is
+   *         modified; stored data written by a different version is discarded
+   *         instead of being decoded.
+   */
+  public int getVersion();
+
+  /**
+   * Write the object.
+   *
+   * @param out stream to write the binary form to.
+   * @param object the object to write; never null.
+   * @throws IOException the object cannot be written.
+   */
+  public void encode(OutputStream out, T object) throws IOException;
+
+  /**
+   * Read an object previously written by {@link #encode(OutputStream, Object)}.
+   *
+   * @param in stream positioned at the start of the object.
+   * @return the object.
+   * @throws IOException the object cannot be read.
+   */
+  public T decode(InputStream in) throws IOException;
+}
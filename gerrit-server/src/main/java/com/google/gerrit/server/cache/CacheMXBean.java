@@ -0,0 +1,53 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+/**
+ * Usage of a cache, exported over JMX as
+ * {@code com.google.gerrit:type=Cache,name=<cache>}.
+ */
+public interface CacheMXBean {
+  public String getName();
+
+  public long getMemoryCount();
+
+  public long getDiskCount();
+
+  public long getHits();
+
+  public long getMisses();
+
+  /** @return entries removed to make room for others. */
+  public long getEvictions();
+
+  /** @return entries removed because they were older than maxAge. */
+  public long getExpirations();
+
+  public long getLoads();
+
+  public long getLoadFailures();
+
+  public double getAverageLoadTimeMillis();
+
+  public long getMaxLoadTimeMillis();
+
+  /** @return loads in each bucket of {@link LoadStatistics#BUCKETS}. */
+  public long[] getLoadTimeHistogram();
+
+  public long[] getLoadTimeHistogramBucketsMillis();
+
+  /** @return threads waiting for another thread's load of the same key. */
+  public int getWaitingThreads();
+}
@@ -110,12 +110,35 @@ public abstract class CacheModule extends AbstractModule {
     return getProvider(key);
   }
 
+  <K, V> Provider<Weigher<K, V>> getWeigher(CacheProvider<K, V> cp,
+      Class<? extends Weigher<K, V>> type) {
+    Key<Weigher<K, V>> key = newWeigherKey();
+    bind(key).to(type).in(Scopes.SINGLETON);
+    return getProvider(key);
+  }
+
+  <T> Provider<CacheCodec<T>> getCodec(Class<? extends CacheCodec<T>> type) {
+    Key<CacheCodec<T>> key = newCodecKey();
+    bind(key).to(type).in(Scopes.SINGLETON);
+    return getProvider(key);
+  }
+
   @SuppressWarnings("unchecked")
   private static <K, V> Key<EntryCreator<K, V>> newKey() {
-    return (Key<EntryCreator<K, V>>) newKeyImpl();
+    return (Key<EntryCreator<K, V>>) newKeyImpl(EntryCreator.class);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> Key<Weigher<K, V>> newWeigherKey() {
+    return (Key<Weigher<K, V>>) newKeyImpl(Weigher.class);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Key<CacheCodec<T>> newCodecKey() {
+    return (Key<CacheCodec<T>>) newKeyImpl(CacheCodec.class);
   }
 
-  private static Key<?> newKeyImpl() {
-    return Key.get(EntryCreator.class, UniqueAnnotations.create());
+  private static Key<?> newKeyImpl(Class<?> type) {
+    return Key.get(type, UniqueAnnotations.create());
   }
 }
@@ -0,0 +1,98 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/** Exports the statistics of one cache over JMX. */
+class CacheMonitor implements CacheMXBean {
+  private final CacheStore<?, ?> store;
+  private final LoadStatistics load;
+
+  CacheMonitor(final CacheStore<?, ?> store, final LoadStatistics load) {
+    this.store = store;
+    this.load = load;
+  }
+
+  @Override
+  public String getName() {
+    return store.getName();
+  }
+
+  @Override
+  public long getMemoryCount() {
+    return store.getStatistics().memoryCount;
+  }
+
+  @Override
+  public long getDiskCount() {
+    return store.getStatistics().diskCount;
+  }
+
+  @Override
+  public long getHits() {
+    return store.getStatistics().hits;
+  }
+
+  @Override
+  public long getMisses() {
+    return store.getStatistics().misses;
+  }
+
+  @Override
+  public long getEvictions() {
+    return store.getStatistics().evictions;
+  }
+
+  @Override
+  public long getExpirations() {
+    return store.getStatistics().expirations;
+  }
+
+  @Override
+  public long getLoads() {
+    return load.getLoadCount();
+  }
+
+  @Override
+  public long getLoadFailures() {
+    return load.getFailureCount();
+  }
+
+  @Override
+  public double getAverageLoadTimeMillis() {
+    return load.getAverageLoadTime(MILLISECONDS);
+  }
+
+  @Override
+  public long getMaxLoadTimeMillis() {
+    return load.getMaxLoadTime(MILLISECONDS);
+  }
+
+  @Override
+  public long[] getLoadTimeHistogram() {
+    return load.getHistogram();
+  }
+
+  @Override
+  public long[] getLoadTimeHistogramBucketsMillis() {
+    return LoadStatistics.BUCKETS.clone();
+  }
+
+  @Override
+  public int getWaitingThreads() {
+    return load.getWaitingThreads();
+  }
+}
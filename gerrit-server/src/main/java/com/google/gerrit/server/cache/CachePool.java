@@ -14,6 +14,8 @@
 
 package com.google.gerrit.server.cache;
 
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
@@ -21,28 +23,51 @@ import com.google.gerrit.lifecycle.LifecycleListener;
 import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.inject.Inject;
 import com.google.inject.ProvisionException;
 import com.google.inject.Singleton;
 
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.config.CacheConfiguration;
-import net.sf.ehcache.config.Configuration;
-import net.sf.ehcache.config.DiskStoreConfiguration;
-import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
-
 import org.eclipse.jgit.lib.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-
-/** Pool of all declared caches created by {@link CacheModule}s. */
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Pool of all declared caches created by {@link CacheModule}s.
+ * <p>
+ * Each cache is stored by a {@link CacheBackend}, selected through
+ * {@code cache.<name>.backend} (or {@code cache.backend} for all caches).
+ * Caches declared as {@code disk(...)} default to the {@code disk} backend,
+ * which persists entries across restarts. All other caches default to the
+ * native in-heap {@code memory} backend.
+ */
 @Singleton
 public class CachePool {
-  private static final Logger log = LoggerFactory.getLogger(CachePool.class);
+  /** Backend storing caches in memory, and persisting them to disk. */
+  public static final String DISK = "disk";
+
+  /** Backend storing caches in Ehcache, optionally overflowing to disk. */
+  public static final String EHCACHE = "ehcache";
+
+  /** Backend storing caches in a lock-striped, in-heap table. */
+  public static final String MEMORY = "memory";
 
   public static class Lifecycle implements LifecycleListener {
     private final CachePool cachePool;
@@ -63,188 +88,266 @@ public class CachePool {
     }
   }
 
+  private static final Logger log = LoggerFactory.getLogger(CachePool.class);
+
   private final Config config;
-  private final SitePaths site;
+  private final WorkQueue.Executor refresher;
+  private final CacheWarmer warmer;
+  private final WorkQueue.Executor warmup;
 
   private final Object lock = new Object();
+  private final Map<String, CacheBackend> backends;
   private final Map<String, CacheProvider<?, ?>> caches;
-  private CacheManager manager;
+  private final Map<String, CacheStore<?, ?>> stores;
+  private final Map<String, LoadStatistics> loads;
+  private final List<ObjectName> beans;
+  private boolean started;
 
   @Inject
-  CachePool(@GerritServerConfig final Config cfg, final SitePaths site) {
+  CachePool(@GerritServerConfig final Config cfg, final SitePaths site,
+      final WorkQueue workQueue) {
     this.config = cfg;
-    this.site = site;
+    this.refresher = workQueue.createQueue(
+        Math.max(1, cfg.getInt("cache", null, "refreshThreads", 2)),
+        "CacheRefresh");
+
+    final File dir = site.resolve(cfg.getString("cache", null, "directory"));
+    final int warmupThreads = cfg.getInt("cache", null, "warmupThreads", 2);
+    if (dir != null && 0 < warmupThreads) {
+      this.warmer = new CacheWarmer(dir);
+      this.warmup = workQueue.createQueue(warmupThreads, "CacheWarmup");
+    } else {
+      this.warmer = null;
+      this.warmup = null;
+    }
+    this.backends = new LinkedHashMap<String, CacheBackend>();
     this.caches = new HashMap<String, CacheProvider<?, ?>>();
+    this.stores = new TreeMap<String, CacheStore<?, ?>>();
+    this.loads = new HashMap<String, LoadStatistics>();
+    this.beans = new ArrayList<ObjectName>();
+
+    backends.put(MEMORY, new MemoryCacheBackend());
+    backends.put(DISK, new DiskCacheBackend(cfg, site));
+    backends.put(EHCACHE, new EhcacheBackend(cfg, site));
   }
 
   private void start() {
     synchronized (lock) {
-      if (manager != null) {
+      if (started) {
         throw new IllegalStateException("Cache pool has already been started");
       }
-
-      try {
-        System.setProperty("net.sf.ehcache.skipUpdateCheck", "" + true);
-      } catch (SecurityException e) {
-        // Ignore it, the system is just going to ping some external page
-        // using a background thread and there's not much we can do about
-        // it now.
-      }
-
-      manager = new CacheManager(new Factory().toConfiguration());
-      for (CacheProvider<?, ?> p : caches.values()) {
-        p.bind(manager.getEhcache(p.getName()));
+      started = true;
+      for (CacheBackend b : backends.values()) {
+        b.start();
       }
+      registerBeans();
+      startWarmup();
     }
   }
 
-  private void stop() {
-    synchronized (lock) {
-      if (manager != null) {
-        manager.shutdown();
-      }
+  private void startWarmup() {
+    if (warmer == null) {
+      return;
     }
-  }
 
-  /** <i>Discouraged</i> Get the underlying cache descriptions, for statistics. */
-  public CacheManager getCacheManager() {
-    synchronized (lock) {
-      return manager;
+    for (final CacheProvider<?, ?> p : caches.values()) {
+      if (0 < getWarmupKeys(p)) {
+        warmup.execute(new Runnable() {
+          @Override
+          public void run() {
+            load(p);
+          }
+
+          @Override
+          public String toString() {
+            return "warm up cache " + p.getName();
+          }
+        });
+      }
     }
-  }
 
-  <K, V> ProxyEhcache register(final CacheProvider<K, V> provider) {
-    synchronized (lock) {
-      if (manager != null) {
-        throw new IllegalStateException("Cache pool has already been started");
-      }
+    final long interval = ConfigUtil.getTimeUnit(config, "cache", null,
+        "snapshotInterval", MILLISECONDS.convert(1, HOURS), MILLISECONDS);
+    if (0 < interval) {
+      warmup.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          saveSnapshots();
+        }
 
-      final String n = provider.getName();
-      if (caches.containsKey(n) && caches.get(n) != provider) {
-        throw new IllegalStateException("Cache \"" + n + "\" already defined");
-      }
-      caches.put(n, provider);
-      return new ProxyEhcache(n);
+        @Override
+        public String toString() {
+          return "save hot cache keys";
+        }
+      }, interval, interval, MILLISECONDS);
     }
   }
 
-  private class Factory {
-    private static final int MB = 1024 * 1024;
-    private final Configuration mgr = new Configuration();
-
-    Configuration toConfiguration() {
-      configureDiskStore();
-      configureDefaultCache();
-
-      for (CacheProvider<?, ?> p : caches.values()) {
-        final String name = p.getName();
-        final CacheConfiguration c = newCache(name);
-        c.setMemoryStoreEvictionPolicyFromObject(toPolicy(p.evictionPolicy()));
-
-        c.setMaxElementsInMemory(getInt(name, "memorylimit", p.memoryLimit()));
+  private <K, V> void load(final CacheProvider<K, V> p) {
+    warmer.load(p.getName(), p.get(), p.keyCodec());
+  }
 
-        c.setTimeToIdleSeconds(0);
-        c.setTimeToLiveSeconds(getSeconds(name, "maxage", p.maxAge()));
-        c.setEternal(c.getTimeToLiveSeconds() == 0);
+  private void saveSnapshots() {
+    for (CacheProvider<?, ?> p : caches.values()) {
+      save(p);
+    }
+  }
 
-        if (p.disk() && mgr.getDiskStoreConfiguration() != null) {
-          c.setMaxElementsOnDisk(getInt(name, "disklimit", p.diskLimit()));
+  @SuppressWarnings("unchecked")
+  private <K, V> void save(final CacheProvider<K, V> p) {
+    final int limit = getWarmupKeys(p);
+    if (0 < limit) {
+      final CacheStore<K, V> s = (CacheStore<K, V>) stores.get(p.getName());
+      warmer.save(s, p.keyCodec(), limit);
+    }
+  }
 
-          int v = c.getDiskSpoolBufferSizeMB() * MB;
-          v = getInt(name, "diskbuffer", v) / MB;
-          c.setDiskSpoolBufferSizeMB(Math.max(1, v));
-          c.setOverflowToDisk(c.getMaxElementsOnDisk() > 0);
-          c.setDiskPersistent(c.getMaxElementsOnDisk() > 0);
-        }
+  /** @return number of hot keys of the cache saved for the next start. */
+  private int getWarmupKeys(final CacheProvider<?, ?> p) {
+    if (!p.populated()) {
+      return 0;
+    }
+    final int d = p.disk() ? 0 : Math.min(p.memoryLimit(), 1024);
+    return config.getInt("cache", p.getName(), "warmupKeys", d);
+  }
 
-        mgr.addCache(c);
+  private void registerBeans() {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (CacheStore<?, ?> s : stores.values()) {
+      try {
+        final ObjectName n =
+            new ObjectName("com.google.gerrit:type=Cache,name=" + s.getName());
+        server.registerMBean(new CacheMonitor(s, loads.get(s.getName())), n);
+        beans.add(n);
+      } catch (JMException e) {
+        log.warn("Cannot export cache \"" + s.getName() + "\" over JMX", e);
       }
-
-      return mgr;
     }
+  }
 
-    private MemoryStoreEvictionPolicy toPolicy(final EvictionPolicy policy) {
-      switch (policy) {
-        case LFU:
-          return MemoryStoreEvictionPolicy.LFU;
-
-        case LRU:
-          return MemoryStoreEvictionPolicy.LRU;
-
-        default:
-          throw new IllegalArgumentException("Unsupported " + policy);
+  private void unregisterBeans() {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (ObjectName n : beans) {
+      try {
+        server.unregisterMBean(n);
+      } catch (JMException e) {
+        log.warn("Cannot unregister " + n, e);
       }
     }
+    beans.clear();
+  }
 
-    private int getInt(String n, String s, int d) {
-      return config.getInt("cache", n, s, d);
+  private void stop() {
+    refresher.shutdownNow();
+    synchronized (lock) {
+      if (started) {
+        if (warmer != null) {
+          warmup.shutdownNow();
+          saveSnapshots();
+        }
+        unregisterBeans();
+        for (CacheBackend b : backends.values()) {
+          b.stop();
+        }
+      }
     }
+  }
 
-    private long getSeconds(String n, String s, long d) {
-      d = MINUTES.convert(d, SECONDS);
-      long m = ConfigUtil.getTimeUnit(config, "cache", n, s, d, MINUTES);
-      return SECONDS.convert(m, MINUTES);
+  /** @return all declared caches, sorted by name. */
+  public Collection<CacheStore<?, ?>> getCaches() {
+    synchronized (lock) {
+      return Collections.unmodifiableCollection(
+          new ArrayList<CacheStore<?, ?>>(stores.values()));
     }
+  }
 
-    private void configureDiskStore() {
-      boolean needDisk = false;
-      for (CacheProvider<?, ?> p : caches.values()) {
-        if (p.disk()) {
-          needDisk = true;
-          break;
-        }
-      }
-      if (!needDisk) {
-        return;
-      }
-
-      File loc = site.resolve(config.getString("cache", null, "directory"));
-      if (loc == null) {
-      } else if (loc.exists() || loc.mkdirs()) {
-        if (loc.canWrite()) {
-          final DiskStoreConfiguration c = new DiskStoreConfiguration();
-          c.setPath(loc.getAbsolutePath());
-          mgr.addDiskStore(c);
-          log.info("Enabling disk cache " + loc.getAbsolutePath());
-        } else {
-          log.warn("Can't write to disk cache: " + loc.getAbsolutePath());
-        }
-      } else {
-        log.warn("Can't create disk cache: " + loc.getAbsolutePath());
-      }
+  /**
+   * @param name name of the cache.
+   * @return time spent creating entries of the cache; null if the cache
+   *         does not exist.
+   */
+  public LoadStatistics getLoadStatistics(final String name) {
+    synchronized (lock) {
+      return loads.get(name);
     }
+  }
 
-    private void configureDefaultCache() {
-      final CacheConfiguration c = new CacheConfiguration();
+  /** @return executor reloading stale entries of populated caches. */
+  Executor getRefreshExecutor() {
+    return refresher;
+  }
 
-      c.setMaxElementsInMemory(1024);
-      c.setMemoryStoreEvictionPolicyFromObject(MemoryStoreEvictionPolicy.LFU);
+  /** @return configured age after which entries of the cache are reloaded. */
+  long getRefreshAfter(final CacheProvider<?, ?> p, final TimeUnit unit) {
+    final long s = getSeconds(p.getName(), "refreshafter", p.refreshAfter());
+    return unit.convert(s, SECONDS);
+  }
 
-      c.setTimeToIdleSeconds(0);
-      c.setTimeToLiveSeconds(0 /* infinite */);
-      c.setEternal(true);
+  /** @return configured time to wait for another thread creating an entry. */
+  long getWaitTimeout(final CacheProvider<?, ?> p, final TimeUnit unit) {
+    final long ms = ConfigUtil.getTimeUnit(config, "cache", p.getName(),
+        "waittimeout", p.waitTimeout(), MILLISECONDS);
+    return unit.convert(ms, MILLISECONDS);
+  }
 
-      if (mgr.getDiskStoreConfiguration() != null) {
-        c.setMaxElementsOnDisk(16384);
-        c.setOverflowToDisk(false);
-        c.setDiskPersistent(false);
+  @SuppressWarnings("unchecked")
+  <K, V> CacheStore<K, V> register(final CacheProvider<K, V> provider) {
+    synchronized (lock) {
+      if (started) {
+        throw new IllegalStateException("Cache pool has already been started");
+      }
 
-        c.setDiskSpoolBufferSizeMB(5);
-        c.setDiskExpiryThreadIntervalSeconds(60 * 60);
+      final String n = provider.getName();
+      if (caches.containsKey(n)) {
+        if (caches.get(n) != provider) {
+          throw new IllegalStateException("Cache \"" + n + "\" already defined");
+        }
+        return (CacheStore<K, V>) stores.get(n);
       }
 
-      mgr.setDefaultCacheConfiguration(c);
+      final CacheSettings<K, V> settings = settings(provider);
+      final CacheStore<K, V> store = backend(provider).create(settings);
+      caches.put(n, provider);
+      stores.put(n, store);
+      loads.put(n, new LoadStatistics());
+      return store;
+    }
+  }
+
+  private CacheBackend backend(final CacheProvider<?, ?> p) {
+    final String name = p.getName();
+    String type = config.getString("cache", name, "backend");
+    if (type == null) {
+      type = config.getString("cache", null, "backend");
+    }
+    if (type == null) {
+      type = p.disk() ? DISK : MEMORY;
     }
 
-    private CacheConfiguration newCache(final String name) {
-      try {
-        final CacheConfiguration c;
-        c = mgr.getDefaultCacheConfiguration().clone();
-        c.setName(name);
-        return c;
-      } catch (CloneNotSupportedException e) {
-        throw new ProvisionException("Cannot configure cache " + name, e);
-      }
+    final CacheBackend b = backends.get(type.toLowerCase());
+    if (b == null) {
+      throw new ProvisionException("Cache \"" + name
+          + "\" has unsupported backend \"" + type + "\"");
     }
+    return b;
+  }
+
+  private <K, V> CacheSettings<K, V> settings(final CacheProvider<K, V> p) {
+    final String name = p.getName();
+    return new CacheSettings<K, V>(name, p.disk(),
+        config.getInt("cache", name, "memorylimit", p.memoryLimit()),
+        config.getLong("cache", name, "memorybytes", p.memoryBytes()),
+        config.getInt("cache", name, "disklimit", p.diskLimit()),
+        getSeconds(name, "maxage", p.maxAge()),
+        p.evictionPolicy(),
+        p.weigher(),
+        p.keyCodec(),
+        p.valueCodec());
+  }
+
+  private long getSeconds(String n, String s, long d) {
+    d = MINUTES.convert(d, SECONDS);
+    long m = ConfigUtil.getTimeUnit(config, "cache", n, s, d, MINUTES);
+    return SECONDS.convert(m, MINUTES);
   }
 }
@@ -16,14 +16,13 @@ package com.google.gerrit.server.cache;
 
 import static com.google.gerrit.server.cache.EvictionPolicy.LFU;
 import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
 
-import net.sf.ehcache.Ehcache;
-
 import java.util.concurrent.TimeUnit;
 
 final class CacheProvider<K, V> implements Provider<Cache<K, V>>,
@@ -31,12 +30,20 @@ final class CacheProvider<K, V> implements Provider<Cache<K, V>>,
   private final CacheModule module;
   private final boolean disk;
   private int memoryLimit;
+  private long memoryBytes;
   private int diskLimit;
   private long maxAge;
+  private long refreshAfter;
+  private long waitTimeout;
   private EvictionPolicy evictionPolicy;
   private String cacheName;
-  private ProxyEhcache cache;
+  private CachePool pool;
+  private CacheStore<K, V> cache;
+  private Cache<K, V> populating;
   private Provider<EntryCreator<K, V>> entryCreator;
+  private Provider<Weigher<K, V>> weigher;
+  private Provider<CacheCodec<K>> keyCodec;
+  private Provider<CacheCodec<V>> valueCodec;
 
   CacheProvider(final boolean disk, CacheModule module) {
     this.disk = disk;
@@ -53,13 +60,10 @@ final class CacheProvider<K, V> implements Provider<Cache<K, V>>,
 
   @Inject
   void setCachePool(final CachePool pool) {
+    this.pool = pool;
     this.cache = pool.register(this);
   }
 
-  void bind(final Ehcache ehcache) {
-    cache.bind(ehcache);
-  }
-
   String getName() {
     if (cacheName == null) {
       throw new ProvisionException("Cache has no name");
@@ -71,10 +75,51 @@ final class CacheProvider<K, V> implements Provider<Cache<K, V>>,
     return disk;
   }
 
+  boolean populated() {
+    return entryCreator != null;
+  }
+
   int memoryLimit() {
     return memoryLimit;
   }
 
+  long memoryBytes() {
+    return memoryBytes;
+  }
+
+  /** @return weigher for entries stored by this cache, or null. */
+  Weigher<K, V> weigher() {
+    if (weigher == null) {
+      return null;
+    }
+    if (entryCreator != null) {
+      return PopulatingCache.weigher(weigher.get());
+    }
+    return weigher.get();
+  }
+
+  /** @return codec for keys stored outside of the heap. */
+  CacheCodec<K> keyCodec() {
+    if (keyCodec == null) {
+      return new SerializableCodec<K>();
+    }
+    return keyCodec.get();
+  }
+
+  /** @return codec for values stored outside of the heap. */
+  CacheCodec<V> valueCodec() {
+    final CacheCodec<V> c;
+    if (valueCodec == null) {
+      c = new SerializableCodec<V>();
+    } else {
+      c = valueCodec.get();
+    }
+    if (entryCreator != null) {
+      return PopulatingCache.codec(c);
+    }
+    return c;
+  }
+
   int diskLimit() {
     return diskLimit;
   }
@@ -83,6 +128,14 @@ final class CacheProvider<K, V> implements Provider<Cache<K, V>>,
     return maxAge;
   }
 
+  long refreshAfter() {
+    return refreshAfter;
+  }
+
+  long waitTimeout() {
+    return waitTimeout;
+  }
+
   EvictionPolicy evictionPolicy() {
     return evictionPolicy;
   }
@@ -100,6 +153,11 @@ final class CacheProvider<K, V> implements Provider<Cache<K, V>>,
     return this;
   }
 
+  public NamedCacheBinding<K, V> memoryBytes(final long bytes) {
+    memoryBytes = bytes;
+    return this;
+  }
+
   public NamedCacheBinding<K, V> diskLimit(final int objects) {
     if (!disk) {
       // TODO This should really be a compile time type error, but I'm
@@ -117,6 +175,18 @@ final class CacheProvider<K, V> implements Provider<Cache<K, V>>,
     return this;
   }
 
+  public NamedCacheBinding<K, V> refreshAfter(final long duration,
+      final TimeUnit unit) {
+    refreshAfter = SECONDS.convert(duration, unit);
+    return this;
+  }
+
+  public NamedCacheBinding<K, V> waitTimeout(final long duration,
+      final TimeUnit unit) {
+    waitTimeout = MILLISECONDS.convert(duration, unit);
+    return this;
+  }
+
   @Override
   public NamedCacheBinding<K, V> evictionPolicy(final EvictionPolicy policy) {
     evictionPolicy = policy;
@@ -129,13 +199,32 @@ final class CacheProvider<K, V> implements Provider<Cache<K, V>>,
     return this;
   }
 
-  public Cache<K, V> get() {
+  public NamedCacheBinding<K, V> weigher(
+      Class<? extends Weigher<K, V>> type) {
+    weigher = module.getWeigher(this, type);
+    return this;
+  }
+
+  public NamedCacheBinding<K, V> codec(Class<? extends CacheCodec<K>> keyType,
+      Class<? extends CacheCodec<V>> valueType) {
+    keyCodec = module.getCodec(keyType);
+    valueCodec = module.getCodec(valueType);
+    return this;
+  }
+
+  public synchronized Cache<K, V> get() {
     if (cache == null) {
       throw new ProvisionException("Cache \"" + cacheName + "\" not available");
     }
     if (entryCreator != null) {
-      return new PopulatingCache<K, V>(cache, entryCreator.get());
+      if (populating == null) {
+        populating = new PopulatingCache<K, V>(cache, entryCreator.get(),
+            pool.getRefreshAfter(this, MILLISECONDS),
+            pool.getWaitTimeout(this, MILLISECONDS), pool.getRefreshExecutor(),
+            pool.getLoadStatistics(getName()));
+      }
+      return populating;
     }
-    return new SimpleCache<K, V>(cache);
+    return cache;
   }
 }
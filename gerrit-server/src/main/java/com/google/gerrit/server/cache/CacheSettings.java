@@ -0,0 +1,116 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Effective configuration of a cache, as handed to its {@link CacheBackend}.
+ * <p>
+ * Values are the defaults declared by the {@link CacheModule}, overridden by
+ * any {@code cache.<name>.*} settings in the server configuration.
+ *
+ * @param <K> type of key used to lookup entries.
+ * @param <V> type of value stored by the cache.
+ */
+public final class CacheSettings<K, V> {
+  private final String name;
+  private final boolean disk;
+  private final int memoryLimit;
+  private final long memoryBytes;
+  private final int diskLimit;
+  private final long maxAge;
+  private final EvictionPolicy evictionPolicy;
+  private final Weigher<K, V> weigher;
+  private final CacheCodec<K> keyCodec;
+  private final CacheCodec<V> valueCodec;
+
+  CacheSettings(String name, boolean disk, int memoryLimit, long memoryBytes,
+      int diskLimit, long maxAgeSeconds, EvictionPolicy evictionPolicy,
+      Weigher<K, V> weigher, CacheCodec<K> keyCodec, CacheCodec<V> valueCodec) {
+    this.name = name;
+    this.disk = disk;
+    this.memoryLimit = memoryLimit;
+    this.memoryBytes = memoryBytes;
+    this.diskLimit = diskLimit;
+    this.maxAge = maxAgeSeconds;
+    this.evictionPolicy = evictionPolicy;
+    this.weigher = weigher;
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+  }
+
+  /** @return unique name of the cache. */
+  public String getName() {
+    return name;
+  }
+
+  /** @return true if the cache was declared with {@code disk(...)}. */
+  public boolean isDisk() {
+    return disk;
+  }
+
+  /** @return maximum number of objects to hold in memory; 0 is unlimited. */
+  public int getMemoryLimit() {
+    return memoryLimit;
+  }
+
+  /**
+   * @return maximum total weight of objects to hold in memory, as computed by
+   *         {@link #getWeigher()}; 0 if limited by object count.
+   */
+  public long getMemoryBytes() {
+    return memoryBytes;
+  }
+
+  /** @return maximum number of objects to hold on disk; 0 disables disk. */
+  public int getDiskLimit() {
+    return diskLimit;
+  }
+
+  /**
+   * @param unit desired units of the return value.
+   * @return time an entry may live before it is expired; 0 is infinite.
+   */
+  public long getMaxAge(TimeUnit unit) {
+    return unit.convert(maxAge, SECONDS);
+  }
+
+  /** @return policy used to select entries when the cache is full. */
+  public EvictionPolicy getEvictionPolicy() {
+    return evictionPolicy;
+  }
+
+  /**
+   * @return computes the size of entries, if the cache is limited by
+   *         {@link #getMemoryBytes()}; null if entries should be counted.
+   *         Backends unable to weigh entries may ignore it.
+   */
+  public Weigher<K, V> getWeigher() {
+    return weigher;
+  }
+
+  /** @return codec to store keys outside of the heap; never null. */
+  public CacheCodec<K> getKeyCodec() {
+    return keyCodec;
+  }
+
+  /** @return codec to store values outside of the heap; never null. */
+  public CacheCodec<V> getValueCodec() {
+    return valueCodec;
+  }
+}
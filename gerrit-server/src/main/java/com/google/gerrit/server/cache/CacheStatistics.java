@@ -0,0 +1,53 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+/** Point in time snapshot of the usage of a {@link CacheStore}. */
+public class CacheStatistics {
+  /** True if the cache may hold entries on disk. */
+  public boolean disk;
+
+  /** Number of entries currently held in memory. */
+  public long memoryCount;
+
+  /** Number of entries currently held on disk. */
+  public long diskCount;
+
+  /** Number of lookups that found an entry. */
+  public long hits;
+
+  /** Number of lookups satisfied from memory. */
+  public long memoryHits;
+
+  /** Number of lookups satisfied from disk. */
+  public long diskHits;
+
+  /** Number of lookups that did not find an entry. */
+  public long misses;
+
+  /** Number of entries removed to make room for others. */
+  public long evictions;
+
+  /** Number of entries removed because they were older than the max age. */
+  public long expirations;
+
+  /** Average time in milliseconds of a lookup, if measured by the backend. */
+  public double averageGetTime;
+
+  /** @return total number of entries held by the cache. */
+  public long getObjectCount() {
+    return memoryCount + diskCount;
+  }
+}
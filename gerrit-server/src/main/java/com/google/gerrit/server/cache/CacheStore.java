@@ -0,0 +1,41 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import java.util.List;
+
+/**
+ * Storage for the entries of a single named cache.
+ * <p>
+ * Stores are created by a {@link CacheBackend} and must be safe for use by
+ * multiple threads. A null key must be tolerated by all methods, and treated
+ * as an entry that is never present.
+ *
+ * @param <K> type of key used to lookup entries in the cache.
+ * @param <V> type of value stored within each cache entry.
+ */
+public interface CacheStore<K, V> extends Cache<K, V> {
+  /** @return unique name of the cache. */
+  public String getName();
+
+  /** @return current usage statistics of this cache. */
+  public CacheStatistics getStatistics();
+
+  /**
+   * @param limit maximum number of keys to return.
+   * @return keys currently in the cache, most frequently used first.
+   */
+  public List<K> getHotKeys(int limit);
+}
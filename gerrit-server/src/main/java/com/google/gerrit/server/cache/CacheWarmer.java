@@ -0,0 +1,146 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshots of the most frequently used keys of populated caches.
+ * <p>
+ * The hottest keys of a cache are written to {@code <name>.keys} in the
+ * cache directory. After a restart the keys are read back and their entries
+ * are created again through {@link Cache#getAll(java.util.Collection)}, in
+ * small batches, while the server is already answering requests.
+ */
+class CacheWarmer {
+  private static final Logger log = LoggerFactory.getLogger(CacheWarmer.class);
+
+  private static final int MAGIC = 0x4b455953; // "KEYS"
+  private static final int BATCH_SIZE = 100;
+
+  private final File dir;
+
+  CacheWarmer(final File dir) {
+    this.dir = dir;
+  }
+
+  /** Save up to {@code limit} of the most frequently used keys of a cache. */
+  <K, V> void save(final CacheStore<K, V> store, final CacheCodec<K> codec,
+      final int limit) {
+    final String name = store.getName();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      log.warn("Can't create cache directory: " + dir.getAbsolutePath());
+      return;
+    }
+
+    final List<K> keys = store.getHotKeys(limit);
+    final File tmp = new File(dir, name + ".keys.tmp");
+    final File dst = new File(dir, name + ".keys");
+    try {
+      final DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmp)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(codec.getVersion());
+        out.writeInt(keys.size());
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        for (K key : keys) {
+          buf.reset();
+          codec.encode(buf, key);
+          out.writeInt(buf.size());
+          buf.writeTo(out);
+        }
+      } finally {
+        out.close();
+      }
+
+      if (!tmp.renameTo(dst)) {
+        dst.delete();
+        if (!tmp.renameTo(dst)) {
+          throw new IOException("Cannot rename " + tmp + " to " + dst);
+        }
+      }
+    } catch (IOException e) {
+      tmp.delete();
+      log.warn("Cannot save keys of cache \"" + name + "\"", e);
+    }
+  }
+
+  /** @return keys saved for the cache; empty if none could be read. */
+  <K> List<K> read(final String name, final CacheCodec<K> codec) {
+    final File src = new File(dir, name + ".keys");
+    if (!src.isFile()) {
+      return Collections.emptyList();
+    }
+
+    try {
+      final DataInputStream in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(src)));
+      try {
+        if (in.readInt() != MAGIC || in.readInt() != codec.getVersion()) {
+          return Collections.emptyList();
+        }
+
+        final int cnt = in.readInt();
+        final List<K> keys = new ArrayList<K>(cnt);
+        for (int i = 0; i < cnt; i++) {
+          final byte[] buf = new byte[in.readInt()];
+          in.readFully(buf);
+          keys.add(codec.decode(new ByteArrayInputStream(buf)));
+        }
+        return keys;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      log.warn("Cannot read keys of cache \"" + name + "\"", e);
+      return Collections.emptyList();
+    }
+  }
+
+  /** Create the entries of the keys saved for a cache. */
+  <K, V> void load(final String name, final Cache<K, V> cache,
+      final CacheCodec<K> codec) {
+    final List<K> keys = read(name, codec);
+    if (keys.isEmpty()) {
+      return;
+    }
+
+    final long start = System.currentTimeMillis();
+    for (int i = 0; i < keys.size(); i += BATCH_SIZE) {
+      if (Thread.currentThread().isInterrupted()) {
+        return;
+      }
+      cache.getAll(keys.subList(i, Math.min(i + BATCH_SIZE, keys.size())));
+    }
+    log.info("Loaded " + keys.size() + " entries into cache \"" + name
+        + "\" in " + (System.currentTimeMillis() - start) + " ms");
+  }
+}
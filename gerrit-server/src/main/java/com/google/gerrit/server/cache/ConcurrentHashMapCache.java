@@ -14,6 +14,9 @@
 
 package com.google.gerrit.server.cache;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
@@ -32,6 +35,18 @@ public class ConcurrentHashMapCache<K, V> implements Cache<K, V> {
     return map.get(key);
   }
 
+  @Override
+  public Map<K, V> getAll(final Collection<K> keys) {
+    final Map<K, V> r = new HashMap<K, V>();
+    for (K key : keys) {
+      final V value = key != null ? get(key) : null;
+      if (value != null) {
+        r.put(key, value);
+      }
+    }
+    return r;
+  }
+
   @Override
   public void put(K key, V value) {
     map.put(key, value);
@@ -0,0 +1,90 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import com.google.gerrit.server.config.SitePaths;
+
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Backend storing caches in memory, and persisting them in compact binary
+ * segment files under {@code cache.directory}.
+ */
+class DiskCacheBackend implements CacheBackend {
+  private static final Logger log =
+      LoggerFactory.getLogger(DiskCacheBackend.class);
+
+  private final Config config;
+  private final SitePaths site;
+  private final List<DiskCacheStore<?, ?>> stores;
+
+  DiskCacheBackend(final Config cfg, final SitePaths site) {
+    this.config = cfg;
+    this.site = site;
+    this.stores = new ArrayList<DiskCacheStore<?, ?>>();
+  }
+
+  @Override
+  public <K, V> CacheStore<K, V> create(final CacheSettings<K, V> settings) {
+    if (!settings.isDisk() || settings.getDiskLimit() <= 0) {
+      return new MemoryCacheStore<K, V>(settings);
+    }
+
+    final DiskCacheStore<K, V> s = new DiskCacheStore<K, V>(settings);
+    stores.add(s);
+    return s;
+  }
+
+  @Override
+  public void start() {
+    if (stores.isEmpty()) {
+      return;
+    }
+
+    final File loc = site.resolve(config.getString("cache", null, "directory"));
+    if (loc == null) {
+      return;
+    } else if (!loc.exists() && !loc.mkdirs()) {
+      log.warn("Can't create disk cache: " + loc.getAbsolutePath());
+      return;
+    } else if (!loc.canWrite()) {
+      log.warn("Can't write to disk cache: " + loc.getAbsolutePath());
+      return;
+    }
+
+    log.info("Enabling disk cache " + loc.getAbsolutePath());
+    for (DiskCacheStore<?, ?> s : stores) {
+      try {
+        s.open(loc, LogStore.SEGMENT_SIZE);
+      } catch (IOException e) {
+        log.warn("Cannot open disk cache \"" + s.getName() + "\"", e);
+      }
+    }
+  }
+
+  @Override
+  public void stop() {
+    for (DiskCacheStore<?, ?> s : stores) {
+      s.close();
+    }
+  }
+}
@@ -0,0 +1,168 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache holding recently used entries in memory, and all entries on disk.
+ * <p>
+ * Lookups are answered from the in-heap {@link MemoryCacheStore} when
+ * possible, falling back to the {@link LogStore} and promoting its entries
+ * back into memory. Updates are written through to both.
+ */
+class DiskCacheStore<K, V> implements CacheStore<K, V> {
+  private final CacheSettings<K, V> settings;
+  private final MemoryCacheStore<K, V> memory;
+  private volatile LogStore<K, V> disk;
+
+  DiskCacheStore(final CacheSettings<K, V> settings) {
+    this.settings = settings;
+    this.memory = new MemoryCacheStore<K, V>(settings);
+  }
+
+  /** Open the entries stored on disk under the given directory. */
+  void open(final File dir, final int segmentSize) throws IOException {
+    final LogStore<K, V> s = new LogStore<K, V>(dir, settings, segmentSize);
+    try {
+      s.open();
+    } catch (IOException e) {
+      s.close();
+      throw e;
+    }
+    disk = s;
+  }
+
+  void close() {
+    final LogStore<K, V> s = disk;
+    if (s != null) {
+      disk = null;
+      s.close();
+    }
+  }
+
+  @Override
+  public V get(final K key) {
+    if (key == null) {
+      return null;
+    }
+
+    V value = memory.get(key);
+    if (value == null) {
+      final LogStore<K, V> s = disk;
+      if (s != null) {
+        value = s.get(key);
+        if (value != null) {
+          memory.put(key, value);
+        }
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public Map<K, V> getAll(final Collection<K> keys) {
+    final Map<K, V> r = new HashMap<K, V>();
+    for (K key : keys) {
+      final V value = key != null ? get(key) : null;
+      if (value != null) {
+        r.put(key, value);
+      }
+    }
+    return r;
+  }
+
+  @Override
+  public void put(final K key, final V value) {
+    if (key == null) {
+      return;
+    }
+    if (value == null) {
+      remove(key);
+      return;
+    }
+
+    memory.put(key, value);
+    final LogStore<K, V> s = disk;
+    if (s != null) {
+      s.put(key, value);
+    }
+  }
+
+  @Override
+  public void remove(final K key) {
+    if (key == null) {
+      return;
+    }
+
+    memory.remove(key);
+    final LogStore<K, V> s = disk;
+    if (s != null) {
+      s.remove(key);
+    }
+  }
+
+  @Override
+  public void removeAll() {
+    memory.removeAll();
+    final LogStore<K, V> s = disk;
+    if (s != null) {
+      s.removeAll();
+    }
+  }
+
+  @Override
+  public long getTimeToLive(final TimeUnit unit) {
+    return memory.getTimeToLive(unit);
+  }
+
+  @Override
+  public String getName() {
+    return settings.getName();
+  }
+
+  @Override
+  public CacheStatistics getStatistics() {
+    final CacheStatistics r = memory.getStatistics();
+    r.disk = true;
+
+    final LogStore<K, V> s = disk;
+    if (s != null) {
+      r.diskCount = s.size();
+      r.diskHits = s.getHits();
+      r.hits += r.diskHits;
+      r.misses -= r.diskHits;
+      r.evictions = s.getEvictions();
+      r.expirations += s.getExpirations();
+    }
+    return r;
+  }
+
+  @Override
+  public List<K> getHotKeys(final int limit) {
+    return memory.getHotKeys(limit);
+  }
+
+  @Override
+  public String toString() {
+    return "Cache[" + getName() + "]";
+  }
+}
@@ -0,0 +1,202 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.gerrit.server.config.SitePaths;
+import com.google.inject.ProvisionException;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.DiskStoreConfiguration;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Backend storing caches in Ehcache, optionally overflowing to disk. */
+class EhcacheBackend implements CacheBackend {
+  private static final Logger log = LoggerFactory.getLogger(EhcacheBackend.class);
+
+  private final Config config;
+  private final SitePaths site;
+  private final List<CacheSettings<?, ?>> caches;
+  private final List<ProxyEhcache> proxies;
+  private CacheManager manager;
+
+  EhcacheBackend(final Config cfg, final SitePaths site) {
+    this.config = cfg;
+    this.site = site;
+    this.caches = new ArrayList<CacheSettings<?, ?>>();
+    this.proxies = new ArrayList<ProxyEhcache>();
+  }
+
+  @Override
+  public <K, V> CacheStore<K, V> create(final CacheSettings<K, V> settings) {
+    if (0 < settings.getMemoryBytes()) {
+      log.warn("Cache \"" + settings.getName() + "\" cannot be limited by"
+          + " memoryBytes in Ehcache, using memoryLimit instead");
+    }
+
+    final ProxyEhcache proxy = new ProxyEhcache(settings.getName());
+    caches.add(settings);
+    proxies.add(proxy);
+    return new SimpleCache<K, V>(proxy);
+  }
+
+  @Override
+  public void start() {
+    if (caches.isEmpty()) {
+      return;
+    }
+
+    try {
+      System.setProperty("net.sf.ehcache.skipUpdateCheck", "" + true);
+    } catch (SecurityException e) {
+      // Ignore it, the system is just going to ping some external page
+      // using a background thread and there's not much we can do about
+      // it now.
+    }
+
+    manager = new CacheManager(new Factory().toConfiguration());
+    for (ProxyEhcache p : proxies) {
+      p.bind(manager.getEhcache(p.getName()));
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (manager != null) {
+      manager.shutdown();
+    }
+  }
+
+  private class Factory {
+    private static final int MB = 1024 * 1024;
+    private final Configuration mgr = new Configuration();
+
+    Configuration toConfiguration() {
+      configureDiskStore();
+      configureDefaultCache();
+
+      for (CacheSettings<?, ?> s : caches) {
+        final String name = s.getName();
+        final CacheConfiguration c = newCache(name);
+        c.setMemoryStoreEvictionPolicyFromObject(toPolicy(s.getEvictionPolicy()));
+
+        c.setMaxElementsInMemory(s.getMemoryLimit());
+
+        c.setTimeToIdleSeconds(0);
+        c.setTimeToLiveSeconds(s.getMaxAge(SECONDS));
+        c.setEternal(c.getTimeToLiveSeconds() == 0);
+
+        if (s.isDisk() && mgr.getDiskStoreConfiguration() != null) {
+          c.setMaxElementsOnDisk(s.getDiskLimit());
+
+          int v = c.getDiskSpoolBufferSizeMB() * MB;
+          v = config.getInt("cache", name, "diskbuffer", v) / MB;
+          c.setDiskSpoolBufferSizeMB(Math.max(1, v));
+          c.setOverflowToDisk(c.getMaxElementsOnDisk() > 0);
+          c.setDiskPersistent(c.getMaxElementsOnDisk() > 0);
+        }
+
+        mgr.addCache(c);
+      }
+
+      return mgr;
+    }
+
+    private MemoryStoreEvictionPolicy toPolicy(final EvictionPolicy policy) {
+      switch (policy) {
+        case LFU:
+          return MemoryStoreEvictionPolicy.LFU;
+
+        case LRU:
+          return MemoryStoreEvictionPolicy.LRU;
+
+        default:
+          throw new IllegalArgumentException("Unsupported " + policy);
+      }
+    }
+
+    private void configureDiskStore() {
+      boolean needDisk = false;
+      for (CacheSettings<?, ?> s : caches) {
+        if (s.isDisk()) {
+          needDisk = true;
+          break;
+        }
+      }
+      if (!needDisk) {
+        return;
+      }
+
+      File loc = site.resolve(config.getString("cache", null, "directory"));
+      if (loc == null) {
+      } else if (loc.exists() || loc.mkdirs()) {
+        if (loc.canWrite()) {
+          final DiskStoreConfiguration c = new DiskStoreConfiguration();
+          c.setPath(loc.getAbsolutePath());
+          mgr.addDiskStore(c);
+          log.info("Enabling disk cache " + loc.getAbsolutePath());
+        } else {
+          log.warn("Can't write to disk cache: " + loc.getAbsolutePath());
+        }
+      } else {
+        log.warn("Can't create disk cache: " + loc.getAbsolutePath());
+      }
+    }
+
+    private void configureDefaultCache() {
+      final CacheConfiguration c = new CacheConfiguration();
+
+      c.setMaxElementsInMemory(1024);
+      c.setMemoryStoreEvictionPolicyFromObject(MemoryStoreEvictionPolicy.LFU);
+
+      c.setTimeToIdleSeconds(0);
+      c.setTimeToLiveSeconds(0 /* infinite */);
+      c.setEternal(true);
+
+      if (mgr.getDiskStoreConfiguration() != null) {
+        c.setMaxElementsOnDisk(16384);
+        c.setOverflowToDisk(false);
+        c.setDiskPersistent(false);
+
+        c.setDiskSpoolBufferSizeMB(5);
+        c.setDiskExpiryThreadIntervalSeconds(60 * 60);
+      }
+
+      mgr.setDefaultCacheConfiguration(c);
+    }
+
+    private CacheConfiguration newCache(final String name) {
+      try {
+        final CacheConfiguration c;
+        c = mgr.getDefaultCacheConfiguration().clone();
+        c.setName(name);
+        return c;
+      } catch (CloneNotSupportedException e) {
+        throw new ProvisionException("Cannot configure cache " + name, e);
+      }
+    }
+  }
+}
@@ -14,6 +14,10 @@
 
 package com.google.gerrit.server.cache;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Creates a cache entry on demand when its not found.
  *
@@ -33,8 +37,60 @@ public abstract class EntryCreator<K, V> {
    */
   public abstract V createEntry(K key) throws Exception;
 
+  /**
+   * Invoked on a cache miss of several keys, to compute their entries at once.
+   * <p>
+   * Creators that can load many entries more efficiently than one at a time,
+   * for example with a single database query, should override this method.
+   * By default {@link #createEntry(Object)} is invoked for each key.
+   *
+   * @param keys entries whose content needs to be obtained.
+   * @return new cache content for the keys. The caller will automatically put
+   *         these objects into the cache. Keys absent from the map are cached
+   *         as if {@link #createEntry(Object)} had returned null.
+   * @throws Exception the cache content cannot be computed. No entries will be
+   *         stored in the cache, and each key is instead created individually
+   *         by {@link #createEntry(Object)}.
+   */
+  public Map<K, V> createAll(Collection<K> keys) throws Exception {
+    final Map<K, V> r = new HashMap<K, V>();
+    for (K key : keys) {
+      r.put(key, createEntry(key));
+    }
+    return r;
+  }
+
   /** Invoked when {@link #createEntry(Object)} fails, by default return null. */
   public V missing(K key) {
     return null;
   }
+
+  /**
+   * Invoked on a cache hit, to check if the entry should be reloaded.
+   * <p>
+   * If true the cached value is still returned to the caller, while
+   * {@link #reload(Object, Object)} computes its replacement in the
+   * background. Concurrent checks of the same key start at most one reload.
+   *
+   * @param key key of the entry found in the cache.
+   * @param value value currently cached for the key, may be null.
+   * @return true if the entry should be reloaded; by default false.
+   */
+  public boolean isStale(K key, V value) {
+    return false;
+  }
+
+  /**
+   * Invoked in the background to compute the new value of a stale entry.
+   *
+   * @param key entry whose content needs to be obtained again.
+   * @param oldValue value currently cached for the key, may be null.
+   * @return new cache content, replacing {@code oldValue}. By default
+   *         {@link #createEntry(Object)} is invoked.
+   * @throws Exception the cache content cannot be computed. The old value
+   *         remains in the cache, and will be reloaded again later.
+   */
+  public V reload(K key, V oldValue) throws Exception {
+    return createEntry(key);
+  }
 }
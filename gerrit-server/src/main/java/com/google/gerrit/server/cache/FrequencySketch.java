@@ -0,0 +1,108 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+/**
+ * Approximate access frequency of cache keys, used to decide admission.
+ * <p>
+ * A count-min sketch of 4-bit counters, packed 16 to a {@code long}. Each key
+ * updates one counter in each of four rows. Once the number of increments
+ * reaches a sample size proportional to the table, all counters are halved so
+ * the sketch ages out keys that were popular a long time ago.
+ * <p>
+ * Instances are not thread-safe; callers must provide their own locking.
+ */
+final class FrequencySketch {
+  private static final long[] SEED = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+      0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final long ONE_MASK = 0x1111111111111111L;
+
+  private final long[] table;
+  private final int tableMask;
+  private final int sampleSize;
+  private int size;
+
+  /**
+   * @param expectedSize number of distinct keys the owning cache can hold.
+   */
+  FrequencySketch(int expectedSize) {
+    int n = 16;
+    while (n < expectedSize && n < (1 << 24)) {
+      n <<= 1;
+    }
+    table = new long[n];
+    tableMask = n - 1;
+    sampleSize = 10 * n;
+  }
+
+  /** Record one access to the key with the given hash code. */
+  void increment(int hashCode) {
+    final int hash = spread(hashCode);
+    final int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && ++size == sampleSize) {
+      reset();
+    }
+  }
+
+  /** @return estimated number of recent accesses, at most 15. */
+  int frequency(int hashCode) {
+    final int hash = spread(hashCode);
+    final int start = (hash & 3) << 2;
+    int freq = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      final int offset = (start + i) << 2;
+      final int count = (int) ((table[indexOf(hash, i)] >>> offset) & 0xfL);
+      freq = Math.min(freq, count);
+    }
+    return freq;
+  }
+
+  private boolean incrementAt(int i, int j) {
+    final int offset = j << 2;
+    final long mask = 0xfL << offset;
+    if ((table[i] & mask) != mask) {
+      table[i] += 1L << offset;
+      return true;
+    }
+    return false;
+  }
+
+  private int indexOf(int item, int i) {
+    long hash = (item + SEED[i]) * SEED[i];
+    hash += hash >>> 32;
+    return ((int) hash) & tableMask;
+  }
+
+  private void reset() {
+    int odd = 0;
+    for (int i = 0; i < table.length; i++) {
+      odd += Long.bitCount(table[i] & ONE_MASK);
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    size = (size >>> 1) - (odd >>> 2);
+  }
+
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+}
@@ -0,0 +1,154 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time spent by the {@link EntryCreator} of a cache to create its entries.
+ * <p>
+ * Every invocation of the creator is counted as one load, whether it creates
+ * one entry or a batch of them. Load times are kept in a histogram of
+ * {@link #BUCKETS}, so percentiles are approximate.
+ */
+public class LoadStatistics {
+  /**
+   * Upper bound in milliseconds of each histogram bucket. Loads slower than
+   * the last bound are counted in one additional bucket.
+   */
+  public static final long[] BUCKETS =
+      {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+
+  private final AtomicLong loads = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong totalTime = new AtomicLong();
+  private final AtomicLong maxTime = new AtomicLong();
+  private final AtomicLongArray histogram =
+      new AtomicLongArray(BUCKETS.length + 1);
+  private final AtomicInteger waiting = new AtomicInteger();
+
+  /** Record a load that created its entries in {@code nanos}. */
+  void loaded(final long nanos) {
+    loads.incrementAndGet();
+    record(nanos);
+  }
+
+  /** Record a load that failed after {@code nanos}. */
+  void failed(final long nanos) {
+    loads.incrementAndGet();
+    failures.incrementAndGet();
+    record(nanos);
+  }
+
+  /** A thread started to wait for another thread's load of the same key. */
+  void startWaiting() {
+    waiting.incrementAndGet();
+  }
+
+  /** A thread stopped waiting for another thread's load. */
+  void stopWaiting() {
+    waiting.decrementAndGet();
+  }
+
+  private void record(final long nanos) {
+    totalTime.addAndGet(nanos);
+    for (;;) {
+      final long max = maxTime.get();
+      if (nanos <= max || maxTime.compareAndSet(max, nanos)) {
+        break;
+      }
+    }
+
+    final long ms = MILLISECONDS.convert(nanos, NANOSECONDS);
+    int b = 0;
+    while (b < BUCKETS.length && BUCKETS[b] < ms) {
+      b++;
+    }
+    histogram.incrementAndGet(b);
+  }
+
+  /** @return number of times the creator was invoked. */
+  public long getLoadCount() {
+    return loads.get();
+  }
+
+  /** @return number of loads that threw an exception. */
+  public long getFailureCount() {
+    return failures.get();
+  }
+
+  /** @return number of threads currently waiting for another's load. */
+  public int getWaitingThreads() {
+    return waiting.get();
+  }
+
+  /** @return average time of a load, 0 if nothing was loaded yet. */
+  public double getAverageLoadTime(final TimeUnit unit) {
+    final long n = loads.get();
+    if (n == 0) {
+      return 0;
+    }
+    return (double) unit.convert(totalTime.get(), NANOSECONDS) / n;
+  }
+
+  /** @return slowest load observed. */
+  public long getMaxLoadTime(final TimeUnit unit) {
+    return unit.convert(maxTime.get(), NANOSECONDS);
+  }
+
+  /** @return number of loads in each bucket of {@link #BUCKETS}. */
+  public long[] getHistogram() {
+    final long[] r = new long[histogram.length()];
+    for (int i = 0; i < r.length; i++) {
+      r[i] = histogram.get(i);
+    }
+    return r;
+  }
+
+  /**
+   * Estimate a percentile of the load time.
+   *
+   * @param percent percentile to estimate, between 0 and 100.
+   * @return upper bound in milliseconds of the bucket holding the percentile;
+   *         the slowest load if it is in the last bucket; 0 if nothing was
+   *         loaded yet.
+   */
+  public long getPercentile(final double percent) {
+    final long[] h = getHistogram();
+    long total = 0;
+    for (long c : h) {
+      total += c;
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    final long rank = (long) Math.ceil(total * percent / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS.length; i++) {
+      seen += h[i];
+      if (rank <= seen) {
+        return BUCKETS[i];
+      }
+    }
+    return getMaxLoadTime(MILLISECONDS);
+  }
+}
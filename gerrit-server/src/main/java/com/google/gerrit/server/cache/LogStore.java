@@ -0,0 +1,560 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt32;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeFixInt64;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured store of encoded cache entries in memory mapped files.
+ * <p>
+ * Entries are appended to fixed size segment files named
+ * {@code <cache>-<id>.log}. Each segment starts with a header naming the
+ * format and codec versions; segments written by other versions are deleted
+ * when the store is opened. Every record is laid out as:
+ *
+ * <pre>
+ *   int    length of the record, written last
+ *   byte   state, LIVE or DEAD
+ *   int    CRC-32 of the body
+ *   long   time the entry was written        \
+ *   varint length of the key                  | body
+ *   byte[] key, then value                   /
+ * </pre>
+ * <p>
+ * Records are never modified, except to mark them DEAD once their entry is
+ * replaced, removed or evicted. The set of live records is rebuilt into an
+ * in-heap index by scanning the segments on open. Sealed segments holding
+ * less than half live data are compacted by copying their remaining records
+ * to the end of the log and deleting the file.
+ */
+final class LogStore<K, V> {
+  private static final Logger log = LoggerFactory.getLogger(LogStore.class);
+
+  /** Default size of each segment file. */
+  static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  private static final int MAGIC = 0x47435331; // "GCS1"
+  private static final int FORMAT = 1;
+  private static final int FILE_HEADER = 16;
+  private static final int RECORD_HEADER = 4 + 1 + 4;
+
+  private static final byte LIVE = 1;
+  private static final byte DEAD = 2;
+
+  private final File dir;
+  private final String name;
+  private final CacheCodec<K> keyCodec;
+  private final CacheCodec<V> valueCodec;
+  private final int segmentSize;
+  private final int limit;
+  private final long maxAge;
+
+  private final TreeMap<Integer, Segment> segments;
+  private final List<Segment> sparse;
+  private final Index index;
+  private Segment active;
+  private boolean closed;
+
+  private long hits;
+  private long evictions;
+  private long expirations;
+
+  LogStore(final File dir, final CacheSettings<K, V> settings,
+      final int segmentSize) {
+    this.dir = dir;
+    this.name = settings.getName();
+    this.keyCodec = settings.getKeyCodec();
+    this.valueCodec = settings.getValueCodec();
+    this.segmentSize = segmentSize;
+    this.limit = settings.getDiskLimit();
+    this.maxAge = settings.getMaxAge(MILLISECONDS);
+    this.segments = new TreeMap<Integer, Segment>();
+    this.sparse = new ArrayList<Segment>();
+    this.index = new Index(Math.min(limit, 1 << 16));
+  }
+
+  /** Open existing segments and rebuild the index from their records. */
+  synchronized void open() throws IOException {
+    final File[] list = dir.listFiles();
+    if (list != null) {
+      final String prefix = name + "-";
+      for (File f : list) {
+        final String n = f.getName();
+        if (n.startsWith(prefix) && n.endsWith(".log")) {
+          final Integer id = parseId(n.substring(prefix.length(),
+              n.length() - ".log".length()));
+          if (id != null) {
+            openSegment(id, f);
+          }
+        }
+      }
+    }
+
+    for (Segment s : new ArrayList<Segment>(segments.values())) {
+      scan(s);
+    }
+    for (Segment s : segments.values()) {
+      checkSparse(s);
+    }
+    compact();
+  }
+
+  /**
+   * Write all segments to disk and release them.
+   * <p>
+   * Once closed the store ignores further reads and updates, as callers may
+   * still hold a reference to it.
+   */
+  synchronized void close() {
+    closed = true;
+    for (Segment s : segments.values()) {
+      s.close(true);
+    }
+    segments.clear();
+    sparse.clear();
+    index.clear();
+    active = null;
+  }
+
+  V get(final K key) {
+    final ByteBuffer b;
+    synchronized (this) {
+      if (closed) {
+        return null;
+      }
+
+      final Location loc = index.get(key);
+      if (loc == null) {
+        return null;
+      }
+
+      b = loc.segment.buf.duplicate();
+      if (isExpired(b, loc.offset)) {
+        expirations++;
+        remove(key);
+        return null;
+      }
+
+      // The value is decoded from the mapped record without the lock held.
+      // Records are never rewritten, and the mapping of a segment outlives
+      // its file if compaction deletes it meanwhile.
+      b.position(loc.offset + RECORD_HEADER + 8);
+      b.limit(loc.offset + loc.length);
+    }
+
+    try {
+      final InputStream in = new ByteBufferInputStream(b);
+      in.skip(readVarInt32(in));
+      final V value = valueCodec.decode(in);
+      synchronized (this) {
+        hits++;
+      }
+      return value;
+    } catch (IOException e) {
+      log.warn("Cannot read entry from cache \"" + name + "\"", e);
+      remove(key);
+      return null;
+    } catch (RuntimeException e) {
+      log.warn("Cannot read entry from cache \"" + name + "\"", e);
+      remove(key);
+      return null;
+    }
+  }
+
+  void put(final K key, final V value) {
+    final Buffer body = new Buffer();
+    try {
+      writeFixInt64(body, System.currentTimeMillis());
+      final Buffer k = new Buffer();
+      keyCodec.encode(k, key);
+      writeVarInt32(body, k.size());
+      k.writeTo(body);
+      valueCodec.encode(body, value);
+    } catch (IOException e) {
+      log.warn("Cannot write entry to cache \"" + name + "\"", e);
+      remove(key);
+      return;
+    }
+
+    final int len = RECORD_HEADER + body.size();
+    if (segmentSize - FILE_HEADER < len) {
+      // Too large to be stored in any segment, leave it only in memory.
+      remove(key);
+      return;
+    }
+
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+
+      try {
+        final Location loc = append(body, len);
+        final Location old = index.put(key, loc);
+        if (old != null) {
+          kill(old);
+        }
+      } catch (IOException e) {
+        log.warn("Cannot write entry to cache \"" + name + "\"", e);
+        remove(key);
+        return;
+      }
+      compact();
+    }
+  }
+
+  synchronized void remove(final K key) {
+    if (closed) {
+      return;
+    }
+    final Location loc = index.remove(key);
+    if (loc != null) {
+      kill(loc);
+      compact();
+    }
+  }
+
+  synchronized void removeAll() {
+    if (closed) {
+      return;
+    }
+    for (Segment s : segments.values()) {
+      s.close(false);
+      s.file.delete();
+    }
+    segments.clear();
+    sparse.clear();
+    index.clear();
+    active = null;
+  }
+
+  synchronized int size() {
+    return index.size();
+  }
+
+  synchronized long getHits() {
+    return hits;
+  }
+
+  synchronized long getEvictions() {
+    return evictions;
+  }
+
+  synchronized long getExpirations() {
+    return expirations;
+  }
+
+  private Location append(final Buffer body, final int len) throws IOException {
+    final Segment s = activeFor(len);
+    final int pos = s.writePos;
+    final CRC32 crc = new CRC32();
+    crc.update(body.array(), 0, body.size());
+
+    final ByteBuffer b = s.buf.duplicate();
+    b.position(pos + RECORD_HEADER);
+    b.put(body.array(), 0, body.size());
+    b.put(pos + 4, LIVE);
+    b.putInt(pos + 5, (int) crc.getValue());
+    b.putInt(pos, len);
+
+    s.writePos = pos + len;
+    s.live += len;
+    return new Location(s, pos, len);
+  }
+
+  /** @return the segment to append {@code len} bytes to, sealing a full one. */
+  private Segment activeFor(final int len) throws IOException {
+    if (active == null || segmentSize < active.writePos + len) {
+      final Segment sealed = active;
+      active = newSegment();
+      if (sealed != null) {
+        checkSparse(sealed);
+      }
+    }
+    return active;
+  }
+
+  /** Mark a record as no longer holding the value of its key. */
+  private void kill(final Location loc) {
+    loc.segment.buf.put(loc.offset + 4, DEAD);
+    loc.segment.live -= loc.length;
+    checkSparse(loc.segment);
+  }
+
+  /** Queue a sealed segment for compaction once half of it is dead. */
+  private void checkSparse(final Segment s) {
+    if (s != active && !s.sparse && s.live * 2 <= s.writePos - FILE_HEADER) {
+      s.sparse = true;
+      sparse.add(s);
+    }
+  }
+
+  /**
+   * Compact the segments queued by {@link #checkSparse(Segment)}.
+   * <p>
+   * The index is only walked once enough records died to empty half of a
+   * segment, keeping updates that leave the log dense cheap.
+   */
+  private void compact() {
+    if (sparse.isEmpty()) {
+      return;
+    }
+
+    try {
+      for (Location loc : index.values()) {
+        if (loc.segment.sparse) {
+          move(loc);
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Cannot compact cache \"" + name + "\"", e);
+      return;
+    }
+
+    final List<Segment> done = new ArrayList<Segment>(sparse);
+    sparse.clear();
+    for (Segment s : done) {
+      segments.remove(s.id);
+      s.close(false);
+      if (!s.file.delete()) {
+        log.warn("Cannot delete " + s.file);
+      }
+    }
+  }
+
+  /** Copy a live record to the end of the log, updating its location. */
+  private void move(final Location loc) throws IOException {
+    final Segment s = activeFor(loc.length);
+    final ByteBuffer src = loc.segment.buf.duplicate();
+    src.position(loc.offset);
+    src.limit(loc.offset + loc.length);
+
+    final int pos = s.writePos;
+    final ByteBuffer dst = s.buf.duplicate();
+    dst.position(pos + 4);
+    src.position(loc.offset + 4);
+    dst.put(src);
+    dst.putInt(pos, loc.length);
+
+    s.writePos = pos + loc.length;
+    s.live += loc.length;
+    loc.segment = s;
+    loc.offset = pos;
+  }
+
+  private void scan(final Segment s) {
+    final ByteBuffer b = s.buf.duplicate();
+    final CRC32 crc = new CRC32();
+    int pos = FILE_HEADER;
+    while (pos + RECORD_HEADER + 8 <= segmentSize) {
+      final int len = b.getInt(pos);
+      if (len < RECORD_HEADER + 8 || segmentSize < pos + len) {
+        break;
+      }
+
+      if (b.get(pos + 4) == LIVE) {
+        final byte[] body = new byte[len - RECORD_HEADER];
+        b.position(pos + RECORD_HEADER);
+        b.get(body);
+        crc.reset();
+        crc.update(body, 0, body.length);
+        if ((int) crc.getValue() != b.getInt(pos + 5)) {
+          // The write did not complete; anything after it is garbage.
+          break;
+        }
+
+        final Location loc = new Location(s, pos, len);
+        s.live += len;
+        final K key = readKey(b, pos, len);
+        if (key == null || isExpired(b, pos)) {
+          kill(loc);
+        } else {
+          final Location old = index.put(key, loc);
+          if (old != null) {
+            kill(old);
+          }
+        }
+      }
+      pos += len;
+    }
+    s.writePos = pos;
+
+    if (active == null || active.id < s.id) {
+      active = s;
+    }
+  }
+
+  private K readKey(final ByteBuffer buf, final int pos, final int len) {
+    final ByteBuffer b = buf.duplicate();
+    b.position(pos + RECORD_HEADER + 8);
+    b.limit(pos + len);
+    try {
+      final InputStream in = new ByteBufferInputStream(b);
+      final int n = readVarInt32(in);
+      b.limit(b.position() + n);
+      return keyCodec.decode(in);
+    } catch (IOException e) {
+      return null;
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  private boolean isExpired(final ByteBuffer b, final int pos) {
+    return 0 < maxAge
+        && maxAge < System.currentTimeMillis() - b.getLong(pos + RECORD_HEADER);
+  }
+
+  private Segment newSegment() throws IOException {
+    final int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+    final File f = new File(dir, name + "-" + id + ".log");
+    f.delete();
+
+    final Segment s = map(id, f);
+    s.buf.putInt(0, MAGIC);
+    s.buf.putInt(4, FORMAT);
+    s.buf.putInt(8, keyCodec.getVersion());
+    s.buf.putInt(12, valueCodec.getVersion());
+    s.writePos = FILE_HEADER;
+    segments.put(id, s);
+    return s;
+  }
+
+  private void openSegment(final int id, final File f) throws IOException {
+    if (f.length() != segmentSize) {
+      f.delete();
+      return;
+    }
+
+    final Segment s = map(id, f);
+    if (s.buf.getInt(0) != MAGIC //
+        || s.buf.getInt(4) != FORMAT //
+        || s.buf.getInt(8) != keyCodec.getVersion()
+        || s.buf.getInt(12) != valueCodec.getVersion()) {
+      s.close(false);
+      f.delete();
+      return;
+    }
+    segments.put(id, s);
+  }
+
+  private Segment map(final int id, final File f) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(f, "rw");
+    try {
+      final FileChannel ch = raf.getChannel();
+      final MappedByteBuffer buf =
+          ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+      return new Segment(id, f, raf, buf);
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  private static Integer parseId(final String s) {
+    try {
+      return Integer.valueOf(s);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static final class Segment {
+    final int id;
+    final File file;
+    final RandomAccessFile raf;
+    final MappedByteBuffer buf;
+    int writePos;
+    long live;
+    boolean sparse;
+
+    Segment(int id, File file, RandomAccessFile raf, MappedByteBuffer buf) {
+      this.id = id;
+      this.file = file;
+      this.raf = raf;
+      this.buf = buf;
+    }
+
+    void close(final boolean force) {
+      if (force) {
+        buf.force();
+      }
+      try {
+        raf.close();
+      } catch (IOException e) {
+        log.warn("Cannot close " + file, e);
+      }
+    }
+  }
+
+  private static final class Location {
+    Segment segment;
+    int offset;
+    final int length;
+
+    Location(Segment segment, int offset, int length) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  /** Index of live records, least recently used first. */
+  private final class Index extends LinkedHashMap<K, Location> {
+    private static final long serialVersionUID = 1L;
+
+    Index(final int initialCapacity) {
+      super(initialCapacity, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<K, Location> eldest) {
+      if (limit < size()) {
+        kill(eldest.getValue());
+        evictions++;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /** Exposes the internal array, avoiding a copy of each record. */
+  private static final class Buffer extends ByteArrayOutputStream {
+    byte[] array() {
+      return buf;
+    }
+  }
+}
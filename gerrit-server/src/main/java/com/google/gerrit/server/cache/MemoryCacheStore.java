@@ -0,0 +1,554 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-heap cache store built from independently locked segments.
+ * <p>
+ * Keys are spread over a power of two number of segments, each holding its
+ * share of the cache's weight budget. Threads accessing keys in different
+ * segments never contend with each other, and a segment lock is held only for
+ * the constant time needed to update the segment's hash table and queues.
+ * <p>
+ * Eviction within a segment follows W-TinyLFU: new entries enter a small LRU
+ * window, and entries leaving the window compete for a place in the main
+ * space against its least recently used entry. The entry with the higher
+ * estimated access frequency (from a {@link FrequencySketch}) is kept. The main
+ * space is a segmented LRU, entries accessed while on probation are promoted
+ * into the protected region. This keeps frequently used entries resident even
+ * when a scan touches many keys only once.
+ * <p>
+ * If the cache has a {@link Weigher} and a byte limit, entries are weighed
+ * when they are stored and the budget of each segment is expressed in bytes.
+ * Fewer segments are used in that case, so a single large entry does not
+ * exceed the budget of its segment.
+ *
+ * @param <K> type of key used to lookup entries in the cache.
+ * @param <V> type of value stored within each cache entry.
+ */
+final class MemoryCacheStore<K, V> implements CacheStore<K, V> {
+  private static final int MAX_SEGMENTS = 64;
+  private static final int MAX_WEIGHED_SEGMENTS = 4;
+  private static final int MIN_SEGMENT_SIZE = 16;
+
+  /** Assumed average size of an entry, to size the frequency sketch. */
+  private static final int AVG_ENTRY_BYTES = 1024;
+
+  private final String name;
+  private final long maxAge;
+  private final Weigher<K, V> weigher;
+  private final Segment<K, V>[] segments;
+  private final int segmentMask;
+
+  MemoryCacheStore(final CacheSettings<K, V> settings) {
+    name = settings.getName();
+    maxAge = settings.getMaxAge(MILLISECONDS);
+
+    final long limit;
+    final int cnt;
+    final long expected;
+    if (settings.getWeigher() != null && 0 < settings.getMemoryBytes()) {
+      weigher = settings.getWeigher();
+      limit = settings.getMemoryBytes();
+      expected = limit / AVG_ENTRY_BYTES;
+      cnt = Math.min(segmentCount(expected), MAX_WEIGHED_SEGMENTS);
+    } else {
+      weigher = null;
+      limit = settings.getMemoryLimit();
+      expected = limit;
+      cnt = segmentCount(limit);
+    }
+
+    final long maxWeight = 0 < limit ? (limit + cnt - 1) / cnt : Long.MAX_VALUE;
+    final int expectedSize = (int) Math.min(expected / cnt, 1 << 20);
+
+    segments = newSegmentArray(cnt);
+    segmentMask = cnt - 1;
+    for (int i = 0; i < cnt; i++) {
+      segments[i] = new Segment<K, V>(maxWeight, expectedSize);
+    }
+  }
+
+  private static int segmentCount(final long limit) {
+    final int cpus = Runtime.getRuntime().availableProcessors();
+    int cnt = 1;
+    while (cnt < 2 * cpus && cnt < MAX_SEGMENTS) {
+      cnt <<= 1;
+    }
+    while (1 < cnt && 0 < limit && limit / cnt < MIN_SEGMENT_SIZE) {
+      cnt >>>= 1;
+    }
+    return cnt;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> Segment<K, V>[] newSegmentArray(final int cnt) {
+    return new Segment[cnt];
+  }
+
+  private static int hash(final Object key) {
+    int h = key.hashCode();
+    h ^= (h >>> 20) ^ (h >>> 12);
+    return h ^ (h >>> 7) ^ (h >>> 4);
+  }
+
+  private Segment<K, V> segmentFor(final int hash) {
+    return segments[(hash >>> 16) & segmentMask];
+  }
+
+  private long now() {
+    return 0 < maxAge ? System.currentTimeMillis() : 0;
+  }
+
+  @Override
+  public V get(final K key) {
+    if (key == null) {
+      return null;
+    }
+    final int h = hash(key);
+    return segmentFor(h).get(key, h, now(), maxAge);
+  }
+
+  @Override
+  public Map<K, V> getAll(final Collection<K> keys) {
+    final Map<K, V> r = new HashMap<K, V>();
+    for (K key : keys) {
+      final V value = key != null ? get(key) : null;
+      if (value != null) {
+        r.put(key, value);
+      }
+    }
+    return r;
+  }
+
+  @Override
+  public void put(final K key, final V value) {
+    if (key == null) {
+      return;
+    }
+    if (value == null) {
+      remove(key);
+      return;
+    }
+    final int h = hash(key);
+    final int w = weigher != null ? Math.max(1, weigher.weigh(key, value)) : 1;
+    segmentFor(h).put(key, h, value, w, now());
+  }
+
+  @Override
+  public void remove(final K key) {
+    if (key != null) {
+      final int h = hash(key);
+      segmentFor(h).remove(key);
+    }
+  }
+
+  @Override
+  public void removeAll() {
+    for (Segment<K, V> s : segments) {
+      s.clear();
+    }
+  }
+
+  @Override
+  public long getTimeToLive(final TimeUnit unit) {
+    return unit.convert(maxAge, MILLISECONDS);
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public CacheStatistics getStatistics() {
+    final CacheStatistics r = new CacheStatistics();
+    for (Segment<K, V> s : segments) {
+      s.lock();
+      try {
+        r.memoryCount += s.map.size();
+        r.hits += s.hits;
+        r.misses += s.misses;
+        r.evictions += s.evictions;
+        r.expirations += s.expirations;
+      } finally {
+        s.unlock();
+      }
+    }
+    r.memoryHits = r.hits;
+    return r;
+  }
+
+  @Override
+  public List<K> getHotKeys(final int limit) {
+    final List<HotKey<K>> all = new ArrayList<HotKey<K>>();
+    for (Segment<K, V> s : segments) {
+      s.addHotKeys(all);
+    }
+    Collections.sort(all, new Comparator<HotKey<K>>() {
+      @Override
+      public int compare(HotKey<K> a, HotKey<K> b) {
+        return b.frequency - a.frequency;
+      }
+    });
+
+    final List<K> r = new ArrayList<K>(Math.min(limit, all.size()));
+    for (HotKey<K> k : all) {
+      if (r.size() == limit) {
+        break;
+      }
+      r.add(k.key);
+    }
+    return r;
+  }
+
+  @Override
+  public String toString() {
+    return "Cache[" + name + "]";
+  }
+
+  private static final class HotKey<K> {
+    final K key;
+    final int frequency;
+
+    HotKey(K key, int frequency) {
+      this.key = key;
+      this.frequency = frequency;
+    }
+  }
+
+  private static final class Node<K, V> {
+    static final byte WINDOW = 0;
+    static final byte PROBATION = 1;
+    static final byte PROTECTED = 2;
+
+    final K key;
+    final int hash;
+    V value;
+    int weight;
+    long created;
+    byte queue;
+
+    Node<K, V> prev;
+    Node<K, V> next;
+
+    Node(K key, int hash) {
+      this.key = key;
+      this.hash = hash;
+    }
+  }
+
+  /** Doubly linked list of nodes, most recently used at the head. */
+  private static final class AccessQueue<K, V> {
+    Node<K, V> head;
+    Node<K, V> tail;
+
+    void addFirst(final Node<K, V> n) {
+      n.prev = null;
+      n.next = head;
+      if (head != null) {
+        head.prev = n;
+      } else {
+        tail = n;
+      }
+      head = n;
+    }
+
+    void remove(final Node<K, V> n) {
+      if (n.prev != null) {
+        n.prev.next = n.next;
+      } else {
+        head = n.next;
+      }
+      if (n.next != null) {
+        n.next.prev = n.prev;
+      } else {
+        tail = n.prev;
+      }
+      n.prev = null;
+      n.next = null;
+    }
+
+    void moveToFront(final Node<K, V> n) {
+      if (head != n) {
+        remove(n);
+        addFirst(n);
+      }
+    }
+
+    void clear() {
+      head = null;
+      tail = null;
+    }
+  }
+
+  private static final class Segment<K, V> extends ReentrantLock {
+    private static final long serialVersionUID = 1L;
+
+    final HashMap<K, Node<K, V>> map;
+    final FrequencySketch sketch;
+    final AccessQueue<K, V> window;
+    final AccessQueue<K, V> probation;
+    final AccessQueue<K, V> protectedQueue;
+
+    final long maxWeight;
+    final long windowMax;
+    final long protectedMax;
+    long weight;
+    long windowWeight;
+    long protectedWeight;
+
+    long hits;
+    long misses;
+    long evictions;
+    long expirations;
+
+    Segment(final long maxWeight, final int expectedSize) {
+      this.map = new HashMap<K, Node<K, V>>();
+      this.sketch = new FrequencySketch(expectedSize);
+      this.window = new AccessQueue<K, V>();
+      this.probation = new AccessQueue<K, V>();
+      this.protectedQueue = new AccessQueue<K, V>();
+
+      this.maxWeight = maxWeight;
+      this.windowMax = Math.max(1, maxWeight / 100);
+      this.protectedMax = (maxWeight - windowMax) / 5 * 4;
+    }
+
+    V get(final K key, final int hash, final long now, final long maxAge) {
+      lock();
+      try {
+        final Node<K, V> n = map.get(key);
+        if (n == null) {
+          misses++;
+          return null;
+        }
+        if (0 < maxAge && maxAge <= now - n.created) {
+          map.remove(key);
+          unlink(n);
+          misses++;
+          expirations++;
+          return null;
+        }
+        hits++;
+        sketch.increment(hash);
+        onAccess(n);
+        return n.value;
+      } finally {
+        unlock();
+      }
+    }
+
+    void put(final K key, final int hash, final V value, final int w,
+        final long now) {
+      lock();
+      try {
+        sketch.increment(hash);
+        Node<K, V> n = map.get(key);
+        if (maxWeight < w) {
+          // Storing the entry would flush the entire segment, and it still
+          // would not fit. Drop it, and any older value of the same key.
+          //
+          if (n != null) {
+            map.remove(key);
+            unlink(n);
+          }
+          evictions++;
+          return;
+        }
+        if (n != null) {
+          final int delta = w - n.weight;
+          n.value = value;
+          n.weight = w;
+          n.created = now;
+          weight += delta;
+          if (n.queue == Node.WINDOW) {
+            windowWeight += delta;
+          } else if (n.queue == Node.PROTECTED) {
+            protectedWeight += delta;
+          }
+          onAccess(n);
+        } else {
+          n = new Node<K, V>(key, hash);
+          n.value = value;
+          n.weight = w;
+          n.created = now;
+          n.queue = Node.WINDOW;
+          map.put(key, n);
+          window.addFirst(n);
+          windowWeight += w;
+          weight += w;
+        }
+        evict();
+      } finally {
+        unlock();
+      }
+    }
+
+    void remove(final K key) {
+      lock();
+      try {
+        final Node<K, V> n = map.remove(key);
+        if (n != null) {
+          unlink(n);
+        }
+      } finally {
+        unlock();
+      }
+    }
+
+    void clear() {
+      lock();
+      try {
+        map.clear();
+        window.clear();
+        probation.clear();
+        protectedQueue.clear();
+        weight = 0;
+        windowWeight = 0;
+        protectedWeight = 0;
+      } finally {
+        unlock();
+      }
+    }
+
+    /** Add the keys of this segment, protected entries first. */
+    void addHotKeys(final List<HotKey<K>> out) {
+      lock();
+      try {
+        add(out, protectedQueue);
+        add(out, probation);
+        add(out, window);
+      } finally {
+        unlock();
+      }
+    }
+
+    private void add(final List<HotKey<K>> out, final AccessQueue<K, V> q) {
+      for (Node<K, V> n = q.head; n != null; n = n.next) {
+        out.add(new HotKey<K>(n.key, sketch.frequency(n.hash)));
+      }
+    }
+
+    private void onAccess(final Node<K, V> n) {
+      switch (n.queue) {
+        case Node.WINDOW:
+          window.moveToFront(n);
+          break;
+
+        case Node.PROBATION:
+          probation.remove(n);
+          n.queue = Node.PROTECTED;
+          protectedQueue.addFirst(n);
+          protectedWeight += n.weight;
+          demoteProtected();
+          break;
+
+        case Node.PROTECTED:
+          protectedQueue.moveToFront(n);
+          break;
+      }
+    }
+
+    private void demoteProtected() {
+      while (protectedMax < protectedWeight && protectedQueue.tail != null) {
+        final Node<K, V> n = protectedQueue.tail;
+        protectedQueue.remove(n);
+        protectedWeight -= n.weight;
+        n.queue = Node.PROBATION;
+        probation.addFirst(n);
+      }
+    }
+
+    private void unlink(final Node<K, V> n) {
+      switch (n.queue) {
+        case Node.WINDOW:
+          window.remove(n);
+          windowWeight -= n.weight;
+          break;
+
+        case Node.PROBATION:
+          probation.remove(n);
+          break;
+
+        case Node.PROTECTED:
+          protectedQueue.remove(n);
+          protectedWeight -= n.weight;
+          break;
+      }
+      weight -= n.weight;
+    }
+
+    private void evict() {
+      // Entries overflowing the window are candidates for the main space.
+      // A candidate is admitted only if it has been used more often than
+      // the entry it would displace.
+      //
+      while (windowMax < windowWeight && window.tail != null) {
+        final Node<K, V> candidate = window.tail;
+        window.remove(candidate);
+        windowWeight -= candidate.weight;
+        candidate.queue = Node.PROBATION;
+
+        if (maxWeight < weight) {
+          Node<K, V> victim = probation.tail;
+          if (victim == null) {
+            victim = protectedQueue.tail;
+          }
+          if (victim != null) {
+            if (sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash)) {
+              map.remove(candidate.key);
+              weight -= candidate.weight;
+              evictions++;
+              continue;
+            }
+            map.remove(victim.key);
+            unlink(victim);
+            evictions++;
+          }
+        }
+        probation.addFirst(candidate);
+      }
+
+      while (maxWeight < weight) {
+        Node<K, V> victim = probation.tail;
+        if (victim == null) {
+          victim = protectedQueue.tail;
+        }
+        if (victim == null) {
+          victim = window.tail;
+        }
+        if (victim == null) {
+          break;
+        }
+        map.remove(victim.key);
+        unlink(victim);
+        evictions++;
+      }
+    }
+  }
+}
@@ -21,15 +21,31 @@ public interface NamedCacheBinding<K, V> {
   /** Set the number of objects to cache in memory. */
   public NamedCacheBinding<K, V> memoryLimit(int objects);
 
-  /** Set the number of objects to cache in memory. */
+  /** Set the total weight of objects to cache in memory, see {@link #weigher}. */
+  public NamedCacheBinding<K, V> memoryBytes(long bytes);
+
+  /** Set the number of objects to cache on disk. */
   public NamedCacheBinding<K, V> diskLimit(int objects);
 
   /** Set the time an element lives before being expired. */
   public NamedCacheBinding<K, V> maxAge(long duration, TimeUnit durationUnits);
 
+  /** Reload populated elements in the background once older than this. */
+  public NamedCacheBinding<K, V> refreshAfter(long duration, TimeUnit durationUnits);
+
+  /** Give up waiting for another thread populating the same element after this. */
+  public NamedCacheBinding<K, V> waitTimeout(long duration, TimeUnit durationUnits);
+
   /** Set the eviction policy for elements when the cache is full. */
   public NamedCacheBinding<K, V> evictionPolicy(EvictionPolicy policy);
 
   /** Populate the cache with items from the EntryCreator. */
   public NamedCacheBinding<K, V> populateWith(Class<? extends EntryCreator<K, V>> creator);
+
+  /** Weigh entries with the Weigher, to limit memory by size of entries. */
+  public NamedCacheBinding<K, V> weigher(Class<? extends Weigher<K, V>> weigher);
+
+  /** Store keys and values outside of the heap with the given codecs. */
+  public NamedCacheBinding<K, V> codec(Class<? extends CacheCodec<K>> keyCodec,
+      Class<? extends CacheCodec<V>> valueCodec);
 }
@@ -14,27 +14,47 @@
 
 package com.google.gerrit.server.cache;
 
-import static java.util.concurrent.TimeUnit.SECONDS;
-
-import net.sf.ehcache.CacheException;
-import net.sf.ehcache.Ehcache;
-import net.sf.ehcache.Element;
-import net.sf.ehcache.constructs.blocking.CacheEntryFactory;
+import static com.google.gerrit.server.ioutil.BasicSerialization.readFixInt64;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeFixInt64;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * A decorator for {@link Cache} which automatically constructs missing entries.
  * <p>
  * On a cache miss {@link EntryCreator#createEntry(Object)} is invoked, allowing
  * the application specific subclass to compute the entry and return it for
- * caching. During a miss the cache takes a lock related to the missing key,
- * ensuring that at most one thread performs the creation work, and other
- * threads wait for the result. Concurrent creations are possible if two
- * different keys miss and hash to different locks in the internal lock table.
+ * caching. During a miss the first thread registers a future for the missing
+ * key and performs the creation work; other threads missing the same key wait
+ * on that future for the result, for at most the cache's wait timeout if one
+ * is set. Different keys are always created concurrently, so a slow creation
+ * never delays unrelated keys. Hits do not take any lock beyond what the
+ * underlying {@link CacheStore} requires.
+ * <p>
+ * A hit on an entry that is older than the cache's refresh age, or that the
+ * creator reports as {@link EntryCreator#isStale(Object, Object) stale},
+ * still returns the cached value. The entry is reloaded on the refresh
+ * executor, with at most one reload of each key pending at a time.
  *
  * @param <K> type of key used to name cache entries.
  * @param <V> type of value stored within a cache entry.
@@ -43,19 +63,76 @@ class PopulatingCache<K, V> implements Cache<K, V> {
   private static final Logger log =
       LoggerFactory.getLogger(PopulatingCache.class);
 
-  private final net.sf.ehcache.constructs.blocking.SelfPopulatingCache self;
+  /** Maximum number of reloads waiting for the refresh executor. */
+  private static final int MAX_REFRESHES = 1024;
+
+  /** Stored in place of a null entry, so it is not created again. */
+  private static enum Null {
+    VALUE;
+  }
+
+  /** Stored around each value if entries are refreshed by age. */
+  private static final class Loaded {
+    final Object value;
+    final long time;
+
+    Loaded(final Object value, final long time) {
+      this.value = value;
+      this.time = time;
+    }
+  }
+
+  /** Registered for each key while {@link #getAll(Collection)} creates it. */
+  private static final class Batched extends FutureTask<Object> {
+    Batched() {
+      super(new Callable<Object>() {
+        @Override
+        public Object call() {
+          throw new IllegalStateException("completed by getAll");
+        }
+      });
+    }
+
+    void done(final Object value) {
+      set(value);
+    }
+
+    void failed(final Throwable err) {
+      setException(err);
+    }
+  }
+
+  private final CacheStore<K, Object> self;
   private final EntryCreator<K, V> creator;
+  private final ConcurrentHashMap<K, FutureTask<Object>> loading;
+  private final long refreshAfter;
+  private final long waitTimeout;
+  private final Executor executor;
+  private final LoadStatistics stats;
+  private final ConcurrentHashMap<K, Boolean> refreshing;
 
-  PopulatingCache(Ehcache s, EntryCreator<K, V> entryCreator) {
+  /**
+   * @param s store holding the entries.
+   * @param entryCreator creates and reloads entries.
+   * @param refreshAfter milliseconds after which an entry is reloaded; 0 to
+   *        reload only entries the creator reports as stale.
+   * @param waitTimeout milliseconds a thread waits for another thread creating
+   *        the same entry before giving up; 0 to wait until it is created.
+   * @param executor runs background reloads.
+   * @param stats records the time spent creating entries.
+   */
+  @SuppressWarnings("unchecked")
+  PopulatingCache(CacheStore<K, V> s, EntryCreator<K, V> entryCreator,
+      long refreshAfter, long waitTimeout, Executor executor,
+      LoadStatistics stats) {
+    self = (CacheStore<K, Object>) (CacheStore<?, ?>) s;
     creator = entryCreator;
-    final CacheEntryFactory f = new CacheEntryFactory() {
-      @SuppressWarnings("unchecked")
-      @Override
-      public Object createEntry(Object key) throws Exception {
-        return creator.createEntry((K) key);
-      }
-    };
-    self = new net.sf.ehcache.constructs.blocking.SelfPopulatingCache(s, f);
+    loading = new ConcurrentHashMap<K, FutureTask<Object>>();
+    this.refreshAfter = refreshAfter;
+    this.waitTimeout = waitTimeout;
+    this.executor = executor;
+    this.stats = stats;
+    this.refreshing = new ConcurrentHashMap<K, Boolean>();
   }
 
   /**
@@ -68,29 +145,381 @@ class PopulatingCache<K, V> implements Cache<K, V> {
    * <li>{@code createEntry(key)} threw an exception, in which case the entry
    * was not stored in the cache. An entry was recorded in the application log,
    * but a return value is still required.
-   * <li>The cache has been shutdown, and access is forbidden.
+   * <li>another thread was creating the entry, and did not finish before the
+   * wait timeout of the cache expired.
    * </ul>
    *
    * @param key key to locate.
    * @return either the cached entry, or {@code missing(key)} if not found.
    */
-  @SuppressWarnings("unchecked")
   public V get(final K key) {
     if (key == null) {
       return creator.missing(key);
     }
 
-    final Element m;
+    Object v = self.get(key);
+    if (v == null) {
+      v = load(key);
+      if (v == null) {
+        return creator.missing(key);
+      }
+    } else if (isStale(key, v)) {
+      refresh(key);
+    }
+    return unwrap(v);
+  }
+
+  /**
+   * Create a missing entry, or wait for the thread already creating it.
+   *
+   * @return the stored entry; null if it could not be created.
+   */
+  private Object load(final K key) {
+    final FutureTask<Object> task =
+        new FutureTask<Object>(new Callable<Object>() {
+          @Override
+          public Object call() throws Exception {
+            Object v = self.get(key);
+            if (v == null) {
+              v = wrap(create(key));
+              self.put(key, v);
+            }
+            return v;
+          }
+        });
+
+    final FutureTask<Object> running = loading.putIfAbsent(key, task);
+    if (running != null) {
+      return await(key, running);
+    }
+
     try {
-      m = self.get(key);
-    } catch (IllegalStateException err) {
-      log.error("Cannot lookup " + key + " in \"" + self.getName() + "\"", err);
-      return creator.missing(key);
-    } catch (CacheException err) {
-      log.error("Cannot lookup " + key + " in \"" + self.getName() + "\"", err);
-      return creator.missing(key);
+      task.run();
+    } finally {
+      loading.remove(key, task);
+    }
+    try {
+      return task.get();
+    } catch (InterruptedException err) {
+      // Cannot happen, the task is done.
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException err) {
+      log.error("Cannot lookup " + key + " in \"" + self.getName() + "\"",
+          err.getCause());
+      return null;
+    }
+  }
+
+  private Object await(final K key, final FutureTask<Object> running) {
+    stats.startWaiting();
+    try {
+      if (0 < waitTimeout) {
+        return running.get(waitTimeout, TimeUnit.MILLISECONDS);
+      }
+      return running.get();
+    } catch (TimeoutException err) {
+      log.warn("Gave up after " + waitTimeout + " ms waiting for " + key
+          + " in \"" + self.getName() + "\"");
+      return null;
+    } catch (InterruptedException err) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException err) {
+      // Already logged by the thread that tried to create the entry.
+      return null;
+    } finally {
+      stats.stopWaiting();
+    }
+  }
+
+  /**
+   * Get several elements from the cache, creating all misses in one batch.
+   * <p>
+   * Missing entries are created by {@link EntryCreator#createAll(Collection)}.
+   * While the batch runs each of its keys is registered as being created, so
+   * concurrent lookups of those keys wait for the batch rather than creating
+   * them again. If the batch fails each missing key is instead created by
+   * {@link EntryCreator#createEntry(Object)}. Keys another thread is already
+   * creating are not part of the batch, they are waited for as by
+   * {@link #get(Object)}.
+   *
+   * @param keys keys to locate; null keys are ignored.
+   * @return the entry of every non-null key, as {@link #get(Object)} would
+   *         return it.
+   */
+  public Map<K, V> getAll(final Collection<K> keys) {
+    final Map<K, V> r = new HashMap<K, V>();
+    final Set<K> missing = new LinkedHashSet<K>();
+    final Set<K> waiting = new LinkedHashSet<K>();
+    for (K key : keys) {
+      if (key == null || r.containsKey(key)) {
+        continue;
+      }
+
+      final Object v = self.get(key);
+      if (v == null) {
+        if (loading.containsKey(key)) {
+          waiting.add(key);
+        } else {
+          missing.add(key);
+        }
+      } else {
+        if (isStale(key, v)) {
+          refresh(key);
+        }
+        r.put(key, PopulatingCache.<V> unwrap(v));
+      }
+    }
+
+    if (missing.size() == 1) {
+      final K key = missing.iterator().next();
+      r.put(key, get(key));
+    } else if (!missing.isEmpty()) {
+      final Map<K, Batched> batch = new LinkedHashMap<K, Batched>();
+      try {
+        for (K key : missing) {
+          final Batched task = new Batched();
+          if (loading.putIfAbsent(key, task) != null) {
+            waiting.add(key);
+            continue;
+          }
+          batch.put(key, task);
+
+          // Another thread may have stored the entry before it was claimed.
+          final Object v = self.get(key);
+          if (v != null) {
+            task.done(v);
+            r.put(key, PopulatingCache.<V> unwrap(v));
+          }
+        }
+        loadAll(batch, r);
+      } finally {
+        for (Map.Entry<K, Batched> e : batch.entrySet()) {
+          e.getValue().failed(new IllegalStateException("not created"));
+          loading.remove(e.getKey(), e.getValue());
+        }
+      }
+    }
+
+    for (K key : waiting) {
+      r.put(key, get(key));
+    }
+    return r;
+  }
+
+  /** Create the entries of a batch of keys this thread has claimed. */
+  private void loadAll(final Map<K, Batched> batch, final Map<K, V> r) {
+    final Set<K> todo = new LinkedHashSet<K>();
+    for (Map.Entry<K, Batched> e : batch.entrySet()) {
+      if (!e.getValue().isDone()) {
+        todo.add(e.getKey());
+      }
+    }
+    if (todo.isEmpty()) {
+      return;
+    }
+
+    try {
+      final Map<K, V> created = createAll(Collections.unmodifiableSet(todo));
+      for (K key : todo) {
+        final V value = created.get(key);
+        final Object v = wrap(value);
+        self.put(key, v);
+        batch.get(key).done(v);
+        r.put(key, value);
+      }
+      return;
+    } catch (Exception err) {
+      log.error("Cannot lookup " + todo.size() + " keys in \""
+          + self.getName() + "\"", err);
+    }
+
+    for (K key : todo) {
+      final Batched task = batch.get(key);
+      if (task.isDone()) {
+        continue;
+      }
+      try {
+        final Object v = wrap(create(key));
+        self.put(key, v);
+        task.done(v);
+        r.put(key, PopulatingCache.<V> unwrap(v));
+      } catch (Exception err) {
+        log.error("Cannot lookup " + key + " in \"" + self.getName() + "\"",
+            err);
+        task.failed(err);
+        r.put(key, creator.missing(key));
+      }
+    }
+  }
+
+  private V create(final K key) throws Exception {
+    final long start = System.nanoTime();
+    try {
+      final V v = creator.createEntry(key);
+      stats.loaded(System.nanoTime() - start);
+      return v;
+    } catch (Exception e) {
+      stats.failed(System.nanoTime() - start);
+      throw e;
+    }
+  }
+
+  private Map<K, V> createAll(final Collection<K> keys) throws Exception {
+    final long start = System.nanoTime();
+    try {
+      final Map<K, V> r = creator.createAll(keys);
+      stats.loaded(System.nanoTime() - start);
+      return r;
+    } catch (Exception e) {
+      stats.failed(System.nanoTime() - start);
+      throw e;
+    }
+  }
+
+  private V reload(final K key, final V old) throws Exception {
+    final long start = System.nanoTime();
+    try {
+      final V v = creator.reload(key, old);
+      stats.loaded(System.nanoTime() - start);
+      return v;
+    } catch (Exception e) {
+      stats.failed(System.nanoTime() - start);
+      throw e;
+    }
+  }
+
+  private boolean isStale(final K key, final Object v) {
+    if (v instanceof Loaded
+        && refreshAfter < System.currentTimeMillis() - ((Loaded) v).time) {
+      return true;
+    }
+    return creator.isStale(key, unwrap(v));
+  }
+
+  private void refresh(final K key) {
+    if (MAX_REFRESHES <= refreshing.size()
+        || refreshing.putIfAbsent(key, Boolean.TRUE) != null) {
+      return;
+    }
+
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            reload(key);
+          } finally {
+            refreshing.remove(key);
+          }
+        }
+
+        @Override
+        public String toString() {
+          return "refresh " + self.getName() + " " + key;
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      refreshing.remove(key);
+    }
+  }
+
+  private void reload(final K key) {
+    final Object old = self.get(key);
+    if (old == null) {
+      // Removed since it was found to be stale, next get creates it.
+      return;
+    }
+
+    try {
+      final Object v = wrap(reload(key, PopulatingCache.<V> unwrap(old)));
+      if (self.get(key) != null) {
+        self.put(key, v);
+      }
+    } catch (Exception err) {
+      log.warn("Cannot reload " + key + " in \"" + self.getName() + "\"", err);
+    }
+  }
+
+  /**
+   * Wrap a weigher to accept the values stored by a populating cache.
+   *
+   * @param weigher the application's weigher.
+   * @return a weigher that can also weigh a cached null entry.
+   */
+  @SuppressWarnings("unchecked")
+  static <K, V> Weigher<K, V> weigher(final Weigher<K, V> weigher) {
+    return (Weigher<K, V>) new Weigher<K, Object>() {
+      @Override
+      public int weigh(K key, Object value) {
+        if (value instanceof Loaded) {
+          return 16 + 8 + 8 + weigh(key, ((Loaded) value).value);
+        }
+        return value != Null.VALUE ? weigher.weigh(key, (V) value) : 1;
+      }
+    };
+  }
+
+  /**
+   * Wrap a codec to accept the values stored by a populating cache.
+   *
+   * @param codec the application's codec.
+   * @return a codec that can also store a cached null entry.
+   */
+  @SuppressWarnings("unchecked")
+  static <V> CacheCodec<V> codec(final CacheCodec<V> codec) {
+    return (CacheCodec<V>) new CacheCodec<Object>() {
+      @Override
+      public int getVersion() {
+        return codec.getVersion();
+      }
+
+      @Override
+      public void encode(OutputStream out, Object value) throws IOException {
+        if (value instanceof Loaded) {
+          out.write(2);
+          writeFixInt64(out, ((Loaded) value).time);
+          encode(out, ((Loaded) value).value);
+        } else if (value != Null.VALUE) {
+          out.write(1);
+          codec.encode(out, (V) value);
+        } else {
+          out.write(0);
+        }
+      }
+
+      @Override
+      public Object decode(InputStream in) throws IOException {
+        switch (in.read()) {
+          case 0:
+            return Null.VALUE;
+          case 1:
+            return codec.decode(in);
+          case 2:
+            final long time = readFixInt64(in);
+            return new Loaded(decode(in), time);
+          default:
+            throw new IOException("Invalid cache entry");
+        }
+      }
+    };
+  }
+
+  private Object wrap(final Object value) {
+    final Object v = value != null ? value : Null.VALUE;
+    if (0 < refreshAfter) {
+      return new Loaded(v, System.currentTimeMillis());
+    }
+    return v;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V> V unwrap(Object value) {
+    if (value instanceof Loaded) {
+      value = ((Loaded) value).value;
     }
-    return m != null ? (V) m.getObjectValue() : creator.missing(key);
+    return value != Null.VALUE ? (V) value : null;
   }
 
   public void remove(final K key) {
@@ -105,13 +534,12 @@ class PopulatingCache<K, V> implements Cache<K, V> {
   }
 
   public void put(K key, V value) {
-    self.put(new Element(key, value));
+    self.put(key, wrap(value));
   }
 
   @Override
   public long getTimeToLive(final TimeUnit unit) {
-    final long maxAge = self.getCacheConfiguration().getTimeToLiveSeconds();
-    return unit.convert(maxAge, SECONDS);
+    return self.getTimeToLive(unit);
   }
 
   @Override
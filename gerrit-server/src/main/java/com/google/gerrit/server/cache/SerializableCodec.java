@@ -0,0 +1,52 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/** Codec using Java serialization, for caches that do not declare a codec. */
+final class SerializableCodec<T> implements CacheCodec<T> {
+  @Override
+  public int getVersion() {
+    return 0;
+  }
+
+  @Override
+  public void encode(OutputStream out, T object) throws IOException {
+    final ObjectOutputStream oos = new ObjectOutputStream(out);
+    oos.writeObject(object);
+    oos.flush();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T decode(InputStream in) throws IOException {
+    try {
+      return (T) new ObjectInputStream(in).readObject();
+    } catch (ClassNotFoundException e) {
+      final IOException err = new IOException("Cannot decode object");
+      err.initCause(e);
+      throw err;
+    } catch (ClassCastException e) {
+      final IOException err = new IOException("Cannot decode object");
+      err.initCause(e);
+      throw err;
+    }
+  }
+}
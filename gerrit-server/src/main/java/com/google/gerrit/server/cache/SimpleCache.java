@@ -19,19 +19,28 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 import net.sf.ehcache.CacheException;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.Statistics;
+import net.sf.ehcache.config.CacheConfiguration;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
- * A fast in-memory and/or on-disk based cache.
+ * A fast in-memory and/or on-disk based cache, stored in Ehcache.
  *
  * @type <K> type of key used to lookup entries in the cache.
  * @type <V> type of value stored within each cache entry.
  */
-final class SimpleCache<K, V> implements Cache<K, V> {
+final class SimpleCache<K, V> implements CacheStore<K, V> {
   private static final Logger log = LoggerFactory.getLogger(SimpleCache.class);
 
   private final Ehcache self;
@@ -62,6 +71,17 @@ final class SimpleCache<K, V> implements Cache<K, V> {
     return m != null ? (V) m.getObjectValue() : null;
   }
 
+  public Map<K, V> getAll(final Collection<K> keys) {
+    final Map<K, V> r = new HashMap<K, V>();
+    for (K key : keys) {
+      final V value = key != null ? get(key) : null;
+      if (value != null) {
+        r.put(key, value);
+      }
+    }
+    return r;
+  }
+
   public void put(final K key, final V value) {
     self.put(new Element(key, value));
   }
@@ -76,6 +96,57 @@ final class SimpleCache<K, V> implements Cache<K, V> {
     self.removeAll();
   }
 
+  @Override
+  public String getName() {
+    return self.getName();
+  }
+
+  @Override
+  public CacheStatistics getStatistics() {
+    final CacheConfiguration cfg = self.getCacheConfiguration();
+    final Statistics stat = self.getStatistics();
+    final CacheStatistics r = new CacheStatistics();
+    r.disk = cfg.isDiskPersistent() || cfg.isOverflowToDisk();
+    r.memoryCount = stat.getMemoryStoreObjectCount();
+    r.diskCount = stat.getDiskStoreObjectCount();
+    r.hits = stat.getCacheHits();
+    r.memoryHits = stat.getInMemoryHits();
+    r.diskHits = stat.getOnDiskHits();
+    r.misses = stat.getCacheMisses();
+    r.evictions = stat.getEvictionCount();
+    r.averageGetTime = stat.getAverageGetTime();
+    return r;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<K> getHotKeys(final int limit) {
+    final List<Element> elements = new ArrayList<Element>();
+    for (Object key : self.getKeys()) {
+      final Element e = self.getQuiet(key);
+      if (e != null) {
+        elements.add(e);
+      }
+    }
+    Collections.sort(elements, new Comparator<Element>() {
+      @Override
+      public int compare(Element a, Element b) {
+        final long x = a.getHitCount();
+        final long y = b.getHitCount();
+        return x > y ? -1 : (x < y ? 1 : 0);
+      }
+    });
+
+    final List<K> r = new ArrayList<K>(Math.min(limit, elements.size()));
+    for (Element e : elements) {
+      if (r.size() == limit) {
+        break;
+      }
+      r.add((K) e.getObjectKey());
+    }
+    return r;
+  }
+
   @Override
   public long getTimeToLive(final TimeUnit unit) {
     final long maxAge = self.getCacheConfiguration().getTimeToLiveSeconds();
@@ -0,0 +1,37 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+/**
+ * Computes the cost of holding an entry in memory.
+ * <p>
+ * Caches with a weigher and a {@code cache.<name>.memoryBytes} limit evict
+ * entries once the total weight of all entries exceeds the limit, instead of
+ * counting entries against {@code cache.<name>.memoryLimit}.
+ *
+ * @param <K> type of the cache's key.
+ * @param <V> type of the cache's value element.
+ */
+public interface Weigher<K, V> {
+  /**
+   * Estimate the size of an entry.
+   *
+   * @param key key of the entry.
+   * @param value value of the entry.
+   * @return approximate number of bytes of heap retained by the entry, at
+   *         least 1.
+   */
+  public int weigh(K key, V value);
+}
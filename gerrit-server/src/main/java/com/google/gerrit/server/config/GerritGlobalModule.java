@@ -50,10 +50,15 @@ import com.google.gerrit.server.git.SecureCredentialsProvider;
 import com.google.gerrit.server.git.TagCache;
 import com.google.gerrit.server.git.TransferConfig;
 import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.index.ChangeIndex;
+import com.google.gerrit.server.index.ChangeIndexer;
+import com.google.gerrit.server.index.ChangeStatistics;
+import com.google.gerrit.server.index.CommitMessageIndex;
 import com.google.gerrit.server.mail.EmailSender;
 import com.google.gerrit.server.mail.FromAddressGenerator;
 import com.google.gerrit.server.mail.FromAddressGeneratorProvider;
 import com.google.gerrit.server.mail.SmtpEmailSender;
+import com.google.gerrit.server.patch.AutoMergePruner;
 import com.google.gerrit.server.patch.PatchListCacheImpl;
 import com.google.gerrit.server.patch.PatchSetInfoFactory;
 import com.google.gerrit.server.project.AccessControlModule;
@@ -63,6 +68,7 @@ import com.google.gerrit.server.project.ProjectCacheImpl;
 import com.google.gerrit.server.project.ProjectControl;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.project.SectionSortCache;
+import com.google.gerrit.server.project.VisibilityCache;
 import com.google.gerrit.server.tools.ToolsCatalog;
 import com.google.gerrit.server.util.IdGenerator;
 import com.google.gerrit.server.workflow.FunctionState;
@@ -150,6 +156,7 @@ public class GerritGlobalModule extends FactoryModule {
     install(ProjectCacheImpl.module());
     install(SectionSortCache.module());
     install(TagCache.module());
+    install(VisibilityCache.module());
     install(new AccessControlModule());
     install(new GitModule());
     install(new PrologModule());
@@ -162,6 +169,10 @@ public class GerritGlobalModule extends FactoryModule {
 
     bind(FileTypeRegistry.class).to(MimeUtilFileTypeRegistry.class);
     bind(WorkQueue.class);
+    bind(ChangeIndex.class);
+    bind(CommitMessageIndex.class);
+    bind(ChangeIndexer.class);
+    bind(ChangeStatistics.class);
     bind(ToolsCatalog.class);
     bind(EventFactory.class);
     bind(TransferConfig.class);
@@ -189,6 +200,8 @@ public class GerritGlobalModule extends FactoryModule {
       protected void configure() {
         listener().to(CachePool.Lifecycle.class);
         listener().to(WorkQueue.Lifecycle.class);
+        listener().to(ChangeIndex.Lifecycle.class);
+        listener().to(AutoMergePruner.Lifecycle.class);
         listener().to(VelocityLifecycle.class);
       }
     });
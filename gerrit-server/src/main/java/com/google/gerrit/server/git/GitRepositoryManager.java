@@ -41,14 +41,26 @@ public interface GitRepositoryManager {
   public static final String REF_CONFIG = "refs/meta/config";
 
   /**
-   * Prefix applied to merge commit base nodes.
+   * Tree of automatic merge results of merge commits.
+   * <p>
+   * The reference points to a tree holding subtrees named
+   * {@code xx/yyyy...}, where xx is the first two digits of
+   * the merge commit's object name, and yyyyy... is the
+   * remaining 38. Each subtree is the automatic merge result
+   * of the merge commit's parents.
+   */
+  public static final String REF_AUTOMERGE = "refs/meta/automerge";
+
+  /**
+   * Prefix applied to merge commit base nodes by older versions.
    * <p>
    * References in this directory should take the form
    * {@code refs/cache-automerge/xx/yyyy...} where xx is
    * the first two digits of the merge commit's object
    * name, and yyyyy... is the remaining 38. The reference
    * should point to a treeish that is the automatic merge
-   * result of the merge commit's parents.
+   * result of the merge commit's parents. They are moved
+   * into {@link #REF_AUTOMERGE} when next read.
    */
   public static final String REFS_CACHE_AUTOMERGE = "refs/cache-automerge/";
 
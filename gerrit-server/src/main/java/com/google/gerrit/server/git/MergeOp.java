@@ -36,9 +36,12 @@ import com.google.gerrit.server.GerritPersonIdent;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.account.AccountCache;
 import com.google.gerrit.server.config.CanonicalWebUrl;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.mail.EmailException;
 import com.google.gerrit.server.mail.MergeFailSender;
 import com.google.gerrit.server.mail.MergedSender;
+import com.google.gerrit.server.patch.AutoMerger;
+import com.google.gerrit.server.patch.DiffPrecompute;
 import com.google.gerrit.server.patch.PatchSetInfoFactory;
 import com.google.gerrit.server.patch.PatchSetInfoNotAvailableException;
 import com.google.gerrit.server.project.ChangeControl;
@@ -162,6 +165,9 @@ public class MergeOp {
   private final AccountCache accountCache;
   private final TagCache tagCache;
   private final CreateCodeReviewNotes.Factory codeReviewNotesFactory;
+  private final DiffPrecompute diffPrecompute;
+  private final AutoMerger autoMerger;
+  private final ChangeIndexer changeIndexer;
 
   @Inject
   MergeOp(final GitRepositoryManager grm, final SchemaFactory<ReviewDb> sf,
@@ -175,7 +181,9 @@ public class MergeOp {
       @GerritPersonIdent final PersonIdent myIdent,
       final MergeQueue mergeQueue, @Assisted final Branch.NameKey branch,
       final ChangeHookRunner hooks, final AccountCache accountCache,
-      final TagCache tagCache, final CreateCodeReviewNotes.Factory crnf) {
+      final TagCache tagCache, final CreateCodeReviewNotes.Factory crnf,
+      final DiffPrecompute diffPrecompute, final AutoMerger autoMerger,
+      final ChangeIndexer changeIndexer) {
     repoManager = grm;
     schemaFactory = sf;
     functionState = fs;
@@ -193,6 +201,9 @@ public class MergeOp {
     this.accountCache = accountCache;
     this.tagCache = tagCache;
     codeReviewNotesFactory = crnf;
+    this.diffPrecompute = diffPrecompute;
+    this.autoMerger = autoMerger;
+    this.changeIndexer = changeIndexer;
 
     this.myIdent = myIdent;
     destBranch = branch;
@@ -968,6 +979,7 @@ public class MergeOp {
 
             replication.scheduleUpdate(destBranch.getParentKey(), branchUpdate
                 .getName());
+            diffPrecompute.schedule(destBranch.getParentKey(), null, mergeTip);
 
             Account account = null;
             final PatchSetApproval submitter = getSubmitter(mergeTip.patchsetId);
@@ -1315,6 +1327,7 @@ public class MergeOp {
         log.warn("Cannot store message on change", err);
       }
     }
+    changeIndexer.index(changeId);
 
     try {
       final MergedSender cm = mergedSenderFactory.create(c);
@@ -1336,6 +1349,12 @@ public class MergeOp {
     } catch (OrmException ex) {
       log.error("Cannot run hook for submitted patch set " + c.getId(), ex);
     }
+
+    try {
+      autoMerger.prune(schema, c);
+    } catch (OrmException err) {
+      log.warn("Cannot prune automatic merges of change " + changeId, err);
+    }
   }
 
   private void setNew(Change c, ChangeMessage msg) {
@@ -1365,6 +1384,7 @@ public class MergeOp {
       } catch (OrmException err) {
         log.warn("Cannot update change status", err);
       }
+      changeIndexer.index(c.getId());
     } else {
       try {
         ChangeUtil.touch(c, schema);
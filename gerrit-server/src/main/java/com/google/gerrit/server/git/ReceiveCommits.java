@@ -38,10 +38,13 @@ import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.account.AccountResolver;
 import com.google.gerrit.server.config.CanonicalWebUrl;
 import com.google.gerrit.server.config.TrackingFooters;
+import com.google.gerrit.server.index.ChangeIndexer;
+import com.google.gerrit.server.index.CommitMessageIndex;
 import com.google.gerrit.server.mail.CreateChangeSender;
 import com.google.gerrit.server.mail.EmailException;
 import com.google.gerrit.server.mail.MergedSender;
 import com.google.gerrit.server.mail.ReplacePatchSetSender;
+import com.google.gerrit.server.patch.DiffPrecompute;
 import com.google.gerrit.server.patch.PatchSetInfoFactory;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gerrit.server.project.ProjectCache;
@@ -122,6 +125,9 @@ public class ReceiveCommits implements PreReceiveHook, PostReceiveHook {
   private final MergedSender.Factory mergedSenderFactory;
   private final ReplacePatchSetSender.Factory replacePatchSetFactory;
   private final ReplicationQueue replication;
+  private final DiffPrecompute diffPrecompute;
+  private final ChangeIndexer changeIndexer;
+  private final CommitMessageIndex commitMessageIndex;
   private final PatchSetInfoFactory patchSetInfoFactory;
   private final ChangeHookRunner hooks;
   private final GitRepositoryManager repoManager;
@@ -159,6 +165,9 @@ public class ReceiveCommits implements PreReceiveHook, PostReceiveHook {
       final MergedSender.Factory mergedSenderFactory,
       final ReplacePatchSetSender.Factory replacePatchSetFactory,
       final ReplicationQueue replication,
+      final DiffPrecompute diffPrecompute,
+      final ChangeIndexer changeIndexer,
+      final CommitMessageIndex commitMessageIndex,
       final PatchSetInfoFactory patchSetInfoFactory,
       final ChangeHookRunner hooks,
       final ProjectCache projectCache,
@@ -178,6 +187,9 @@ public class ReceiveCommits implements PreReceiveHook, PostReceiveHook {
     this.mergedSenderFactory = mergedSenderFactory;
     this.replacePatchSetFactory = replacePatchSetFactory;
     this.replication = replication;
+    this.diffPrecompute = diffPrecompute;
+    this.changeIndexer = changeIndexer;
+    this.commitMessageIndex = commitMessageIndex;
     this.patchSetInfoFactory = patchSetInfoFactory;
     this.hooks = hooks;
     this.projectCache = projectCache;
@@ -990,6 +1002,7 @@ public class ReceiveCommits implements PreReceiveHook, PostReceiveHook {
           + repo.getDirectory() + ": " + ru.getResult());
     }
     replication.scheduleUpdate(project.getNameKey(), ru.getName());
+    diffPrecompute.schedule(project.getNameKey(), null, c);
 
     allNewChanges.add(change.getId());
 
@@ -1006,6 +1019,9 @@ public class ReceiveCommits implements PreReceiveHook, PostReceiveHook {
     }
 
     ChangeUtil.updateTrackingIds(db, change, trackingFooters, footerLines);
+    commitMessageIndex.put(change.getId(), ps.getRevision(),
+        c.getFullMessage());
+    changeIndexer.index(change.getId());
     hooks.doPatchsetCreatedHook(change, ps);
   }
 
@@ -1087,6 +1103,7 @@ public class ReceiveCommits implements PreReceiveHook, PostReceiveHook {
     }
 
     final PatchSet.Id priorPatchSet = change.currentPatchSetId();
+    ObjectId priorCommit = null;
     for (final PatchSet ps : db.patchSets().byChange(request.ontoChange)) {
       if (ps.getRevision() == null) {
         log.warn("Patch set " + ps.getId() + " has no revision");
@@ -1103,6 +1120,9 @@ public class ReceiveCommits implements PreReceiveHook, PostReceiveHook {
         reject(request.cmd, "change state corrupt");
         return null;
       }
+      if (priorPatchSet.equals(ps.getId())) {
+        priorCommit = commitId;
+      }
 
       try {
         final RevCommit prior = rp.getRevWalk().parseCommit(commitId);
@@ -1306,6 +1326,10 @@ public class ReceiveCommits implements PreReceiveHook, PostReceiveHook {
           + repo.getDirectory() + ": " + ru.getResult());
     }
     replication.scheduleUpdate(project.getNameKey(), ru.getName());
+    diffPrecompute.schedule(project.getNameKey(), priorCommit, c);
+    commitMessageIndex.put(result.change.getId(), ps.getRevision(),
+        c.getFullMessage());
+    changeIndexer.index(result.change.getId());
     hooks.doPatchsetCreatedHook(result.change, ps);
     request.cmd.setResult(ReceiveCommand.Result.OK);
 
@@ -1827,6 +1851,7 @@ public class ReceiveCommits implements PreReceiveHook, PostReceiveHook {
         return change;
       }
     });
+    changeIndexer.index(change.getId());
   }
 
   private void sendMergedEmail(final ReplaceResult result) {
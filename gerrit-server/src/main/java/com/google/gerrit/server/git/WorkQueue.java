@@ -165,17 +165,27 @@ public class WorkQueue {
 
     @Override
     protected <V> RunnableScheduledFuture<V> decorateTask(
-        final Runnable runnable, RunnableScheduledFuture<V> r) {
-      r = super.decorateTask(runnable, r);
+        final Runnable runnable, final RunnableScheduledFuture<V> r) {
+      return register(runnable, super.decorateTask(runnable, r));
+    }
+
+    @Override
+    protected <V> RunnableScheduledFuture<V> decorateTask(
+        final Callable<V> callable, final RunnableScheduledFuture<V> r) {
+      return register(callable, super.decorateTask(callable, r));
+    }
+
+    private <V> Task<V> register(final Object command,
+        final RunnableScheduledFuture<V> r) {
       for (;;) {
         final int id = idGenerator.next();
 
         Task<V> task;
 
-        if (runnable instanceof ProjectRunnable) {
-          task = new ProjectTask<V>((ProjectRunnable)runnable, r, this, id);
+        if (command instanceof ProjectRunnable) {
+          task = new ProjectTask<V>((ProjectRunnable)command, r, this, id);
         } else {
-          task = new Task<V>(runnable, r, this, id);
+          task = new Task<V>(command, r, this, id);
         }
 
         if (all.putIfAbsent(task.getTaskId(), task) == null) {
@@ -184,12 +194,6 @@ public class WorkQueue {
       }
     }
 
-    @Override
-    protected <V> RunnableScheduledFuture<V> decorateTask(
-        final Callable<V> callable, final RunnableScheduledFuture<V> task) {
-      throw new UnsupportedOperationException("Callable not implemented");
-    }
-
     void remove(final Task<?> task) {
       all.remove(task.getTaskId(), task);
     }
@@ -209,7 +213,10 @@ public class WorkQueue {
     public void cancel();
   }
 
-  /** A wrapper around a scheduled Runnable, as maintained in the queue. */
+  /**
+   * A wrapper around a scheduled Runnable or Callable, as maintained in the
+   * queue.
+   */
   public static class Task<V> implements RunnableScheduledFuture<V> {
     /**
      * Summarized status of a single task.
@@ -230,15 +237,15 @@ public class WorkQueue {
       DONE, CANCELLED, RUNNING, READY, SLEEPING, OTHER;
     }
 
-    private final Runnable runnable;
+    private final Object command;
     private final RunnableScheduledFuture<V> task;
     private final Executor executor;
     private final int taskId;
     private final AtomicBoolean running;
 
-    Task(Runnable runnable, RunnableScheduledFuture<V> task, Executor executor,
+    Task(Object command, RunnableScheduledFuture<V> task, Executor executor,
         int taskId) {
-      this.runnable = runnable;
+      this.command = command;
       this.task = task;
       this.executor = executor;
       this.taskId = taskId;
@@ -276,9 +283,9 @@ public class WorkQueue {
         // as running and allow it to clean up. This ensures we do
         // not invoke cancel twice.
         //
-        if (runnable instanceof CancelableRunnable
+        if (command instanceof CancelableRunnable
             && running.compareAndSet(false, true)) {
-          ((CancelableRunnable) runnable).cancel();
+          ((CancelableRunnable) command).cancel();
         }
         executor.remove(this);
         executor.purge();
@@ -334,7 +341,7 @@ public class WorkQueue {
 
     @Override
     public String toString() {
-      return runnable.toString();
+      return command.toString();
     }
   }
 
@@ -0,0 +1,611 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index;
+
+import com.google.gerrit.lifecycle.LifecycleListener;
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Inverted index of changes, held in memory and journaled to disk.
+ * <p>
+ * Each change is described by a set of terms such as {@code project:name} or
+ * {@code file:path}. The index maps every term to the sorted ids of the
+ * changes having it, and remembers the terms of each change so that they can
+ * be replaced when the change is updated.
+ * <p>
+ * Updates are appended to {@code changes.idx} in the index directory and
+ * replayed when the server starts. The journal is rewritten once it holds
+ * more than twice as many records as there are changes. The index is only
+ * {@link #isReady() ready} to answer queries after all changes were indexed,
+ * and stays so across restarts only if the server was stopped cleanly. A
+ * change about to be updated is first marked {@link #stale()} in the journal,
+ * so that an update lost in a crash causes a rebuild on the next start.
+ */
+@Singleton
+public class ChangeIndex {
+  public static class Lifecycle implements LifecycleListener {
+    private final ChangeIndex index;
+    private final CommitMessageIndex messages;
+    private final ChangeIndexer indexer;
+
+    @Inject
+    Lifecycle(final ChangeIndex index, final CommitMessageIndex messages,
+        final ChangeIndexer indexer) {
+      this.index = index;
+      this.messages = messages;
+      this.indexer = indexer;
+    }
+
+    @Override
+    public void start() {
+      index.open();
+      messages.open();
+      if (index.isEnabled() && !(index.isReady() && messages.isReady())) {
+        indexer.indexAll();
+      }
+    }
+
+    @Override
+    public void stop() {
+      final boolean clean = indexer.stop();
+      index.close(clean);
+      messages.close(clean);
+    }
+  }
+
+  private static final Logger log = LoggerFactory.getLogger(ChangeIndex.class);
+
+  private static final String FILE_NAME = "changes.idx";
+  private static final int MAGIC = 0x47434931; // "GCI1"
+
+  /** Version of the journal; increase when the terms of a change change. */
+  private static final int VERSION = 2;
+
+  private static final int PUT = 1;
+  private static final int DELETE = 2;
+  private static final int READY = 3;
+  private static final int STALE = 4;
+
+  /** Most changes looked up by {@link #count(String, String)}. */
+  static final int COUNT_SAMPLE = 1024;
+
+  /** Build the term for a field value. */
+  public static String term(final String field, final Object value) {
+    return field + ":" + value;
+  }
+
+  private final File dir;
+  private final String fileName;
+  private final int version;
+  private final TreeMap<String, Postings> postings;
+  private final Map<Integer, String[]> byChange;
+  private DataOutputStream journal;
+  private int records;
+  private boolean ready;
+
+  /** True while the journal ends with a READY mark. */
+  private boolean clean;
+
+  @Inject
+  ChangeIndex(final SitePaths site, @GerritServerConfig final Config cfg) {
+    this(directory(site, cfg));
+  }
+
+  ChangeIndex(final File dir) {
+    this(dir, FILE_NAME, VERSION);
+  }
+
+  ChangeIndex(final File dir, final String fileName, final int version) {
+    this.dir = dir;
+    this.fileName = fileName;
+    this.version = version;
+    this.postings = new TreeMap<String, Postings>();
+    this.byChange = new HashMap<Integer, String[]>();
+  }
+
+  /** @return directory of the index journals; null if disabled. */
+  static File directory(final SitePaths site, final Config cfg) {
+    if (!cfg.getBoolean("index", "enabled", false)) {
+      return null;
+    }
+    final String d = cfg.getString("index", null, "directory");
+    return site.resolve(d != null ? d : "index");
+  }
+
+  /** @return true if the index is maintained on this server. */
+  public boolean isEnabled() {
+    return dir != null;
+  }
+
+  /** @return true if every change is indexed, and queries may use the index. */
+  public synchronized boolean isReady() {
+    return ready;
+  }
+
+  /** Load the journal, discarding it if it was written by another version. */
+  synchronized void open() {
+    if (dir == null) {
+      return;
+    } else if (!dir.exists() && !dir.mkdirs()) {
+      log.warn("Can't create change index: " + dir.getAbsolutePath());
+      return;
+    }
+
+    final File file = new File(dir, fileName);
+    boolean rewrite = true;
+    if (file.exists()) {
+      try {
+        rewrite = !replay(file);
+      } catch (IOException e) {
+        log.warn("Discarding unreadable change index " + file, e);
+        clear();
+      }
+    }
+    clean = ready;
+
+    try {
+      if (rewrite || needsCompaction()) {
+        compact();
+      } else {
+        journal = append(file);
+      }
+    } catch (IOException e) {
+      log.warn("Cannot write change index " + file, e);
+    }
+  }
+
+  /**
+   * Close the journal.
+   *
+   * @param clean true if all updates made while the server was running have
+   *        been applied; if false the index is rebuilt on the next start.
+   */
+  synchronized void close(final boolean clean) {
+    if (journal != null) {
+      try {
+        if (clean && ready) {
+          journal.writeByte(READY);
+        }
+        journal.close();
+      } catch (IOException e) {
+        log.warn("Cannot close change index", e);
+      }
+      journal = null;
+    }
+  }
+
+  /**
+   * Note that all changes have been indexed.
+   * <p>
+   * The journal is only marked ready when it is closed cleanly, as updates
+   * may still be pending until then.
+   */
+  synchronized void markReady() {
+    ready = true;
+  }
+
+  /**
+   * Note that a change is about to be updated.
+   * <p>
+   * Must be called before the update is queued; if the server stops before
+   * the update is applied, the index is not ready on the next start.
+   */
+  synchronized void stale() {
+    if (clean) {
+      write(STALE, null, null);
+    }
+  }
+
+  /** Stop answering queries until all changes are indexed again. */
+  synchronized void invalidate() {
+    ready = false;
+    stale();
+  }
+
+  /**
+   * Replace the terms of a change.
+   *
+   * @param id the change.
+   * @param terms all terms describing the change.
+   */
+  public synchronized void replace(final Change.Id id,
+      final Collection<String> terms) {
+    final String[] t = terms.toArray(new String[terms.size()]);
+    Arrays.sort(t);
+    doReplace(id.get(), t);
+    write(PUT, id, t);
+  }
+
+  /** Remove a change from the index. */
+  public synchronized void delete(final Change.Id id) {
+    if (doDelete(id.get())) {
+      write(DELETE, id, null);
+    }
+  }
+
+  /** Remove all changes not in {@code live}. */
+  synchronized void retain(final Set<Change.Id> live) {
+    for (Integer id : new ArrayList<Integer>(byChange.keySet())) {
+      if (!live.contains(new Change.Id(id))) {
+        delete(new Change.Id(id));
+      }
+    }
+  }
+
+  /** @return true if the change is indexed with the term. */
+  public synchronized boolean has(final Change.Id id, final String term) {
+    final String[] t = byChange.get(id.get());
+    return t != null && 0 <= Arrays.binarySearch(t, term);
+  }
+
+  /** @return number of changes having the term. */
+  public synchronized int count(final String term) {
+    final Postings p = postings.get(term);
+    return p != null ? p.size : 0;
+  }
+
+  /**
+   * Number of changes having both terms.
+   * <p>
+   * Each change of the rarer term is looked up in the postings of the other
+   * one. If the rarer term has more than {@link #COUNT_SAMPLE} changes, only
+   * a sample of that many is looked up and the result is scaled, so the time
+   * spent holding the lock stays bounded.
+   *
+   * @return number of changes having both terms; estimated for common terms.
+   */
+  public synchronized int count(final String a, final String b) {
+    Postings small = postings.get(a);
+    Postings large = postings.get(b);
+    if (small == null || large == null) {
+      return 0;
+    } else if (large.size < small.size) {
+      final Postings t = small;
+      small = large;
+      large = t;
+    }
+
+    if (small.size <= COUNT_SAMPLE) {
+      int n = 0;
+      for (int i = 0; i < small.size; i++) {
+        if (0 <= Arrays.binarySearch(large.ids, 0, large.size, small.ids[i])) {
+          n++;
+        }
+      }
+      return n;
+    }
+
+    // One change at random from each of COUNT_SAMPLE equal slices, so that
+    // ids following a pattern cannot line up with the sample.
+    final Random rnd = new Random(small.size);
+    int n = 0;
+    for (int k = 0; k < COUNT_SAMPLE; k++) {
+      final int from = (int) ((long) k * small.size / COUNT_SAMPLE);
+      final int to = (int) ((long) (k + 1) * small.size / COUNT_SAMPLE);
+      final int i = from + rnd.nextInt(to - from);
+      if (0 <= Arrays.binarySearch(large.ids, 0, large.size, small.ids[i])) {
+        n++;
+      }
+    }
+    return (int) ((long) n * small.size / COUNT_SAMPLE);
+  }
+
+  /** @return the terms starting with {@code prefix}, in sorted order. */
+  public synchronized List<String> terms(final String prefix) {
+    return new ArrayList<String>(postings.subMap(prefix,
+        prefix + Character.MAX_VALUE).keySet());
+  }
+
+  /**
+   * Live view of the terms starting with {@code prefix}, in sorted order.
+   * <p>
+   * The caller must hold the lock of this index while using the view.
+   */
+  protected Set<String> termsStartingWith(final String prefix) {
+    return postings.subMap(prefix, prefix + Character.MAX_VALUE).keySet();
+  }
+
+  /**
+   * Find the changes matching a query.
+   *
+   * @param clauses the query; a change matches if it has at least one term of
+   *        every clause.
+   * @return ids of the matching changes, in increasing order.
+   */
+  public synchronized int[] search(
+      final List<? extends Collection<String>> clauses) {
+    int[] r = null;
+    for (Collection<String> c : clauses) {
+      final int[] any = union(c);
+      r = r == null ? any : intersect(r, any);
+      if (r.length == 0) {
+        break;
+      }
+    }
+    return r != null ? r : new int[0];
+  }
+
+  private int[] union(final Collection<String> terms) {
+    if (terms.size() == 1) {
+      final Postings p = postings.get(terms.iterator().next());
+      return p != null ? Arrays.copyOf(p.ids, p.size) : new int[0];
+    }
+
+    int[] r = new int[16];
+    int n = 0;
+    for (String t : terms) {
+      final Postings p = postings.get(t);
+      if (p != null) {
+        if (r.length < n + p.size) {
+          r = Arrays.copyOf(r, Math.max(2 * r.length, n + p.size));
+        }
+        System.arraycopy(p.ids, 0, r, n, p.size);
+        n += p.size;
+      }
+    }
+    Arrays.sort(r, 0, n);
+
+    int k = 0;
+    for (int i = 0; i < n; i++) {
+      if (k == 0 || r[k - 1] != r[i]) {
+        r[k++] = r[i];
+      }
+    }
+    return Arrays.copyOf(r, k);
+  }
+
+  private static int[] intersect(final int[] a, final int[] b) {
+    final int[] r = new int[Math.min(a.length, b.length)];
+    int n = 0;
+    for (int i = 0, j = 0; i < a.length && j < b.length;) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (b[j] < a[i]) {
+        j++;
+      } else {
+        r[n++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(r, n);
+  }
+
+  private void doReplace(final int id, final String[] terms) {
+    doDelete(id);
+    for (int i = 0; i < terms.length; i++) {
+      Postings p = postings.get(terms[i]);
+      if (p == null) {
+        p = new Postings(terms[i]);
+        postings.put(terms[i], p);
+      } else {
+        terms[i] = p.term;
+      }
+      p.add(id);
+    }
+    byChange.put(id, terms);
+  }
+
+  private boolean doDelete(final int id) {
+    final String[] old = byChange.remove(id);
+    if (old == null) {
+      return false;
+    }
+    for (String t : old) {
+      final Postings p = postings.get(t);
+      if (p != null && p.remove(id) && p.size == 0) {
+        postings.remove(t);
+      }
+    }
+    return true;
+  }
+
+  private void clear() {
+    postings.clear();
+    byChange.clear();
+    records = 0;
+    ready = false;
+  }
+
+  private void write(final int op, final Change.Id id, final String[] terms) {
+    clean = false;
+    if (journal == null) {
+      return;
+    }
+    try {
+      writeRecord(journal, op, id != null ? id.get() : 0, terms);
+      journal.flush();
+      records++;
+      if (needsCompaction()) {
+        compact();
+      }
+    } catch (IOException e) {
+      log.warn("Cannot write change index, disabling journal", e);
+      try {
+        journal.close();
+      } catch (IOException err) {
+        // Ignore the second failure.
+      }
+      journal = null;
+    }
+  }
+
+  private static void writeRecord(final DataOutputStream out, final int op,
+      final int id, final String[] terms) throws IOException {
+    out.writeByte(op);
+    switch (op) {
+      case PUT:
+        out.writeInt(id);
+        out.writeInt(terms.length);
+        for (String t : terms) {
+          out.writeUTF(t);
+        }
+        break;
+      case DELETE:
+        out.writeInt(id);
+        break;
+    }
+  }
+
+  /** @return true if the journal was read to its end. */
+  private boolean replay(final File file) throws IOException {
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != version) {
+        log.info("Rebuilding " + file + " written by another version");
+        return false;
+      }
+      for (;;) {
+        final int op = in.read();
+        switch (op) {
+          case -1:
+            return true;
+          case PUT: {
+            final int id = in.readInt();
+            final String[] terms = new String[in.readInt()];
+            for (int i = 0; i < terms.length; i++) {
+              terms[i] = in.readUTF();
+            }
+            doReplace(id, terms);
+            ready = false;
+            break;
+          }
+          case DELETE:
+            doDelete(in.readInt());
+            ready = false;
+            break;
+          case STALE:
+            ready = false;
+            break;
+          case READY:
+            ready = true;
+            break;
+          default:
+            log.warn("Change index " + file + " is corrupt");
+            ready = false;
+            return false;
+        }
+        records++;
+      }
+    } catch (EOFException e) {
+      // The last record was not completely written.
+      ready = false;
+      return false;
+    } finally {
+      in.close();
+    }
+  }
+
+  private boolean needsCompaction() {
+    return 2 * byChange.size() + 1024 < records;
+  }
+
+  private void compact() throws IOException {
+    if (journal != null) {
+      journal.close();
+      journal = null;
+    }
+
+    final File file = new File(dir, fileName);
+    final File tmp = new File(dir, fileName + ".tmp");
+    final DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(version);
+      for (Map.Entry<Integer, String[]> e : byChange.entrySet()) {
+        writeRecord(out, PUT, e.getKey(), e.getValue());
+      }
+      if (clean) {
+        out.writeByte(READY);
+      }
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+      throw new IOException("Cannot rename " + tmp + " to " + file);
+    }
+    records = byChange.size() + (clean ? 1 : 0);
+    journal = append(file);
+  }
+
+  private static DataOutputStream append(final File file) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file, true)));
+  }
+
+  /** Sorted ids of the changes having one term. */
+  private static class Postings {
+    final String term;
+    int[] ids = new int[4];
+    int size;
+
+    Postings(final String term) {
+      this.term = term;
+    }
+
+    void add(final int id) {
+      int i = Arrays.binarySearch(ids, 0, size, id);
+      if (0 <= i) {
+        return;
+      }
+      i = -(i + 1);
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      System.arraycopy(ids, i, ids, i + 1, size - i);
+      ids[i] = id;
+      size++;
+    }
+
+    boolean remove(final int id) {
+      final int i = Arrays.binarySearch(ids, 0, size, id);
+      if (i < 0) {
+        return false;
+      }
+      System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+      size--;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,285 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index;
+
+import static com.google.gerrit.server.query.change.ChangeQueryBuilder.FIELD_FILE;
+import static com.google.gerrit.server.query.change.ChangeQueryBuilder.FIELD_LABEL;
+import static com.google.gerrit.server.query.change.ChangeQueryBuilder.FIELD_OWNER;
+import static com.google.gerrit.server.query.change.ChangeQueryBuilder.FIELD_PROJECT;
+import static com.google.gerrit.server.query.change.ChangeQueryBuilder.FIELD_REF;
+import static com.google.gerrit.server.query.change.ChangeQueryBuilder.FIELD_REVIEWER;
+import static com.google.gerrit.server.query.change.ChangeQueryBuilder.FIELD_STATUS;
+import static com.google.gerrit.server.query.change.ChangeQueryBuilder.FIELD_TOPIC;
+
+import com.google.gerrit.reviewdb.ApprovalCategory;
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.PatchSet;
+import com.google.gerrit.reviewdb.PatchSetApproval;
+import com.google.gerrit.reviewdb.Project;
+import com.google.gerrit.reviewdb.ReviewDb;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.patch.ChangedFileList;
+import com.google.gerrit.server.patch.PatchListCache;
+import com.google.gwtorm.client.OrmException;
+import com.google.gwtorm.client.SchemaFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link ChangeIndex} and the {@link CommitMessageIndex} up to date.
+ * <p>
+ * Changes are indexed by a single background thread, reading the change from
+ * the database when the task runs. Operations that modify a change only need
+ * to call {@link #index(Change.Id)} once they have committed it. If a change
+ * cannot be indexed, queries stop using the index until it is rebuilt on the
+ * next start.
+ */
+@Singleton
+public class ChangeIndexer {
+  private static final Logger log = LoggerFactory.getLogger(ChangeIndexer.class);
+
+  /** Build the term for one value of a label on the current patch set. */
+  public static String label(final ApprovalCategory.Id category,
+      final int value) {
+    return ChangeIndex.term(FIELD_LABEL, category.get() + "=" + value);
+  }
+
+  /** Build the term for a change status. */
+  public static String status(final Change.Status status) {
+    return ChangeIndex.term(FIELD_STATUS, status.name().toLowerCase());
+  }
+
+  private final ChangeIndex index;
+  private final CommitMessageIndex messages;
+  private final SchemaFactory<ReviewDb> schema;
+  private final GitRepositoryManager repoManager;
+  private final PatchListCache patchListCache;
+  private final WorkQueue.Executor executor;
+  private volatile boolean stopping;
+
+  @Inject
+  ChangeIndexer(final ChangeIndex index, final CommitMessageIndex messages,
+      final SchemaFactory<ReviewDb> schema,
+      final GitRepositoryManager repoManager,
+      final PatchListCache patchListCache, final WorkQueue workQueue) {
+    this.index = index;
+    this.messages = messages;
+    this.schema = schema;
+    this.repoManager = repoManager;
+    this.patchListCache = patchListCache;
+    this.executor =
+        index.isEnabled() ? workQueue.createQueue(1, "ChangeIndexer") : null;
+  }
+
+  /** Update the index entry of a change in the background. */
+  public void index(final Change.Id id) {
+    if (executor == null) {
+      return;
+    } else if (stopping) {
+      invalidate();
+      return;
+    }
+
+    index.stale();
+    messages.stale();
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          final ReviewDb db = schema.open();
+          try {
+            final Change c = db.changes().get(id);
+            if (c != null) {
+              index.replace(id, terms(db, c));
+            } else {
+              index.delete(id);
+              messages.delete(id);
+            }
+          } finally {
+            db.close();
+          }
+        } catch (OrmException e) {
+          log.warn("Cannot index change " + id, e);
+          invalidate();
+        } catch (IOException e) {
+          log.warn("Cannot index change " + id, e);
+          invalidate();
+        } catch (RuntimeException e) {
+          invalidate();
+          throw e;
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "index change " + id;
+      }
+    });
+  }
+
+  /** Rebuild the whole index in the background. */
+  void indexAll() {
+    if (executor == null || stopping) {
+      return;
+    }
+
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (indexAllNow()) {
+            index.markReady();
+            messages.markReady();
+          }
+        } catch (OrmException e) {
+          log.error("Cannot build change index", e);
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "index all changes";
+      }
+    });
+  }
+
+  /**
+   * Stop indexing, waiting briefly for pending updates.
+   *
+   * @return true if no update was lost.
+   */
+  boolean stop() {
+    stopping = true;
+    if (executor == null) {
+      return true;
+    }
+    executor.shutdown();
+    try {
+      return executor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      return false;
+    }
+  }
+
+  private void execute(final Runnable task) {
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      invalidate();
+    }
+  }
+
+  private void invalidate() {
+    index.invalidate();
+    messages.invalidate();
+  }
+
+  /** @return true if every change was indexed. */
+  private boolean indexAllNow() throws OrmException {
+    log.info("Building change index");
+    final long start = System.currentTimeMillis();
+    final Set<Change.Id> live = new HashSet<Change.Id>();
+    int failed = 0;
+    final ReviewDb db = schema.open();
+    try {
+      for (Change c : db.changes().all()) {
+        if (stopping) {
+          return false;
+        }
+        try {
+          index.replace(c.getId(), terms(db, c));
+        } catch (IOException e) {
+          log.warn("Cannot index change " + c.getId(), e);
+          failed++;
+        }
+        live.add(c.getId());
+      }
+    } finally {
+      db.close();
+    }
+    index.retain(live);
+    messages.retain(live);
+    log.info("Indexed " + (live.size() - failed) + " of " + live.size()
+        + " changes in " + (System.currentTimeMillis() - start) + " ms");
+    return failed == 0;
+  }
+
+  /** Compute the terms describing a change. */
+  Set<String> terms(final ReviewDb db, final Change change)
+      throws OrmException, IOException {
+    final Set<String> r = new HashSet<String>();
+    r.add(ChangeIndex.term(FIELD_PROJECT, change.getProject().get()));
+    r.add(ChangeIndex.term(FIELD_REF, change.getDest().get()));
+    r.add(status(change.getStatus()));
+    r.add(ChangeIndex.term(FIELD_OWNER, change.getOwner().get()));
+    if (change.getTopic() != null) {
+      r.add(ChangeIndex.term(FIELD_TOPIC, change.getTopic()));
+    }
+
+    final PatchSet.Id current = change.currentPatchSetId();
+    for (PatchSetApproval a : db.patchSetApprovals().byChange(change.getId())) {
+      r.add(ChangeIndex.term(FIELD_REVIEWER, a.getAccountId().get()));
+      if (a.getPatchSetId().equals(current)) {
+        r.add(label(a.getCategoryId(), a.getValue()));
+      }
+    }
+
+    final PatchSet ps = current != null ? db.patchSets().get(current) : null;
+    if (ps != null && ps.getRevision() != null
+        && ObjectId.isId(ps.getRevision().get())) {
+      final ChangedFileList files = patchListCache.getChangedFiles(change, ps);
+      if (files != null) {
+        for (String path : files.getPaths()) {
+          r.add(ChangeIndex.term(FIELD_FILE, path));
+        }
+      }
+
+      if (!messages.contains(change.getId(), ps.getRevision())) {
+        final ObjectId rev = ObjectId.fromString(ps.getRevision().get());
+        messages.put(change.getId(), ps.getRevision(),
+            message(change.getProject(), rev));
+      }
+    }
+    return r;
+  }
+
+  private String message(final Project.NameKey project, final ObjectId rev)
+      throws IOException {
+    final Repository repo = repoManager.openRepository(project);
+    try {
+      final RevWalk rw = new RevWalk(repo);
+      try {
+        return rw.parseCommit(rev).getFullMessage();
+      } finally {
+        rw.release();
+      }
+    } finally {
+      repo.close();
+    }
+  }
+}
@@ -0,0 +1,118 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gerrit.server.index;
+
+import static com.google.gerrit.server.query.change.ChangeQueryBuilder.FIELD_OWNER;
+import static com.google.gerrit.server.query.change.ChangeQueryBuilder.FIELD_PROJECT;
+import static com.google.gerrit.server.query.change.ChangeQueryBuilder.FIELD_REVIEWER;
+
+import com.google.gerrit.reviewdb.Account;
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.Project;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Number of changes per project, status, owner and reviewer.
+ * <p>
+ * The figures are read from the {@link ChangeIndex}, which is updated as
+ * changes are modified, so they follow the server without being collected
+ * separately. They are only known once the index is ready; until then every
+ * method returns -1 and callers fall back to their own estimates.
+ */
+@Singleton
+public class ChangeStatistics {
+  /** Statuses of open changes. */
+  public static final Set<Change.Status> OPEN = statuses(true);
+
+  /** Statuses of closed changes. */
+  public static final Set<Change.Status> CLOSED = statuses(false);
+
+  private static Set<Change.Status> statuses(final boolean open) {
+    final Set<Change.Status> r = EnumSet.noneOf(Change.Status.class);
+    for (Change.Status s : Change.Status.values()) {
+      if (s.isOpen() == open) {
+        r.add(s);
+      }
+    }
+    return Collections.unmodifiableSet(r);
+  }
+
+  private final ChangeIndex index;
+
+  @Inject
+  ChangeStatistics(final ChangeIndex index) {
+    this.index = index;
+  }
+
+  /** @return true if the statistics cover all changes. */
+  public boolean isAvailable() {
+    return index.isReady();
+  }
+
+  /** @return number of changes in one of the statuses; -1 if unknown. */
+  public int status(final Set<Change.Status> status) {
+    return count(null, status);
+  }
+
+  /**
+   * @param project the project.
+   * @param status statuses to count; null for all changes of the project.
+   * @return number of changes; -1 if unknown.
+   */
+  public int project(final Project.NameKey project,
+      final Set<Change.Status> status) {
+    return count(ChangeIndex.term(FIELD_PROJECT, project.get()), status);
+  }
+
+  /**
+   * @param owner the owner of the changes.
+   * @param status statuses to count; null for all changes of the owner.
+   * @return number of changes; -1 if unknown.
+   */
+  public int owner(final Account.Id owner, final Set<Change.Status> status) {
+    return count(ChangeIndex.term(FIELD_OWNER, owner.get()), status);
+  }
+
+  /**
+   * @param reviewer an account that reviewed the changes.
+   * @param status statuses to count; null for all changes reviewed.
+   * @return number of changes; -1 if unknown.
+   */
+  public int reviewer(final Account.Id reviewer,
+      final Set<Change.Status> status) {
+    return count(ChangeIndex.term(FIELD_REVIEWER, reviewer.get()), status);
+  }
+
+  private int count(final String term, final Set<Change.Status> status) {
+    if (!index.isReady()) {
+      return -1;
+    } else if (status == null) {
+      return index.count(term);
+    }
+
+    int n = 0;
+    for (Change.Status s : status) {
+      final String t = ChangeIndexer.status(s);
+      n += term != null ? index.count(term, t) : index.count(t);
+    }
+    return n;
+  }
+}
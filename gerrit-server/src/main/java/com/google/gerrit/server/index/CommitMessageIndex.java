@@ -0,0 +1,151 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index;
+
+import static com.google.gerrit.server.query.change.ChangeQueryBuilder.FIELD_MESSAGE;
+
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.RevId;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.eclipse.jgit.lib.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Index of the words in the commit message of the current patch set of each
+ * change, searched by {@code message:}.
+ * <p>
+ * Each change is indexed with the revision its words were taken from, so the
+ * message is only read and split again when the change gets a new current
+ * patch set. Patch sets are indexed by {@code ReceiveCommits} as they are
+ * created, while the commit is at hand, and are kept in their own journal
+ * {@code messages.idx} next to the change index; rebuilding the change index
+ * does not read any commit whose message is already indexed.
+ */
+@Singleton
+public class CommitMessageIndex extends ChangeIndex {
+  private static final String FILE_NAME = "messages.idx";
+  private static final int VERSION = 1;
+
+  private static final String FIELD_REVISION = "revision";
+
+  /** Split text into the lower case words indexed for {@code message:}. */
+  public static Set<String> words(final String text) {
+    return new HashSet<String>(wordList(text));
+  }
+
+  /** Split text into lower case words, in order, keeping duplicates. */
+  public static List<String> wordList(final String text) {
+    final List<String> r = new ArrayList<String>();
+    final String s = text.toLowerCase();
+    int start = -1;
+    for (int i = 0; i <= s.length(); i++) {
+      if (i < s.length() && Character.isLetterOrDigit(s.charAt(i))) {
+        if (start < 0) {
+          start = i;
+        }
+      } else if (0 <= start) {
+        r.add(s.substring(start, i));
+        start = -1;
+      }
+    }
+    return r;
+  }
+
+  @Inject
+  CommitMessageIndex(final SitePaths site,
+      @GerritServerConfig final Config cfg) {
+    this(directory(site, cfg));
+  }
+
+  CommitMessageIndex(final File dir) {
+    super(dir, FILE_NAME, VERSION);
+  }
+
+  /**
+   * Index the commit message of the current patch set of a change.
+   *
+   * @param id the change.
+   * @param revision commit of its current patch set.
+   * @param message full message of the commit.
+   */
+  public void put(final Change.Id id, final RevId revision,
+      final String message) {
+    if (!isEnabled()) {
+      return;
+    }
+    final Set<String> terms = new HashSet<String>();
+    terms.add(ChangeIndex.term(FIELD_REVISION, revision.get()));
+    for (String w : words(message)) {
+      terms.add(ChangeIndex.term(FIELD_MESSAGE, w));
+    }
+    replace(id, terms);
+  }
+
+  /**
+   * Find the changes whose message contains a sequence of words.
+   * <p>
+   * Words inside the sequence are whole words of the message. The first word
+   * may end a longer word of the message if {@code openStart}, and the last
+   * word may start one if {@code openEnd}. Only the terms matching a word are
+   * collected; the vocabulary is scanned in place, under the lock.
+   *
+   * @param words lower case words, in order, as split by {@link #wordList}.
+   * @param openStart the first word may end a longer word.
+   * @param openEnd the last word may start a longer word.
+   * @return ids of the matching changes, in increasing order.
+   */
+  public synchronized int[] search(final List<String> words,
+      final boolean openStart, final boolean openEnd) {
+    final String prefix = ChangeIndex.term(FIELD_MESSAGE, "");
+    final List<Collection<String>> clauses =
+        new ArrayList<Collection<String>>(words.size());
+    for (int i = 0; i < words.size(); i++) {
+      final String w = words.get(i);
+      final String t = prefix + w;
+      final boolean anyStart = i == 0 && openStart;
+      final boolean anyEnd = i == words.size() - 1 && openEnd;
+      if (!anyStart && !anyEnd) {
+        clauses.add(Collections.singletonList(t));
+      } else if (!anyStart) {
+        clauses.add(termsStartingWith(t));
+      } else {
+        final List<String> c = new ArrayList<String>();
+        for (String s : termsStartingWith(prefix)) {
+          if (anyEnd ? s.indexOf(w, prefix.length()) >= 0 : s.endsWith(w)) {
+            c.add(s);
+          }
+        }
+        clauses.add(c);
+      }
+    }
+    return search(clauses);
+  }
+
+  /** @return true if the change is indexed with the message of a revision. */
+  public boolean contains(final Change.Id id, final RevId revision) {
+    return has(id, ChangeIndex.term(FIELD_REVISION, revision.get()));
+  }
+}
@@ -0,0 +1,134 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gerrit.server.patch;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+
+import com.google.gerrit.lifecycle.LifecycleListener;
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.PatchSet;
+import com.google.gerrit.reviewdb.Project;
+import com.google.gerrit.reviewdb.ReviewDb;
+import com.google.gerrit.reviewdb.RevId;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gwtorm.client.OrmException;
+import com.google.gwtorm.client.SchemaFactory;
+import com.google.inject.Inject;
+
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Removes automatic merges that no longer belong to an open change. */
+public class AutoMergePruner implements Runnable {
+  private static final Logger log =
+      LoggerFactory.getLogger(AutoMergePruner.class);
+
+  public static class Lifecycle implements LifecycleListener {
+    private final WorkQueue queue;
+    private final AutoMergePruner pruner;
+
+    @Inject
+    Lifecycle(final WorkQueue queue, final AutoMergePruner pruner) {
+      this.queue = queue;
+      this.pruner = pruner;
+    }
+
+    @Override
+    public void start() {
+      queue.getDefaultQueue().scheduleWithFixedDelay(pruner, 1, 24, HOURS);
+    }
+
+    @Override
+    public void stop() {
+    }
+  }
+
+  private final GitRepositoryManager repoManager;
+  private final SchemaFactory<ReviewDb> schema;
+  private final AutoMerger autoMerger;
+
+  @Inject
+  AutoMergePruner(final GitRepositoryManager repoManager,
+      final SchemaFactory<ReviewDb> schema, final AutoMerger autoMerger) {
+    this.repoManager = repoManager;
+    this.schema = schema;
+    this.autoMerger = autoMerger;
+  }
+
+  @Override
+  public void run() {
+    try {
+      final ReviewDb db = schema.open();
+      try {
+        for (Project.NameKey project : repoManager.list()) {
+          prune(db, project);
+        }
+      } finally {
+        db.close();
+      }
+    } catch (OrmException e) {
+      log.warn("Cannot prune automatic merges", e);
+    }
+  }
+
+  private void prune(final ReviewDb db, final Project.NameKey project)
+      throws OrmException {
+    try {
+      final Repository repo = repoManager.openRepository(project);
+      try {
+        final List<ObjectId> closed = new ArrayList<ObjectId>();
+        for (ObjectId c : autoMerger.list(repo)) {
+          if (!isOpen(db, c)) {
+            closed.add(c);
+          }
+        }
+        if (!closed.isEmpty()) {
+          autoMerger.remove(repo, closed);
+        }
+      } finally {
+        repo.close();
+      }
+    } catch (RepositoryNotFoundException e) {
+      // Deleted since it was listed; nothing to prune.
+    } catch (IOException e) {
+      log.warn("Cannot prune automatic merges in " + project.get(), e);
+    }
+  }
+
+  private static boolean isOpen(final ReviewDb db, final ObjectId commit)
+      throws OrmException {
+    for (PatchSet ps : db.patchSets().byRevision(new RevId(commit.name()))) {
+      final Change c = db.changes().get(ps.getId().getParentKey());
+      if (c != null && c.getStatus().isOpen()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "prune automerge";
+  }
+}
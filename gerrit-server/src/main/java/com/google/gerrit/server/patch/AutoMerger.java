@@ -0,0 +1,453 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.PatchSet;
+import com.google.gerrit.reviewdb.Project;
+import com.google.gerrit.reviewdb.ReviewDb;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gwtorm.client.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.eclipse.jgit.diff.Sequence;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.merge.MergeFormatter;
+import org.eclipse.jgit.merge.MergeResult;
+import org.eclipse.jgit.merge.MergeStrategy;
+import org.eclipse.jgit.merge.ResolveMerger;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.TemporaryBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Automatic merge results of merge commits, used as the base to diff them.
+ * <p>
+ * The result tree for a merge commit is stored as {@code xx/yyyy...} within
+ * a single tree referenced by {@link GitRepositoryManager#REF_AUTOMERGE},
+ * where xx is the first two digits of the commit's object name. A repository
+ * therefore gains one reference, rather than one reference per merge commit.
+ * Results are created on demand by {@link PatchListLoader}, which also runs
+ * in the background for new patch sets, and removed when their change is
+ * merged or abandoned. Viewing a closed change creates its result again, so
+ * {@link AutoMergePruner} periodically removes results of closed changes.
+ * <p>
+ * Results written by older versions as {@code refs/cache-automerge/xx/yyyy...}
+ * are moved into the index the first time they are read.
+ */
+@Singleton
+public class AutoMerger {
+  private static final Logger log = LoggerFactory.getLogger(AutoMerger.class);
+
+  private static final int MAX_RETRIES = 5;
+
+  private final GitRepositoryManager repoManager;
+  private final WorkQueue workQueue;
+
+  @Inject
+  AutoMerger(final GitRepositoryManager repoManager, final WorkQueue workQueue) {
+    this.repoManager = repoManager;
+    this.workQueue = workQueue;
+  }
+
+  /**
+   * Get the automatic merge result of a two parent commit.
+   *
+   * @param repo repository holding the commit.
+   * @param rw walk to parse the result with.
+   * @param b the merge commit, with its parents parsed.
+   * @return tree of the merge of the commit's parents. Conflicts are
+   *         recorded in the files as conflict markers.
+   * @throws IOException the merge cannot be computed. Failing to store the
+   *         result is only logged, as the next reader can compute it again.
+   */
+  RevTree merge(final Repository repo, final RevWalk rw, final RevCommit b)
+      throws IOException {
+    final String path = path(b);
+    final Ref index = repo.getRef(GitRepositoryManager.REF_AUTOMERGE);
+    if (index != null && index.getObjectId() != null) {
+      final TreeWalk tw = TreeWalk.forPath(rw.getObjectReader(), path, //
+          rw.parseTree(index.getObjectId()));
+      if (tw != null) {
+        return rw.parseTree(tw.getObjectId(0));
+      }
+    }
+
+    final String legacyName = GitRepositoryManager.REFS_CACHE_AUTOMERGE + path;
+    final Ref legacy = repo.getRef(legacyName);
+    final ObjectId treeId;
+    if (legacy != null && legacy.getObjectId() != null) {
+      treeId = legacy.getObjectId();
+    } else {
+      treeId = createTree(repo, rw, b);
+    }
+
+    final Map<String, ObjectId> edits = new HashMap<String, ObjectId>();
+    edits.put(path, treeId);
+    try {
+      update(repo, edits);
+      if (legacy != null) {
+        deleteRef(repo, legacyName);
+      }
+    } catch (IOException e) {
+      log.warn("Cannot store automatic merge of " + b.name() + " in "
+          + repo.getDirectory(), e);
+    }
+    return rw.parseTree(treeId);
+  }
+
+  /**
+   * Forget the automatic merges of a change's patch sets in the background.
+   *
+   * @param db database to read the patch sets of the change from.
+   * @param change the change, which was merged or abandoned.
+   * @throws OrmException the patch sets cannot be read.
+   */
+  public void prune(final ReviewDb db, final Change change)
+      throws OrmException {
+    final List<ObjectId> commits = new ArrayList<ObjectId>();
+    for (PatchSet ps : db.patchSets().byChange(change.getId())) {
+      if (ps.getRevision() != null && ps.getRevision().get() != null
+          && ObjectId.isId(ps.getRevision().get())) {
+        commits.add(ObjectId.fromString(ps.getRevision().get()));
+      }
+    }
+    prune(change.getProject(), commits);
+  }
+
+  /** Forget the automatic merges of the given commits in the background. */
+  public void prune(final Project.NameKey project,
+      final Collection<ObjectId> commits) {
+    if (commits.isEmpty()) {
+      return;
+    }
+
+    workQueue.getDefaultQueue().execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          final Repository repo = repoManager.openRepository(project);
+          try {
+            remove(repo, commits);
+          } finally {
+            repo.close();
+          }
+        } catch (IOException e) {
+          log.warn("Cannot prune automatic merges in " + project.get(), e);
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "prune automerge " + project.get();
+      }
+    });
+  }
+
+  void remove(final Repository repo, final Collection<ObjectId> commits)
+      throws IOException {
+    final Map<String, ObjectId> edits = new HashMap<String, ObjectId>();
+    for (ObjectId c : commits) {
+      edits.put(path(c), null);
+    }
+    update(repo, edits);
+
+    for (ObjectId c : commits) {
+      final String legacyName = GitRepositoryManager.REFS_CACHE_AUTOMERGE
+          + path(c);
+      if (repo.getRef(legacyName) != null) {
+        deleteRef(repo, legacyName);
+      }
+    }
+  }
+
+  /** @return the merge commits with a result in the index. */
+  List<ObjectId> list(final Repository repo) throws IOException {
+    final List<ObjectId> r = new ArrayList<ObjectId>();
+    final Ref index = repo.getRef(GitRepositoryManager.REF_AUTOMERGE);
+    if (index == null || index.getObjectId() == null) {
+      return r;
+    }
+
+    final ObjectReader reader = repo.newObjectReader();
+    try {
+      final TreeWalk tw = new TreeWalk(reader);
+      tw.addTree(new RevWalk(reader).parseTree(index.getObjectId()));
+      tw.setRecursive(false);
+      while (tw.next()) {
+        if (tw.getDepth() == 0) {
+          tw.enterSubtree();
+          continue;
+        }
+        final String name = tw.getPathString().replace("/", "");
+        if (ObjectId.isId(name)) {
+          r.add(ObjectId.fromString(name));
+        }
+      }
+    } finally {
+      reader.release();
+    }
+    return r;
+  }
+
+  private static String path(final ObjectId commit) {
+    final String hash = commit.name();
+    return hash.substring(0, 2) + "/" + hash.substring(2);
+  }
+
+  /**
+   * Apply edits to the index, retrying if another thread moved it.
+   *
+   * @param edits result tree for each path; null to remove the path.
+   */
+  private static void update(final Repository repo,
+      final Map<String, ObjectId> edits) throws IOException {
+    for (int attempt = 1;; attempt++) {
+      final Ref ref = repo.getRef(GitRepositoryManager.REF_AUTOMERGE);
+      final ObjectId oldId = ref != null ? ref.getObjectId() : null;
+      final ObjectId newId;
+      final ObjectReader reader = repo.newObjectReader();
+      final ObjectInserter ins = repo.newObjectInserter();
+      try {
+        newId = apply(reader, ins, oldId, edits);
+        ins.flush();
+      } finally {
+        ins.release();
+        reader.release();
+      }
+      if (newId.equals(oldId)) {
+        return;
+      }
+
+      final RefUpdate u = repo.updateRef(GitRepositoryManager.REF_AUTOMERGE);
+      u.setExpectedOldObjectId(oldId != null ? oldId : ObjectId.zeroId());
+      u.setNewObjectId(newId);
+      u.disableRefLog();
+      switch (u.forceUpdate()) {
+        case NEW:
+        case FORCED:
+        case FAST_FORWARD:
+        case NO_CHANGE:
+          return;
+
+        case LOCK_FAILURE:
+          if (attempt < MAX_RETRIES) {
+            continue;
+          }
+          // fall through
+
+        default:
+          throw new IOException("Cannot update "
+              + GitRepositoryManager.REF_AUTOMERGE + " in "
+              + repo.getDirectory() + ": " + u.getResult());
+      }
+    }
+  }
+
+  private static ObjectId apply(final ObjectReader reader,
+      final ObjectInserter ins, final ObjectId root,
+      final Map<String, ObjectId> edits) throws IOException {
+    final SortedMap<String, Map<String, ObjectId>> byDir =
+        new TreeMap<String, Map<String, ObjectId>>();
+    for (Map.Entry<String, ObjectId> e : edits.entrySet()) {
+      final String dir = e.getKey().substring(0, 2);
+      Map<String, ObjectId> m = byDir.get(dir);
+      if (m == null) {
+        m = new HashMap<String, ObjectId>();
+        byDir.put(dir, m);
+      }
+      m.put(e.getKey().substring(3), e.getValue());
+    }
+
+    final SortedMap<String, ObjectId> top = read(reader, root);
+    for (Map.Entry<String, Map<String, ObjectId>> d : byDir.entrySet()) {
+      final SortedMap<String, ObjectId> entries =
+          read(reader, top.get(d.getKey()));
+      for (Map.Entry<String, ObjectId> e : d.getValue().entrySet()) {
+        if (e.getValue() != null) {
+          entries.put(e.getKey(), e.getValue());
+        } else {
+          entries.remove(e.getKey());
+        }
+      }
+      if (entries.isEmpty()) {
+        top.remove(d.getKey());
+      } else {
+        top.put(d.getKey(), write(ins, entries));
+      }
+    }
+    return write(ins, top);
+  }
+
+  private static SortedMap<String, ObjectId> read(final ObjectReader reader,
+      final ObjectId tree) throws IOException {
+    final SortedMap<String, ObjectId> r = new TreeMap<String, ObjectId>();
+    if (tree != null) {
+      final TreeWalk tw = new TreeWalk(reader);
+      tw.addTree(tree);
+      while (tw.next()) {
+        if (tw.getFileMode(0) == FileMode.TREE) {
+          r.put(tw.getNameString(), tw.getObjectId(0));
+        }
+      }
+    }
+    return r;
+  }
+
+  /** Entries are all trees of equal name length, so sorted as git expects. */
+  private static ObjectId write(final ObjectInserter ins,
+      final SortedMap<String, ObjectId> entries) throws IOException {
+    final TreeFormatter fmt = new TreeFormatter();
+    for (Map.Entry<String, ObjectId> e : entries.entrySet()) {
+      fmt.append(e.getKey(), FileMode.TREE, e.getValue());
+    }
+    return fmt.insertTo(ins);
+  }
+
+  private static void deleteRef(final Repository repo, final String name)
+      throws IOException {
+    final RefUpdate u = repo.updateRef(name);
+    u.setForceUpdate(true);
+    u.disableRefLog();
+    u.delete();
+  }
+
+  private static ObjectId createTree(final Repository repo, final RevWalk rw,
+      final RevCommit b) throws IOException {
+    final ObjectId treeId;
+    ResolveMerger m = (ResolveMerger) MergeStrategy.RESOLVE.newMerger(repo,
+        true);
+    ObjectInserter ins = m.getObjectInserter();
+    try {
+      DirCache dc = DirCache.newInCore();
+      m.setDirCache(dc);
+
+      if (m.merge(b.getParents())) {
+        treeId = m.getResultTreeId();
+
+      } else {
+        RevCommit ours = b.getParent(0);
+        RevCommit theirs = b.getParent(1);
+        rw.parseBody(ours);
+        rw.parseBody(theirs);
+        String oursMsg = ours.getShortMessage();
+        String theirsMsg = theirs.getShortMessage();
+
+        String oursName = String.format("HEAD   (%s %s)",
+            ours.abbreviate(6).name(),
+            oursMsg.substring(0, Math.min(oursMsg.length(), 60)));
+        String theirsName = String.format("BRANCH (%s %s)",
+            theirs.abbreviate(6).name(),
+            theirsMsg.substring(0, Math.min(theirsMsg.length(), 60)));
+
+        MergeFormatter fmt = new MergeFormatter();
+        Map<String, MergeResult<? extends Sequence>> r = m.getMergeResults();
+        Map<String, ObjectId> resolved = new HashMap<String, ObjectId>();
+        for (String path : r.keySet()) {
+          MergeResult<? extends Sequence> p = r.get(path);
+          TemporaryBuffer buf = new TemporaryBuffer.LocalFile(10 * 1024 * 1024);
+          try {
+            fmt.formatMerge(buf, p, "BASE", oursName, theirsName, "UTF-8");
+            buf.close();
+
+            InputStream in = buf.openInputStream();
+            try {
+              resolved.put(path, ins.insert(Constants.OBJ_BLOB, buf.length(), in));
+            } finally {
+              in.close();
+            }
+          } finally {
+            buf.destroy();
+          }
+        }
+
+        DirCacheBuilder builder = dc.builder();
+        int cnt = dc.getEntryCount();
+        for (int i = 0; i < cnt;) {
+          DirCacheEntry entry = dc.getEntry(i);
+          if (entry.getStage() == 0) {
+            builder.add(entry);
+            i++;
+            continue;
+          }
+
+          int next = dc.nextEntry(i);
+          String path = entry.getPathString();
+          DirCacheEntry res = new DirCacheEntry(path);
+          if (resolved.containsKey(path)) {
+            // For a file with content merge conflict that we produced a result
+            // above on, collapse the file down to a single stage 0 with just
+            // the blob content, and a randomly selected mode (the lowest stage,
+            // which should be the merge base, or ours).
+            res.setFileMode(entry.getFileMode());
+            res.setObjectId(resolved.get(path));
+
+          } else if (next == i + 1) {
+            // If there is exactly one stage present, shouldn't be a conflict...
+            res.setFileMode(entry.getFileMode());
+            res.setObjectId(entry.getObjectId());
+
+          } else if (next == i + 2) {
+            // Two stages suggests a delete/modify conflict. Pick the higher
+            // stage as the automatic result.
+            entry = dc.getEntry(i + 1);
+            res.setFileMode(entry.getFileMode());
+            res.setObjectId(entry.getObjectId());
+
+          } else { // 3 stage conflict, no resolve above
+            // Punt on the 3-stage conflict and show the base, for now.
+            res.setFileMode(entry.getFileMode());
+            res.setObjectId(entry.getObjectId());
+          }
+          builder.add(res);
+          i = next;
+        }
+        builder.finish();
+        treeId = dc.writeTree(ins);
+      }
+      ins.flush();
+    } finally {
+      ins.release();
+    }
+    return treeId;
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.gerrit.server.ioutil.BasicSerialization.readEnum;
+import static com.google.gerrit.server.ioutil.BasicSerialization.readString;
+import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt32;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeEnum;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeString;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
+
+import com.google.gerrit.reviewdb.Patch;
+import com.google.gerrit.reviewdb.Patch.ChangeType;
+import com.google.gerrit.server.cache.CacheCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Names of the files modified by a commit, without their differences.
+ * <p>
+ * A renamed file is listed as its deleted old name and its added new name,
+ * and a copied file as its added new name, as a walk of the two trees would
+ * see them. The list is the same whether it was taken from a
+ * {@link PatchList} or from the trees, and does not include
+ * {@link Patch#COMMIT_MSG}.
+ */
+public class ChangedFileList implements Serializable {
+  static final long serialVersionUID = PatchListKey.serialVersionUID;
+
+  private transient String[] paths;
+  private transient ChangeType[] types;
+
+  private ChangedFileList() {
+  }
+
+  /**
+   * @param files change type of each modified path.
+   */
+  ChangedFileList(final Map<String, ChangeType> files) {
+    final TreeMap<String, ChangeType> sorted =
+        new TreeMap<String, ChangeType>(files);
+    paths = new String[sorted.size()];
+    types = new ChangeType[sorted.size()];
+    int i = 0;
+    for (Map.Entry<String, ChangeType> e : sorted.entrySet()) {
+      paths[i] = e.getKey();
+      types[i] = e.getValue();
+      i++;
+    }
+  }
+
+  /** Summarize the files of a list already computed. */
+  static ChangedFileList of(final PatchList list) {
+    final Map<String, ChangeType> files = new TreeMap<String, ChangeType>();
+    for (PatchListEntry e : list.getPatches()) {
+      if (Patch.COMMIT_MSG.equals(e.getNewName())) {
+        continue;
+      }
+      switch (e.getChangeType()) {
+        case RENAMED:
+          files.put(e.getOldName(), ChangeType.DELETED);
+          files.put(e.getNewName(), ChangeType.ADDED);
+          break;
+        case COPIED:
+          files.put(e.getNewName(), ChangeType.ADDED);
+          break;
+        default:
+          files.put(e.getNewName(), e.getChangeType());
+          break;
+      }
+    }
+    return new ChangedFileList(files);
+  }
+
+  /** @return sorted paths of all modified files. */
+  public List<String> getPaths() {
+    return Collections.unmodifiableList(Arrays.asList(paths));
+  }
+
+  /** @return sorted paths of all modified files, as a new array. */
+  public String[] toArray() {
+    return paths.clone();
+  }
+
+  /** @return how the file at {@code getPaths().get(index)} was modified. */
+  public ChangeType getChangeType(final int index) {
+    return types[index];
+  }
+
+  /** @return number of modified files. */
+  public int size() {
+    return paths.length;
+  }
+
+  /** @return approximate number of bytes of heap retained by this list. */
+  int weigh() {
+    int size = 16 + 2 * 8; // object header, fields
+    size += 2 * (16 + paths.length * 8);
+    for (String p : paths) {
+      size += 16 + 3 * 4 + 16 + p.length() * 2;
+    }
+    return size;
+  }
+
+  private void writeTo(final OutputStream out) throws IOException {
+    writeVarInt32(out, paths.length);
+    for (int i = 0; i < paths.length; i++) {
+      writeString(out, paths[i]);
+      writeEnum(out, types[i]);
+    }
+  }
+
+  private void readFrom(final InputStream in) throws IOException {
+    final int cnt = readVarInt32(in);
+    paths = new String[cnt];
+    types = new ChangeType[cnt];
+    for (int i = 0; i < cnt; i++) {
+      paths[i] = readString(in);
+      types[i] = readEnum(in, ChangeType.values());
+    }
+  }
+
+  private void writeObject(final ObjectOutputStream output) throws IOException {
+    writeTo(output);
+  }
+
+  private void readObject(final ObjectInputStream input) throws IOException {
+    readFrom(input);
+  }
+
+  static class Codec implements CacheCodec<ChangedFileList> {
+    @Override
+    public int getVersion() {
+      return (int) serialVersionUID;
+    }
+
+    @Override
+    public void encode(OutputStream out, ChangedFileList list)
+        throws IOException {
+      list.writeTo(out);
+    }
+
+    @Override
+    public ChangedFileList decode(InputStream in) throws IOException {
+      final ChangedFileList list = new ChangedFileList();
+      list.readFrom(in);
+      return list;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.reviewdb.Patch.ChangeType;
+import com.google.gerrit.server.cache.EntryCreator;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.inject.Inject;
+
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lists the files modified by a commit by walking the trees only.
+ * <p>
+ * No file content is read, so renames are not detected. Lists of commits
+ * whose {@link PatchList} is computed are stored by {@link PatchListLoader}
+ * and do not reach this loader.
+ */
+class ChangedFileListLoader extends EntryCreator<PatchListKey, ChangedFileList> {
+  private final GitRepositoryManager repoManager;
+  private final AutoMerger autoMerger;
+
+  @Inject
+  ChangedFileListLoader(GitRepositoryManager mgr, AutoMerger autoMerger) {
+    this.repoManager = mgr;
+    this.autoMerger = autoMerger;
+  }
+
+  @Override
+  public ChangedFileList createEntry(final PatchListKey key) throws Exception {
+    final Repository repo = repoManager.openRepository(key.projectKey);
+    try {
+      final ObjectReader reader = repo.newObjectReader();
+      try {
+        return readFiles(key, repo, reader);
+      } finally {
+        reader.release();
+      }
+    } finally {
+      repo.close();
+    }
+  }
+
+  private ChangedFileList readFiles(final PatchListKey key,
+      final Repository repo, final ObjectReader reader) throws Exception {
+    final RevWalk rw = new RevWalk(reader);
+    final RevCommit b = rw.parseCommit(key.getNewId());
+    final RevObject a = PatchListLoader.aFor(key, repo, rw, b, autoMerger);
+    if (a == null) {
+      // Octopus merges are only described by their commit message.
+      return new ChangedFileList(Collections.<String, ChangeType> emptyMap());
+    }
+
+    final TreeWalk walk = new TreeWalk(reader);
+    walk.setRecursive(true);
+    walk.addTree(rw.parseTree(a));
+    walk.addTree(b.getTree());
+    walk.setFilter(TreeFilter.ANY_DIFF);
+
+    final Map<String, ChangeType> files = new HashMap<String, ChangeType>();
+    while (walk.next()) {
+      final ChangeType type;
+      if (walk.getFileMode(0) == FileMode.MISSING) {
+        type = ChangeType.ADDED;
+      } else if (walk.getFileMode(1) == FileMode.MISSING) {
+        type = ChangeType.DELETED;
+      } else {
+        type = ChangeType.MODIFIED;
+      }
+      files.put(walk.getPathString(), type);
+    }
+    return new ChangedFileList(files);
+  }
+}
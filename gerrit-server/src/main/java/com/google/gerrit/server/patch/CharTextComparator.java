@@ -16,9 +16,42 @@ package com.google.gerrit.server.patch;
 
 import org.eclipse.jgit.diff.SequenceComparator;
 
+/**
+ * Compares characters of two texts, until a deadline passes.
+ * <p>
+ * The deadline is checked every few thousand comparisons. Once it passed the
+ * comparator throws {@link DeadlineExceededException}, which unwinds the
+ * diff algorithm using it. Instances are not thread-safe.
+ */
 class CharTextComparator extends SequenceComparator<CharText> {
+  /** Thrown once the deadline of a comparator has passed. */
+  static class DeadlineExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    DeadlineExceededException() {
+      super("Intraline difference took too long");
+    }
+  }
+
+  /** Number of comparisons between two checks of the deadline. */
+  private static final int CHECK_INTERVAL = 4096;
+
+  private final long deadline;
+  private int remaining = CHECK_INTERVAL;
+
+  /**
+   * @param deadline value of {@link System#nanoTime()} after which the
+   *        comparison is abandoned.
+   */
+  CharTextComparator(long deadline) {
+    this.deadline = deadline;
+  }
+
   @Override
   public boolean equals(CharText a, int ai, CharText b, int bi) {
+    if (--remaining == 0) {
+      check();
+    }
     return a.charAt(ai) == b.charAt(bi);
   }
 
@@ -26,4 +59,13 @@ class CharTextComparator extends SequenceComparator<CharText> {
   public int hash(CharText seq, int ptr) {
     return seq.charAt(ptr);
   }
+
+  /** Abandon the comparison if the deadline has passed. */
+  void check() {
+    remaining = CHECK_INTERVAL;
+    if (deadline - System.nanoTime() < 0
+        || Thread.currentThread().isInterrupted()) {
+      throw new DeadlineExceededException();
+    }
+  }
 }
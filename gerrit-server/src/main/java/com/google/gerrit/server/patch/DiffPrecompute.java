@@ -0,0 +1,187 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.reviewdb.Patch;
+import com.google.gerrit.reviewdb.Project;
+import com.google.gerrit.reviewdb.AccountDiffPreference.Whitespace;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills the diff caches for new patch sets in the background.
+ * <p>
+ * When a patch set is uploaded its file list is computed against its parent,
+ * and against the previous patch set of the change, followed by the intraline
+ * differences of its modified files. Reviewers opening the change shortly after
+ * then find the entries already cached.
+ * <p>
+ * The work is best effort. Requests are dropped while too many are pending,
+ * and the remaining intraline differences of a patch set are skipped once the
+ * time spent on it exceeds its budget.
+ */
+@Singleton
+public class DiffPrecompute {
+  private static final Logger log =
+      LoggerFactory.getLogger(DiffPrecompute.class);
+
+  private final PatchListCache patchListCache;
+  private final GitRepositoryManager repoManager;
+  private final WorkQueue.Executor executor;
+  private final int maxPending;
+  private final long budgetNanos;
+
+  @Inject
+  DiffPrecompute(final PatchListCache patchListCache,
+      final GitRepositoryManager repoManager, final WorkQueue workQueue,
+      @GerritServerConfig final Config cfg) {
+    this.patchListCache = patchListCache;
+    this.repoManager = repoManager;
+
+    final int threads = cfg.getInt("cache", "diff", "precomputeThreads", 1);
+    this.executor =
+        0 < threads ? workQueue.createQueue(threads, "DiffPrecompute") : null;
+    this.maxPending = cfg.getInt("cache", "diff", "precomputeQueue", 64);
+    this.budgetNanos = TimeUnit.NANOSECONDS.convert( //
+        ConfigUtil.getTimeUnit(cfg, "cache", "diff", "precomputeBudget",
+            TimeUnit.SECONDS.toMillis(10), TimeUnit.MILLISECONDS),
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Compute the diffs of a new patch set in the background.
+   *
+   * @param project project the patch set belongs to.
+   * @param prior revision of the previous patch set of the change; null if
+   *        this is the first patch set.
+   * @param revision revision of the new patch set.
+   */
+  public void schedule(final Project.NameKey project, final ObjectId prior,
+      final ObjectId revision) {
+    if (executor == null || maxPending <= executor.getQueue().size()) {
+      return;
+    }
+
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+        try {
+          compute(project, prior, revision);
+        } catch (IOException e) {
+          log.warn("Cannot precompute diff of " + revision.name() + " in "
+              + project.get(), e);
+        } catch (RuntimeException e) {
+          log.warn("Cannot precompute diff of " + revision.name() + " in "
+              + project.get(), e);
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "precompute diff " + project.get() + " " + revision.name();
+      }
+    });
+  }
+
+  private void compute(final Project.NameKey project, final ObjectId prior,
+      final ObjectId revision) throws IOException {
+    final long start = System.nanoTime();
+    final PatchList list = patchListCache.get(
+        new PatchListKey(project, null, revision, Whitespace.IGNORE_NONE));
+    if (prior != null) {
+      patchListCache.get(
+          new PatchListKey(project, prior, revision, Whitespace.IGNORE_NONE));
+    }
+    if (list == null || list.getOldId() == null) {
+      return;
+    }
+
+    final Repository repo = repoManager.openRepository(project);
+    try {
+      final ObjectReader reader = repo.newObjectReader();
+      try {
+        final RevWalk rw = new RevWalk(reader);
+        final RevTree aTree = rw.parseTree(list.getOldId());
+        final RevTree bTree = rw.parseTree(list.getNewId());
+        for (PatchListEntry e : list.getPatches()) {
+          if (budgetNanos < System.nanoTime() - start
+              || Thread.currentThread().isInterrupted()) {
+            return;
+          }
+          if (e.getChangeType() == Patch.ChangeType.MODIFIED
+              && e.getPatchType() == Patch.PatchType.UNIFIED
+              && !e.getEdits().isEmpty()
+              && !Patch.COMMIT_MSG.equals(e.getNewName())) {
+            intraline(project, revision, repo, reader, aTree, bTree, e);
+          }
+        }
+      } finally {
+        reader.release();
+      }
+    } finally {
+      repo.close();
+    }
+  }
+
+  private void intraline(final Project.NameKey project,
+      final ObjectId revision, final Repository repo,
+      final ObjectReader reader, final RevTree aTree, final RevTree bTree,
+      final PatchListEntry e) throws IOException {
+    final String path = e.getNewName();
+    final TreeWalk aWalk = TreeWalk.forPath(reader, path, aTree);
+    final TreeWalk bWalk = TreeWalk.forPath(reader, path, bTree);
+    if (aWalk == null || bWalk == null
+        || aWalk.getFileMode(0).getObjectType() != Constants.OBJ_BLOB
+        || bWalk.getFileMode(0).getObjectType() != Constants.OBJ_BLOB
+        || aWalk.getFileMode(0) == FileMode.SYMLINK
+        || bWalk.getFileMode(0) == FileMode.SYMLINK) {
+      return;
+    }
+
+    final ObjectId aId = aWalk.getObjectId(0);
+    final ObjectId bId = bWalk.getObjectId(0);
+    final Text aText;
+    final Text bText;
+    try {
+      aText = new Text(repo.open(aId, Constants.OBJ_BLOB));
+      bText = new Text(repo.open(bId, Constants.OBJ_BLOB));
+    } catch (LargeObjectException tooBig) {
+      return;
+    }
+    patchListCache.getIntraLineDiff(new IntraLineDiffKey(aId, aText, bId,
+        bText, e.getEdits(), project, revision, path));
+  }
+}
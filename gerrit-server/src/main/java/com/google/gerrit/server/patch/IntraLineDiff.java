@@ -20,6 +20,7 @@ import static com.google.gerrit.server.ioutil.BasicSerialization.writeEnum;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
 
 import com.google.gerrit.reviewdb.CodedEnum;
+import com.google.gerrit.server.cache.CacheCodec;
 
 import org.eclipse.jgit.diff.Edit;
 import org.eclipse.jgit.diff.ReplaceEdit;
@@ -37,6 +38,9 @@ import java.util.List;
 public class IntraLineDiff implements Serializable {
   static final long serialVersionUID = IntraLineDiffKey.serialVersionUID;
 
+  /** Heap used by one {@link Edit}: object header and four ints. */
+  private static final int EDIT_SIZE = 16 + 4 * 4;
+
   public static enum Status implements CodedEnum {
     EDIT_LIST('e'), DISABLED('D'), TIMEOUT('T'), ERROR('E');
 
@@ -73,7 +77,29 @@ public class IntraLineDiff implements Serializable {
     return edits;
   }
 
+  /** @return approximate number of bytes of heap retained by this diff. */
+  int weigh() {
+    int size = 16 + 2 * 8; // object header, references
+    size += 16 + edits.size() * 8;
+    for (Edit e : edits) {
+      size += EDIT_SIZE;
+      if (e instanceof ReplaceEdit) {
+        final List<Edit> inner = ((ReplaceEdit) e).getInternalEdits();
+        size += 8 + 16 + inner.size() * (8 + EDIT_SIZE);
+      }
+    }
+    return size;
+  }
+
   private void writeObject(final ObjectOutputStream out) throws IOException {
+    writeTo(out);
+  }
+
+  private void readObject(final ObjectInputStream in) throws IOException {
+    readFrom(in);
+  }
+
+  private void writeTo(final OutputStream out) throws IOException {
     writeEnum(out, status);
     writeVarInt32(out, edits.size());
     for (Edit e : edits) {
@@ -91,7 +117,7 @@ public class IntraLineDiff implements Serializable {
     }
   }
 
-  private void readObject(final ObjectInputStream in) throws IOException {
+  private void readFrom(final InputStream in) throws IOException {
     status = readEnum(in, Status.values());
     int editCount = readVarInt32(in);
     Edit[] editArray = new Edit[editCount];
@@ -128,4 +154,24 @@ public class IntraLineDiff implements Serializable {
   private static List<Edit> toList(Edit[] l) {
     return Collections.unmodifiableList(Arrays.asList(l));
   }
+
+  static class Codec implements CacheCodec<IntraLineDiff> {
+    @Override
+    public int getVersion() {
+      return (int) serialVersionUID;
+    }
+
+    @Override
+    public void encode(OutputStream out, IntraLineDiff diff)
+        throws IOException {
+      diff.writeTo(out);
+    }
+
+    @Override
+    public IntraLineDiff decode(InputStream in) throws IOException {
+      final IntraLineDiff d = new IntraLineDiff(Status.ERROR);
+      d.readFrom(in);
+      return d;
+    }
+  }
 }
@@ -18,13 +18,16 @@ import static org.eclipse.jgit.lib.ObjectIdSerialization.readNotNull;
 import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
 
 import com.google.gerrit.reviewdb.Project;
+import com.google.gerrit.server.cache.CacheCodec;
 
 import org.eclipse.jgit.diff.Edit;
 import org.eclipse.jgit.lib.ObjectId;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.List;
 
@@ -58,6 +61,18 @@ public class IntraLineDiffKey implements Serializable {
     this.path = path;
   }
 
+  /**
+   * Drops the texts and edits passed through to the loader.
+   * <p>
+   * The key of a loaded entry is kept by the cache, which only accounts for
+   * its blob ids; the file contents must not stay reachable from it.
+   */
+  void release() {
+    aText = null;
+    bText = null;
+    edits = null;
+  }
+
   Text getTextA() {
     return aText;
   }
@@ -122,6 +137,10 @@ public class IntraLineDiffKey implements Serializable {
   }
 
   private void writeObject(final ObjectOutputStream out) throws IOException {
+    writeTo(out);
+  }
+
+  private void writeTo(final OutputStream out) throws IOException {
     writeNotNull(out, aId);
     writeNotNull(out, bId);
   }
@@ -130,4 +149,24 @@ public class IntraLineDiffKey implements Serializable {
     aId = readNotNull(in);
     bId = readNotNull(in);
   }
+
+  static class Codec implements CacheCodec<IntraLineDiffKey> {
+    @Override
+    public int getVersion() {
+      return (int) serialVersionUID;
+    }
+
+    @Override
+    public void encode(OutputStream out, IntraLineDiffKey key)
+        throws IOException {
+      key.writeTo(out);
+    }
+
+    @Override
+    public IntraLineDiffKey decode(InputStream in) throws IOException {
+      final ObjectId a = readNotNull(in);
+      final ObjectId b = readNotNull(in);
+      return new IntraLineDiffKey(a, null, b, null, null, null, null, null);
+    }
+  }
 }
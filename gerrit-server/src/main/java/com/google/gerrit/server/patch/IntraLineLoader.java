@@ -18,6 +18,8 @@ package com.google.gerrit.server.patch;
 import com.google.gerrit.server.cache.EntryCreator;
 import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.patch.CharTextComparator.DeadlineExceededException;
 import com.google.inject.Inject;
 
 import org.eclipse.jgit.diff.Edit;
@@ -29,12 +31,23 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Pattern;
 
+/**
+ * Computes intraline differences on a fixed pool of threads.
+ * <p>
+ * Each computation has a deadline, starting when it is queued. The character
+ * comparator of the difference algorithm checks the deadline as it runs, and
+ * abandons the computation once it passed; the entry is then cached with a
+ * {@link IntraLineDiff.Status#TIMEOUT} status. The requesting thread also
+ * stops waiting at the deadline, cancelling a computation that is still
+ * queued behind others or does not reach a deadline check.
+ */
 class IntraLineLoader extends EntryCreator<IntraLineDiffKey, IntraLineDiff> {
   private static final Logger log = LoggerFactory
       .getLogger(IntraLineLoader.class);
@@ -45,15 +58,17 @@ class IntraLineLoader extends EntryCreator<IntraLineDiffKey, IntraLineDiff> {
   private static final Pattern CONTROL_BLOCK_START_RE = Pattern
       .compile("[{:][ \\t]*$");
 
-  private final BlockingQueue<Worker> workerPool;
+  private final WorkQueue.Executor executor;
   private final long timeoutMillis;
 
   @Inject
-  IntraLineLoader(final @GerritServerConfig Config cfg) {
-    final int workers =
-        cfg.getInt("cache", PatchListCacheImpl.INTRA_NAME, "maxIdleWorkers",
-            Runtime.getRuntime().availableProcessors() * 3 / 2);
-    workerPool = new ArrayBlockingQueue<Worker>(workers, true /* fair */);
+  IntraLineLoader(final @GerritServerConfig Config cfg,
+      final WorkQueue workQueue) {
+    final int threads = cfg.getInt("cache", PatchListCacheImpl.INTRA_NAME,
+        "threads", cfg.getInt("cache", PatchListCacheImpl.INTRA_NAME,
+            "maxIdleWorkers",
+            Runtime.getRuntime().availableProcessors() * 3 / 2));
+    executor = workQueue.createQueue(Math.max(1, threads), "IntraLineDiff");
 
     timeoutMillis =
         ConfigUtil.getTimeUnit(cfg, "cache", PatchListCacheImpl.INTRA_NAME,
@@ -62,162 +77,57 @@ class IntraLineLoader extends EntryCreator<IntraLineDiffKey, IntraLineDiff> {
   }
 
   @Override
-  public IntraLineDiff createEntry(IntraLineDiffKey key) throws Exception {
-    Worker w = workerPool.poll();
-    if (w == null) {
-      w = new Worker();
-    }
-
-    Worker.Result r = w.computeWithTimeout(key, timeoutMillis);
-
-    if (r == Worker.Result.TIMEOUT) {
-      // Don't keep this thread. We have to murder it unsafely, which
-      // means its unable to be reused in the future. Return back a
-      // null result, indicating the cache cannot load this key.
-      //
-      return new IntraLineDiff(IntraLineDiff.Status.TIMEOUT);
-    }
-
-    if (!workerPool.offer(w)) {
-      // If the idle worker pool is full, terminate this thread.
-      //
-      w.end();
-    }
-
-    if (r.error != null) {
-      // If there was an error computing the result, carry it
-      // up to the caller so the cache knows this key is invalid.
-      //
-      throw r.error;
-    }
-
-    return r.diff;
-  }
-
-  private static class Worker {
-    private static final AtomicInteger count = new AtomicInteger(1);
-
-    private final ArrayBlockingQueue<Input> input;
-    private final ArrayBlockingQueue<Result> result;
-    private final Thread thread;
-
-    Worker() {
-      input = new ArrayBlockingQueue<Input>(1);
-      result = new ArrayBlockingQueue<Result>(1);
-
-      thread = new Thread(new Runnable() {
-        public void run() {
-          workerLoop();
-        }
-      });
-      thread.setName("IntraLineDiff-" + count.getAndIncrement());
-      thread.setDaemon(true);
-      thread.start();
-    }
-
-    Result computeWithTimeout(IntraLineDiffKey key, long timeoutMillis)
-        throws Exception {
-      if (!input.offer(new Input(key))) {
-        log.error("Cannot enqueue task to thread " + thread.getName());
-        return null;
-      }
-
-      Result r = result.poll(timeoutMillis, TimeUnit.MILLISECONDS);
-      if (r != null) {
-        return r;
-      } else {
-        log.warn(timeoutMillis + " ms timeout reached for IntraLineDiff"
-            + " in project " + key.getProject().get() //
-            + " on commit " + key.getCommit().name() //
-            + " for path " + key.getPath() //
-            + " comparing " + key.getBlobA().name() //
-            + ".." + key.getBlobB().name() //
-            + ".  Killing " + thread.getName());
-        forcefullyKillThreadInAnUglyWay();
-        return Result.TIMEOUT;
-      }
-    }
-
-    @SuppressWarnings("deprecation")
-    private void forcefullyKillThreadInAnUglyWay() {
-      try {
-        thread.stop();
-      } catch (Throwable error) {
-        // Ignore any reason the thread won't stop.
-        log.error("Cannot stop runaway thread " + thread.getName(), error);
-      }
-    }
-
-    void end() {
-      if (!input.offer(Input.END_THREAD)) {
-        log.error("Cannot gracefully stop thread " + thread.getName());
-      }
-    }
-
-    private void workerLoop() {
-      try {
-        for (;;) {
-          Input in;
-          try {
-            in = input.take();
-          } catch (InterruptedException e) {
-            log.error("Unexpected interrupt on " + thread.getName());
-            continue;
-          }
-
-          if (in == Input.END_THREAD) {
-            return;
+  public IntraLineDiff createEntry(final IntraLineDiffKey key) throws Exception {
+    final long deadline = System.nanoTime()
+        + TimeUnit.NANOSECONDS.convert(timeoutMillis, TimeUnit.MILLISECONDS);
+    final List<Edit> edits = key.getEdits();
+    final Text aContent = key.getTextA();
+    final Text bContent = key.getTextB();
+    key.release();
+
+    final Future<IntraLineDiff> result =
+        executor.submit(new Callable<IntraLineDiff>() {
+          @Override
+          public IntraLineDiff call() throws Exception {
+            return compute(edits, aContent, bContent, deadline);
           }
 
-          Result r;
-          try {
-            r = new Result(IntraLineLoader.compute(in.key));
-          } catch (Exception error) {
-            r = new Result(error);
+          @Override
+          public String toString() {
+            return "intraline " + key.getProject().get() + " " + key.getPath();
           }
-
-          if (!result.offer(r)) {
-            log.error("Cannot return result from " + thread.getName());
-          }
-        }
-      } catch (ThreadDeath iHaveBeenShot) {
-        // Handle thread death by gracefully returning to the caller,
-        // allowing the thread to be destroyed.
+        });
+    try {
+      return result.get(Math.max(0, deadline - System.nanoTime()),
+          TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      // Still queued, or stuck outside of the comparator's deadline checks.
+      result.cancel(true);
+      return timeout(key);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof DeadlineExceededException) {
+        return timeout(key);
       }
-    }
-
-    private static class Input {
-      static final Input END_THREAD = new Input(null);
-
-      final IntraLineDiffKey key;
-
-      Input(IntraLineDiffKey key) {
-        this.key = key;
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
       }
+      throw e;
     }
+  }
 
-    static class Result {
-      static final Result TIMEOUT = new Result((IntraLineDiff) null);
-
-      final IntraLineDiff diff;
-      final Exception error;
-
-      Result(IntraLineDiff diff) {
-        this.diff = diff;
-        this.error = null;
-      }
-
-      Result(Exception error) {
-        this.diff = null;
-        this.error = error;
-      }
-    }
+  private IntraLineDiff timeout(final IntraLineDiffKey key) {
+    log.warn(timeoutMillis + " ms timeout reached for IntraLineDiff"
+        + " in project " + key.getProject().get() //
+        + " on commit " + key.getCommit().name() //
+        + " for path " + key.getPath() //
+        + " comparing " + key.getBlobA().name() //
+        + ".." + key.getBlobB().name());
+    return new IntraLineDiff(IntraLineDiff.Status.TIMEOUT);
   }
 
-  private static IntraLineDiff compute(IntraLineDiffKey key) throws Exception {
-    List<Edit> edits = new ArrayList<Edit>(key.getEdits());
-    Text aContent = key.getTextA();
-    Text bContent = key.getTextB();
+  private static IntraLineDiff compute(List<Edit> lineEdits, Text aContent,
+      Text bContent, long deadline) throws Exception {
+    List<Edit> edits = new ArrayList<Edit>(lineEdits);
     combineLineEdits(edits, aContent, bContent);
 
     for (int i = 0; i < edits.size(); i++) {
@@ -226,7 +136,8 @@ class IntraLineLoader extends EntryCreator<IntraLineDiffKey, IntraLineDiff> {
       if (e.getType() == Edit.Type.REPLACE) {
         CharText a = new CharText(aContent, e.getBeginA(), e.getEndA());
         CharText b = new CharText(bContent, e.getBeginB(), e.getEndB());
-        CharTextComparator cmp = new CharTextComparator();
+        CharTextComparator cmp = new CharTextComparator(deadline);
+        cmp.check();
 
         List<Edit> wordEdits = MyersDiff.INSTANCE.diff(cmp, a, b);
 
@@ -0,0 +1,31 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.server.cache.Weigher;
+
+/** Approximates memory usage of an {@link IntraLineDiff} in the cache. */
+class IntraLineWeigher implements Weigher<IntraLineDiffKey, IntraLineDiff> {
+  /**
+   * Heap used by an IntraLineDiffKey: object header, fields, two ObjectIds.
+   * The loader releases the texts and edits of the key before it is stored.
+   */
+  private static final int KEY_SIZE = 16 + 8 * 8 + 2 * 36;
+
+  @Override
+  public int weigh(IntraLineDiffKey key, IntraLineDiff value) {
+    return KEY_SIZE + value.weigh();
+  }
+}
@@ -0,0 +1,154 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectStream;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lines of a blob too large to be held in memory as a {@link Text}.
+ * <p>
+ * The blob is streamed from the repository. Opening it only counts its lines
+ * and keeps the first few kilobytes, enough to guess the file type and
+ * character set. The lines actually shown to the user are read by a second
+ * pass through {@link #load(BitSet)}.
+ */
+public class LargeText {
+  private static final int HEAD_SIZE = 8192;
+
+  /** Blobs larger than this many bytes are streamed instead of cached. */
+  public static final long STREAM_THRESHOLD = 1 << 20;
+
+  private final ObjectLoader ldr;
+  private final byte[] head;
+  private final int size;
+  private final boolean missingNewlineAtEnd;
+  private final Map<Integer, String> lines;
+  private Charset charset;
+
+  public LargeText(final ObjectLoader ldr) throws IOException {
+    this.ldr = ldr;
+    this.lines = new HashMap<Integer, String>();
+
+    final ByteArrayOutputStream first = new ByteArrayOutputStream();
+    final byte[] buf = new byte[8192];
+    int cnt = 0;
+    byte last = '\n';
+    final ObjectStream in = ldr.openStream();
+    try {
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        if (first.size() < HEAD_SIZE) {
+          first.write(buf, 0, Math.min(n, HEAD_SIZE - first.size()));
+        }
+        for (int i = 0; i < n; i++) {
+          if (buf[i] == '\n') {
+            cnt++;
+          }
+        }
+        last = buf[n - 1];
+      }
+    } finally {
+      in.close();
+    }
+
+    this.head = first.toByteArray();
+    this.missingNewlineAtEnd = last != '\n';
+    this.size = missingNewlineAtEnd ? cnt + 1 : cnt;
+  }
+
+  /** @return number of lines in the blob. */
+  public int size() {
+    return size;
+  }
+
+  /** @return the first few kilobytes of the blob. */
+  public byte[] getHead() {
+    return head;
+  }
+
+  public boolean isMissingNewlineAtEnd() {
+    return missingNewlineAtEnd;
+  }
+
+  /**
+   * Read the requested lines from the blob.
+   *
+   * @param wanted line numbers (0 based) to read. Lines read by an earlier
+   *        call remain available.
+   * @throws IOException the blob cannot be read.
+   */
+  public void load(final BitSet wanted) throws IOException {
+    final int stop = Math.min(wanted.length(), size);
+    if (stop == 0) {
+      return;
+    }
+
+    final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    final byte[] buf = new byte[8192];
+    int lineNo = 0;
+    final ObjectStream in = ldr.openStream();
+    try {
+      int n;
+      while (lineNo < stop && (n = in.read(buf)) > 0) {
+        int s = 0;
+        for (int i = 0; i < n && lineNo < stop; i++) {
+          if (buf[i] == '\n') {
+            if (wanted.get(lineNo)) {
+              line.write(buf, s, i - s);
+              put(lineNo, line);
+            }
+            lineNo++;
+            s = i + 1;
+          }
+        }
+        if (lineNo < stop && s < n && wanted.get(lineNo)) {
+          line.write(buf, s, n - s);
+        }
+      }
+    } finally {
+      in.close();
+    }
+    if (lineNo < stop && wanted.get(lineNo)) {
+      put(lineNo, line);
+    }
+  }
+
+  /** @return the line, without its trailing LF; it must have been loaded. */
+  public String getString(final int i) {
+    final String s = lines.get(i);
+    if (s == null) {
+      throw new IllegalStateException("Line " + i + " not loaded");
+    }
+    return s;
+  }
+
+  private void put(final int lineNo, final ByteArrayOutputStream line) {
+    if (charset == null) {
+      charset = Text.charset(head, null);
+    }
+    final byte[] raw = line.toByteArray();
+    lines.put(lineNo, RawParseUtils.decode(charset, raw, 0, raw.length));
+    line.reset();
+  }
+}
@@ -26,6 +26,7 @@ import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
 
 import com.google.gerrit.reviewdb.Patch;
 import com.google.gerrit.reviewdb.PatchSet;
+import com.google.gerrit.server.cache.CacheCodec;
 
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.ObjectId;
@@ -33,8 +34,10 @@ import org.eclipse.jgit.lib.ObjectId;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -64,6 +67,9 @@ public class PatchList implements Serializable {
   private transient int deletions;
   private transient PatchListEntry[] patches;
 
+  private PatchList() {
+  }
+
   PatchList(@Nullable final AnyObjectId oldId, final AnyObjectId newId,
       final boolean againstParent, final PatchListEntry[] patches) {
     this.oldId = oldId != null ? oldId.copy() : null;
@@ -135,6 +141,16 @@ public class PatchList implements Serializable {
     return r;
   }
 
+  /** @return approximate number of bytes of heap retained by this list. */
+  int weigh() {
+    int size = 16 + 3 * 8 + 3 * 4 + 2 * 36; // object header, fields, ids
+    size += 16 + patches.length * 8;
+    for (final PatchListEntry e : patches) {
+      size += e.weigh();
+    }
+    return size;
+  }
+
   /** Find an entry by name, returning an empty entry if not present. */
   public PatchListEntry get(final String fileName) {
     final int index = search(fileName);
@@ -157,19 +173,43 @@ public class PatchList implements Serializable {
     return -(low + 1);
   }
 
+  void writeTo(final OutputStream out) throws IOException {
+    writeCanBeNull(out, oldId);
+    writeNotNull(out, newId);
+    writeVarInt32(out, againstParent ? 1 : 0);
+    writeVarInt32(out, insertions);
+    writeVarInt32(out, deletions);
+    writeVarInt32(out, patches.length);
+    for (PatchListEntry p : patches) {
+      p.writeTo(out);
+    }
+  }
+
+  static PatchList readFrom(final InputStream in) throws IOException {
+    final PatchList r = new PatchList();
+    r.read(in);
+    return r;
+  }
+
+  private void read(final InputStream in) throws IOException {
+    oldId = readCanBeNull(in);
+    newId = readNotNull(in);
+    againstParent = readVarInt32(in) != 0;
+    insertions = readVarInt32(in);
+    deletions = readVarInt32(in);
+    final int cnt = readVarInt32(in);
+    final PatchListEntry[] all = new PatchListEntry[cnt];
+    for (int i = 0; i < all.length; i++) {
+      all[i] = PatchListEntry.readFrom(in);
+    }
+    patches = all;
+  }
+
   private void writeObject(final ObjectOutputStream output) throws IOException {
     final ByteArrayOutputStream buf = new ByteArrayOutputStream();
     final DeflaterOutputStream out = new DeflaterOutputStream(buf);
     try {
-      writeCanBeNull(out, oldId);
-      writeNotNull(out, newId);
-      writeVarInt32(out, againstParent ? 1 : 0);
-      writeVarInt32(out, insertions);
-      writeVarInt32(out, deletions);
-      writeVarInt32(out, patches.length);
-      for (PatchListEntry p : patches) {
-        p.writeTo(out);
-      }
+      writeTo(out);
     } finally {
       out.close();
     }
@@ -180,19 +220,27 @@ public class PatchList implements Serializable {
     final ByteArrayInputStream buf = new ByteArrayInputStream(readBytes(input));
     final InflaterInputStream in = new InflaterInputStream(buf);
     try {
-      oldId = readCanBeNull(in);
-      newId = readNotNull(in);
-      againstParent = readVarInt32(in) != 0;
-      insertions = readVarInt32(in);
-      deletions = readVarInt32(in);
-      final int cnt = readVarInt32(in);
-      final PatchListEntry[] all = new PatchListEntry[cnt];
-      for (int i = 0; i < all.length; i++) {
-        all[i] = PatchListEntry.readFrom(in);
-      }
-      patches = all;
+      read(in);
     } finally {
       in.close();
     }
   }
+
+  /** Stores the list without compression in the disk cache. */
+  static class Codec implements CacheCodec<PatchList> {
+    @Override
+    public int getVersion() {
+      return (int) serialVersionUID;
+    }
+
+    @Override
+    public void encode(OutputStream out, PatchList list) throws IOException {
+      list.writeTo(out);
+    }
+
+    @Override
+    public PatchList decode(InputStream in) throws IOException {
+      return readFrom(in);
+    }
+  }
 }
@@ -23,5 +23,12 @@ public interface PatchListCache {
 
   public PatchList get(Change change, PatchSet patchSet);
 
+  /**
+   * Get the names of the files modified by a patch set, compared to its
+   * parent. Cheaper than {@link #get(Change, PatchSet)} when no differences
+   * are needed.
+   */
+  public ChangedFileList getChangedFiles(Change change, PatchSet patchSet);
+
   public IntraLineDiff getIntraLineDiff(IntraLineDiffKey key);
 }
@@ -36,8 +36,10 @@ import org.eclipse.jgit.lib.ObjectId;
 /** Provides a cached list of {@link PatchListEntry}. */
 @Singleton
 public class PatchListCacheImpl implements PatchListCache {
-  private static final String FILE_NAME = "diff";
+  static final String FILE_NAME = "diff";
   static final String INTRA_NAME = "diff_intraline";
+  static final String SIMILARITY_NAME = "diff_similarity";
+  static final String FILES_NAME = "diff_files";
 
   public static Module module() {
     return new CacheModule() {
@@ -49,6 +51,8 @@ public class PatchListCacheImpl implements PatchListCache {
             .memoryLimit(128) // very large items, cache only a few
             .evictionPolicy(EvictionPolicy.LRU) // prefer most recent
             .populateWith(PatchListLoader.class) //
+            .weigher(PatchListWeigher.class) //
+            .codec(PatchListKey.Codec.class, PatchList.Codec.class) //
         ;
 
         final TypeLiteral<Cache<IntraLineDiffKey, IntraLineDiff>> intraType =
@@ -57,6 +61,24 @@ public class PatchListCacheImpl implements PatchListCache {
             .memoryLimit(128) // very large items, cache only a few
             .evictionPolicy(EvictionPolicy.LRU) // prefer most recent
             .populateWith(IntraLineLoader.class) //
+            .weigher(IntraLineWeigher.class) //
+            .codec(IntraLineDiffKey.Codec.class, IntraLineDiff.Codec.class) //
+        ;
+
+        final TypeLiteral<Cache<ObjectId, SimilarityHash>> similarityType =
+            new TypeLiteral<Cache<ObjectId, SimilarityHash>>() {};
+        core(similarityType, SIMILARITY_NAME) //
+            .memoryBytes(16 << 20) //
+            .weigher(SimilarityWeigher.class) //
+        ;
+
+        final TypeLiteral<Cache<PatchListKey, ChangedFileList>> filesType =
+            new TypeLiteral<Cache<PatchListKey, ChangedFileList>>() {};
+        disk(filesType, FILES_NAME) //
+            .memoryBytes(8 << 20) //
+            .populateWith(ChangedFileListLoader.class) //
+            .weigher(ChangedFileListWeigher.class) //
+            .codec(PatchListKey.Codec.class, ChangedFileList.Codec.class) //
         ;
 
         bind(PatchListCacheImpl.class);
@@ -67,15 +89,18 @@ public class PatchListCacheImpl implements PatchListCache {
 
   private final Cache<PatchListKey, PatchList> fileCache;
   private final Cache<IntraLineDiffKey, IntraLineDiff> intraCache;
+  private final Cache<PatchListKey, ChangedFileList> filesCache;
   private final boolean computeIntraline;
 
   @Inject
   PatchListCacheImpl(
       @Named(FILE_NAME) final Cache<PatchListKey, PatchList> fileCache,
       @Named(INTRA_NAME) final Cache<IntraLineDiffKey, IntraLineDiff> intraCache,
+      @Named(FILES_NAME) final Cache<PatchListKey, ChangedFileList> filesCache,
       @GerritServerConfig Config cfg) {
     this.fileCache = fileCache;
     this.intraCache = intraCache;
+    this.filesCache = filesCache;
 
     this.computeIntraline =
         cfg.getBoolean("cache", INTRA_NAME, "enabled",
@@ -87,11 +112,22 @@ public class PatchListCacheImpl implements PatchListCache {
   }
 
   public PatchList get(final Change change, final PatchSet patchSet) {
+    return get(keyFor(change, patchSet));
+  }
+
+  @Override
+  public ChangedFileList getChangedFiles(final Change change,
+      final PatchSet patchSet) {
+    return filesCache.get(keyFor(change, patchSet));
+  }
+
+  private static PatchListKey keyFor(final Change change,
+      final PatchSet patchSet) {
     final Project.NameKey projectKey = change.getProject();
     final ObjectId a = null;
     final ObjectId b = ObjectId.fromString(patchSet.getRevision().get());
     final Whitespace ws = Whitespace.IGNORE_NONE;
-    return get(new PatchListKey(projectKey, a, b, ws));
+    return new PatchListKey(projectKey, a, b, ws);
   }
 
   @Override
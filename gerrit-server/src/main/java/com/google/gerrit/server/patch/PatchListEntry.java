@@ -39,17 +39,34 @@ import org.eclipse.jgit.util.RawParseUtils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
-
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.WeakHashMap;
+
+/**
+ * Summary of the difference of one file, as stored in the diff cache.
+ * <p>
+ * Entries are kept compact as a large change may hold thousands of them:
+ * edits are packed into a single {@code int[]} of (beginA, endA, beginB,
+ * endB) tuples and only become {@link Edit} objects when requested, file
+ * names are shared with other entries naming the same path, and the header
+ * is kept as raw bytes until its lines are requested.
+ */
 public class PatchListEntry {
   private static final byte[] EMPTY_HEADER = {};
+  private static final int[] NO_EDITS = {};
+
+  /** File names in use by any entry, so equal paths share one String. */
+  private static final Map<String, WeakReference<String>> NAMES =
+      new WeakHashMap<String, WeakReference<String>>();
 
   static PatchListEntry empty(final String fileName) {
     return new PatchListEntry(ChangeType.MODIFIED, PatchType.UNIFIED, null,
-        fileName, EMPTY_HEADER, Collections.<Edit> emptyList(), 0, 0);
+        fileName, EMPTY_HEADER, NO_EDITS, 0, 0);
   }
 
   private final ChangeType changeType;
@@ -57,7 +74,7 @@ public class PatchListEntry {
   private final String oldName;
   private final String newName;
   private final byte[] header;
-  private final List<Edit> edits;
+  private final int[] edits;
   private final int insertions;
   private final int deletions;
 
@@ -68,19 +85,19 @@ public class PatchListEntry {
     switch (changeType) {
       case DELETED:
         oldName = null;
-        newName = hdr.getOldPath();
+        newName = intern(hdr.getOldPath());
         break;
 
       case ADDED:
       case MODIFIED:
         oldName = null;
-        newName = hdr.getNewPath();
+        newName = intern(hdr.getNewPath());
         break;
 
       case COPIED:
       case RENAMED:
-        oldName = hdr.getOldPath();
-        newName = hdr.getNewPath();
+        oldName = intern(hdr.getOldPath());
+        newName = intern(hdr.getNewPath());
         break;
 
       default:
@@ -93,9 +110,9 @@ public class PatchListEntry {
         || hdr.getHunks().isEmpty() //
         || hdr.getOldMode() == FileMode.GITLINK
         || hdr.getNewMode() == FileMode.GITLINK) {
-      edits = Collections.emptyList();
+      edits = NO_EDITS;
     } else {
-      edits = Collections.unmodifiableList(editList);
+      edits = pack(editList);
     }
 
     int ins = 0;
@@ -110,7 +127,7 @@ public class PatchListEntry {
 
   private PatchListEntry(final ChangeType changeType,
       final PatchType patchType, final String oldName, final String newName,
-      final byte[] header, final List<Edit> edits, final int insertions,
+      final byte[] header, final int[] edits, final int insertions,
       final int deletions) {
     this.changeType = changeType;
     this.patchType = patchType;
@@ -138,8 +155,9 @@ public class PatchListEntry {
     return newName;
   }
 
+  /** @return the edits of this file; each call creates new Edit objects. */
   public List<Edit> getEdits() {
-    return edits;
+    return new EditView(edits);
   }
 
   public int getInsertions() {
@@ -161,6 +179,23 @@ public class PatchListEntry {
     return headerLines;
   }
 
+  /** @return approximate number of bytes of heap retained by this entry. */
+  int weigh() {
+    int size = 16 + 6 * 8 + 2 * 4; // object header, references, ints
+    size += stringSize(oldName);
+    size += stringSize(newName);
+    size += 16 + header.length;
+    size += 16 + edits.length * 4;
+    return size;
+  }
+
+  private static int stringSize(final String str) {
+    if (str != null) {
+      return 16 + 3 * 4 + 16 + str.length() * 2;
+    }
+    return 0;
+  }
+
   Patch toPatch(final PatchSet.Id setId) {
     final Patch p = new Patch(new Patch.Key(setId, getNewName()));
     p.setChangeType(getChangeType());
@@ -180,40 +215,59 @@ public class PatchListEntry {
     writeVarInt32(out, insertions);
     writeVarInt32(out, deletions);
 
-    writeVarInt32(out, edits.size());
-    for (final Edit e : edits) {
-      writeVarInt32(out, e.getBeginA());
-      writeVarInt32(out, e.getEndA());
-      writeVarInt32(out, e.getBeginB());
-      writeVarInt32(out, e.getEndB());
+    writeVarInt32(out, edits.length / 4);
+    for (final int v : edits) {
+      writeVarInt32(out, v);
     }
   }
 
   static PatchListEntry readFrom(final InputStream in) throws IOException {
     final ChangeType changeType = readEnum(in, ChangeType.values());
     final PatchType patchType = readEnum(in, PatchType.values());
-    final String oldName = readString(in);
-    final String newName = readString(in);
+    final String oldName = intern(readString(in));
+    final String newName = intern(readString(in));
     final byte[] hdr = readBytes(in);
     final int ins = readVarInt32(in);
     final int del = readVarInt32(in);
 
     final int editCount = readVarInt32(in);
-    final Edit[] editArray = new Edit[editCount];
-    for (int i = 0; i < editCount; i++) {
-      int beginA = readVarInt32(in);
-      int endA = readVarInt32(in);
-      int beginB = readVarInt32(in);
-      int endB = readVarInt32(in);
-      editArray[i] = new Edit(beginA, endA, beginB, endB);
+    final int[] edits = editCount > 0 ? new int[editCount * 4] : NO_EDITS;
+    for (int i = 0; i < edits.length; i++) {
+      edits[i] = readVarInt32(in);
     }
 
     return new PatchListEntry(changeType, patchType, oldName, newName, hdr,
-        toList(editArray), ins, del);
+        edits, ins, del);
   }
 
-  private static List<Edit> toList(Edit[] l) {
-    return Collections.unmodifiableList(Arrays.asList(l));
+  private static int[] pack(final List<Edit> editList) {
+    if (editList.isEmpty()) {
+      return NO_EDITS;
+    }
+    final int[] r = new int[editList.size() * 4];
+    int i = 0;
+    for (final Edit e : editList) {
+      r[i++] = e.getBeginA();
+      r[i++] = e.getEndA();
+      r[i++] = e.getBeginB();
+      r[i++] = e.getEndB();
+    }
+    return r;
+  }
+
+  private static String intern(final String name) {
+    if (name == null) {
+      return null;
+    }
+    synchronized (NAMES) {
+      final WeakReference<String> ref = NAMES.get(name);
+      final String r = ref != null ? ref.get() : null;
+      if (r != null) {
+        return r;
+      }
+      NAMES.put(name, new WeakReference<String>(name));
+      return name;
+    }
   }
 
   private static byte[] compact(final FileHeader h) {
@@ -288,4 +342,28 @@ public class PatchListEntry {
 
     return pt;
   }
+
+  /** Read-only view of packed edits, creating an Edit for each access. */
+  private static class EditView extends AbstractList<Edit> implements
+      RandomAccess {
+    private final int[] edits;
+
+    EditView(final int[] edits) {
+      this.edits = edits;
+    }
+
+    @Override
+    public Edit get(final int index) {
+      if (index < 0 || size() <= index) {
+        throw new IndexOutOfBoundsException(String.valueOf(index));
+      }
+      final int i = index * 4;
+      return new Edit(edits[i], edits[i + 1], edits[i + 2], edits[i + 3]);
+    }
+
+    @Override
+    public int size() {
+      return edits.length / 4;
+    }
+  }
 }
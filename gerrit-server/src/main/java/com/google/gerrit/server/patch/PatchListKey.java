@@ -23,13 +23,16 @@ import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
 
 import com.google.gerrit.reviewdb.Project;
 import com.google.gerrit.reviewdb.AccountDiffPreference.Whitespace;
+import com.google.gerrit.server.cache.CacheCodec;
 
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.ObjectId;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 
 import javax.annotation.Nullable;
@@ -116,6 +119,10 @@ public class PatchListKey implements Serializable {
   }
 
   private void writeObject(final ObjectOutputStream out) throws IOException {
+    writeTo(out);
+  }
+
+  private void writeTo(final OutputStream out) throws IOException {
     writeCanBeNull(out, oldId);
     writeNotNull(out, newId);
     writeEnum(out, whitespace);
@@ -126,4 +133,24 @@ public class PatchListKey implements Serializable {
     newId = readNotNull(in);
     whitespace = readEnum(in, Whitespace.values());
   }
+
+  static class Codec implements CacheCodec<PatchListKey> {
+    @Override
+    public int getVersion() {
+      return (int) serialVersionUID;
+    }
+
+    @Override
+    public void encode(OutputStream out, PatchListKey key) throws IOException {
+      key.writeTo(out);
+    }
+
+    @Override
+    public PatchListKey decode(InputStream in) throws IOException {
+      final ObjectId a = readCanBeNull(in);
+      final ObjectId b = readNotNull(in);
+      final Whitespace ws = readEnum(in, Whitespace.values());
+      return new PatchListKey(null, a, b, ws);
+    }
+  }
 }
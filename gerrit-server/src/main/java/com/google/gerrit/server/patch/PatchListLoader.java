@@ -17,9 +17,15 @@ package com.google.gerrit.server.patch;
 
 import com.google.gerrit.reviewdb.Patch;
 import com.google.gerrit.reviewdb.AccountDiffPreference.Whitespace;
+import com.google.gerrit.server.cache.Cache;
 import com.google.gerrit.server.cache.EntryCreator;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.util.ParallelWork;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffFormatter;
@@ -28,22 +34,13 @@ import org.eclipse.jgit.diff.EditList;
 import org.eclipse.jgit.diff.HistogramDiff;
 import org.eclipse.jgit.diff.RawText;
 import org.eclipse.jgit.diff.RawTextComparator;
-import org.eclipse.jgit.diff.Sequence;
-import org.eclipse.jgit.dircache.DirCache;
-import org.eclipse.jgit.dircache.DirCacheBuilder;
-import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectReader;
-import org.eclipse.jgit.lib.Ref;
-import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.merge.MergeFormatter;
-import org.eclipse.jgit.merge.MergeResult;
-import org.eclipse.jgit.merge.MergeStrategy;
-import org.eclipse.jgit.merge.ResolveMerger;
 import org.eclipse.jgit.patch.FileHeader;
 import org.eclipse.jgit.patch.FileHeader.PatchType;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -52,32 +49,69 @@ import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
-import org.eclipse.jgit.util.TemporaryBuffer;
 import org.eclipse.jgit.util.io.DisabledOutputStream;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class PatchListLoader extends EntryCreator<PatchListKey, PatchList> {
+  /** Number of files one thread diffs before claiming more. */
+  static final int FILES_PER_TASK = 64;
+
   private final GitRepositoryManager repoManager;
+  private final AutoMerger autoMerger;
+  private final int threads;
+  private final WorkQueue.Executor executor;
+  private final Cache<ObjectId, SimilarityHash> similarityCache;
+  private final Cache<PatchListKey, ChangedFileList> filesCache;
+  private final int renameScore;
+  private final int renamePairs;
+  private final long renameTimeout;
 
   @Inject
-  PatchListLoader(GitRepositoryManager mgr) {
+  PatchListLoader(GitRepositoryManager mgr, AutoMerger autoMerger,
+      WorkQueue workQueue,
+      @Named(PatchListCacheImpl.SIMILARITY_NAME) //
+      Cache<ObjectId, SimilarityHash> similarityCache,
+      @Named(PatchListCacheImpl.FILES_NAME) //
+      Cache<PatchListKey, ChangedFileList> filesCache,
+      @GerritServerConfig Config cfg) {
     repoManager = mgr;
+    this.autoMerger = autoMerger;
+    this.similarityCache = similarityCache;
+    this.filesCache = filesCache;
+    renameScore = cfg.getInt("cache", PatchListCacheImpl.FILE_NAME,
+        "renameScore", 60);
+    renamePairs = cfg.getInt("cache", PatchListCacheImpl.FILE_NAME,
+        "renamePairs", 400 * 400);
+    renameTimeout = ConfigUtil.getTimeUnit(cfg, "cache",
+        PatchListCacheImpl.FILE_NAME, "renameTimeout",
+        TimeUnit.SECONDS.toMillis(5), TimeUnit.MILLISECONDS);
+    threads = cfg.getInt("cache", PatchListCacheImpl.FILE_NAME, "threads",
+        Runtime.getRuntime().availableProcessors());
+    executor = 1 < threads ? workQueue.createQueue(threads, "DiffLoader") : null;
   }
 
   @Override
   public PatchList createEntry(final PatchListKey key) throws Exception {
     final Repository repo = repoManager.openRepository(key.projectKey);
+    final PatchList list;
     try {
-      return readPatchList(key, repo);
+      list = readPatchList(key, repo);
     } finally {
       repo.close();
     }
+
+    if (key.getOldId() == null
+        && key.getWhitespace() == Whitespace.IGNORE_NONE) {
+      filesCache.put(key, ChangedFileList.of(list));
+    }
+    return list;
   }
 
   private static RawTextComparator comparatorFor(Whitespace ws) {
@@ -104,7 +138,7 @@ class PatchListLoader extends EntryCreator<PatchListKey, PatchList> {
     try {
       final RevWalk rw = new RevWalk(reader);
       final RevCommit b = rw.parseCommit(key.getNewId());
-      final RevObject a = aFor(key, repo, rw, b);
+      final RevObject a = aFor(key, repo, rw, b, autoMerger);
 
       if (a == null) {
         // TODO(sop) Remove this case.
@@ -139,26 +173,100 @@ class PatchListLoader extends EntryCreator<PatchListKey, PatchList> {
       walk.addTree(bTree);
       walk.setFilter(TreeFilter.ANY_DIFF);
 
-      DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE);
-      df.setRepository(repo);
-      df.setDiffComparator(cmp);
-      df.setDetectRenames(true);
-      List<DiffEntry> diffEntries = df.scan(aTree, bTree);
-
-      final int cnt = diffEntries.size();
-      final PatchListEntry[] entries = new PatchListEntry[1 + cnt];
-      entries[0] = newCommitMessage(cmp, repo, reader, //
-          againstParent ? null : aCommit, b);
-      for (int i = 0; i < cnt; i++) {
-        FileHeader fh = df.toFileHeader(diffEntries.get(i));
-        entries[1 + i] = newEntry(aTree, fh);
+      DiffFormatter df = newFormatter(repo, cmp);
+      try {
+        final RenameFinder renames = new RenameFinder(reader, similarityCache,
+            renameScore, renamePairs, System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(renameTimeout));
+        List<DiffEntry> diffEntries = renames.compute(df.scan(aTree, bTree));
+
+        final int cnt = diffEntries.size();
+        final PatchListEntry[] entries = new PatchListEntry[1 + cnt];
+        entries[0] = newCommitMessage(cmp, repo, reader, //
+            againstParent ? null : aCommit, b);
+        newEntries(repo, cmp, df, aTree, diffEntries, entries);
+        return new PatchList(a, b, againstParent, entries);
+      } finally {
+        df.release();
       }
-      return new PatchList(a, b, againstParent, entries);
     } finally {
       reader.release();
     }
   }
 
+  private static DiffFormatter newFormatter(final Repository repo,
+      final RawTextComparator cmp) {
+    final DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE);
+    df.setRepository(repo);
+    df.setDiffComparator(cmp);
+    return df;
+  }
+
+  /**
+   * Compute the file header and edits of each entry into {@code entries}.
+   * <p>
+   * Large changes are split into runs of {@link #FILES_PER_TASK} files, which
+   * are claimed by the calling thread and by helpers on the executor, see
+   * {@link ParallelWork}. Each thread reads objects through its own formatter
+   * and {@link ObjectReader}.
+   * Entry {@code i} is always stored at {@code entries[1 + i]}, keeping the
+   * order of {@code diffEntries}.
+   */
+  private void newEntries(final Repository repo, final RawTextComparator cmp,
+      final DiffFormatter df, final RevTree aTree,
+      final List<DiffEntry> diffEntries, final PatchListEntry[] entries)
+      throws IOException {
+    final int cnt = diffEntries.size();
+    final int tasks = (cnt + FILES_PER_TASK - 1) / FILES_PER_TASK;
+    final AtomicInteger next = new AtomicInteger();
+    if (executor == null || tasks <= 1) {
+      newEntries(df, aTree, diffEntries, entries, next);
+      return;
+    }
+
+    try {
+      ParallelWork.run(executor, Math.min(threads, tasks) - 1,
+          new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              // Formatters are not thread safe, each run uses its own.
+              final DiffFormatter hdf = newFormatter(repo, cmp);
+              try {
+                newEntries(hdf, aTree, diffEntries, entries, next);
+              } finally {
+                hdf.release();
+              }
+              return null;
+            }
+          });
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException("Cannot compute diff", e.getCause());
+    }
+  }
+
+  private void newEntries(final DiffFormatter df, final RevTree aTree,
+      final List<DiffEntry> diffEntries, final PatchListEntry[] entries,
+      final AtomicInteger next) throws IOException {
+    final int cnt = diffEntries.size();
+    for (;;) {
+      final int start = next.getAndAdd(FILES_PER_TASK);
+      if (cnt <= start) {
+        return;
+      }
+      final int end = Math.min(start + FILES_PER_TASK, cnt);
+      for (int i = start; i < end; i++) {
+        FileHeader fh = df.toFileHeader(diffEntries.get(i));
+        entries[1 + i] = newEntry(aTree, fh);
+      }
+    }
+  }
+
   private PatchListEntry newCommitMessage(final RawTextComparator cmp,
       final Repository db, final ObjectReader reader,
       final RevCommit aCommit, final RevCommit bCommit) throws IOException {
@@ -214,8 +322,14 @@ class PatchListLoader extends EntryCreator<PatchListKey, PatchList> {
     }
   }
 
-  private static RevObject aFor(final PatchListKey key,
-      final Repository repo, final RevWalk rw, final RevCommit b)
+  /**
+   * Get the old side of a comparison.
+   *
+   * @return the commit or tree to compare {@code b} to; null if {@code b} is
+   *         an octopus merge, which is only compared by its commit message.
+   */
+  static RevObject aFor(final PatchListKey key, final Repository repo,
+      final RevWalk rw, final RevCommit b, final AutoMerger autoMerger)
       throws IOException {
     if (key.getOldId() != null) {
       return rw.parseAny(key.getOldId());
@@ -230,127 +344,13 @@ class PatchListLoader extends EntryCreator<PatchListKey, PatchList> {
         return r;
       }
       case 2:
-        return automerge(repo, rw, b);
+        return autoMerger.merge(repo, rw, b);
       default:
         // TODO(sop) handle an octopus merge.
         return null;
     }
   }
 
-  private static RevObject automerge(Repository repo, RevWalk rw, RevCommit b)
-      throws IOException {
-    String hash = b.name();
-    String refName = GitRepositoryManager.REFS_CACHE_AUTOMERGE
-        + hash.substring(0, 2)
-        + "/"
-        + hash.substring(2);
-    Ref ref = repo.getRef(refName);
-    if (ref != null && ref.getObjectId() != null) {
-      return rw.parseTree(ref.getObjectId());
-    }
-
-    ObjectId treeId;
-    ResolveMerger m = (ResolveMerger) MergeStrategy.RESOLVE.newMerger(repo, true);
-    ObjectInserter ins = m.getObjectInserter();
-    try {
-      DirCache dc = DirCache.newInCore();
-      m.setDirCache(dc);
-
-      if (m.merge(b.getParents())) {
-        treeId = m.getResultTreeId();
-
-      } else {
-        RevCommit ours = b.getParent(0);
-        RevCommit theirs = b.getParent(1);
-        rw.parseBody(ours);
-        rw.parseBody(theirs);
-        String oursMsg = ours.getShortMessage();
-        String theirsMsg = theirs.getShortMessage();
-
-        String oursName = String.format("HEAD   (%s %s)",
-            ours.abbreviate(6).name(),
-            oursMsg.substring(0, Math.min(oursMsg.length(), 60)));
-        String theirsName = String.format("BRANCH (%s %s)",
-            theirs.abbreviate(6).name(),
-            theirsMsg.substring(0, Math.min(theirsMsg.length(), 60)));
-
-        MergeFormatter fmt = new MergeFormatter();
-        Map<String, MergeResult<? extends Sequence>> r = m.getMergeResults();
-        Map<String, ObjectId> resolved = new HashMap<String, ObjectId>();
-        for (String path : r.keySet()) {
-          MergeResult<? extends Sequence> p = r.get(path);
-          TemporaryBuffer buf = new TemporaryBuffer.LocalFile(10 * 1024 * 1024);
-          try {
-            fmt.formatMerge(buf, p, "BASE", oursName, theirsName, "UTF-8");
-            buf.close();
-
-            InputStream in = buf.openInputStream();
-            try {
-              resolved.put(path, ins.insert(Constants.OBJ_BLOB, buf.length(), in));
-            } finally {
-              in.close();
-            }
-          } finally {
-            buf.destroy();
-          }
-        }
-
-        DirCacheBuilder builder = dc.builder();
-        int cnt = dc.getEntryCount();
-        for (int i = 0; i < cnt;) {
-          DirCacheEntry entry = dc.getEntry(i);
-          if (entry.getStage() == 0) {
-            builder.add(entry);
-            i++;
-            continue;
-          }
-
-          int next = dc.nextEntry(i);
-          String path = entry.getPathString();
-          DirCacheEntry res = new DirCacheEntry(path);
-          if (resolved.containsKey(path)) {
-            // For a file with content merge conflict that we produced a result
-            // above on, collapse the file down to a single stage 0 with just
-            // the blob content, and a randomly selected mode (the lowest stage,
-            // which should be the merge base, or ours).
-            res.setFileMode(entry.getFileMode());
-            res.setObjectId(resolved.get(path));
-
-          } else if (next == i + 1) {
-            // If there is exactly one stage present, shouldn't be a conflict...
-            res.setFileMode(entry.getFileMode());
-            res.setObjectId(entry.getObjectId());
-
-          } else if (next == i + 2) {
-            // Two stages suggests a delete/modify conflict. Pick the higher
-            // stage as the automatic result.
-            entry = dc.getEntry(i + 1);
-            res.setFileMode(entry.getFileMode());
-            res.setObjectId(entry.getObjectId());
-
-          } else { // 3 stage conflict, no resolve above
-            // Punt on the 3-stage conflict and show the base, for now.
-            res.setFileMode(entry.getFileMode());
-            res.setObjectId(entry.getObjectId());
-          }
-          builder.add(res);
-          i = next;
-        }
-        builder.finish();
-        treeId = dc.writeTree(ins);
-      }
-      ins.flush();
-    } finally {
-      ins.release();
-    }
-
-    RefUpdate update = repo.updateRef(refName);
-    update.setNewObjectId(treeId);
-    update.disableRefLog();
-    update.forceUpdate();
-    return rw.parseTree(treeId);
-  }
-
   private static ObjectId emptyTree(final Repository repo) throws IOException {
     ObjectInserter oi = repo.newObjectInserter();
     try {
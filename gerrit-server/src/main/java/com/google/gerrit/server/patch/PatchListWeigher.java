@@ -0,0 +1,28 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.server.cache.Weigher;
+
+/** Approximates memory usage of a {@link PatchList} in the cache. */
+class PatchListWeigher implements Weigher<PatchListKey, PatchList> {
+  /** Heap used by a PatchListKey: object header, fields, two ObjectIds. */
+  private static final int KEY_SIZE = 16 + 4 * 8 + 2 * 36;
+
+  @Override
+  public int weigh(PatchListKey key, PatchList value) {
+    return KEY_SIZE + value.weigh();
+  }
+}
@@ -27,6 +27,7 @@ import com.google.gerrit.reviewdb.PatchSetApproval;
 import com.google.gerrit.reviewdb.ReviewDb;
 import com.google.gerrit.server.ChangeUtil;
 import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.mail.CommentSender;
 import com.google.gerrit.server.mail.EmailException;
 import com.google.gerrit.server.project.ChangeControl;
@@ -68,6 +69,7 @@ public class PublishComments implements Callable<VoidResult> {
   private final ChangeControl.Factory changeControlFactory;
   private final FunctionState.Factory functionStateFactory;
   private final ChangeHookRunner hooks;
+  private final ChangeIndexer changeIndexer;
 
   private final PatchSet.Id patchSetId;
   private final String messageText;
@@ -86,6 +88,7 @@ public class PublishComments implements Callable<VoidResult> {
       final ChangeControl.Factory changeControlFactory,
       final FunctionState.Factory functionStateFactory,
       final ChangeHookRunner hooks,
+      final ChangeIndexer changeIndexer,
 
       @Assisted final PatchSet.Id patchSetId,
       @Assisted final String messageText,
@@ -98,6 +101,7 @@ public class PublishComments implements Callable<VoidResult> {
     this.changeControlFactory = changeControlFactory;
     this.functionStateFactory = functionStateFactory;
     this.hooks = hooks;
+    this.changeIndexer = changeIndexer;
 
     this.patchSetId = patchSetId;
     this.messageText = messageText;
@@ -128,6 +132,7 @@ public class PublishComments implements Callable<VoidResult> {
     }
 
     touchChange();
+    changeIndexer.index(changeId);
     email();
     fireHook();
     return VoidResult.INSTANCE;
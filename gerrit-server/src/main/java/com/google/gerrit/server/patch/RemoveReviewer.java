@@ -22,6 +22,7 @@ import com.google.gerrit.reviewdb.PatchSetApproval;
 import com.google.gerrit.reviewdb.ReviewDb;
 import com.google.gerrit.server.account.AccountCache;
 import com.google.gerrit.server.account.AccountState;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gwtorm.client.OrmException;
 import com.google.inject.Inject;
@@ -47,16 +48,18 @@ public class RemoveReviewer implements Callable<ReviewerResult> {
   private final ChangeControl.Factory changeControlFactory;
   private final ReviewDb db;
   private final AccountCache accountCache;
+  private final ChangeIndexer changeIndexer;
   private final Change.Id changeId;
   private final Set<Account.Id> ids;
 
   @Inject
   RemoveReviewer(ReviewDb db, ChangeControl.Factory changeControlFactory,
-      AccountCache accountCache, @Assisted Change.Id changeId,
-      @Assisted Set<Account.Id> ids) {
+      AccountCache accountCache, ChangeIndexer changeIndexer,
+      @Assisted Change.Id changeId, @Assisted Set<Account.Id> ids) {
     this.db = db;
     this.changeControlFactory = changeControlFactory;
     this.accountCache = accountCache;
+    this.changeIndexer = changeIndexer;
     this.changeId = changeId;
     this.ids = ids;
   }
@@ -99,6 +102,7 @@ public class RemoveReviewer implements Callable<ReviewerResult> {
             formatUser(who)));
       }
     }
+    changeIndexer.index(changeId);
 
     return result;
   }
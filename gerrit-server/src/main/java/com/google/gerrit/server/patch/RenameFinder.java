@@ -0,0 +1,265 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.server.cache.Cache;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.storage.pack.PackConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pairs deleted and added files of a diff into renames.
+ * <p>
+ * Files with identical content are paired first. The remaining files are
+ * compared by {@link SimilarityHash}, taken from a cache keyed by blob id so
+ * that comparing other patch sets or whitespace modes of the same change does
+ * not read and hash the blobs again. Content comparison is skipped if more
+ * than {@code maxPairs} pairs would be scored, and stops early once the
+ * deadline passes; files not paired by then are reported as added and
+ * deleted.
+ */
+class RenameFinder {
+  private static final int BIG_FILE = PackConfig.DEFAULT_BIG_FILE_THRESHOLD;
+  private static final int MAX_INDEX = 0x1fffff;
+
+  private final ObjectReader reader;
+  private final Cache<ObjectId, SimilarityHash> cache;
+  private final int minScore;
+  private final int maxPairs;
+  private final long deadline;
+
+  /**
+   * @param reader reader to load blobs that are not yet cached.
+   * @param cache similarity hashes by blob id.
+   * @param minScore minimum similarity, 0-100, of a rename.
+   * @param maxPairs maximum number of added/deleted pairs to score; 0 to only
+   *        detect renames of files with identical content.
+   * @param deadline {@link System#nanoTime()} at which scoring stops.
+   */
+  RenameFinder(final ObjectReader reader,
+      final Cache<ObjectId, SimilarityHash> cache, final int minScore,
+      final int maxPairs, final long deadline) {
+    this.reader = reader;
+    this.cache = cache;
+    this.minScore = minScore;
+    this.maxPairs = maxPairs;
+    this.deadline = deadline;
+  }
+
+  /**
+   * Detect renames among the entries of a diff.
+   *
+   * @param entries diff without rename detection.
+   * @return the entries, with renamed files combined into one entry.
+   * @throws IOException a blob could not be read.
+   */
+  List<DiffEntry> compute(final List<DiffEntry> entries) throws IOException {
+    final List<DiffEntry> result = new ArrayList<DiffEntry>(entries.size());
+    final List<DiffEntry> added = new ArrayList<DiffEntry>();
+    final List<DiffEntry> deleted = new ArrayList<DiffEntry>();
+    for (DiffEntry e : entries) {
+      if (e.getChangeType() == ChangeType.ADD && isFile(e.getNewMode())) {
+        added.add(e);
+      } else if (e.getChangeType() == ChangeType.DELETE
+          && isFile(e.getOldMode())) {
+        deleted.add(e);
+      } else {
+        result.add(e);
+      }
+    }
+    if (added.isEmpty() || deleted.isEmpty()) {
+      return entries;
+    }
+
+    findExactRenames(added, deleted, result);
+    findContentRenames(added, deleted, result);
+    result.addAll(added);
+    result.addAll(deleted);
+    return result;
+  }
+
+  private void findExactRenames(final List<DiffEntry> added,
+      final List<DiffEntry> deleted, final List<DiffEntry> result) {
+    final Map<ObjectId, List<DiffEntry>> byId =
+        new HashMap<ObjectId, List<DiffEntry>>();
+    for (DiffEntry d : deleted) {
+      final ObjectId id = d.getOldId().toObjectId();
+      List<DiffEntry> l = byId.get(id);
+      if (l == null) {
+        l = new ArrayList<DiffEntry>(1);
+        byId.put(id, l);
+      }
+      l.add(d);
+    }
+
+    for (int i = 0; i < added.size();) {
+      final DiffEntry a = added.get(i);
+      final List<DiffEntry> l = byId.get(a.getNewId().toObjectId());
+      if (l == null || l.isEmpty()) {
+        i++;
+        continue;
+      }
+
+      DiffEntry d = l.get(0);
+      for (DiffEntry c : l) {
+        if (baseName(c.getOldPath()).equals(baseName(a.getNewPath()))) {
+          d = c;
+          break;
+        }
+      }
+      l.remove(d);
+      deleted.remove(d);
+      added.remove(i);
+      result.add(new Rename(d, a, 100));
+    }
+  }
+
+  private void findContentRenames(final List<DiffEntry> added,
+      final List<DiffEntry> deleted, final List<DiffEntry> result)
+      throws IOException {
+    if (added.isEmpty() || deleted.isEmpty()) {
+      return;
+    }
+    if (maxPairs < (long) added.size() * deleted.size()
+        || MAX_INDEX < added.size() || MAX_INDEX < deleted.size()) {
+      return;
+    }
+
+    // Score every pair, collecting the candidates above the minimum score
+    // as (score, deleted index, added index) packed into one long.
+    final long[] sizeA = new long[added.size()];
+    for (int i = 0; i < added.size(); i++) {
+      sizeA[i] = size(added.get(i).getNewId().toObjectId());
+    }
+
+    final List<Long> matches = new ArrayList<Long>();
+    scoring: for (int di = 0; di < deleted.size(); di++) {
+      final ObjectId dId = deleted.get(di).getOldId().toObjectId();
+      final long dSize = size(dId);
+      if (dSize < 0) {
+        continue;
+      }
+      SimilarityHash dHash = null;
+
+      for (int ai = 0; ai < added.size(); ai++) {
+        if (sizeA[ai] < 0 || !sizesMayMatch(dSize, sizeA[ai])) {
+          continue;
+        }
+        if (deadline < System.nanoTime()
+            || Thread.currentThread().isInterrupted()) {
+          break scoring;
+        }
+
+        if (dHash == null) {
+          dHash = hash(dId);
+        }
+        final ObjectId aId = added.get(ai).getNewId().toObjectId();
+        final int score = dHash.score(hash(aId));
+        if (minScore <= score) {
+          matches.add(((long) score << 42) | ((long) di << 21) | ai);
+        }
+      }
+    }
+
+    // Take the best scoring pairs first; each file is renamed at most once.
+    Collections.sort(matches, Collections.reverseOrder());
+    final boolean[] usedA = new boolean[added.size()];
+    final boolean[] usedD = new boolean[deleted.size()];
+    for (long m : matches) {
+      final int score = (int) (m >>> 42);
+      final int di = (int) ((m >>> 21) & MAX_INDEX);
+      final int ai = (int) (m & MAX_INDEX);
+      if (!usedA[ai] && !usedD[di]) {
+        usedA[ai] = true;
+        usedD[di] = true;
+        result.add(new Rename(deleted.get(di), added.get(ai), score));
+      }
+    }
+    removeUsed(added, usedA);
+    removeUsed(deleted, usedD);
+  }
+
+  private boolean sizesMayMatch(final long a, final long b) {
+    final long max = Math.max(a, b);
+    return max == 0 || Math.min(a, b) * 100 / max >= minScore;
+  }
+
+  /** @return size of the blob; -1 if too large to be compared. */
+  private long size(final ObjectId id) throws IOException {
+    final SimilarityHash h = cache.get(id);
+    if (h != null) {
+      return h.getSize();
+    }
+    final long sz = reader.getObjectSize(id, Constants.OBJ_BLOB);
+    return sz <= BIG_FILE ? sz : -1;
+  }
+
+  private SimilarityHash hash(final ObjectId id) throws IOException {
+    SimilarityHash h = cache.get(id);
+    if (h == null) {
+      h = SimilarityHash.compute(reader.open(id, Constants.OBJ_BLOB)
+          .getCachedBytes(BIG_FILE));
+      cache.put(id, h);
+    }
+    return h;
+  }
+
+  private static void removeUsed(final List<DiffEntry> list,
+      final boolean[] used) {
+    final List<DiffEntry> keep = new ArrayList<DiffEntry>(list.size());
+    for (int i = 0; i < list.size(); i++) {
+      if (!used[i]) {
+        keep.add(list.get(i));
+      }
+    }
+    list.clear();
+    list.addAll(keep);
+  }
+
+  private static boolean isFile(final FileMode mode) {
+    return mode.getObjectType() == Constants.OBJ_BLOB
+        && mode != FileMode.SYMLINK;
+  }
+
+  private static String baseName(final String path) {
+    return path.substring(path.lastIndexOf('/') + 1);
+  }
+
+  /** A deleted and an added file combined into a rename. */
+  private static class Rename extends DiffEntry {
+    Rename(final DiffEntry deleted, final DiffEntry added, final int score) {
+      oldPath = deleted.getOldPath();
+      oldMode = deleted.getOldMode();
+      oldId = deleted.getOldId();
+      newPath = added.getNewPath();
+      newMode = added.getNewMode();
+      newId = added.getNewId();
+      changeType = ChangeType.RENAME;
+      this.score = score;
+    }
+  }
+}
@@ -0,0 +1,126 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import java.util.Arrays;
+
+/**
+ * Summary of a blob's content used to score how similar two blobs are.
+ * <p>
+ * The blob is split into lines, or into 64 byte blocks for long lines and
+ * binary content. Each distinct block is kept as a hash and the number of
+ * bytes it covers. Two blobs share the bytes of the blocks they have in
+ * common, and their similarity is the shared bytes relative to the size of
+ * the larger blob, as computed by git's rename detection.
+ */
+class SimilarityHash {
+  private static final int MAX_BLOCK = 64;
+
+  /** Compute the hash of a blob's content. */
+  static SimilarityHash compute(final byte[] raw) {
+    long[] blocks = new long[Math.max(16, raw.length / 32)];
+    int cnt = 0;
+
+    int ptr = 0;
+    while (ptr < raw.length) {
+      final int start = ptr;
+      int hash = 5381;
+      do {
+        final int c = raw[ptr++] & 0xff;
+        if (c == '\r' && ptr < raw.length && raw[ptr] == '\n') {
+          continue;
+        }
+        hash = (hash << 5) + hash + c;
+        if (c == '\n') {
+          break;
+        }
+      } while (ptr < raw.length && ptr - start < MAX_BLOCK);
+
+      if (cnt == blocks.length) {
+        blocks = Arrays.copyOf(blocks, cnt * 2);
+      }
+      blocks[cnt++] = ((long) hash << 32) | (ptr - start);
+    }
+    Arrays.sort(blocks, 0, cnt);
+
+    // Merge equal hashes, adding up the bytes they cover.
+    final int[] keys = new int[cnt];
+    final int[] counts = new int[cnt];
+    int n = 0;
+    for (int i = 0; i < cnt; i++) {
+      final int key = (int) (blocks[i] >>> 32);
+      final int len = (int) blocks[i];
+      if (0 < n && keys[n - 1] == key) {
+        counts[n - 1] += len;
+      } else {
+        keys[n] = key;
+        counts[n] = len;
+        n++;
+      }
+    }
+    return new SimilarityHash(raw.length, Arrays.copyOf(keys, n),
+        Arrays.copyOf(counts, n));
+  }
+
+  private final long size;
+  private final int[] keys;
+  private final int[] counts;
+
+  private SimilarityHash(final long size, final int[] keys, final int[] counts) {
+    this.size = size;
+    this.keys = keys;
+    this.counts = counts;
+  }
+
+  /** @return size of the blob, in bytes. */
+  long getSize() {
+    return size;
+  }
+
+  /** @return approximate heap used by this object. */
+  int weigh() {
+    return 16 + 8 + 2 * (16 + 4 * keys.length);
+  }
+
+  /**
+   * Score the similarity of two blobs.
+   *
+   * @param other the hash of the other blob.
+   * @return similarity between 0 (nothing in common) and 100 (identical).
+   */
+  int score(final SimilarityHash other) {
+    final long max = Math.max(size, other.size);
+    if (max == 0) {
+      return 100;
+    }
+    return (int) ((common(other) * 100L) / max);
+  }
+
+  private long common(final SimilarityHash other) {
+    long common = 0;
+    int i = 0;
+    int j = 0;
+    while (i < keys.length && j < other.keys.length) {
+      if (keys[i] < other.keys[j]) {
+        i++;
+      } else if (other.keys[j] < keys[i]) {
+        j++;
+      } else {
+        common += Math.min(counts[i++], other.counts[j++]);
+      }
+    }
+    return common;
+  }
+}
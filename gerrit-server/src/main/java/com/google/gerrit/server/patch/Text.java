@@ -114,7 +114,7 @@ public class Text extends RawText {
     return ldr.getCachedBytes(bigFileThreshold);
   }
 
-  private static Charset charset(byte[] content, String encoding) {
+  static Charset charset(byte[] content, String encoding) {
     if (encoding == null) {
       UniversalDetector d = new UniversalDetector(null);
       d.handleData(content, 0, content.length);
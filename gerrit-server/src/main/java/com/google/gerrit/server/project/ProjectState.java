@@ -34,6 +34,7 @@ import com.google.inject.assistedinject.Assisted;
 import com.googlecode.prolog_cafe.compiler.CompileException;
 import com.googlecode.prolog_cafe.lang.PrologMachineCopy;
 
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 
@@ -213,6 +214,32 @@ public class ProjectState {
     return all;
   }
 
+  /**
+   * @return revisions of the configuration of this project and of every
+   *         project it inherits access rights from. The list differs once any
+   *         of them is reloaded with a new configuration.
+   */
+  List<ObjectId> getInheritedRevisions() {
+    List<ObjectId> r = new ArrayList<ObjectId>(4);
+    Set<Project.NameKey> seen = new HashSet<Project.NameKey>();
+    seen.add(getProject().getNameKey());
+
+    ProjectState s = this;
+    do {
+      r.add(s.config.getRevision());
+
+      Project.NameKey parent = s.getProject().getParent();
+      if (isAllProjects || parent == null || !seen.add(parent)) {
+        break;
+      }
+      s = projectCache.get(parent);
+    } while (s != null);
+    if (!isAllProjects) {
+      r.add(projectCache.getAllProjects().config.getRevision());
+    }
+    return r;
+  }
+
   /**
    * @return all {@link AccountGroup}'s to which the owner privilege for
    *         'refs/*' is assigned for this project (the local owners), if there
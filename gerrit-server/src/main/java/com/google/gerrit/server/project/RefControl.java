@@ -82,6 +82,11 @@ public class RefControl {
     }
   }
 
+  /** @return true if the permissions depend on the name of the user. */
+  boolean isUserSpecific() {
+    return relevant.isUserSpecific();
+  }
+
   /** Is this user a ref owner? */
   public boolean isOwner() {
     if (owner == null) {
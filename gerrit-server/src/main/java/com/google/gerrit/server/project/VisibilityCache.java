@@ -0,0 +1,226 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gerrit.server.project;
+
+import com.google.gerrit.reviewdb.AccountGroup;
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.Project;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.ReplicationUser;
+import com.google.gerrit.server.cache.Cache;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which branches users can see.
+ * <p>
+ * A change is visible if its destination branch is, which only depends on the
+ * project, the branch and the groups of the user. A {@link Memo} answers for
+ * one user, checking each branch once. Its answers are also shared with other
+ * memos of users having the same groups, as long as the configuration of the
+ * project and of its parents is the same.
+ */
+@Singleton
+public class VisibilityCache {
+  static final String CACHE_NAME = "ref_visibility";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        final TypeLiteral<Cache<Key, Boolean>> type =
+            new TypeLiteral<Cache<Key, Boolean>>() {};
+        core(type, CACHE_NAME);
+        bind(VisibilityCache.class);
+      }
+    };
+  }
+
+  private final ProjectCache projectCache;
+  private final Cache<Key, Boolean> cache;
+  private final boolean shared;
+
+  @Inject
+  VisibilityCache(final ProjectCache projectCache,
+      @Named(CACHE_NAME) final Cache<Key, Boolean> cache,
+      @GerritServerConfig final Config cfg) {
+    this.projectCache = projectCache;
+    this.cache = cache;
+    this.shared = cfg.getBoolean("cache", CACHE_NAME, "enabled", true);
+  }
+
+  /** @return a new memo of the branches {@code user} can see. */
+  public Memo forUser(final CurrentUser user) {
+    return new Memo(user);
+  }
+
+  /**
+   * Visibility of branches to one user.
+   * <p>
+   * A memo is meant to last for one request, as it does not notice changes to
+   * the groups of the user. It may be used by several threads at once.
+   */
+  public class Memo {
+    private final CurrentUser user;
+    private final Map<BranchKey, Boolean> known;
+    private final Map<Project.NameKey, ProjectControl> controls;
+    private Set<AccountGroup.UUID> groups;
+
+    private Memo(final CurrentUser user) {
+      this.user = user;
+      this.known = new ConcurrentHashMap<BranchKey, Boolean>();
+      this.controls = new HashMap<Project.NameKey, ProjectControl>();
+    }
+
+    /**
+     * @param change the change to check.
+     * @return true if the user can see the change.
+     * @throws NoSuchProjectException the project of the change does not
+     *         exist.
+     */
+    public boolean isVisible(final Change change)
+        throws NoSuchProjectException {
+      final BranchKey b =
+          new BranchKey(change.getProject(), change.getDest().get());
+      final Boolean r = known.get(b);
+      return r != null ? r : check(b);
+    }
+
+    private synchronized boolean check(final BranchKey b)
+        throws NoSuchProjectException {
+      Boolean r = known.get(b);
+      if (r != null) {
+        return r;
+      }
+
+      final ProjectState state = projectCache.get(b.project);
+      if (state == null) {
+        throw new NoSuchProjectException(b.project);
+      }
+
+      Key key = null;
+      if (shared && !(user instanceof ReplicationUser)) {
+        key = new Key(b, groups(), user.getUserName() != null,
+            state.getInheritedRevisions());
+        r = cache.get(key);
+      }
+      if (r == null) {
+        ProjectControl ctl = controls.get(b.project);
+        if (ctl == null) {
+          ctl = state.controlFor(user);
+          controls.put(b.project, ctl);
+        }
+        final RefControl ref = ctl.controlForRef(b.ref);
+        r = ref.isVisible();
+        if (key != null && !ref.isUserSpecific()) {
+          cache.put(key, r);
+        }
+      }
+      known.put(b, r);
+      return r;
+    }
+
+    private Set<AccountGroup.UUID> groups() {
+      if (groups == null) {
+        groups = Collections.unmodifiableSet(new HashSet<AccountGroup.UUID>(
+            user.getEffectiveGroups()));
+      }
+      return groups;
+    }
+  }
+
+  private static class BranchKey {
+    final Project.NameKey project;
+    final String ref;
+
+    BranchKey(final Project.NameKey project, final String ref) {
+      this.project = project;
+      this.ref = ref;
+    }
+
+    @Override
+    public int hashCode() {
+      return project.hashCode() * 31 + ref.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (o instanceof BranchKey) {
+        final BranchKey b = (BranchKey) o;
+        return project.equals(b.project) && ref.equals(b.ref);
+      }
+      return false;
+    }
+  }
+
+  /**
+   * A branch and what its visibility depends on.
+   * <p>
+   * Users without a user name never match per-user access sections, so their
+   * answers are not shared with users having one.
+   */
+  static class Key {
+    private final BranchKey branch;
+    private final Set<AccountGroup.UUID> groups;
+    private final boolean named;
+    private final List<ObjectId> revisions;
+    private final int hash;
+
+    Key(final BranchKey branch, final Set<AccountGroup.UUID> groups,
+        final boolean named, final List<ObjectId> revisions) {
+      this.branch = branch;
+      this.groups = groups;
+      this.named = named;
+      this.revisions = revisions;
+      this.hash = (branch.hashCode() * 31 + groups.hashCode()) * 31
+          + revisions.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (o instanceof Key) {
+        final Key k = (Key) o;
+        return hash == k.hash //
+            && named == k.named //
+            && branch.equals(k.branch) //
+            && revisions.equals(k.revisions) //
+            && groups.equals(k.groups);
+      }
+      return false;
+    }
+  }
+}
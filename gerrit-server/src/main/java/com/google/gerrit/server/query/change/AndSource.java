@@ -27,50 +27,86 @@ import java.util.Comparator;
 import java.util.List;
 
 class AndSource extends AndPredicate<ChangeData> implements ChangeDataSource {
-  private static final Comparator<Predicate<ChangeData>> CMP =
-      new Comparator<Predicate<ChangeData>>() {
-        @Override
-        public int compare(Predicate<ChangeData> a, Predicate<ChangeData> b) {
-          int ai = a instanceof ChangeDataSource ? 0 : 1;
-          int bi = b instanceof ChangeDataSource ? 0 : 1;
-          int cmp = ai - bi;
-
-          if (cmp == 0 //
-              && a instanceof ChangeDataSource //
-              && b instanceof ChangeDataSource) {
-            ai = ((ChangeDataSource) a).hasChange() ? 0 : 1;
-            bi = ((ChangeDataSource) b).hasChange() ? 0 : 1;
-            cmp = ai - bi;
-          }
+  /** Orders the children so that the cheapest source comes first. */
+  private static class Order implements Comparator<Predicate<ChangeData>> {
+    private final boolean measured;
 
-          if (cmp == 0) {
-            cmp = a.getCost() - b.getCost();
-          }
+    Order(boolean measured) {
+      this.measured = measured;
+    }
 
-          if (cmp == 0 //
-              && a instanceof ChangeDataSource //
-              && b instanceof ChangeDataSource) {
-            ChangeDataSource as = (ChangeDataSource) a;
-            ChangeDataSource bs = (ChangeDataSource) b;
-            cmp = as.getCardinality() - bs.getCardinality();
-          }
+    @Override
+    public int compare(Predicate<ChangeData> a, Predicate<ChangeData> b) {
+      int ai = a instanceof ChangeDataSource ? 0 : 1;
+      int bi = b instanceof ChangeDataSource ? 0 : 1;
+      int cmp = ai - bi;
 
-          return cmp;
-        }
-      };
+      // A cost estimated from the statistics of the changes a source reads
+      // decides even if its results must be loaded from the changes table.
+      // Guessed costs are not precise enough for that.
+      //
+      if (cmp == 0 && measured) {
+        cmp = a.getCost() - b.getCost();
+      }
+
+      if (cmp == 0 //
+          && a instanceof ChangeDataSource //
+          && b instanceof ChangeDataSource) {
+        ai = ((ChangeDataSource) a).hasChange() ? 0 : 1;
+        bi = ((ChangeDataSource) b).hasChange() ? 0 : 1;
+        cmp = ai - bi;
+      }
+
+      if (cmp == 0) {
+        cmp = a.getCost() - b.getCost();
+      }
+
+      if (cmp == 0 //
+          && a instanceof ChangeDataSource //
+          && b instanceof ChangeDataSource) {
+        ChangeDataSource as = (ChangeDataSource) a;
+        ChangeDataSource bs = (ChangeDataSource) b;
+        cmp = as.getCardinality() - bs.getCardinality();
+      }
+
+      return cmp;
+    }
+  }
 
   private static List<Predicate<ChangeData>> sort(
-      Collection<? extends Predicate<ChangeData>> that) {
+      Collection<? extends Predicate<ChangeData>> that, boolean measured) {
     ArrayList<Predicate<ChangeData>> r =
         new ArrayList<Predicate<ChangeData>>(that);
-    Collections.sort(r, CMP);
+    Collections.sort(r, new Order(measured));
     return r;
   }
 
+  private final ParallelMatcher matcher;
+  private final List<Predicate<ChangeData>> serial;
+  private final List<Predicate<ChangeData>> parallel;
   private int cardinality = -1;
 
-  AndSource(final Collection<? extends Predicate<ChangeData>> that) {
-    super(sort(that));
+  /**
+   * @param that children of the predicate.
+   * @param matcher matcher of the costly children.
+   * @param measured true if the cardinality of the sources is taken from
+   *        {@link com.google.gerrit.server.index.ChangeStatistics}, rather
+   *        than guessed.
+   */
+  AndSource(final Collection<? extends Predicate<ChangeData>> that,
+      final ParallelMatcher matcher, final boolean measured) {
+    super(sort(that, measured));
+    this.matcher = matcher;
+    this.serial = new ArrayList<Predicate<ChangeData>>();
+    this.parallel = new ArrayList<Predicate<ChangeData>>();
+    for (Predicate<ChangeData> p : getChildren()) {
+      if (ChangeCosts.PARALLEL_MATCH <= p.getCost()
+          && ParallelMatcher.isParallel(p)) {
+        parallel.add(p);
+      } else {
+        serial.add(p);
+      }
+    }
   }
 
   @Override
@@ -88,43 +124,100 @@ class AndSource extends AndPredicate<ChangeData> implements ChangeDataSource {
 
     // TODO(spearce) This probably should be more lazy.
     //
+    // Every match is collected before the caller sees the first one, so
+    // a caller keeping only its top results still holds all matches of a
+    // source that is not paginated until this returns.
+    //
     ArrayList<ChangeData> r = new ArrayList<ChangeData>();
-    ChangeData last = null;
-    boolean skipped = false;
-    for (ChangeData data : source.read()) {
-      if (match(data)) {
-        r.add(data);
-      } else {
-        skipped = true;
-      }
-      last = data;
-    }
+    Pass pass = new Pass();
+    pass.filter(source.read(), r);
 
-    if (skipped && last != null && source instanceof Paginated) {
+    if (pass.skipped && pass.last != null && source instanceof Paginated) {
       // If we our source is a paginated source and we skipped at
       // least one of its results, we may not have filled the full
       // limit the caller wants.  Restart the source and continue.
       //
       Paginated p = (Paginated) source;
-      while (skipped && r.size() < p.limit()) {
-        ChangeData lastBeforeRestart = last;
-        skipped = false;
-        last = null;
-        for (ChangeData data : p.restart(lastBeforeRestart)) {
-          if (match(data)) {
-            r.add(data);
+      while (pass.skipped && r.size() < p.limit()) {
+        ChangeData lastBeforeRestart = pass.last;
+        pass = new Pass();
+        pass.filter(p.restart(lastBeforeRestart), r);
+      }
+    }
+
+    return new ListResultSet<ChangeData>(r);
+  }
+
+  /** One read of the source, matched a batch of changes at a time. */
+  private class Pass {
+    ChangeData last;
+    boolean skipped;
+
+    void filter(Iterable<ChangeData> in, List<ChangeData> out)
+        throws OrmException {
+      List<ChangeData> page =
+          new ArrayList<ChangeData>(ChangeData.BATCH_SIZE);
+      for (ChangeData data : in) {
+        page.add(data);
+        last = data;
+        if (page.size() == ChangeData.BATCH_SIZE) {
+          filterPage(page, out);
+          page.clear();
+        }
+      }
+      filterPage(page, out);
+    }
+
+    private void filterPage(List<ChangeData> page, List<ChangeData> out)
+        throws OrmException {
+      // Predicates load the details of changes for the whole page. The
+      // page is released afterwards, as the kept changes may outlive it.
+      ChangeData.batch(page);
+      try {
+        List<ChangeData> candidates = new ArrayList<ChangeData>(page.size());
+        for (ChangeData data : page) {
+          if (matchAll(serial, data)) {
+            candidates.add(data);
           } else {
             skipped = true;
           }
-          last = data;
         }
+        if (parallel.isEmpty() || candidates.isEmpty()) {
+          out.addAll(candidates);
+          return;
+        }
+
+        boolean[] match = matcher.match(parallel, candidates);
+        for (int i = 0; i < candidates.size(); i++) {
+          if (match[i]) {
+            out.add(candidates.get(i));
+          } else {
+            skipped = true;
+          }
+        }
+      } finally {
+        ChangeData.unbatch(page);
       }
     }
+  }
 
-    return new ListResultSet<ChangeData>(r);
+  private static boolean matchAll(List<Predicate<ChangeData>> predicates,
+      ChangeData data) throws OrmException {
+    for (Predicate<ChangeData> p : predicates) {
+      if (!p.match(data)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return true if {@code p} is matched by the {@link ParallelMatcher}. */
+  boolean isParallel(Predicate<ChangeData> p) {
+    return parallel.contains(p);
   }
 
-  private ChangeDataSource source() {
+  /** @return the child the changes are read from; null if none. */
+  ChangeDataSource source() {
     for (Predicate<ChangeData> p : getChildren()) {
       if (p instanceof ChangeDataSource) {
         return (ChangeDataSource) p;
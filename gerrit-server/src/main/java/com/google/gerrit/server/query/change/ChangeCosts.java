@@ -21,6 +21,15 @@ public class ChangeCosts {
   public static final int APPROVALS_SCAN = 30;
   public static final int PATCH_SETS_SCAN = 30;
 
+  /** Checking the permissions of the user on a change. */
+  public static final int PERMISSION_CHECK = 50;
+
+  /** Reading the commit or the files of a change from its repository. */
+  public static final int REPOSITORY_READ = 100;
+
+  /** Minimum cost of predicates matched by a {@link ParallelMatcher}. */
+  public static final int PARALLEL_MATCH = 50;
+
   /** Estimated matches for a Change-Id string. */
   public static final int CARD_KEY = 5;
 
@@ -16,28 +16,61 @@ package com.google.gerrit.server.query.change;
 
 import com.google.gerrit.reviewdb.Change;
 import com.google.gerrit.reviewdb.ChangeMessage;
-import com.google.gerrit.reviewdb.Patch;
 import com.google.gerrit.reviewdb.PatchLineComment;
 import com.google.gerrit.reviewdb.PatchSet;
 import com.google.gerrit.reviewdb.PatchSetApproval;
 import com.google.gerrit.reviewdb.ReviewDb;
 import com.google.gerrit.reviewdb.TrackingId;
 import com.google.gerrit.server.CurrentUser;
-import com.google.gerrit.server.patch.PatchList;
+import com.google.gerrit.server.patch.ChangedFileList;
 import com.google.gerrit.server.patch.PatchListCache;
-import com.google.gerrit.server.patch.PatchListEntry;
+import com.google.gerrit.server.util.IdRanges;
 import com.google.gwtorm.client.OrmException;
+import com.google.gwtorm.client.ResultSet;
 import com.google.inject.Provider;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class ChangeData {
+  /** Number of changes whose details are loaded together. */
+  static final int BATCH_SIZE = 100;
+
+  /**
+   * Share the loading of details among changes.
+   * <p>
+   * The changes are split into batches of {@link #BATCH_SIZE}. When details
+   * of one change are not yet loaded, they are loaded for every change of its
+   * batch at once, with a query per range of nearby change ids rather than a
+   * query per change. Call {@link #unbatch(List)} once the changes are
+   * matched, so that each kept change no longer holds its whole batch.
+   *
+   * @param changes changes to batch; the list is copied.
+   */
+  public static void batch(final List<ChangeData> changes) {
+    for (int i = 0; i < changes.size(); i += BATCH_SIZE) {
+      final List<ChangeData> b = Collections.unmodifiableList(
+          new ArrayList<ChangeData>(changes.subList(i,
+              Math.min(i + BATCH_SIZE, changes.size()))));
+      for (ChangeData cd : b) {
+        cd.batch = b;
+      }
+    }
+  }
+
+  /** Stop sharing the loading of details among changes. */
+  public static void unbatch(final List<ChangeData> changes) {
+    for (ChangeData cd : changes) {
+      cd.batch = null;
+    }
+  }
+
   private final Change.Id legacyId;
   private Change change;
   private Collection<PatchSet> patches;
@@ -49,6 +82,7 @@ public class ChangeData {
   private Collection<TrackingId> trackingIds;
   private CurrentUser visibleTo;
   private List<ChangeMessage> messages;
+  private List<ChangeData> batch;
 
   public ChangeData(final Change.Id id) {
     legacyId = id;
@@ -75,27 +109,11 @@ public class ChangeData {
         return null;
       }
 
-      PatchList p = cache.get(c, ps);
-      List<String> r = new ArrayList<String>(p.getPatches().size());
-      for (PatchListEntry e : p.getPatches()) {
-        if (Patch.COMMIT_MSG.equals(e.getNewName())) {
-          continue;
-        }
-        switch (e.getChangeType()) {
-          case ADDED:
-          case MODIFIED:
-          case DELETED:
-          case COPIED:
-            r.add(e.getNewName());
-            break;
-          case RENAMED:
-            r.add(e.getOldName());
-            r.add(e.getNewName());
-            break;
-        }
+      ChangedFileList files = cache.getChangedFiles(c, ps);
+      if (files == null) {
+        return null;
       }
-      currentFiles = r.toArray(new String[r.size()]);
-      Arrays.sort(currentFiles);
+      currentFiles = files.toArray();
     }
     return currentFiles;
   }
@@ -167,7 +185,7 @@ public class ChangeData {
   public Collection<PatchSet> patches(Provider<ReviewDb> db)
       throws OrmException {
     if (patches == null) {
-      patches = db.get().patchSets().byChange(legacyId).toList();
+      load(db, PATCHES);
     }
     return patches;
   }
@@ -175,7 +193,7 @@ public class ChangeData {
   public Collection<PatchSetApproval> approvals(Provider<ReviewDb> db)
       throws OrmException {
     if (approvals == null) {
-      approvals = db.get().patchSetApprovals().byChange(legacyId).toList();
+      load(db, APPROVALS);
     }
     return approvals;
   }
@@ -200,7 +218,7 @@ public class ChangeData {
   public Collection<PatchLineComment> comments(Provider<ReviewDb> db)
       throws OrmException {
     if (comments == null) {
-      comments = db.get().patchComments().byChange(legacyId).toList();
+      load(db, COMMENTS);
     }
     return comments;
   }
@@ -208,7 +226,7 @@ public class ChangeData {
   public Collection<TrackingId> trackingIds(Provider<ReviewDb> db)
       throws OrmException {
     if (trackingIds == null) {
-      trackingIds = db.get().trackingIds().byChange(legacyId).toList();
+      load(db, TRACKING_IDS);
     }
     return trackingIds;
   }
@@ -216,8 +234,222 @@ public class ChangeData {
   public List<ChangeMessage> messages(Provider<ReviewDb> db)
       throws OrmException {
     if (messages == null) {
-      messages = db.get().changeMessages().byChange(legacyId).toList();
+      load(db, MESSAGES);
     }
     return messages;
   }
+
+  private void load(Provider<ReviewDb> db, Loader<?> loader)
+      throws OrmException {
+    if (batch != null) {
+      loader.load(db.get(), batch);
+    } else {
+      loader.load(db.get(), Collections.singletonList(this));
+    }
+  }
+
+  /** Reads one kind of detail for several changes. */
+  private abstract static class Loader<T> {
+    abstract boolean isLoaded(ChangeData cd);
+
+    abstract void set(ChangeData cd, List<T> rows);
+
+    abstract Change.Id changeOf(T row);
+
+    abstract ResultSet<T> byChange(ReviewDb db, Change.Id id)
+        throws OrmException;
+
+    abstract ResultSet<T> byChangeRange(ReviewDb db, Change.Id from,
+        Change.Id to) throws OrmException;
+
+    void load(ReviewDb db, List<ChangeData> changes) throws OrmException {
+      final Set<Change.Id> want = new HashSet<Change.Id>();
+      for (ChangeData cd : changes) {
+        if (!isLoaded(cd)) {
+          want.add(cd.getId());
+        }
+      }
+      if (want.isEmpty()) {
+        return;
+      }
+
+      final Map<Change.Id, List<T>> found = new HashMap<Change.Id, List<T>>();
+      for (int[] range : IdRanges.split(want)) {
+        final ResultSet<T> rs;
+        if (range[0] == range[1]) {
+          rs = byChange(db, new Change.Id(range[0]));
+        } else {
+          rs = byChangeRange(db, new Change.Id(range[0]),
+              new Change.Id(range[1]));
+        }
+        for (T row : rs) {
+          final Change.Id id = changeOf(row);
+          if (want.contains(id)) {
+            List<T> l = found.get(id);
+            if (l == null) {
+              l = new ArrayList<T>();
+              found.put(id, l);
+            }
+            l.add(row);
+          }
+        }
+      }
+
+      for (ChangeData cd : changes) {
+        if (!isLoaded(cd)) {
+          final List<T> l = found.get(cd.getId());
+          set(cd, l != null ? l : new ArrayList<T>(0));
+        }
+      }
+    }
+  }
+
+  private static final Loader<PatchSet> PATCHES = new Loader<PatchSet>() {
+    @Override
+    boolean isLoaded(ChangeData cd) {
+      return cd.patches != null;
+    }
+
+    @Override
+    void set(ChangeData cd, List<PatchSet> rows) {
+      cd.patches = rows;
+    }
+
+    @Override
+    Change.Id changeOf(PatchSet row) {
+      return row.getId().getParentKey();
+    }
+
+    @Override
+    ResultSet<PatchSet> byChange(ReviewDb db, Change.Id id)
+        throws OrmException {
+      return db.patchSets().byChange(id);
+    }
+
+    @Override
+    ResultSet<PatchSet> byChangeRange(ReviewDb db, Change.Id from,
+        Change.Id to) throws OrmException {
+      return db.patchSets().byChangeRange(from, to);
+    }
+  };
+
+  private static final Loader<PatchSetApproval> APPROVALS =
+      new Loader<PatchSetApproval>() {
+        @Override
+        boolean isLoaded(ChangeData cd) {
+          return cd.approvals != null;
+        }
+
+        @Override
+        void set(ChangeData cd, List<PatchSetApproval> rows) {
+          cd.approvals = rows;
+        }
+
+        @Override
+        Change.Id changeOf(PatchSetApproval row) {
+          return row.getPatchSetId().getParentKey();
+        }
+
+        @Override
+        ResultSet<PatchSetApproval> byChange(ReviewDb db, Change.Id id)
+            throws OrmException {
+          return db.patchSetApprovals().byChange(id);
+        }
+
+        @Override
+        ResultSet<PatchSetApproval> byChangeRange(ReviewDb db,
+            Change.Id from, Change.Id to) throws OrmException {
+          return db.patchSetApprovals().byChangeRange(from, to);
+        }
+      };
+
+  private static final Loader<PatchLineComment> COMMENTS =
+      new Loader<PatchLineComment>() {
+        @Override
+        boolean isLoaded(ChangeData cd) {
+          return cd.comments != null;
+        }
+
+        @Override
+        void set(ChangeData cd, List<PatchLineComment> rows) {
+          cd.comments = rows;
+        }
+
+        @Override
+        Change.Id changeOf(PatchLineComment row) {
+          return row.getKey().getParentKey().getParentKey().getParentKey();
+        }
+
+        @Override
+        ResultSet<PatchLineComment> byChange(ReviewDb db, Change.Id id)
+            throws OrmException {
+          return db.patchComments().byChange(id);
+        }
+
+        @Override
+        ResultSet<PatchLineComment> byChangeRange(ReviewDb db,
+            Change.Id from, Change.Id to) throws OrmException {
+          return db.patchComments().byChangeRange(from, to);
+        }
+      };
+
+  private static final Loader<TrackingId> TRACKING_IDS =
+      new Loader<TrackingId>() {
+        @Override
+        boolean isLoaded(ChangeData cd) {
+          return cd.trackingIds != null;
+        }
+
+        @Override
+        void set(ChangeData cd, List<TrackingId> rows) {
+          cd.trackingIds = rows;
+        }
+
+        @Override
+        Change.Id changeOf(TrackingId row) {
+          return row.getChangeId();
+        }
+
+        @Override
+        ResultSet<TrackingId> byChange(ReviewDb db, Change.Id id)
+            throws OrmException {
+          return db.trackingIds().byChange(id);
+        }
+
+        @Override
+        ResultSet<TrackingId> byChangeRange(ReviewDb db, Change.Id from,
+            Change.Id to) throws OrmException {
+          return db.trackingIds().byChangeRange(from, to);
+        }
+      };
+
+  private static final Loader<ChangeMessage> MESSAGES =
+      new Loader<ChangeMessage>() {
+        @Override
+        boolean isLoaded(ChangeData cd) {
+          return cd.messages != null;
+        }
+
+        @Override
+        void set(ChangeData cd, List<ChangeMessage> rows) {
+          cd.messages = rows;
+        }
+
+        @Override
+        Change.Id changeOf(ChangeMessage row) {
+          return row.getKey().getParentKey();
+        }
+
+        @Override
+        ResultSet<ChangeMessage> byChange(ReviewDb db, Change.Id id)
+            throws OrmException {
+          return db.changeMessages().byChange(id);
+        }
+
+        @Override
+        ResultSet<ChangeMessage> byChangeRange(ReviewDb db, Change.Id from,
+            Change.Id to) throws OrmException {
+          return db.changeMessages().byChangeRange(from, to);
+        }
+      };
 }
@@ -17,6 +17,7 @@ package com.google.gerrit.server.query.change;
 import com.google.gerrit.common.data.ApprovalTypes;
 import com.google.gerrit.reviewdb.Account;
 import com.google.gerrit.reviewdb.AccountGroup;
+import com.google.gerrit.reviewdb.Branch;
 import com.google.gerrit.reviewdb.Change;
 import com.google.gerrit.reviewdb.Project;
 import com.google.gerrit.reviewdb.RevId;
@@ -28,10 +29,14 @@ import com.google.gerrit.server.account.CapabilityControl;
 import com.google.gerrit.server.account.GroupCache;
 import com.google.gerrit.server.config.AllProjectsName;
 import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.index.ChangeIndex;
+import com.google.gerrit.server.index.CommitMessageIndex;
 import com.google.gerrit.server.patch.PatchListCache;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.VisibilityCache;
 import com.google.gerrit.server.query.IntPredicate;
+import com.google.gerrit.server.query.OperatorPredicate;
 import com.google.gerrit.server.query.Predicate;
 import com.google.gerrit.server.query.QueryBuilder;
 import com.google.gerrit.server.query.QueryParseException;
@@ -44,6 +49,7 @@ import org.eclipse.jgit.lib.AbbreviatedObjectId;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -109,6 +115,9 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
     final PatchListCache patchListCache;
     final GitRepositoryManager repoManager;
     final ProjectCache projectCache;
+    final ChangeIndex changeIndex;
+    final CommitMessageIndex commitMessageIndex;
+    final VisibilityCache visibilityCache;
 
     @Inject
     Arguments(Provider<ReviewDb> dbProvider,
@@ -122,7 +131,10 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
         AllProjectsName allProjectsName,
         PatchListCache patchListCache,
         GitRepositoryManager repoManager,
-        ProjectCache projectCache) {
+        ProjectCache projectCache,
+        ChangeIndex changeIndex,
+        CommitMessageIndex commitMessageIndex,
+        VisibilityCache visibilityCache) {
       this.dbProvider = dbProvider;
       this.rewriter = rewriter;
       this.userFactory = userFactory;
@@ -136,6 +148,9 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
       this.patchListCache = patchListCache;
       this.repoManager = repoManager;
       this.projectCache = projectCache;
+      this.changeIndex = changeIndex;
+      this.commitMessageIndex = commitMessageIndex;
+      this.visibilityCache = visibilityCache;
     }
   }
 
@@ -259,21 +274,24 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
   public Predicate<ChangeData> branch(String name) {
     if (name.startsWith("^"))
       return new RegexBranchPredicate(args.dbProvider, name);
-    return new BranchPredicate(args.dbProvider, name);
+    return indexed(new BranchPredicate(args.dbProvider, name),
+        ChangeIndex.term(FIELD_REF, Branch.R_HEADS + name));
   }
 
   @Operator
   public Predicate<ChangeData> topic(String name) {
     if (name.startsWith("^"))
       return new RegexTopicPredicate(args.dbProvider, name);
-    return new TopicPredicate(args.dbProvider, name);
+    return indexed(new TopicPredicate(args.dbProvider, name),
+        ChangeIndex.term(FIELD_TOPIC, name));
   }
 
   @Operator
   public Predicate<ChangeData> ref(String ref) {
     if (ref.startsWith("^"))
       return new RegexRefPredicate(args.dbProvider, ref);
-    return new RefPredicate(args.dbProvider, ref);
+    return indexed(new RefPredicate(args.dbProvider, ref),
+        ChangeIndex.term(FIELD_REF, ref));
   }
 
   @Operator
@@ -283,21 +301,38 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
     }
 
     if (file.startsWith("^")) {
-      return new RegexFilePredicate(args.dbProvider, args.patchListCache, file);
+      RegexFilePredicate p =
+          new RegexFilePredicate(args.dbProvider, args.patchListCache, file);
+      return isIndexReady() ? indexed(p, p.indexTerms(args.changeIndex)) : p;
     }
 
-    throw new IllegalArgumentException();
+    if (!isIndexReady()) {
+      throw new IllegalArgumentException();
+    }
+    return indexed(
+        new EqualsFilePredicate(args.dbProvider, args.patchListCache, file),
+        ChangeIndex.term(FIELD_FILE, file));
   }
 
   @Operator
   public Predicate<ChangeData> label(String name) {
-    return new LabelPredicate(args.changeControlGenericFactory,
+    LabelPredicate p = new LabelPredicate(args.changeControlGenericFactory,
         args.userFactory, args.dbProvider, args.approvalTypes, name);
+    return isIndexReady() ? indexed(p, p.indexTerms(args.changeIndex)) : p;
   }
 
   @Operator
   public Predicate<ChangeData> message(String text) {
-    return new MessagePredicate(args.dbProvider, args.repoManager, text);
+    MessagePredicate p =
+        new MessagePredicate(args.dbProvider, args.repoManager, text);
+    CommitMessageIndex index = args.commitMessageIndex;
+    if (index != null && index.isReady()) {
+      int[] ids = p.search(index);
+      if (ids != null) {
+        return new IndexSource(args.dbProvider, p, ids);
+      }
+    }
+    return p;
   }
 
   @Operator
@@ -364,7 +399,7 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
 
   public Predicate<ChangeData> visibleto(CurrentUser user) {
     return new IsVisibleToPredicate(args.dbProvider, //
-        args.changeControlGenericFactory, //
+        args.visibilityCache, //
         user);
   }
 
@@ -472,6 +507,25 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
     return sortkey_before(sortKey);
   }
 
+  private boolean isIndexReady() {
+    return args.changeIndex != null && args.changeIndex.isReady();
+  }
+
+  private Predicate<ChangeData> indexed(OperatorPredicate<ChangeData> p,
+      String term) {
+    return indexed(p, Collections.singletonList(term));
+  }
+
+  /** Read the candidates of {@code p} from the index, if it is ready. */
+  private Predicate<ChangeData> indexed(OperatorPredicate<ChangeData> p,
+      Collection<String> anyOf) {
+    if (!isIndexReady()) {
+      return p;
+    }
+    return new IndexSource(args.dbProvider, args.changeIndex, p,
+        Collections.singletonList(anyOf));
+  }
+
   @SuppressWarnings("unchecked")
   public boolean hasLimit(Predicate<ChangeData> p) {
     return find(p, IntPredicate.class, FIELD_LIMIT) != null;
@@ -18,6 +18,7 @@ import com.google.gerrit.reviewdb.Change;
 import com.google.gerrit.reviewdb.ChangeAccess;
 import com.google.gerrit.reviewdb.ReviewDb;
 import com.google.gerrit.server.ChangeUtil;
+import com.google.gerrit.server.index.ChangeStatistics;
 import com.google.gerrit.server.query.IntPredicate;
 import com.google.gerrit.server.query.Predicate;
 import com.google.gerrit.server.query.QueryRewriter;
@@ -30,6 +31,8 @@ import com.google.inject.Provider;
 import com.google.inject.name.Named;
 
 import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
 
 public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
   private static final QueryRewriter.Definition<ChangeData, ChangeQueryRewriter> mydef =
@@ -39,24 +42,40 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
                   new InvalidProvider<ReviewDb>(), //
                   new InvalidProvider<ChangeQueryRewriter>(), //
                   null, null, null, null, null, null, null, //
-                  null, null, null, null), null));
+                  null, null, null, null, null, null, null), null));
+
+  private static final Set<Change.Status> OPEN = ChangeStatistics.OPEN;
+  private static final Set<Change.Status> CLOSED = ChangeStatistics.CLOSED;
+  private static final Set<Change.Status> MERGED =
+      EnumSet.of(Change.Status.MERGED);
+  private static final Set<Change.Status> ABANDONED =
+      EnumSet.of(Change.Status.ABANDONED);
+  private static final Set<Change.Status> SUBMITTED =
+      EnumSet.of(Change.Status.SUBMITTED);
 
   private final Provider<ReviewDb> dbProvider;
+  private final ParallelMatcher matcher;
+  private final ChangeStatistics stats;
 
   @Inject
-  ChangeQueryRewriter(Provider<ReviewDb> dbProvider) {
+  ChangeQueryRewriter(Provider<ReviewDb> dbProvider, ParallelMatcher matcher,
+      ChangeStatistics stats) {
     super(mydef);
     this.dbProvider = dbProvider;
+    this.matcher = matcher;
+    this.stats = stats;
   }
 
   @Override
   public Predicate<ChangeData> and(Collection<? extends Predicate<ChangeData>> l) {
-    return hasSource(l) ? new AndSource(l) : super.and(l);
+    return hasSource(l) //
+        ? new AndSource(l, matcher, stats.isAvailable()) //
+        : super.and(l);
   }
 
   @Override
   public Predicate<ChangeData> or(Collection<? extends Predicate<ChangeData>> l) {
-    return hasSource(l) ? new OrSource(l) : super.or(l);
+    return allSources(l) ? new OrSource(l) : super.or(l);
   }
 
   @Rewrite("-status:open")
@@ -118,12 +137,19 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
     return a.getValue().compareTo(b.getValue()) >= 0 ? a : b;
   }
 
+  @SuppressWarnings("unchecked")
   @Rewrite("status:open P=(project:*) S=(sortkey_after:*) L=(limit:*)")
   public Predicate<ChangeData> r10_byProjectOpenPrev(
       @Named("P") final ProjectPredicate p,
       @Named("S") final SortKeyPredicate.After s,
       @Named("L") final IntPredicate<ChangeData> l) {
-    return new PaginatedSource(500, s.getValue(), l.intValue()) {
+    return new PaginatedSource(
+        estimate(stats.project(p.getValueKey(), OPEN), 500),
+        s.getValue(), l.intValue()) {
+      {
+        init("r10_byProjectOpenPrev", p, s, l);
+      }
+
       @Override
       ResultSet<Change> scan(ChangeAccess a, String key, int limit)
           throws OrmException {
@@ -139,12 +165,19 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
     };
   }
 
+  @SuppressWarnings("unchecked")
   @Rewrite("status:open P=(project:*) S=(sortkey_before:*) L=(limit:*)")
   public Predicate<ChangeData> r10_byProjectOpenNext(
       @Named("P") final ProjectPredicate p,
       @Named("S") final SortKeyPredicate.Before s,
       @Named("L") final IntPredicate<ChangeData> l) {
-    return new PaginatedSource(500, s.getValue(), l.intValue()) {
+    return new PaginatedSource(
+        estimate(stats.project(p.getValueKey(), OPEN), 500),
+        s.getValue(), l.intValue()) {
+      {
+        init("r10_byProjectOpenNext", p, s, l);
+      }
+
       @Override
       ResultSet<Change> scan(ChangeAccess a, String key, int limit)
           throws OrmException {
@@ -160,12 +193,19 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
     };
   }
 
+  @SuppressWarnings("unchecked")
   @Rewrite("status:merged P=(project:*) S=(sortkey_after:*) L=(limit:*)")
   public Predicate<ChangeData> r10_byProjectMergedPrev(
       @Named("P") final ProjectPredicate p,
       @Named("S") final SortKeyPredicate.After s,
       @Named("L") final IntPredicate<ChangeData> l) {
-    return new PaginatedSource(40000, s.getValue(), l.intValue()) {
+    return new PaginatedSource(
+        estimate(stats.project(p.getValueKey(), MERGED), 40000),
+        s.getValue(), l.intValue()) {
+      {
+        init("r10_byProjectMergedPrev", p, s, l);
+      }
+
       @Override
       ResultSet<Change> scan(ChangeAccess a, String key, int limit)
           throws OrmException {
@@ -182,12 +222,19 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
     };
   }
 
+  @SuppressWarnings("unchecked")
   @Rewrite("status:merged P=(project:*) S=(sortkey_before:*) L=(limit:*)")
   public Predicate<ChangeData> r10_byProjectMergedNext(
       @Named("P") final ProjectPredicate p,
       @Named("S") final SortKeyPredicate.Before s,
       @Named("L") final IntPredicate<ChangeData> l) {
-    return new PaginatedSource(40000, s.getValue(), l.intValue()) {
+    return new PaginatedSource(
+        estimate(stats.project(p.getValueKey(), MERGED), 40000),
+        s.getValue(), l.intValue()) {
+      {
+        init("r10_byProjectMergedNext", p, s, l);
+      }
+
       @Override
       ResultSet<Change> scan(ChangeAccess a, String key, int limit)
           throws OrmException {
@@ -204,12 +251,19 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
     };
   }
 
+  @SuppressWarnings("unchecked")
   @Rewrite("status:abandoned P=(project:*) S=(sortkey_after:*) L=(limit:*)")
   public Predicate<ChangeData> r10_byProjectAbandonedPrev(
       @Named("P") final ProjectPredicate p,
       @Named("S") final SortKeyPredicate.After s,
       @Named("L") final IntPredicate<ChangeData> l) {
-    return new PaginatedSource(40000, s.getValue(), l.intValue()) {
+    return new PaginatedSource(
+        estimate(stats.project(p.getValueKey(), ABANDONED), 40000),
+        s.getValue(), l.intValue()) {
+      {
+        init("r10_byProjectAbandonedPrev", p, s, l);
+      }
+
       @Override
       ResultSet<Change> scan(ChangeAccess a, String key, int limit)
           throws OrmException {
@@ -226,12 +280,19 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
     };
   }
 
+  @SuppressWarnings("unchecked")
   @Rewrite("status:abandoned P=(project:*) S=(sortkey_before:*) L=(limit:*)")
   public Predicate<ChangeData> r10_byProjectAbandonedNext(
       @Named("P") final ProjectPredicate p,
       @Named("S") final SortKeyPredicate.Before s,
       @Named("L") final IntPredicate<ChangeData> l) {
-    return new PaginatedSource(40000, s.getValue(), l.intValue()) {
+    return new PaginatedSource(
+        estimate(stats.project(p.getValueKey(), ABANDONED), 40000),
+        s.getValue(), l.intValue()) {
+      {
+        init("r10_byProjectAbandonedNext", p, s, l);
+      }
+
       @Override
       ResultSet<Change> scan(ChangeAccess a, String key, int limit)
           throws OrmException {
@@ -248,11 +309,17 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
     };
   }
 
+  @SuppressWarnings("unchecked")
   @Rewrite("status:open S=(sortkey_after:*) L=(limit:*)")
   public Predicate<ChangeData> r20_byOpenPrev(
       @Named("S") final SortKeyPredicate.After s,
       @Named("L") final IntPredicate<ChangeData> l) {
-    return new PaginatedSource(2000, s.getValue(), l.intValue()) {
+    return new PaginatedSource(estimate(stats.status(OPEN), 2000),
+        s.getValue(), l.intValue()) {
+      {
+        init("r20_byOpenPrev", s, l);
+      }
+
       @Override
       ResultSet<Change> scan(ChangeAccess a, String key, int limit)
           throws OrmException {
@@ -266,11 +333,17 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
     };
   }
 
+  @SuppressWarnings("unchecked")
   @Rewrite("status:open S=(sortkey_before:*) L=(limit:*)")
   public Predicate<ChangeData> r20_byOpenNext(
       @Named("S") final SortKeyPredicate.Before s,
       @Named("L") final IntPredicate<ChangeData> l) {
-    return new PaginatedSource(2000, s.getValue(), l.intValue()) {
+    return new PaginatedSource(estimate(stats.status(OPEN), 2000),
+        s.getValue(), l.intValue()) {
+      {
+        init("r20_byOpenNext", s, l);
+      }
+
       @Override
       ResultSet<Change> scan(ChangeAccess a, String key, int limit)
           throws OrmException {
@@ -289,7 +362,8 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
   public Predicate<ChangeData> r20_byMergedPrev(
       @Named("S") final SortKeyPredicate.After s,
       @Named("L") final IntPredicate<ChangeData> l) {
-    return new PaginatedSource(50000, s.getValue(), l.intValue()) {
+    return new PaginatedSource(estimate(stats.status(MERGED), 50000),
+        s.getValue(), l.intValue()) {
       {
         init("r20_byMergedPrev", s, l);
       }
@@ -313,7 +387,8 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
   public Predicate<ChangeData> r20_byMergedNext(
       @Named("S") final SortKeyPredicate.Before s,
       @Named("L") final IntPredicate<ChangeData> l) {
-    return new PaginatedSource(50000, s.getValue(), l.intValue()) {
+    return new PaginatedSource(estimate(stats.status(MERGED), 50000),
+        s.getValue(), l.intValue()) {
       {
         init("r20_byMergedNext", s, l);
       }
@@ -337,7 +412,8 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
   public Predicate<ChangeData> r20_byAbandonedPrev(
       @Named("S") final SortKeyPredicate.After s,
       @Named("L") final IntPredicate<ChangeData> l) {
-    return new PaginatedSource(50000, s.getValue(), l.intValue()) {
+    return new PaginatedSource(estimate(stats.status(ABANDONED), 50000),
+        s.getValue(), l.intValue()) {
       {
         init("r20_byAbandonedPrev", s, l);
       }
@@ -361,7 +437,8 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
   public Predicate<ChangeData> r20_byAbandonedNext(
       @Named("S") final SortKeyPredicate.Before s,
       @Named("L") final IntPredicate<ChangeData> l) {
-    return new PaginatedSource(50000, s.getValue(), l.intValue()) {
+    return new PaginatedSource(estimate(stats.status(ABANDONED), 50000),
+        s.getValue(), l.intValue()) {
       {
         init("r20_byAbandonedNext", s, l);
       }
@@ -400,7 +477,7 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
   @Rewrite("status:open O=(owner:*)")
   public Predicate<ChangeData> r25_byOwnerOpen(
       @Named("O") final OwnerPredicate o) {
-    return new ChangeSource(50) {
+    return new ChangeSource(estimate(stats.owner(o.getAccountId(), OPEN), 50)) {
       {
         init("r25_byOwnerOpen", o);
       }
@@ -421,7 +498,8 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
   @Rewrite("status:closed O=(owner:*)")
   public Predicate<ChangeData> r25_byOwnerClosed(
       @Named("O") final OwnerPredicate o) {
-    return new ChangeSource(5000) {
+    return new ChangeSource(
+        estimate(stats.owner(o.getAccountId(), CLOSED), 5000)) {
       {
         init("r25_byOwnerClosed", o);
       }
@@ -448,6 +526,8 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
   @Rewrite("status:open R=(reviewer:*)")
   public Predicate<ChangeData> r30_byReviewerOpen(
       @Named("R") final ReviewerPredicate r) {
+    final int cardinality =
+        estimate(stats.reviewer(r.getAccountId(), OPEN), 50);
     return new Source() {
       {
         init("r30_byReviewerOpen", r);
@@ -467,7 +547,7 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
 
       @Override
       public int getCardinality() {
-        return 50;
+        return cardinality;
       }
 
       @Override
@@ -481,6 +561,8 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
   @Rewrite("status:closed R=(reviewer:*)")
   public Predicate<ChangeData> r30_byReviewerClosed(
       @Named("R") final ReviewerPredicate r) {
+    final int cardinality =
+        estimate(stats.reviewer(r.getAccountId(), CLOSED), 5000);
     return new Source() {
       {
         init("r30_byReviewerClosed", r);
@@ -500,7 +582,7 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
 
       @Override
       public int getCardinality() {
-        return 5000;
+        return cardinality;
       }
 
       @Override
@@ -517,9 +599,14 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
     return or(r30_byReviewerOpen(r), r30_byReviewerClosed(r));
   }
 
+  @SuppressWarnings("unchecked")
   @Rewrite("status:submitted")
   public Predicate<ChangeData> r99_allSubmitted() {
-    return new ChangeSource(50) {
+    return new ChangeSource(estimate(stats.status(SUBMITTED), 50)) {
+      {
+        init("r99_allSubmitted");
+      }
+
       @Override
       ResultSet<Change> scan(ChangeAccess a) throws OrmException {
         return a.allSubmitted();
@@ -532,10 +619,16 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
     };
   }
 
+  @SuppressWarnings("unchecked")
   @Rewrite("P=(project:*)")
   public Predicate<ChangeData> r99_byProject(
       @Named("P") final ProjectPredicate p) {
-    return new ChangeSource(1000000) {
+    return new ChangeSource(estimate(stats.project(p.getValueKey(), null),
+        1000000)) {
+      {
+        init("r99_byProject", p);
+      }
+
       @Override
       ResultSet<Change> scan(ChangeAccess a) throws OrmException {
         return a.byProject(p.getValueKey());
@@ -548,6 +641,16 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
     };
   }
 
+  /**
+   * @param count number of changes from {@link ChangeStatistics}, -1 if not
+   *        known.
+   * @param guess estimate to use if the statistics are not available.
+   * @return expected cardinality of a source.
+   */
+  private static int estimate(int count, int guess) {
+    return 0 <= count ? count : guess;
+  }
+
   private static boolean hasSource(Collection<? extends Predicate<ChangeData>> l) {
     for (Predicate<ChangeData> p : l) {
       if (p instanceof ChangeDataSource) {
@@ -557,6 +660,16 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
     return false;
   }
 
+  private static boolean allSources(
+      Collection<? extends Predicate<ChangeData>> l) {
+    for (Predicate<ChangeData> p : l) {
+      if (!(p instanceof ChangeDataSource)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   private abstract static class Source extends RewritePredicate<ChangeData>
       implements ChangeDataSource {
     @Override
@@ -0,0 +1,52 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.gerrit.reviewdb.ReviewDb;
+import com.google.gerrit.server.patch.PatchListCache;
+import com.google.gerrit.server.query.OperatorPredicate;
+import com.google.gwtorm.client.OrmException;
+import com.google.inject.Provider;
+
+import java.util.Arrays;
+
+class EqualsFilePredicate extends OperatorPredicate<ChangeData>
+    implements ParallelPredicate {
+  private final Provider<ReviewDb> db;
+  private final PatchListCache cache;
+
+  EqualsFilePredicate(Provider<ReviewDb> db, PatchListCache plc, String value) {
+    super(ChangeQueryBuilder.FIELD_FILE, value);
+    this.db = db;
+    this.cache = plc;
+  }
+
+  @Override
+  public void prepare(ChangeData object) throws OrmException {
+    object.currentPatchSet(db);
+  }
+
+  @Override
+  public boolean match(ChangeData object) throws OrmException {
+    String[] files = object.currentFilePaths(db, cache);
+    // Like RegexFilePredicate, include the change if its files are unknown.
+    return files == null || 0 <= Arrays.binarySearch(files, getValue());
+  }
+
+  @Override
+  public int getCost() {
+    return ChangeCosts.REPOSITORY_READ;
+  }
+}
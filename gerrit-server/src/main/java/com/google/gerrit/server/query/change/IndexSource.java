@@ -0,0 +1,108 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.ReviewDb;
+import com.google.gerrit.server.index.ChangeIndex;
+import com.google.gerrit.server.query.OperatorPredicate;
+import com.google.gwtorm.client.OrmException;
+import com.google.gwtorm.client.ResultSet;
+import com.google.inject.Provider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Predicate reading its candidates from the {@link ChangeIndex}.
+ * <p>
+ * The changes found in the index are loaded by id and matched again by the
+ * wrapped predicate, so the index only has to return a superset of the
+ * matching changes.
+ */
+class IndexSource extends OperatorPredicate<ChangeData> implements
+    ChangeDataSource {
+  private final Provider<ReviewDb> dbProvider;
+  private final ChangeIndex index;
+  private final OperatorPredicate<ChangeData> pred;
+  private final List<? extends Collection<String>> clauses;
+  private int[] ids;
+
+  /**
+   * @param dbProvider database to load the changes from.
+   * @param index the index to search.
+   * @param pred predicate the changes must match.
+   * @param clauses terms to search for; a candidate has at least one term of
+   *        every clause.
+   */
+  IndexSource(Provider<ReviewDb> dbProvider, ChangeIndex index,
+      OperatorPredicate<ChangeData> pred,
+      List<? extends Collection<String>> clauses) {
+    super(pred.getOperator(), pred.getValue());
+    this.dbProvider = dbProvider;
+    this.index = index;
+    this.pred = pred;
+    this.clauses = clauses;
+  }
+
+  /**
+   * @param dbProvider database to load the changes from.
+   * @param pred predicate the changes must match.
+   * @param ids candidates already found in an index, in increasing order.
+   */
+  IndexSource(Provider<ReviewDb> dbProvider,
+      OperatorPredicate<ChangeData> pred, int[] ids) {
+    this(dbProvider, null, pred, null);
+    this.ids = ids;
+  }
+
+  private int[] ids() {
+    if (ids == null) {
+      ids = index.search(clauses);
+    }
+    return ids;
+  }
+
+  @Override
+  public ResultSet<ChangeData> read() throws OrmException {
+    final int[] r = ids();
+    final List<Change.Id> want = new ArrayList<Change.Id>(r.length);
+    for (int id : r) {
+      want.add(new Change.Id(id));
+    }
+    return ChangeDataResultSet.change(dbProvider.get().changes().get(want));
+  }
+
+  @Override
+  public boolean hasChange() {
+    return true;
+  }
+
+  @Override
+  public int getCardinality() {
+    return ids().length;
+  }
+
+  @Override
+  public boolean match(ChangeData cd) throws OrmException {
+    return pred.match(cd);
+  }
+
+  @Override
+  public int getCost() {
+    return ChangeCosts.cost(ChangeCosts.IDS_MEMORY, getCardinality());
+  }
+}
@@ -18,13 +18,14 @@ import com.google.gerrit.reviewdb.Change;
 import com.google.gerrit.reviewdb.ReviewDb;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.IdentifiedUser;
-import com.google.gerrit.server.project.ChangeControl;
-import com.google.gerrit.server.project.NoSuchChangeException;
+import com.google.gerrit.server.project.NoSuchProjectException;
+import com.google.gerrit.server.project.VisibilityCache;
 import com.google.gerrit.server.query.OperatorPredicate;
 import com.google.gwtorm.client.OrmException;
 import com.google.inject.Provider;
 
-class IsVisibleToPredicate extends OperatorPredicate<ChangeData> {
+class IsVisibleToPredicate extends OperatorPredicate<ChangeData>
+    implements ParallelPredicate {
   private static String describe(CurrentUser user) {
     if (user instanceof IdentifiedUser) {
       return ((IdentifiedUser) user).getAccountId().toString();
@@ -37,17 +38,23 @@ class IsVisibleToPredicate extends OperatorPredicate<ChangeData> {
   }
 
   private final Provider<ReviewDb> db;
-  private final ChangeControl.GenericFactory changeControl;
+  private final VisibilityCache.Memo visibility;
   private final CurrentUser user;
 
-  IsVisibleToPredicate(Provider<ReviewDb> db,
-      ChangeControl.GenericFactory changeControlFactory, CurrentUser user) {
+  IsVisibleToPredicate(Provider<ReviewDb> db, VisibilityCache visibilityCache,
+      CurrentUser user) {
     super(ChangeQueryBuilder.FIELD_VISIBLETO, describe(user));
     this.db = db;
-    this.changeControl = changeControlFactory;
+    this.visibility = visibilityCache.forUser(user);
     this.user = user;
   }
 
+  @Override
+  public void prepare(final ChangeData cd) throws OrmException {
+    cd.change(db);
+    user.getEffectiveGroups();
+  }
+
   @Override
   public boolean match(final ChangeData cd) throws OrmException {
     if (cd.fastIsVisibleTo(user)) {
@@ -55,19 +62,19 @@ class IsVisibleToPredicate extends OperatorPredicate<ChangeData> {
     }
     try {
       Change c = cd.change(db);
-      if (c != null && changeControl.controlFor(c, user).isVisible()) {
+      if (c != null && visibility.isVisible(c)) {
         cd.cacheVisibleTo(user);
         return true;
       } else {
         return false;
       }
-    } catch (NoSuchChangeException e) {
+    } catch (NoSuchProjectException e) {
       return false;
     }
   }
 
   @Override
   public int getCost() {
-    return 1;
+    return ChangeCosts.PERMISSION_CHECK;
   }
 }
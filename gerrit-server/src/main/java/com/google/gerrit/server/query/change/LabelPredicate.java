@@ -21,12 +21,15 @@ import com.google.gerrit.reviewdb.ApprovalCategory;
 import com.google.gerrit.reviewdb.PatchSetApproval;
 import com.google.gerrit.reviewdb.ReviewDb;
 import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.index.ChangeIndex;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.query.OperatorPredicate;
 import com.google.gwtorm.client.OrmException;
 import com.google.inject.Provider;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -175,6 +178,19 @@ class LabelPredicate extends OperatorPredicate<ChangeData> {
     return false;
   }
 
+  /** @return index terms of the label values this predicate may match. */
+  List<String> indexTerms(ChangeIndex index) {
+    final String prefix = ChangeIndex.term(ChangeQueryBuilder.FIELD_LABEL,
+        category.getId().get() + "=");
+    final List<String> r = new ArrayList<String>();
+    for (String t : index.terms(prefix)) {
+      if (test.match(Integer.parseInt(t.substring(prefix.length())), expVal)) {
+        r.add(t);
+      }
+    }
+    return r;
+  }
+
   @Override
   public int getCost() {
     return 2;
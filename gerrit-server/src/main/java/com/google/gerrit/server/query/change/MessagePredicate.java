@@ -20,6 +20,7 @@ import com.google.gerrit.reviewdb.Project;
 import com.google.gerrit.reviewdb.RevId;
 import com.google.gerrit.reviewdb.ReviewDb;
 import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.index.CommitMessageIndex;
 import com.google.gerrit.server.query.OperatorPredicate;
 import com.google.gwtorm.client.OrmException;
 import com.google.inject.Provider;
@@ -33,16 +34,19 @@ import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.revwalk.filter.MessageRevFilter;
 import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.revwalk.filter.SubStringRevFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Predicate to match changes that contains specified text in commit messages
  * body.
  */
-public class MessagePredicate extends OperatorPredicate<ChangeData> {
+public class MessagePredicate extends OperatorPredicate<ChangeData>
+    implements ParallelPredicate {
 
   private static final Logger log =
       LoggerFactory.getLogger(MessagePredicate.class);
@@ -59,6 +63,11 @@ public class MessagePredicate extends OperatorPredicate<ChangeData> {
     this.rFilter = MessageRevFilter.create(text);
   }
 
+  @Override
+  public void prepare(ChangeData object) throws OrmException {
+    object.currentPatchSet(db);
+  }
+
   @Override
   public boolean match(ChangeData object) throws OrmException {
     final PatchSet patchSet = object.currentPatchSet(db);
@@ -96,7 +105,9 @@ public class MessagePredicate extends OperatorPredicate<ChangeData> {
       try {
         final RevWalk rw = new RevWalk(repo);
         try {
-          return rFilter.include(rw, rw.parseCommit(objectId));
+          // Changes are matched by several threads at once, and a filter
+          // matching a regular expression is not thread safe.
+          return rFilter.clone().include(rw, rw.parseCommit(objectId));
         } finally {
           rw.release();
         }
@@ -117,8 +128,24 @@ public class MessagePredicate extends OperatorPredicate<ChangeData> {
     return false;
   }
 
+  /**
+   * @return ids of the changes whose indexed message contains the words of
+   *         the text; null if the text is a regular expression, or has no
+   *         words.
+   */
+  int[] search(CommitMessageIndex index) {
+    final String text = getValue();
+    final List<String> words = CommitMessageIndex.wordList(text);
+    if (!SubStringRevFilter.safe(text) || words.isEmpty()) {
+      return null;
+    }
+    return index.search(words, //
+        Character.isLetterOrDigit(text.charAt(0)), //
+        Character.isLetterOrDigit(text.charAt(text.length() - 1)));
+  }
+
   @Override
   public int getCost() {
-    return 1;
+    return ChangeCosts.REPOSITORY_READ;
   }
 }
@@ -0,0 +1,159 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.query.AndPredicate;
+import com.google.gerrit.server.query.NotPredicate;
+import com.google.gerrit.server.query.OrPredicate;
+import com.google.gerrit.server.query.Predicate;
+import com.google.gerrit.server.util.ParallelWork;
+import com.google.gwtorm.client.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.eclipse.jgit.lib.Config;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Matches costly predicates against several changes at once. */
+@Singleton
+public class ParallelMatcher {
+  /** Number of changes one thread matches before claiming more. */
+  private static final int CHANGES_PER_TASK = 4;
+
+  /**
+   * @return true if {@code p} is made only of {@link ParallelPredicate}s,
+   *         combined by AND, OR and NOT.
+   */
+  static boolean isParallel(final Predicate<ChangeData> p) {
+    if (p instanceof ParallelPredicate) {
+      return true;
+    }
+    if (p instanceof ChangeDataSource || p.getChildCount() == 0
+        || !(p instanceof AndPredicate || p instanceof OrPredicate
+            || p instanceof NotPredicate)) {
+      return false;
+    }
+    for (Predicate<ChangeData> c : p.getChildren()) {
+      if (!isParallel(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void prepare(final Predicate<ChangeData> p,
+      final ChangeData cd) throws OrmException {
+    if (p instanceof ParallelPredicate) {
+      ((ParallelPredicate) p).prepare(cd);
+    } else {
+      for (Predicate<ChangeData> c : p.getChildren()) {
+        prepare(c, cd);
+      }
+    }
+  }
+
+  private final int threads;
+  private final WorkQueue.Executor executor;
+
+  @Inject
+  ParallelMatcher(final WorkQueue workQueue,
+      @GerritServerConfig final Config cfg) {
+    threads = cfg.getInt("query", "threads",
+        Runtime.getRuntime().availableProcessors());
+    executor = 1 < threads ? workQueue.createQueue(threads, "QueryMatch") : null;
+  }
+
+  /**
+   * Match changes against predicates.
+   * <p>
+   * Each predicate must satisfy {@link #isParallel(Predicate)}. The
+   * predicates are prepared for every change on the calling thread. The
+   * changes are then matched by the calling thread and by helpers on the
+   * executor, see {@link ParallelWork}.
+   *
+   * @param predicates predicates that must all match.
+   * @param changes changes to match.
+   * @return for each change, in the same order, whether it matched.
+   * @throws OrmException a predicate failed to match a change.
+   */
+  boolean[] match(final List<Predicate<ChangeData>> predicates,
+      final List<ChangeData> changes) throws OrmException {
+    for (ChangeData cd : changes) {
+      for (Predicate<ChangeData> p : predicates) {
+        prepare(p, cd);
+      }
+    }
+
+    final boolean[] result = new boolean[changes.size()];
+    final int tasks = (changes.size() + CHANGES_PER_TASK - 1) / CHANGES_PER_TASK;
+    final AtomicInteger next = new AtomicInteger();
+    if (executor == null || tasks <= 1) {
+      match(predicates, changes, result, next);
+      return result;
+    }
+
+    try {
+      ParallelWork.run(executor, Math.min(threads, tasks) - 1,
+          new Callable<Void>() {
+            @Override
+            public Void call() throws OrmException {
+              match(predicates, changes, result, next);
+              return null;
+            }
+          });
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof OrmException) {
+        throw (OrmException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new OrmException("Cannot match changes", e.getCause());
+    }
+    return result;
+  }
+
+  private static void match(final List<Predicate<ChangeData>> predicates,
+      final List<ChangeData> changes, final boolean[] result,
+      final AtomicInteger next) throws OrmException {
+    final int cnt = changes.size();
+    for (;;) {
+      final int start = next.getAndAdd(CHANGES_PER_TASK);
+      if (cnt <= start) {
+        return;
+      }
+      final int end = Math.min(start + CHANGES_PER_TASK, cnt);
+      for (int i = start; i < end; i++) {
+        result[i] = matchAll(predicates, changes.get(i));
+      }
+    }
+  }
+
+  private static boolean matchAll(final List<Predicate<ChangeData>> predicates,
+      final ChangeData cd) throws OrmException {
+    for (Predicate<ChangeData> p : predicates) {
+      if (!p.match(cd)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,30 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.gwtorm.client.OrmException;
+
+/**
+ * A predicate that may be matched on a thread other than the query's.
+ * <p>
+ * The database session belongs to the thread running the query, so
+ * {@link #prepare(ChangeData)} is called on that thread first to load what
+ * the match needs. The match itself must not use the database, and must be
+ * thread safe, as one predicate matches several changes at once.
+ */
+interface ParallelPredicate {
+  /** Load from the database what matching the change will need. */
+  void prepare(ChangeData cd) throws OrmException;
+}
@@ -23,8 +23,12 @@ import com.google.gerrit.server.events.ChangeAttribute;
 import com.google.gerrit.server.events.EventFactory;
 import com.google.gerrit.server.events.PatchSetAttribute;
 import com.google.gerrit.server.events.QueryStats;
+import com.google.gerrit.server.query.AndPredicate;
+import com.google.gerrit.server.query.NotPredicate;
+import com.google.gerrit.server.query.OrPredicate;
 import com.google.gerrit.server.query.Predicate;
 import com.google.gerrit.server.query.QueryParseException;
+import com.google.gerrit.server.util.TopN;
 import com.google.gson.Gson;
 import com.google.gwtorm.client.OrmException;
 import com.google.inject.Inject;
@@ -58,6 +62,15 @@ public class QueryProcessor {
     TEXT, JSON;
   }
 
+  private static final Comparator<ChangeData> SORT_KEY_DESC =
+      new Comparator<ChangeData>() {
+        @Override
+        public int compare(ChangeData a, ChangeData b) {
+          return b.getChange().getSortKey().compareTo(
+              a.getChange().getSortKey());
+        }
+      };
+
   private final Gson gson = new Gson();
   private final SimpleDateFormat sdf =
       new SimpleDateFormat("yyyy-MM-dd HH:mm:ss zzz");
@@ -73,6 +86,7 @@ public class QueryProcessor {
   private boolean includeCurrentPatchSet;
   private boolean includeApprovals;
   private boolean includeComments;
+  private boolean explain;
 
   private OutputStream outputStream = DisabledOutputStream.INSTANCE;
   private PrintWriter out;
@@ -106,6 +120,10 @@ public class QueryProcessor {
     includeComments = on;
   }
 
+  public void setExplain(boolean on) {
+    explain = on;
+  }
+
   public void setOutput(OutputStream out, OutputFormat fmt) {
     this.outputStream = out;
     this.outputFormat = fmt;
@@ -129,7 +147,13 @@ public class QueryProcessor {
 
         final Predicate<ChangeData> visibleToMe = queryBuilder.is_visible();
         Predicate<ChangeData> s = compileQuery(queryString, visibleToMe);
-        List<ChangeData> results = new ArrayList<ChangeData>();
+        if (explain) {
+          QueryPlan plan = new QueryPlan();
+          plan.plan = explain(s);
+          show(plan);
+        }
+
+        TopN<ChangeData> top = new TopN<ChangeData>(limit(s), SORT_KEY_DESC);
         HashSet<Change.Id> want = new HashSet<Change.Id>();
         for (ChangeData d : ((ChangeDataSource) s).read()) {
           if (d.hasChange()) {
@@ -137,8 +161,8 @@ public class QueryProcessor {
             // query should have already performed it. But we don't
             // want to trust the query rewriter that much yet.
             //
-            if (visibleToMe.match(d)) {
-              results.add(d);
+            if (top.accepts(d) && visibleToMe.match(d)) {
+              top.add(d);
             }
           } else {
             want.add(d.getId());
@@ -148,54 +172,54 @@ public class QueryProcessor {
         if (!want.isEmpty()) {
           for (Change c : db.get().changes().get(want)) {
             ChangeData d = new ChangeData(c);
-            if (visibleToMe.match(d)) {
-              results.add(d);
+            if (top.accepts(d) && visibleToMe.match(d)) {
+              top.add(d);
             }
           }
         }
 
-        Collections.sort(results, new Comparator<ChangeData>() {
-          @Override
-          public int compare(ChangeData a, ChangeData b) {
-            return b.getChange().getSortKey().compareTo(
-                a.getChange().getSortKey());
-          }
-        });
-
-        int limit = limit(s);
-        if (limit < results.size()) {
-          results = results.subList(0, limit);
-        }
+        List<ChangeData> results = top.drain();
+        for (int i = 0; i < results.size(); i += ChangeData.BATCH_SIZE) {
+          // Details are loaded for a batch of changes at once. A batch
+          // is released once written, as each of its changes references
+          // the whole batch until then.
+          //
+          List<ChangeData> batch = results.subList(i,
+              Math.min(i + ChangeData.BATCH_SIZE, results.size()));
+          ChangeData.batch(batch);
+          for (ChangeData d : batch) {
+            ChangeAttribute c = eventFactory.asChangeAttribute(d.getChange());
+            eventFactory.extend(c, d.getChange());
+            eventFactory.addTrackingIds(c, d.trackingIds(db));
 
-        for (ChangeData d : results) {
-          ChangeAttribute c = eventFactory.asChangeAttribute(d.getChange());
-          eventFactory.extend(c, d.getChange());
-          eventFactory.addTrackingIds(c, d.trackingIds(db));
-
-          if (includePatchSets) {
-            eventFactory.addPatchSets(c, d.patches(db),
-              includeApprovals ? d.approvalsMap(db) : null);
-          }
+            if (includePatchSets) {
+              eventFactory.addPatchSets(c, d.patches(db),
+                includeApprovals ? d.approvalsMap(db) : null);
+            }
 
-          if (includeCurrentPatchSet) {
-            PatchSet current = d.currentPatchSet(db);
-            if (current != null) {
-              c.currentPatchSet = eventFactory.asPatchSetAttribute(current);
-              eventFactory.addApprovals(c.currentPatchSet, //
-                  d.approvalsFor(db, current.getId()));
+            if (includeCurrentPatchSet) {
+              PatchSet current = d.currentPatchSet(db);
+              if (current != null) {
+                c.currentPatchSet = eventFactory.asPatchSetAttribute(current);
+                eventFactory.addApprovals(c.currentPatchSet, //
+                    d.approvalsFor(db, current.getId()));
+              }
             }
-          }
 
-          if (includeComments) {
-            eventFactory.addComments(c, d.messages(db));
-            if (includePatchSets) {
-              for (PatchSetAttribute attribute : c.patchSets) {
-                eventFactory.addPatchSetComments(attribute,  d.comments(db));
+            if (includeComments) {
+              eventFactory.addComments(c, d.messages(db));
+              if (includePatchSets) {
+                for (PatchSetAttribute attribute : c.patchSets) {
+                  eventFactory.addPatchSetComments(attribute,  d.comments(db));
+                }
               }
             }
-          }
 
-          show(c);
+            show(c);
+            out.flush();
+          }
+          ChangeData.unbatch(batch);
+          Collections.fill(batch, null);
         }
 
         stats.rowCount = results.size();
@@ -249,6 +273,53 @@ public class QueryProcessor {
     return s;
   }
 
+  /** Describe the predicates of a query, one per line. */
+  private static String explain(Predicate<ChangeData> s) {
+    StringBuilder r = new StringBuilder();
+    explain(r, s, null, 0);
+    return r.toString().trim();
+  }
+
+  private static void explain(StringBuilder r, Predicate<ChangeData> p,
+      AndSource parent, int depth) {
+    for (int i = 0; i < depth; i++) {
+      r.append("  ");
+    }
+
+    boolean tree = false;
+    if (p instanceof AndPredicate) {
+      r.append("AND");
+      tree = true;
+    } else if (p instanceof OrPredicate) {
+      r.append("OR");
+      tree = true;
+    } else if (p instanceof NotPredicate) {
+      r.append("NOT");
+      tree = true;
+    } else {
+      r.append(p);
+    }
+
+    r.append(" cost=").append(p.getCost());
+    if (p instanceof ChangeDataSource) {
+      r.append(" cardinality=");
+      r.append(((ChangeDataSource) p).getCardinality());
+    }
+    if (parent != null && parent.source() == p) {
+      r.append(" [driving]");
+    } else if (parent != null && parent.isParallel(p)) {
+      r.append(" [parallel]");
+    }
+    r.append('\n');
+
+    if (tree) {
+      AndSource and = p instanceof AndSource ? (AndSource) p : null;
+      for (Predicate<ChangeData> c : p.getChildren()) {
+        explain(r, c, and, depth + 1);
+      }
+    }
+  }
+
   private void show(Object data) {
     switch (outputFormat) {
       default:
@@ -358,6 +429,11 @@ public class QueryProcessor {
     return r;
   }
 
+  static class QueryPlan {
+    public final String type = "plan";
+    public String plan;
+  }
+
   static class ErrorMessage {
     public final String type = "error";
     public String message;
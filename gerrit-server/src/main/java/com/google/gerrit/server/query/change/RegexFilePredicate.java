@@ -15,6 +15,7 @@
 package com.google.gerrit.server.query.change;
 
 import com.google.gerrit.reviewdb.ReviewDb;
+import com.google.gerrit.server.index.ChangeIndex;
 import com.google.gerrit.server.patch.PatchListCache;
 import com.google.gerrit.server.query.OperatorPredicate;
 import com.google.gwtorm.client.OrmException;
@@ -24,9 +25,12 @@ import dk.brics.automaton.Automaton;
 import dk.brics.automaton.RegExp;
 import dk.brics.automaton.RunAutomaton;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
-class RegexFilePredicate extends OperatorPredicate<ChangeData> {
+class RegexFilePredicate extends OperatorPredicate<ChangeData>
+    implements ParallelPredicate {
   private final Provider<ReviewDb> db;
   private final PatchListCache cache;
   private final RunAutomaton pattern;
@@ -65,6 +69,11 @@ class RegexFilePredicate extends OperatorPredicate<ChangeData> {
     pattern = prefixOnly ? null : new RunAutomaton(automaton);
   }
 
+  @Override
+  public void prepare(ChangeData object) throws OrmException {
+    object.currentPatchSet(db);
+  }
+
   @Override
   public boolean match(ChangeData object) throws OrmException {
     String[] files = object.currentFilePaths(db, cache);
@@ -100,6 +109,18 @@ class RegexFilePredicate extends OperatorPredicate<ChangeData> {
     }
   }
 
+  /** @return index terms of the files this predicate matches. */
+  List<String> indexTerms(ChangeIndex index) {
+    final String prefix = ChangeIndex.term(ChangeQueryBuilder.FIELD_FILE, "");
+    final List<String> r = new ArrayList<String>();
+    for (String t : index.terms(prefix + prefixBegin)) {
+      if (prefixOnly || pattern.run(t.substring(prefix.length()))) {
+        r.add(t);
+      }
+    }
+    return r;
+  }
+
   private static int find(String[] files, String p) {
     int r = Arrays.binarySearch(files, p);
     return r < 0 ? -(r + 1) : r;
@@ -107,6 +128,6 @@ class RegexFilePredicate extends OperatorPredicate<ChangeData> {
 
   @Override
   public int getCost() {
-    return 1;
+    return ChangeCosts.REPOSITORY_READ;
   }
 }
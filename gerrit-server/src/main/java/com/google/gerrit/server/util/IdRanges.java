@@ -0,0 +1,64 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gerrit.server.util;
+
+import com.google.gwtorm.client.IntKey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Groups integer keys into ranges read by one query each.
+ * <p>
+ * Gerrit assigns account and change ids from sequences, so rows looked up
+ * together are often close. A gap of more than {@link #GAP} ids starts a new
+ * range, bounding the rows read for keys that were not asked for.
+ */
+public class IdRanges {
+  /** Largest gap between ids still read by one range query. */
+  public static final int GAP = 32;
+
+  /**
+   * Split keys into ranges.
+   *
+   * @param keys keys to read; duplicates are allowed.
+   * @return inclusive {@code [from, to]} pairs, in ascending order.
+   */
+  public static List<int[]> split(final Collection<? extends IntKey<?>> keys) {
+    final int[] ids = new int[keys.size()];
+    int n = 0;
+    for (IntKey<?> k : keys) {
+      ids[n++] = k.get();
+    }
+    Arrays.sort(ids);
+
+    final List<int[]> r = new ArrayList<int[]>();
+    for (int i = 0; i < ids.length;) {
+      int j = i + 1;
+      while (j < ids.length && ids[j] - ids[j - 1] <= GAP) {
+        j++;
+      }
+      r.add(new int[] {ids[i], ids[j - 1]});
+      i = j;
+    }
+    return r;
+  }
+
+  private IdRanges() {
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gerrit.server.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a task on the calling thread, helped by threads of an executor.
+ * <p>
+ * Every run of the task, on any thread, must claim parts of a shared piece
+ * of work until none is left. The calling thread always runs the task, so
+ * the work completes even if no helper gets a thread.
+ */
+public final class ParallelWork {
+  /**
+   * Run {@code task} on the calling thread and on up to {@code helpers}
+   * threads of {@code executor}.
+   * <p>
+   * Once the calling thread finishes its run, helpers that did not start yet
+   * are cancelled, their work was claimed by the calling thread. This method
+   * returns only after every helper that did start has finished, even if the
+   * calling thread failed, so helpers never see the resources of the task
+   * released underneath them.
+   *
+   * @param executor executor running the helpers.
+   * @param helpers number of helpers to submit.
+   * @param task the task to run.
+   * @throws ExecutionException the task failed on any thread; the cause is
+   *         the first failure seen, preferring the calling thread's own.
+   */
+  public static void run(final ExecutorService executor, final int helpers,
+      final Callable<?> task) throws ExecutionException {
+    final List<AtomicBoolean> started = new ArrayList<AtomicBoolean>(helpers);
+    final List<Future<?>> submitted = new ArrayList<Future<?>>(helpers);
+    for (int i = 0; i < helpers; i++) {
+      final AtomicBoolean s = new AtomicBoolean();
+      submitted.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          if (s.compareAndSet(false, true)) {
+            task.call();
+          }
+          return null;
+        }
+
+        @Override
+        public String toString() {
+          return task.toString();
+        }
+      }));
+      started.add(s);
+    }
+
+    ExecutionException err = null;
+    try {
+      task.call();
+    } catch (Exception e) {
+      err = new ExecutionException(e);
+    } finally {
+      // A helper claims its start with its flag. Helpers whose flag is taken
+      // here never run; the others may already use the task's resources and
+      // must be waited for, as a running task can still be cancelled.
+      boolean interrupted = false;
+      for (int i = 0; i < submitted.size(); i++) {
+        if (started.get(i).compareAndSet(false, true)) {
+          submitted.get(i).cancel(false);
+          continue;
+        }
+        for (;;) {
+          try {
+            submitted.get(i).get();
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          } catch (ExecutionException e) {
+            if (err == null) {
+              err = e;
+            }
+            break;
+          }
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (err != null) {
+      throw err;
+    }
+  }
+
+  private ParallelWork() {
+  }
+}
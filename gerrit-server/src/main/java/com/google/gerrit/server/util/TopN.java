@@ -0,0 +1,86 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the first {@code limit} elements of a sequence, in a given order.
+ * <p>
+ * Elements are held in a heap whose head is the last element kept, so an
+ * element that sorts after it can be rejected without storing it. Memory is
+ * bounded by the limit, not by the number of elements offered.
+ *
+ * @param <T> type of the elements.
+ */
+public class TopN<T> {
+  private final int limit;
+  private final Comparator<? super T> order;
+  private final PriorityQueue<T> heap;
+
+  /**
+   * @param limit maximum number of elements to keep.
+   * @param order order of the elements; the first ones are kept.
+   */
+  public TopN(final int limit, final Comparator<? super T> order) {
+    this.limit = limit;
+    this.order = order;
+    this.heap = new PriorityQueue<T>(Math.max(1, Math.min(limit, 1024)),
+        Collections.reverseOrder(order));
+  }
+
+  /** @return true if {@link #add(Object)} would keep the element. */
+  public boolean accepts(final T e) {
+    if (heap.size() < limit) {
+      return true;
+    }
+    return !heap.isEmpty() && order.compare(e, heap.peek()) < 0;
+  }
+
+  /**
+   * Offer an element, evicting the last element kept if the limit is reached.
+   *
+   * @return true if the element was kept.
+   */
+  public boolean add(final T e) {
+    if (!accepts(e)) {
+      return false;
+    }
+    if (heap.size() == limit) {
+      heap.poll();
+    }
+    heap.add(e);
+    return true;
+  }
+
+  /** @return number of elements kept. */
+  public int size() {
+    return heap.size();
+  }
+
+  /** @return the elements kept, in order; the heap is left empty. */
+  public List<T> drain() {
+    final ArrayList<T> r = new ArrayList<T>(heap.size());
+    while (!heap.isEmpty()) {
+      r.add(heap.poll());
+    }
+    Collections.reverse(r);
+    return r;
+  }
+}
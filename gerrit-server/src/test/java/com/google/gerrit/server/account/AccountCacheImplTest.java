@@ -0,0 +1,161 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import com.google.gerrit.reviewdb.Account;
+import com.google.gerrit.reviewdb.AccountAccess;
+import com.google.gerrit.reviewdb.AccountExternalId;
+import com.google.gerrit.reviewdb.AccountExternalIdAccess;
+import com.google.gerrit.reviewdb.AccountGroup;
+import com.google.gerrit.reviewdb.AccountGroupMember;
+import com.google.gerrit.reviewdb.AccountGroupMemberAccess;
+import com.google.gerrit.reviewdb.ReviewDb;
+import com.google.gerrit.server.cache.Cache;
+import com.google.gerrit.server.util.IdRanges;
+import com.google.gwtorm.client.ResultSet;
+import com.google.gwtorm.client.SchemaFactory;
+import com.google.gwtorm.client.impl.ListResultSet;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class AccountCacheImplTest extends TestCase {
+  private SchemaFactory<ReviewDb> schema;
+  private ReviewDb db;
+  private AccountAccess accounts;
+  private AccountExternalIdAccess externalIds;
+  private AccountGroupMemberAccess members;
+  private GroupCache groupCache;
+  private Cache<String, Account.Id> byName;
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected void setUp() throws Exception {
+    super.setUp();
+    schema = createMock(SchemaFactory.class);
+    db = createMock(ReviewDb.class);
+    accounts = createMock(AccountAccess.class);
+    externalIds = createMock(AccountExternalIdAccess.class);
+    members = createMock(AccountGroupMemberAccess.class);
+    groupCache = createMock(GroupCache.class);
+    byName = createMock(Cache.class);
+
+    expect(db.accounts()).andReturn(accounts).anyTimes();
+    expect(db.accountExternalIds()).andReturn(externalIds).anyTimes();
+    expect(db.accountGroupMembers()).andReturn(members).anyTimes();
+  }
+
+  private void replayAll() {
+    replay(schema, db, accounts, externalIds, members, groupCache, byName);
+  }
+
+  private void verifyAll() {
+    verify(schema, db, accounts, externalIds, members, groupCache, byName);
+  }
+
+  private AccountCacheImpl.ByIdLoader newLoader() {
+    return new AccountCacheImpl.ByIdLoader(schema, groupCache, byName);
+  }
+
+  public void testCreateAllQueriesEachTableOnce() throws Exception {
+    final Account.Id a = new Account.Id(1000000);
+    final Account.Id b = new Account.Id(1000005);
+    final Account.Id gone = new Account.Id(1000003);
+    final List<Account.Id> keys = Arrays.asList(a, b, gone);
+
+    final AccountGroup.Id gid = new AccountGroup.Id(7);
+    final AccountGroup devs = new AccountGroup(
+        new AccountGroup.NameKey("devs"), gid, new AccountGroup.UUID("devs"));
+
+    expect(schema.open()).andReturn(db);
+    expect(accounts.get(keys)).andReturn(
+        rs(new Account(a), new Account(b)));
+    expect(externalIds.byAccountRange(a, b)).andReturn(
+        rs(username(a, "alice")));
+    expect(members.byAccountRange(a, b)).andReturn(rs(member(b, gid)));
+    expect(groupCache.get(gid)).andReturn(devs);
+    byName.put("alice", a);
+    db.close();
+    replayAll();
+
+    final Map<Account.Id, AccountState> r = newLoader().createAll(keys);
+    verifyAll();
+
+    assertEquals(3, r.size());
+    assertEquals("alice", r.get(a).getUserName());
+    assertFalse(r.get(a).getInternalGroups().contains(devs.getGroupUUID()));
+    assertNull(r.get(b).getUserName());
+    assertTrue(r.get(b).getInternalGroups().contains(devs.getGroupUUID()));
+    assertEquals(1, r.get(gone).getInternalGroups().size());
+    assertTrue(r.get(gone).getInternalGroups().contains(
+        AccountGroup.ANONYMOUS_USERS));
+  }
+
+  public void testCreateAllQueriesDistantAccountsSeparately()
+      throws Exception {
+    final Account.Id a = new Account.Id(1000000);
+    final Account.Id b =
+        new Account.Id(1000000 + IdRanges.GAP + 1);
+    final List<Account.Id> keys = Arrays.asList(a, b);
+
+    final AccountGroup.Id gid = new AccountGroup.Id(7);
+    final AccountGroup devs = new AccountGroup(
+        new AccountGroup.NameKey("devs"), gid, new AccountGroup.UUID("devs"));
+
+    expect(schema.open()).andReturn(db);
+    expect(accounts.get(keys)).andReturn(
+        rs(new Account(a), new Account(b)));
+    expect(externalIds.byAccount(a)).andReturn(rs(username(a, "alice")));
+    expect(externalIds.byAccount(b)).andReturn(rs(username(b, "bob")));
+    expect(members.byAccount(a)).andReturn(rs(member(a, gid)));
+    expect(members.byAccount(b)).andReturn(rs(member(b, gid)));
+    expect(groupCache.get(gid)).andReturn(devs).times(2);
+    byName.put("alice", a);
+    byName.put("bob", b);
+    db.close();
+    replayAll();
+
+    final Map<Account.Id, AccountState> r = newLoader().createAll(keys);
+    verifyAll();
+
+    assertEquals(2, r.size());
+    assertEquals("alice", r.get(a).getUserName());
+    assertEquals("bob", r.get(b).getUserName());
+    assertTrue(r.get(a).getInternalGroups().contains(devs.getGroupUUID()));
+    assertTrue(r.get(b).getInternalGroups().contains(devs.getGroupUUID()));
+  }
+
+  private static AccountExternalId username(Account.Id who, String name) {
+    return new AccountExternalId(who, new AccountExternalId.Key(
+        AccountExternalId.SCHEME_USERNAME, name));
+  }
+
+  private static AccountGroupMember member(Account.Id who,
+      AccountGroup.Id group) {
+    return new AccountGroupMember(new AccountGroupMember.Key(who, group));
+  }
+
+  private static <T> ResultSet<T> rs(final T... rows) {
+    return new ListResultSet<T>(Arrays.asList(rows));
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gerrit.server.cache;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePath;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Names;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Config;
+
+import java.io.File;
+import java.util.concurrent.Semaphore;
+
+public class CachePoolTest extends TestCase {
+  private static final String NAME = "refreshing";
+
+  /** Released once for every entry the cache creates or reloads. */
+  private static final Semaphore loads = new Semaphore(0);
+
+  private Injector injector;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    loads.drainPermits();
+    injector = Guice.createInjector(new CacheModule() {
+      @Override
+      protected void configure() {
+        final TypeLiteral<Cache<String, String>> type =
+            new TypeLiteral<Cache<String, String>>() {};
+        core(type, NAME) //
+            .refreshAfter(1, MINUTES) //
+            .populateWith(Loader.class);
+      }
+    }, new AbstractModule() {
+      @Override
+      protected void configure() {
+        bind(File.class).annotatedWith(SitePath.class)
+            .toInstance(new File("."));
+        bind(Config.class).annotatedWith(GerritServerConfig.class)
+            .toInstance(new Config());
+      }
+    });
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    injector.getInstance(CachePool.Lifecycle.class).stop();
+    injector.getInstance(WorkQueue.Lifecycle.class).stop();
+    super.tearDown();
+  }
+
+  public void testEntryNotRefreshedBeforeInterval() throws Exception {
+    final Cache<String, String> cache = injector.getInstance(Key.get(
+        new TypeLiteral<Cache<String, String>>() {}, Names.named(NAME)));
+    injector.getInstance(CachePool.Lifecycle.class).start();
+
+    assertEquals("a", cache.get("a"));
+    assertTrue(loads.tryAcquire());
+
+    // Far longer than the interval if it were taken as milliseconds.
+    Thread.sleep(200);
+    assertEquals("a", cache.get("a"));
+    assertFalse(loads.tryAcquire(1, SECONDS));
+  }
+
+  static class Loader extends EntryCreator<String, String> {
+    @Override
+    public String createEntry(final String key) {
+      loads.release();
+      return key;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+public class CacheWarmerTest extends TestCase {
+  private File dir;
+  private CacheWarmer warmer;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    dir = new File(new File("target"), "random-name-" + UUID.randomUUID());
+    warmer = new CacheWarmer(dir);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    final File[] list = dir.listFiles();
+    if (list != null) {
+      for (File f : list) {
+        f.delete();
+      }
+    }
+    dir.delete();
+    super.tearDown();
+  }
+
+  private static MemoryCacheStore<Integer, String> newStore() {
+    return new MemoryCacheStore<Integer, String>(
+        new CacheSettings<Integer, String>("test", false, 16, 0, 0, 0,
+            EvictionPolicy.LFU, null, null, null));
+  }
+
+  public void testHotKeysAreSaved() {
+    final MemoryCacheStore<Integer, String> s = newStore();
+    for (int i = 0; i < 8; i++) {
+      s.put(i, "v" + i);
+    }
+    for (int n = 0; n < 5; n++) {
+      s.get(3);
+      s.get(5);
+    }
+    s.get(5);
+
+    final SerializableCodec<Integer> codec = new SerializableCodec<Integer>();
+    warmer.save(s, codec, 2);
+    assertEquals(Arrays.asList(5, 3), warmer.read("test", codec));
+  }
+
+  public void testSavedKeysAreLoaded() {
+    final MemoryCacheStore<Integer, String> s = newStore();
+    s.put(1, "a");
+    s.put(2, "b");
+    final SerializableCodec<Integer> codec = new SerializableCodec<Integer>();
+    warmer.save(s, codec, 16);
+
+    final MemoryCacheStore<Integer, String> restarted = newStore();
+    final PopulatingCache<Integer, String> c =
+        new PopulatingCache<Integer, String>(restarted,
+            new EntryCreator<Integer, String>() {
+              @Override
+              public String createEntry(Integer key) {
+                return "v" + key;
+              }
+            }, 0, 0, new Executor() {
+              @Override
+              public void execute(Runnable task) {
+              }
+            }, new LoadStatistics());
+    warmer.load("test", c, codec);
+    assertEquals("v1", restarted.get(1));
+    assertEquals("v2", restarted.get(2));
+  }
+
+  public void testMissingSnapshotIsEmpty() {
+    final List<Integer> keys =
+        warmer.read("test", new SerializableCodec<Integer>());
+    assertTrue(keys.isEmpty());
+  }
+}
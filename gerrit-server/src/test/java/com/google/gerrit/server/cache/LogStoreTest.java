@@ -0,0 +1,218 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+public class LogStoreTest extends TestCase {
+  private static final int SEGMENT_SIZE = 4096;
+
+  private File dir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    dir = new File(new File("target"), "random-name-" + UUID.randomUUID());
+    assertTrue(dir.mkdirs());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    final File[] list = dir.listFiles();
+    if (list != null) {
+      for (File f : list) {
+        f.delete();
+      }
+    }
+    dir.delete();
+    super.tearDown();
+  }
+
+  private LogStore<Integer, String> open(int limit, int valueVersion)
+      throws IOException {
+    final CacheSettings<Integer, String> settings =
+        new CacheSettings<Integer, String>("test", true, 16, 0, limit, 0,
+            EvictionPolicy.LRU, null, new SerializableCodec<Integer>(),
+            new VersionedCodec(valueVersion));
+    final LogStore<Integer, String> s =
+        new LogStore<Integer, String>(dir, settings, SEGMENT_SIZE);
+    s.open();
+    return s;
+  }
+
+  public void testPutGetRemove() throws IOException {
+    final LogStore<Integer, String> s = open(16, 1);
+    try {
+      assertNull(s.get(1));
+      s.put(1, "a");
+      s.put(2, "b");
+      assertEquals("a", s.get(1));
+      assertEquals("b", s.get(2));
+
+      s.put(1, "c");
+      assertEquals("c", s.get(1));
+
+      s.remove(1);
+      assertNull(s.get(1));
+      assertEquals(1, s.size());
+
+      s.removeAll();
+      assertNull(s.get(2));
+      assertEquals(0, s.size());
+    } finally {
+      s.close();
+    }
+  }
+
+  public void testEntriesSurviveReopen() throws IOException {
+    LogStore<Integer, String> s = open(16, 1);
+    s.put(1, "a");
+    s.put(2, "b");
+    s.put(2, "c");
+    s.put(3, "d");
+    s.remove(3);
+    s.close();
+
+    s = open(16, 1);
+    try {
+      assertEquals(2, s.size());
+      assertEquals("a", s.get(1));
+      assertEquals("c", s.get(2));
+      assertNull(s.get(3));
+    } finally {
+      s.close();
+    }
+  }
+
+  public void testCodecVersionChangeDiscardsEntries() throws IOException {
+    LogStore<Integer, String> s = open(16, 1);
+    s.put(1, "a");
+    s.close();
+
+    s = open(16, 2);
+    try {
+      assertEquals(0, s.size());
+      assertNull(s.get(1));
+    } finally {
+      s.close();
+    }
+  }
+
+  public void testLimitIsEnforced() throws IOException {
+    final LogStore<Integer, String> s = open(8, 1);
+    try {
+      for (int i = 0; i < 100; i++) {
+        s.put(i, "v" + i);
+        assertTrue(s.size() <= 8);
+      }
+      assertEquals(100 - 8, s.getEvictions());
+      assertEquals("v99", s.get(99));
+      assertNull(s.get(0));
+    } finally {
+      s.close();
+    }
+  }
+
+  public void testClosedStoreIgnoresUpdates() throws IOException {
+    LogStore<Integer, String> s = open(16, 1);
+    s.put(1, "a");
+    s.close();
+    final int files = dir.listFiles().length;
+
+    s.put(2, "b");
+    s.remove(1);
+    assertNull(s.get(1));
+    assertEquals(0, s.size());
+    assertEquals(files, dir.listFiles().length);
+
+    s = open(16, 1);
+    try {
+      assertEquals(1, s.size());
+      assertEquals("a", s.get(1));
+    } finally {
+      s.close();
+    }
+  }
+
+  public void testCompactionReclaimsSegments() throws IOException {
+    LogStore<Integer, String> s = open(4, 1);
+    for (int i = 0; i < 2000; i++) {
+      s.put(i % 8, "value of " + i);
+    }
+    s.close();
+
+    assertTrue(dir.listFiles().length < 4);
+
+    s = open(4, 1);
+    try {
+      assertEquals(4, s.size());
+      for (int i = 1996; i < 2000; i++) {
+        assertEquals("value of " + i, s.get(i % 8));
+      }
+    } finally {
+      s.close();
+    }
+  }
+
+  public void testLiveEntriesMovedByCompaction() throws IOException {
+    final LogStore<Integer, String> s = open(16, 1);
+    try {
+      s.put(100, "kept");
+      for (int i = 0; i < 2000; i++) {
+        s.put(i % 8, "value of " + i);
+        if (i % 250 == 0) {
+          assertEquals("kept", s.get(100));
+        }
+      }
+      assertTrue(dir.listFiles().length < 4);
+      assertEquals("kept", s.get(100));
+      for (int i = 1992; i < 2000; i++) {
+        assertEquals("value of " + i, s.get(i % 8));
+      }
+    } finally {
+      s.close();
+    }
+  }
+
+  private static class VersionedCodec implements CacheCodec<String> {
+    private final CacheCodec<String> codec = new SerializableCodec<String>();
+    private final int version;
+
+    VersionedCodec(int version) {
+      this.version = version;
+    }
+
+    @Override
+    public int getVersion() {
+      return version;
+    }
+
+    @Override
+    public void encode(OutputStream out, String value) throws IOException {
+      codec.encode(out, value);
+    }
+
+    @Override
+    public String decode(InputStream in) throws IOException {
+      return codec.decode(in);
+    }
+  }
+}
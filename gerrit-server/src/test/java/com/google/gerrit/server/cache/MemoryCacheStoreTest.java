@@ -0,0 +1,127 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import junit.framework.TestCase;
+
+public class MemoryCacheStoreTest extends TestCase {
+  private static MemoryCacheStore<Integer, String> newStore(int limit) {
+    return new MemoryCacheStore<Integer, String>(
+        new CacheSettings<Integer, String>("test", false, limit, 0, 0, 0,
+            EvictionPolicy.LFU, null, null, null));
+  }
+
+  private static MemoryCacheStore<Integer, String> newWeighedStore(long bytes) {
+    final Weigher<Integer, String> weigher = new Weigher<Integer, String>() {
+      @Override
+      public int weigh(Integer key, String value) {
+        return value.length();
+      }
+    };
+    return new MemoryCacheStore<Integer, String>(
+        new CacheSettings<Integer, String>("test", false, 1, bytes, 0, 0,
+            EvictionPolicy.LFU, weigher, null, null));
+  }
+
+  public void testPutGetRemove() {
+    final MemoryCacheStore<Integer, String> c = newStore(16);
+    assertNull(c.get(1));
+    c.put(1, "a");
+    c.put(2, "b");
+    assertEquals("a", c.get(1));
+    assertEquals("b", c.get(2));
+
+    c.remove(1);
+    assertNull(c.get(1));
+    assertEquals("b", c.get(2));
+
+    c.removeAll();
+    assertNull(c.get(2));
+    assertEquals(0, c.getStatistics().memoryCount);
+  }
+
+  public void testNullKeyAndValue() {
+    final MemoryCacheStore<Integer, String> c = newStore(16);
+    assertNull(c.get(null));
+    c.put(null, "a");
+    c.put(1, "a");
+    c.put(1, null);
+    assertNull(c.get(1));
+  }
+
+  public void testLimitIsEnforced() {
+    final MemoryCacheStore<Integer, String> c = newStore(16);
+    for (int i = 0; i < 1000; i++) {
+      c.put(i, "v" + i);
+      assertTrue(c.getStatistics().memoryCount <= 16);
+    }
+    assertEquals(1000 - 16, c.getStatistics().evictions);
+  }
+
+  public void testWeightLimitIsEnforced() {
+    final MemoryCacheStore<Integer, String> c = newWeighedStore(64);
+    c.put(1, "0123456789");
+    c.put(2, "0123456789");
+    assertEquals("0123456789", c.get(1));
+    assertEquals("0123456789", c.get(2));
+
+    for (int i = 10; i < 100; i++) {
+      c.put(i, "0123456789");
+      assertTrue(c.getStatistics().memoryCount <= 6);
+    }
+  }
+
+  public void testOversizedValueIsNotStored() {
+    final MemoryCacheStore<Integer, String> c = newWeighedStore(8);
+    c.put(1, "abc");
+    assertEquals("abc", c.get(1));
+
+    c.put(1, "0123456789");
+    assertNull(c.get(1));
+    assertEquals(0, c.getStatistics().memoryCount);
+  }
+
+  public void testFrequentKeysSurviveScan() {
+    final MemoryCacheStore<Integer, String> c = newStore(16);
+    for (int i = 0; i < 8; i++) {
+      c.put(i, "hot" + i);
+    }
+    for (int n = 0; n < 5; n++) {
+      for (int i = 0; i < 8; i++) {
+        assertEquals("hot" + i, c.get(i));
+      }
+    }
+
+    for (int i = 1000; i < 1100; i++) {
+      c.put(i, "scan" + i);
+    }
+    for (int i = 0; i < 8; i++) {
+      assertEquals("hot" + i, c.get(i));
+    }
+  }
+
+  public void testStatistics() {
+    final MemoryCacheStore<Integer, String> c = newStore(16);
+    c.put(1, "a");
+    c.get(1);
+    c.get(1);
+    c.get(2);
+
+    final CacheStatistics s = c.getStatistics();
+    assertEquals(1, s.memoryCount);
+    assertEquals(2, s.hits);
+    assertEquals(1, s.misses);
+  }
+}
@@ -0,0 +1,312 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+public class PopulatingCacheTest extends TestCase {
+  private List<Runnable> tasks;
+  private Executor executor;
+  private LoadStatistics stats;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    tasks = new ArrayList<Runnable>();
+    stats = new LoadStatistics();
+    executor = new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        tasks.add(task);
+      }
+    };
+  }
+
+  private PopulatingCache<Integer, String> newCache(
+      EntryCreator<Integer, String> creator, long refreshAfter) {
+    return newCache(creator, refreshAfter, 0);
+  }
+
+  private PopulatingCache<Integer, String> newCache(
+      EntryCreator<Integer, String> creator, long refreshAfter,
+      long waitTimeout) {
+    final MemoryCacheStore<Integer, String> store =
+        new MemoryCacheStore<Integer, String>(
+            new CacheSettings<Integer, String>("test", false, 16, 0, 0, 0,
+                EvictionPolicy.LFU, null, null, null));
+    return new PopulatingCache<Integer, String>(store, creator, refreshAfter,
+        waitTimeout, executor, stats);
+  }
+
+  private void runTasks() {
+    final List<Runnable> r = new ArrayList<Runnable>(tasks);
+    tasks.clear();
+    for (Runnable t : r) {
+      t.run();
+    }
+  }
+
+  public void testStaleEntryIsServedWhileReloading() {
+    final Counter creator = new Counter();
+    final PopulatingCache<Integer, String> c = newCache(creator, 0);
+    assertEquals("1", c.get(1));
+    assertTrue(tasks.isEmpty());
+
+    creator.stale = true;
+    assertEquals("1", c.get(1));
+    assertEquals("1", c.get(1));
+    assertEquals(1, tasks.size());
+
+    creator.stale = false;
+    runTasks();
+    assertEquals("2", c.get(1));
+    assertTrue(tasks.isEmpty());
+    assertEquals(2, stats.getLoadCount());
+  }
+
+  public void testEntryIsReloadedByAge() throws InterruptedException {
+    final Counter creator = new Counter();
+    final PopulatingCache<Integer, String> c = newCache(creator, 1);
+    assertEquals("1", c.get(1));
+
+    Thread.sleep(10);
+    assertEquals("1", c.get(1));
+    assertEquals(1, tasks.size());
+    runTasks();
+    assertEquals("2", c.get(1));
+  }
+
+  public void testFailedReloadKeepsEntry() {
+    final Counter creator = new Counter();
+    final PopulatingCache<Integer, String> c = newCache(creator, 0);
+    assertEquals("1", c.get(1));
+
+    creator.stale = true;
+    creator.fail = true;
+    assertEquals("1", c.get(1));
+    runTasks();
+    assertEquals("1", c.get(1));
+    assertEquals(1, stats.getFailureCount());
+  }
+
+  public void testGetAllCreatesMissesInOneBatch() {
+    final Counter creator = new Counter();
+    final PopulatingCache<Integer, String> c = newCache(creator, 0);
+    assertEquals("1", c.get(1));
+
+    final Map<Integer, String> r = c.getAll(Arrays.asList(1, 2, 3, null, 3));
+    assertEquals(3, r.size());
+    assertEquals("1", r.get(1));
+    assertEquals("2", r.get(2));
+    assertEquals("2", r.get(3));
+    assertEquals(1, creator.batches);
+    assertEquals("2", c.get(3));
+    assertEquals(2, stats.getLoadCount());
+  }
+
+  public void testGetAllFallsBackToGetOnFailure() {
+    final Counter creator = new Counter();
+    final PopulatingCache<Integer, String> c = newCache(creator, 0);
+    creator.failBatch = true;
+
+    final Map<Integer, String> r = c.getAll(Arrays.asList(1, 2));
+    assertEquals("1", r.get(1));
+    assertEquals("2", r.get(2));
+  }
+
+  public void testGetWaitsForBatchCreatingKey() throws Exception {
+    final BlockingBatch creator = new BlockingBatch();
+    final PopulatingCache<Integer, String> c = newCache(creator, 0);
+    final Thread batch = new Thread() {
+      @Override
+      public void run() {
+        c.getAll(Arrays.asList(1, 2));
+      }
+    };
+    batch.start();
+    creator.started.await();
+
+    final Getter second = new Getter(c, 2);
+    second.start();
+    while (stats.getWaitingThreads() == 0) {
+      Thread.sleep(1);
+    }
+
+    creator.release.countDown();
+    batch.join();
+    second.join();
+    assertEquals("batch", second.result);
+    assertEquals(1, creator.batches);
+    assertEquals(0, creator.calls);
+  }
+
+  public void testConcurrentMissesShareOneLoad() throws Exception {
+    final Blocking creator = new Blocking();
+    final PopulatingCache<Integer, String> c = newCache(creator, 0);
+    final Getter first = new Getter(c, 1);
+    first.start();
+    creator.started.await();
+
+    final Getter second = new Getter(c, 1);
+    second.start();
+    while (stats.getWaitingThreads() == 0) {
+      Thread.sleep(1);
+    }
+
+    creator.release.countDown();
+    first.join();
+    second.join();
+    assertEquals("1", first.result);
+    assertEquals("1", second.result);
+    assertEquals(1, creator.calls);
+    assertEquals(0, stats.getWaitingThreads());
+  }
+
+  public void testUnrelatedKeyIsNotBlocked() throws Exception {
+    final Blocking creator = new Blocking();
+    final PopulatingCache<Integer, String> c = newCache(creator, 0);
+    final Getter first = new Getter(c, 1);
+    first.start();
+    creator.started.await();
+
+    creator.block = false;
+    assertEquals("2", c.get(2));
+
+    creator.release.countDown();
+    first.join();
+    assertEquals("1", first.result);
+  }
+
+  public void testWaiterGivesUpAfterTimeout() throws Exception {
+    final Blocking creator = new Blocking();
+    final PopulatingCache<Integer, String> c = newCache(creator, 0, 10);
+    final Getter first = new Getter(c, 1);
+    first.start();
+    creator.started.await();
+
+    assertNull(c.get(1));
+
+    creator.release.countDown();
+    first.join();
+    assertEquals("1", first.result);
+    assertEquals("1", c.get(1));
+    assertEquals(1, creator.calls);
+  }
+
+  private static class Getter extends Thread {
+    private final PopulatingCache<Integer, String> cache;
+    private final int key;
+    volatile String result;
+
+    Getter(PopulatingCache<Integer, String> cache, int key) {
+      this.cache = cache;
+      this.key = key;
+    }
+
+    @Override
+    public void run() {
+      result = cache.get(key);
+    }
+  }
+
+  private static class Blocking extends EntryCreator<Integer, String> {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    volatile boolean block = true;
+    volatile int calls;
+
+    @Override
+    public String createEntry(Integer key) throws Exception {
+      final String value = String.valueOf(++calls);
+      if (block) {
+        started.countDown();
+        assertTrue(release.await(10, TimeUnit.SECONDS));
+      }
+      return value;
+    }
+  }
+
+  private static class BlockingBatch extends EntryCreator<Integer, String> {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    volatile int batches;
+    volatile int calls;
+
+    @Override
+    public Map<Integer, String> createAll(Collection<Integer> keys)
+        throws Exception {
+      batches++;
+      started.countDown();
+      assertTrue(release.await(10, TimeUnit.SECONDS));
+      final Map<Integer, String> r = new HashMap<Integer, String>();
+      for (Integer key : keys) {
+        r.put(key, "batch");
+      }
+      return r;
+    }
+
+    @Override
+    public String createEntry(Integer key) throws Exception {
+      calls++;
+      return "single";
+    }
+  }
+
+  private static class Counter extends EntryCreator<Integer, String> {
+    boolean stale;
+    boolean fail;
+    boolean failBatch;
+    int calls;
+    int batches;
+
+    @Override
+    public Map<Integer, String> createAll(Collection<Integer> keys)
+        throws Exception {
+      if (failBatch) {
+        throw new Exception("cannot load " + keys);
+      }
+      final String value = String.valueOf(++calls);
+      final Map<Integer, String> r = new HashMap<Integer, String>();
+      for (Integer key : keys) {
+        r.put(key, value);
+      }
+      batches++;
+      return r;
+    }
+
+    @Override
+    public String createEntry(Integer key) throws Exception {
+      if (fail) {
+        throw new Exception("cannot load " + key);
+      }
+      return String.valueOf(++calls);
+    }
+
+    @Override
+    public boolean isStale(Integer key, String value) {
+      return stale;
+    }
+  }
+}
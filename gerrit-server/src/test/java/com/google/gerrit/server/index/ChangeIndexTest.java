@@ -0,0 +1,207 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index;
+
+import com.google.gerrit.reviewdb.Change;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+public class ChangeIndexTest extends TestCase {
+  private File dir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    dir = new File(new File("target"), "random-name-" + UUID.randomUUID());
+    assertTrue(dir.mkdirs());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    final File[] list = dir.listFiles();
+    if (list != null) {
+      for (File f : list) {
+        f.delete();
+      }
+    }
+    dir.delete();
+    super.tearDown();
+  }
+
+  private ChangeIndex open() {
+    final ChangeIndex index = new ChangeIndex(dir);
+    index.open();
+    return index;
+  }
+
+  private static List<Collection<String>> query(String... clauses) {
+    final List<Collection<String>> r =
+        new ArrayList<Collection<String>>(clauses.length);
+    for (String c : clauses) {
+      r.add(Arrays.asList(c.split(" ")));
+    }
+    return r;
+  }
+
+  private static void put(ChangeIndex index, int id, String... terms) {
+    index.replace(new Change.Id(id), Arrays.asList(terms));
+  }
+
+  public void testSearch() {
+    final ChangeIndex index = open();
+    try {
+      put(index, 3, "topic:a", "file:x");
+      put(index, 1, "topic:a", "file:y");
+      put(index, 2, "topic:b", "file:x");
+
+      assertTrue(Arrays.equals(new int[] {1, 3},
+          index.search(query("topic:a"))));
+      assertTrue(Arrays.equals(new int[] {1, 2, 3},
+          index.search(query("topic:a topic:b"))));
+      assertTrue(Arrays.equals(new int[] {3},
+          index.search(query("topic:a", "file:x"))));
+      assertEquals(0, index.search(query("topic:c")).length);
+      assertEquals(2, index.count("file:x"));
+      assertEquals(Arrays.asList("topic:a", "topic:b"), index.terms("topic:"));
+
+      put(index, 3, "topic:b");
+      assertTrue(Arrays.equals(new int[] {1},
+          index.search(query("topic:a"))));
+      assertEquals(1, index.count("file:x"));
+
+      index.delete(new Change.Id(2));
+      assertEquals(0, index.count("file:x"));
+      assertEquals(Collections.singletonList("file:y"), index.terms("file:"));
+    } finally {
+      index.close(true);
+    }
+  }
+
+  public void testCountBoth() {
+    final ChangeIndex index = open();
+    try {
+      put(index, 1, "owner:1", "status:new");
+      put(index, 2, "owner:1", "status:merged");
+      put(index, 3, "owner:2", "status:new");
+      put(index, 4, "owner:1", "status:new");
+
+      assertEquals(2, index.count("owner:1", "status:new"));
+      assertEquals(2, index.count("status:new", "owner:1"));
+      assertEquals(1, index.count("owner:1", "status:merged"));
+      assertEquals(0, index.count("owner:2", "status:merged"));
+      assertEquals(0, index.count("owner:3", "status:new"));
+    } finally {
+      index.close(true);
+    }
+  }
+
+  public void testCountBothSamplesCommonTerms() {
+    final ChangeIndex index = open();
+    try {
+      final int n = 6 * ChangeIndex.COUNT_SAMPLE;
+      for (int i = 1; i <= n; i++) {
+        put(index, i, i % 2 == 0 ? "status:new" : "status:merged",
+            i % 3 == 0 ? "owner:1" : "owner:2");
+      }
+      assertEquals(n / 3, index.count("owner:1"));
+      final int both = index.count("owner:1", "status:new");
+      assertTrue(String.valueOf(both), Math.abs(n / 6 - both) <= n / 30);
+    } finally {
+      index.close(true);
+    }
+  }
+
+  public void testReadyAfterCleanClose() {
+    ChangeIndex index = open();
+    assertFalse(index.isReady());
+    put(index, 1, "topic:a");
+    index.markReady();
+    put(index, 2, "topic:a");
+    index.close(true);
+
+    index = open();
+    assertTrue(index.isReady());
+    assertTrue(Arrays.equals(new int[] {1, 2},
+        index.search(query("topic:a"))));
+    put(index, 3, "topic:a");
+    index.close(false);
+
+    index = open();
+    assertFalse(index.isReady());
+    assertEquals(3, index.count("topic:a"));
+    index.close(true);
+  }
+
+  public void testStaleChangeIsNotReadyAfterCrash() {
+    ChangeIndex index = open();
+    put(index, 1, "topic:a");
+    index.markReady();
+    index.close(true);
+
+    index = open();
+    assertTrue(index.isReady());
+    index.stale();
+    assertTrue(index.isReady());
+    index.close(false);
+
+    index = open();
+    assertFalse(index.isReady());
+    assertEquals(1, index.count("topic:a"));
+    index.close(true);
+  }
+
+  public void testInvalidateUntilRebuilt() {
+    ChangeIndex index = open();
+    put(index, 1, "topic:a");
+    index.markReady();
+    index.invalidate();
+    assertFalse(index.isReady());
+    index.close(true);
+
+    index = open();
+    assertFalse(index.isReady());
+    put(index, 1, "topic:a");
+    index.markReady();
+    index.close(true);
+
+    index = open();
+    assertTrue(index.isReady());
+    index.close(true);
+  }
+
+  public void testCompaction() {
+    ChangeIndex index = open();
+    for (int i = 0; i < 5000; i++) {
+      put(index, i % 10, "n:" + i);
+    }
+    index.markReady();
+    index.close(true);
+    assertTrue(new File(dir, "changes.idx").length() < 4096 * 10);
+
+    index = open();
+    assertTrue(index.isReady());
+    assertEquals(10, index.terms("n:").size());
+    assertEquals(1, index.count("n:4999"));
+    index.close(true);
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index;
+
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.RevId;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+public class CommitMessageIndexTest extends TestCase {
+  private static final RevId REV_A =
+      new RevId("0123456789012345678901234567890123456789");
+  private static final RevId REV_B =
+      new RevId("abcdefabcdefabcdefabcdefabcdefabcdefabcd");
+
+  private File dir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    dir = new File(new File("target"), "random-name-" + UUID.randomUUID());
+    assertTrue(dir.mkdirs());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    final File[] list = dir.listFiles();
+    if (list != null) {
+      for (File f : list) {
+        f.delete();
+      }
+    }
+    dir.delete();
+    super.tearDown();
+  }
+
+  private static List<Collection<String>> query(String word) {
+    return Collections.<Collection<String>> singletonList(
+        Collections.singleton(ChangeIndex.term("message", word)));
+  }
+
+  public void testWords() {
+    assertEquals(new HashSet<String>(Arrays.asList("fix", "npe", "in", "2nd")),
+        CommitMessageIndex.words("Fix NPE in 2nd\n\nfix"));
+    assertTrue(CommitMessageIndex.words(" -- ").isEmpty());
+  }
+
+  public void testPut() {
+    final CommitMessageIndex index = new CommitMessageIndex(dir);
+    index.open();
+    try {
+      final Change.Id id = new Change.Id(7);
+      index.put(id, REV_A, "Fix the build");
+      assertTrue(index.contains(id, REV_A));
+      assertFalse(index.contains(id, REV_B));
+      assertTrue(Arrays.equals(new int[] {7}, index.search(query("build"))));
+
+      index.put(id, REV_B, "Fix the tests");
+      assertFalse(index.contains(id, REV_A));
+      assertTrue(index.contains(id, REV_B));
+      assertEquals(0, index.search(query("build")).length);
+      assertEquals(1, index.count(ChangeIndex.term("message", "tests")));
+    } finally {
+      index.close(true);
+    }
+  }
+
+  public void testSearchWords() {
+    final CommitMessageIndex index = new CommitMessageIndex(dir);
+    index.open();
+    try {
+      index.put(new Change.Id(1), REV_A, "Fix the builder");
+      index.put(new Change.Id(2), REV_B, "Rebuild the tests");
+      final List<String> words = Arrays.asList("build");
+      assertTrue(Arrays.equals(new int[0], index.search(words, false, false)));
+      assertTrue(Arrays.equals(new int[] {1},
+          index.search(words, false, true)));
+      assertTrue(Arrays.equals(new int[] {2},
+          index.search(words, true, false)));
+      assertTrue(Arrays.equals(new int[] {1, 2},
+          index.search(words, true, true)));
+      assertTrue(Arrays.equals(new int[] {1},
+          index.search(Arrays.asList("fix", "the"), false, true)));
+    } finally {
+      index.close(true);
+    }
+  }
+
+  public void testDisabled() {
+    final CommitMessageIndex index = new CommitMessageIndex((File) null);
+    index.open();
+    index.put(new Change.Id(1), REV_A, "Fix the build");
+    assertFalse(index.contains(new Change.Id(1), REV_A));
+    index.close(true);
+  }
+}
@@ -0,0 +1,204 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gerrit.server.git.GitRepositoryManager;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+public class AutoMergerTest extends LocalDiskRepositoryTestCase {
+  private Repository db;
+  private TestRepository<Repository> util;
+  private AutoMerger merger;
+  private RevCommit base;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    db = createBareRepository();
+    util = new TestRepository<Repository>(db);
+    merger = new AutoMerger(null, null);
+    base = util.commit() //
+        .add("a.txt", "a\n") //
+        .add("b.txt", "b\n") //
+        .create();
+  }
+
+  private RevCommit mergeOf(final String aContent, final String bContent)
+      throws Exception {
+    final RevCommit ours = util.commit().parent(base) //
+        .add("a.txt", aContent) //
+        .message("ours\n") //
+        .create();
+    final RevCommit theirs = util.commit().parent(base) //
+        .add("b.txt", bContent) //
+        .message("theirs\n") //
+        .create();
+    return util.commit().parent(ours).parent(theirs).create();
+  }
+
+  private RevTree merge(final RevCommit c) throws Exception {
+    final RevWalk rw = new RevWalk(db);
+    try {
+      final RevCommit b = rw.parseCommit(c);
+      for (RevCommit p : b.getParents()) {
+        rw.parseHeaders(p);
+      }
+      return merger.merge(db, rw, b);
+    } finally {
+      rw.release();
+    }
+  }
+
+  private ObjectId automergeRef() throws Exception {
+    final Ref ref = db.getRef(GitRepositoryManager.REF_AUTOMERGE);
+    return ref != null ? ref.getObjectId() : null;
+  }
+
+  private ObjectId fileOf(final RevTree tree, final String path)
+      throws Exception {
+    final TreeWalk tw = TreeWalk.forPath(db, path, tree);
+    assertNotNull(path + " in merge result", tw);
+    return tw.getObjectId(0);
+  }
+
+  @Test
+  public void testMergeIsStoredAndReused() throws Exception {
+    final RevCommit m = mergeOf("a2\n", "b2\n");
+    final RevTree first = merge(m);
+    assertEquals(util.blob("a2\n"), fileOf(first, "a.txt"));
+    assertEquals(util.blob("b2\n"), fileOf(first, "b.txt"));
+
+    final ObjectId index = automergeRef();
+    assertNotNull(index);
+
+    assertEquals(first, merge(m));
+    assertEquals(index, automergeRef());
+  }
+
+  @Test
+  public void testMergesShareOneRef() throws Exception {
+    final RevCommit m1 = mergeOf("a2\n", "b2\n");
+    final RevCommit m2 = mergeOf("a3\n", "b3\n");
+    final RevTree t1 = merge(m1);
+    final RevTree t2 = merge(m2);
+    final ObjectId index = automergeRef();
+
+    assertEquals(t1, merge(m1));
+    assertEquals(t2, merge(m2));
+    assertEquals(index, automergeRef());
+    assertTrue(db.getRefDatabase()
+        .getRefs(GitRepositoryManager.REFS_CACHE_AUTOMERGE).isEmpty());
+  }
+
+  @Test
+  public void testConflictIsRecordedInFile() throws Exception {
+    final RevCommit ours = util.commit().parent(base) //
+        .add("a.txt", "ours\n").message("ours\n").create();
+    final RevCommit theirs = util.commit().parent(base) //
+        .add("a.txt", "theirs\n").message("theirs\n").create();
+    final RevCommit m = util.commit().parent(ours).parent(theirs).create();
+
+    final String merged = new String(db.open(fileOf(merge(m), "a.txt"))
+        .getCachedBytes(), "UTF-8");
+    assertTrue(merged, merged.contains("<<<<<<< HEAD"));
+    assertTrue(merged, merged.contains("ours\n"));
+    assertTrue(merged, merged.contains("theirs\n"));
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    final RevCommit m1 = mergeOf("a2\n", "b2\n");
+    final RevCommit m2 = mergeOf("a3\n", "b3\n");
+    merge(m1);
+    final RevTree t2 = merge(m2);
+
+    merger.remove(db, Collections.<ObjectId> singleton(m1));
+    final ObjectId index = automergeRef();
+    assertNull(TreeWalk.forPath(db, m1.name().substring(0, 2) + "/"
+        + m1.name().substring(2), new RevWalk(db).parseTree(index)));
+    assertEquals(t2, merge(m2));
+    assertEquals(index, automergeRef());
+  }
+
+  @Test
+  public void testLegacyRefIsMoved() throws Exception {
+    final RevCommit m = mergeOf("a2\n", "b2\n");
+    final RevBlob blob = util.blob("legacy\n");
+    final RevTree legacy = util.tree(util.file("a.txt", blob));
+    final String legacyName = GitRepositoryManager.REFS_CACHE_AUTOMERGE
+        + m.name().substring(0, 2) + "/" + m.name().substring(2);
+    util.update(legacyName, legacy);
+
+    assertEquals(legacy, merge(m));
+    assertNull(db.getRef(legacyName));
+    assertNotNull(automergeRef());
+    assertEquals(legacy, merge(m));
+  }
+
+  @Test
+  public void testLockedIndexStillReturnsMerge() throws Exception {
+    final RevCommit m = mergeOf("a2\n", "b2\n");
+    final File lock = new File(db.getDirectory(),
+        GitRepositoryManager.REF_AUTOMERGE + ".lock");
+    lock.getParentFile().mkdirs();
+    assertTrue(lock.createNewFile());
+
+    final RevTree tree = merge(m);
+    assertEquals(util.blob("a2\n"), fileOf(tree, "a.txt"));
+    assertNull(automergeRef());
+
+    assertTrue(lock.delete());
+    assertEquals(tree, merge(m));
+    assertNotNull(automergeRef());
+  }
+
+  @Test
+  public void testList() throws Exception {
+    assertTrue(merger.list(db).isEmpty());
+
+    final RevCommit m1 = mergeOf("a2\n", "b2\n");
+    final RevCommit m2 = mergeOf("a3\n", "b3\n");
+    merge(m1);
+    merge(m2);
+    assertEquals(new HashSet<ObjectId>(Arrays.<ObjectId> asList(m1, m2)),
+        new HashSet<ObjectId>(merger.list(db)));
+
+    merger.remove(db, merger.list(db));
+    assertTrue(merger.list(db).isEmpty());
+  }
+}
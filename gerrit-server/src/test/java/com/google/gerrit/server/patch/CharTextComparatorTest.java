@@ -0,0 +1,56 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.server.patch.CharTextComparator.DeadlineExceededException;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.diff.MyersDiff;
+
+import java.util.concurrent.TimeUnit;
+
+public class CharTextComparatorTest extends TestCase {
+  private static CharText text(String s) {
+    final Text t = new Text(s.getBytes());
+    return new CharText(t, 0, t.size());
+  }
+
+  public void testDiffWithinDeadline() {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    final CharText a = text("hello world\n");
+    final CharText b = text("hello there\n");
+    assertFalse(MyersDiff.INSTANCE.diff(
+        new CharTextComparator(deadline), a, b).isEmpty());
+  }
+
+  public void testDiffAbandonedAfterDeadline() {
+    final StringBuilder a = new StringBuilder();
+    final StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      a.append(i % 7 == 0 ? 'x' : 'a').append('\n');
+      b.append(i % 5 == 0 ? 'y' : 'a').append('\n');
+    }
+
+    final long deadline = System.nanoTime() - 1;
+    try {
+      MyersDiff.INSTANCE.diff(new CharTextComparator(deadline),
+          text(a.toString()), text(b.toString()));
+      fail("expected DeadlineExceededException");
+    } catch (DeadlineExceededException e) {
+      // Expected.
+    }
+  }
+}
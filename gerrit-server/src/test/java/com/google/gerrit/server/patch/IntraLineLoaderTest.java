@@ -0,0 +1,101 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.reviewdb.Project;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class IntraLineLoaderTest extends TestCase {
+  private Injector injector;
+  private WorkQueue workQueue;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    injector = Guice.createInjector();
+    workQueue = injector.getInstance(WorkQueue.class);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    injector.getInstance(WorkQueue.Lifecycle.class).stop();
+    super.tearDown();
+  }
+
+  private static IntraLineDiffKey key(String a, String b) {
+    return new IntraLineDiffKey(id(1), new Text(a.getBytes()), id(2),
+        new Text(b.getBytes()), Collections.singletonList(new Edit(0, 1, 0, 1)),
+        new Project.NameKey("test"), id(3), "file.txt");
+  }
+
+  private static ObjectId id(int n) {
+    final byte[] raw = new byte[20];
+    raw[19] = (byte) n;
+    return ObjectId.fromRaw(raw);
+  }
+
+  public void testLoadedKeyReleasesTexts() throws Exception {
+    final IntraLineDiffKey key = key("hello world\n", "hello there\n");
+    final IntraLineDiff d =
+        new IntraLineLoader(new Config(), workQueue).createEntry(key);
+
+    assertEquals(IntraLineDiff.Status.EDIT_LIST, d.getStatus());
+    assertFalse(d.getEdits().isEmpty());
+    assertNull(key.getTextA());
+    assertNull(key.getTextB());
+    assertNull(key.getEdits());
+  }
+
+  public void testStuckComputationTimesOut() throws Exception {
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    final Text a = new Text("a\n\nc\n".getBytes()) {
+      @Override
+      protected String decode(int s, int e) {
+        // Stuck outside of the comparator, which checks the deadline.
+        try {
+          Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException err) {
+          interrupted.countDown();
+        }
+        return super.decode(s, e);
+      }
+    };
+    final IntraLineDiffKey key = new IntraLineDiffKey(id(1), a, id(2),
+        new Text("x\n\nz\n".getBytes()),
+        Arrays.asList(new Edit(0, 1, 0, 1), new Edit(2, 3, 2, 3)),
+        new Project.NameKey("test"), id(3), "file.txt");
+
+    final Config cfg = new Config();
+    cfg.setString("cache", PatchListCacheImpl.INTRA_NAME, "timeout", "100 ms");
+    final IntraLineDiff d = new IntraLineLoader(cfg, workQueue).createEntry(key);
+
+    assertEquals(IntraLineDiff.Status.TIMEOUT, d.getStatus());
+    assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectLoader;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+public class LargeTextTest extends TestCase {
+  private static LargeText open(String s) throws IOException {
+    return new LargeText(new ObjectLoader.SmallObject(Constants.OBJ_BLOB,
+        s.getBytes("UTF-8")));
+  }
+
+  public void testSizeMatchesText() throws IOException {
+    final String[] samples = {"", "a", "a\n", "a\nb", "a\nb\n", "\n\n"};
+    for (String s : samples) {
+      final LargeText large = open(s);
+      assertEquals(s, new Text(s.getBytes("UTF-8")).size(), large.size());
+      assertEquals(s, s.length() > 0 && !s.endsWith("\n"),
+          large.isMissingNewlineAtEnd());
+    }
+  }
+
+  public void testOnlyWantedLinesAreLoaded() throws IOException {
+    final StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      b.append("line ").append(i).append('\n');
+    }
+    b.append("last");
+
+    final LargeText t = open(b.toString());
+    assertEquals(5001, t.size());
+
+    final BitSet want = new BitSet();
+    want.set(0);
+    want.set(2500, 2502);
+    want.set(5000);
+    t.load(want);
+    assertEquals("line 0", t.getString(0));
+    assertEquals("line 2500", t.getString(2500));
+    assertEquals("line 2501", t.getString(2501));
+    assertEquals("last", t.getString(5000));
+    try {
+      t.getString(1);
+      fail("expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+  }
+}
@@ -19,6 +19,15 @@ import com.google.gerrit.reviewdb.Patch;
 
 import junit.framework.TestCase;
 
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.patch.FileHeader;
+import org.eclipse.jgit.patch.FileHeader.PatchType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
 public class PatchListEntryTest extends TestCase {
   public void testEmpty1() {
     final String name = "empty-file";
@@ -29,4 +38,24 @@ public class PatchListEntryTest extends TestCase {
     assertSame(Patch.ChangeType.MODIFIED, e.getChangeType());
     assertTrue(e.getEdits().isEmpty());
   }
+
+  public void testEditsSurviveSerialization() throws IOException {
+    final EditList edits = new EditList();
+    edits.add(new Edit(1, 2, 1, 4));
+    edits.add(new Edit(10, 12, 12, 12));
+    final FileHeader hdr = new FileHeader(("diff --git a/f b/f\n"
+        + "--- a/f\n+++ b/f\n").getBytes("UTF-8"), edits, PatchType.UNIFIED);
+    final PatchListEntry e = new PatchListEntry(hdr, edits);
+    assertEquals(edits, e.getEdits());
+    assertEquals(3, e.getInsertions());
+    assertEquals(3, e.getDeletions());
+
+    final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    e.writeTo(buf);
+    final PatchListEntry r =
+        PatchListEntry.readFrom(new ByteArrayInputStream(buf.toByteArray()));
+    assertSame(e.getNewName(), r.getNewName());
+    assertEquals(edits, r.getEdits());
+    assertEquals(e.getHeaderLines(), r.getHeaderLines());
+  }
 }
@@ -0,0 +1,252 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gerrit.reviewdb.AccountDiffPreference.Whitespace;
+import com.google.gerrit.reviewdb.Patch.ChangeType;
+import com.google.gerrit.reviewdb.Project;
+import com.google.gerrit.server.cache.ConcurrentHashMapCache;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+
+public class PatchListLoaderTest extends LocalDiskRepositoryTestCase {
+  private static final Project.NameKey PROJECT = new Project.NameKey("test");
+
+  private Repository db;
+  private TestRepository<Repository> util;
+  private Injector injector;
+  private WorkQueue workQueue;
+  private GitRepositoryManager repoManager;
+  private ConcurrentHashMapCache<PatchListKey, ChangedFileList> filesCache;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    db = createBareRepository();
+    util = new TestRepository<Repository>(db);
+    injector = Guice.createInjector();
+    workQueue = injector.getInstance(WorkQueue.class);
+    filesCache = new ConcurrentHashMapCache<PatchListKey, ChangedFileList>();
+    repoManager = new GitRepositoryManager() {
+      @Override
+      public Repository openRepository(Project.NameKey name) {
+        db.incrementOpen();
+        return db;
+      }
+
+      @Override
+      public Repository createRepository(Project.NameKey name) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public SortedSet<Project.NameKey> list() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public String getProjectDescription(Project.NameKey name) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void setProjectDescription(Project.NameKey name,
+          String description) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  @After
+  public void tearDown() throws Exception {
+    injector.getInstance(WorkQueue.Lifecycle.class).stop();
+    super.tearDown();
+  }
+
+  private PatchListLoader newLoader(int threads) {
+    final Config cfg = new Config();
+    cfg.setInt("cache", PatchListCacheImpl.FILE_NAME, "threads", threads);
+    return new PatchListLoader(repoManager,
+        new AutoMerger(repoManager, workQueue), workQueue,
+        new ConcurrentHashMapCache<ObjectId, SimilarityHash>(),
+        filesCache, cfg);
+  }
+
+  private static String path(int i) {
+    return "dir" + (i % 7) + "/file" + i + ".txt";
+  }
+
+  private static String content(int i, int version) {
+    final StringBuilder b = new StringBuilder();
+    for (int line = 0; line < 20; line++) {
+      if (version != 0 && line % (2 + version) == 0) {
+        b.append("changed ").append(version).append(' ');
+      }
+      b.append("file ").append(i).append(" line ").append(line).append('\n');
+    }
+    return b.toString();
+  }
+
+  @Test
+  public void testParallelDiffMatchesSerialDiff() throws Exception {
+    final int cnt = 3 * PatchListLoader.FILES_PER_TASK + 5;
+    final TestRepository<Repository>.CommitBuilder a = util.commit();
+    for (int i = 0; i < cnt; i++) {
+      a.add(path(i), content(i, 0));
+    }
+    final RevCommit base = a.create();
+
+    final TestRepository<Repository>.CommitBuilder b =
+        util.commit().parent(base).message("Change many files\n");
+    for (int i = 0; i < cnt; i++) {
+      if (i % 11 == 0) {
+        b.rm(path(i));
+      } else {
+        b.add(path(i), content(i, 1 + i % 3));
+      }
+    }
+    for (int i = cnt; i < cnt + 10; i++) {
+      b.add(path(i), content(i, 0) + "new\n");
+    }
+    final RevCommit change = b.create();
+
+    final PatchListKey key =
+        new PatchListKey(PROJECT, null, change, Whitespace.IGNORE_NONE);
+    final PatchList serial = newLoader(1).createEntry(key);
+    final PatchList parallel = newLoader(4).createEntry(key);
+
+    final List<PatchListEntry> s = serial.getPatches();
+    final List<PatchListEntry> p = parallel.getPatches();
+    assertTrue(PatchListLoader.FILES_PER_TASK < s.size());
+    assertEquals(s.size(), p.size());
+    for (int i = 0; i < s.size(); i++) {
+      assertEquals(s.get(i).getNewName(), p.get(i).getNewName());
+      assertEquals(s.get(i).getOldName(), p.get(i).getOldName());
+      assertEquals(s.get(i).getChangeType(), p.get(i).getChangeType());
+      assertEquals(s.get(i).getHeaderLines(), p.get(i).getHeaderLines());
+      assertEquals(s.get(i).getEdits(), p.get(i).getEdits());
+    }
+    assertEquals(serial.getInsertions(), parallel.getInsertions());
+    assertEquals(serial.getDeletions(), parallel.getDeletions());
+  }
+
+  @Test
+  public void testChangedFilesMatchPatchList() throws Exception {
+    final RevCommit base = util.commit() //
+        .add("deleted.txt", content(1, 0)) //
+        .add("modified.txt", content(2, 0)) //
+        .add("old/renamed.txt", content(3, 0)) //
+        .create();
+    final RevCommit change = util.commit().parent(base) //
+        .rm("deleted.txt") //
+        .add("modified.txt", content(2, 1)) //
+        .rm("old/renamed.txt") //
+        .add("new/renamed.txt", content(3, 0)) //
+        .add("added.txt", content(4, 0)) //
+        .message("Touch every kind of file\n") //
+        .create();
+
+    final PatchListKey key =
+        new PatchListKey(PROJECT, null, change, Whitespace.IGNORE_NONE);
+    final PatchList list = newLoader(1).createEntry(key);
+    final ChangedFileList stored = filesCache.get(key);
+    final ChangedFileList walked =
+        new ChangedFileListLoader(repoManager,
+            new AutoMerger(repoManager, workQueue)).createEntry(key);
+
+    final Map<String, ChangeType> expected =
+        new TreeMap<String, ChangeType>();
+    expected.put("added.txt", ChangeType.ADDED);
+    expected.put("deleted.txt", ChangeType.DELETED);
+    expected.put("modified.txt", ChangeType.MODIFIED);
+    expected.put("new/renamed.txt", ChangeType.ADDED);
+    expected.put("old/renamed.txt", ChangeType.DELETED);
+
+    boolean renamed = false;
+    for (PatchListEntry e : list.getPatches()) {
+      renamed |= e.getChangeType() == ChangeType.RENAMED;
+    }
+    assertTrue("rename detected", renamed);
+    assertEquals(expected, toMap(ChangedFileList.of(list)));
+    assertEquals(expected, toMap(stored));
+    assertEquals(expected, toMap(walked));
+    assertEquals(new ArrayList<String>(expected.keySet()),
+        Arrays.asList(walked.toArray()));
+  }
+
+  @Test
+  public void testChangedFilesOfMergeMatchPatchList() throws Exception {
+    final RevCommit base = util.commit() //
+        .add("a.txt", content(1, 0)) //
+        .add("b.txt", content(2, 0)) //
+        .create();
+    final RevCommit ours = util.commit().parent(base) //
+        .add("a.txt", content(1, 1)) //
+        .create();
+    final RevCommit theirs = util.commit().parent(base) //
+        .add("b.txt", content(2, 1)) //
+        .create();
+    final RevCommit merge = util.commit().parent(ours).parent(theirs) //
+        .add("a.txt", content(1, 1)) //
+        .add("b.txt", content(2, 1)) //
+        .add("c.txt", content(3, 0)) //
+        .create();
+
+    final PatchListKey key =
+        new PatchListKey(PROJECT, null, merge, Whitespace.IGNORE_NONE);
+    final PatchList list = newLoader(1).createEntry(key);
+    final ChangedFileList walked =
+        new ChangedFileListLoader(repoManager,
+            new AutoMerger(repoManager, workQueue)).createEntry(key);
+
+    assertEquals(Collections.singletonMap("c.txt", ChangeType.ADDED),
+        toMap(ChangedFileList.of(list)));
+    assertEquals(toMap(ChangedFileList.of(list)), toMap(filesCache.get(key)));
+    assertEquals(toMap(ChangedFileList.of(list)), toMap(walked));
+  }
+
+  private static Map<String, ChangeType> toMap(final ChangedFileList files) {
+    final Map<String, ChangeType> r = new TreeMap<String, ChangeType>();
+    for (int i = 0; i < files.size(); i++) {
+      r.put(files.getPaths().get(i), files.getChangeType(i));
+    }
+    return r;
+  }
+}
@@ -0,0 +1,50 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import junit.framework.TestCase;
+
+public class SimilarityHashTest extends TestCase {
+  private static SimilarityHash hash(String s) {
+    return SimilarityHash.compute(s.getBytes());
+  }
+
+  private static String lines(int start, int end) {
+    final StringBuilder b = new StringBuilder();
+    for (int i = start; i < end; i++) {
+      b.append("line number ").append(i).append('\n');
+    }
+    return b.toString();
+  }
+
+  public void testIdenticalContent() {
+    assertEquals(100, hash(lines(0, 50)).score(hash(lines(0, 50))));
+    assertEquals(100, hash("").score(hash("")));
+  }
+
+  public void testCarriageReturnsMatchLineFeeds() {
+    // Lines match; only the bytes of the CRs are not shared.
+    assertEquals(66, hash("a\r\nb\r\n").score(hash("a\nb\n")));
+  }
+
+  public void testPartialOverlap() {
+    final int score = hash(lines(0, 100)).score(hash(lines(50, 150)));
+    assertTrue("score " + score, 45 <= score && score <= 55);
+  }
+
+  public void testUnrelatedContent() {
+    assertEquals(0, hash(lines(0, 50)).score(hash(lines(100, 150))));
+  }
+}
@@ -0,0 +1,246 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gerrit.server.project;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gerrit.reviewdb.Account;
+import com.google.gerrit.reviewdb.AccountGroup;
+import com.google.gerrit.reviewdb.Branch;
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.Project;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.ReplicationUser;
+import com.google.gerrit.server.cache.Cache;
+import com.google.gerrit.server.cache.ConcurrentHashMapCache;
+import com.google.gerrit.server.config.AllProjectsName;
+import com.google.gerrit.server.git.ProjectConfig;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class VisibilityCacheTest extends LocalDiskRepositoryTestCase {
+  private static final String MASTER = "refs/heads/master";
+
+  private final AllProjectsName allProjectsName =
+      new AllProjectsName("All-Projects");
+  private final Map<Project.NameKey, ProjectState> projects =
+      new HashMap<Project.NameKey, ProjectState>();
+
+  private Repository db;
+  private TestRepository<Repository> util;
+  private ProjectCache projectCache;
+  private ProjectControl.AssistedFactory controls;
+  private Cache<VisibilityCache.Key, Boolean> cache;
+  private VisibilityCache visibility;
+  private ProjectState child;
+  private Change change;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    db = createBareRepository();
+    util = new TestRepository<Repository>(db);
+    projectCache = new Projects();
+    controls = createMock(ProjectControl.AssistedFactory.class);
+    cache = new ConcurrentHashMapCache<VisibilityCache.Key, Boolean>();
+    visibility = new VisibilityCache(projectCache, cache, new Config());
+
+    state(allProjectsName.get(), null, "");
+    state("parent", null, "");
+    child = state("child", "parent", "");
+    change = new Change(new Change.Key("I1"), new Change.Id(1),
+        new Account.Id(1), new Branch.NameKey(child.getProject()
+            .getNameKey(), MASTER));
+  }
+
+  @Test
+  public void testSameGroupsShareAnswer() throws Exception {
+    final CurrentUser a = user("a", "X");
+    final CurrentUser b = user("b", "X");
+    expectCheck(a, true, false);
+    replay(controls);
+
+    assertTrue(visibility.forUser(a).isVisible(change));
+    assertTrue(visibility.forUser(b).isVisible(change));
+    verify(controls);
+  }
+
+  @Test
+  public void testDifferentGroupsDoNotShare() throws Exception {
+    final CurrentUser a = user("a", "X");
+    final CurrentUser b = user("b", "Y");
+    expectCheck(a, true, false);
+    expectCheck(b, false, false);
+    replay(controls);
+
+    assertTrue(visibility.forUser(a).isVisible(change));
+    assertFalse(visibility.forUser(b).isVisible(change));
+    verify(controls);
+  }
+
+  @Test
+  public void testUnnamedUserDoesNotShareWithNamedUser() throws Exception {
+    final CurrentUser a = user("a", "X");
+    final CurrentUser b = user(null, "X");
+    expectCheck(a, true, false);
+    expectCheck(b, false, false);
+    replay(controls);
+
+    assertTrue(visibility.forUser(a).isVisible(change));
+    assertFalse(visibility.forUser(b).isVisible(change));
+    verify(controls);
+  }
+
+  @Test
+  public void testParentConfigChangeInvalidates() throws Exception {
+    final CurrentUser a = user("a", "X");
+    final CurrentUser b = user("b", "X");
+    expectCheck(a, true, false);
+    expectCheck(b, false, false);
+    replay(controls);
+
+    assertTrue(visibility.forUser(a).isVisible(change));
+    state("parent", null, "[project]\n  description = changed\n");
+    assertFalse(visibility.forUser(b).isVisible(change));
+    verify(controls);
+  }
+
+  @Test
+  public void testUserSpecificRefNotCached() throws Exception {
+    final CurrentUser a = user("a", "X");
+    final CurrentUser b = user("b", "X");
+    expectCheck(a, true, true);
+    expectCheck(b, false, true);
+    replay(controls);
+
+    assertTrue(visibility.forUser(a).isVisible(change));
+    assertFalse(visibility.forUser(b).isVisible(change));
+    verify(controls);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testReplicationUserNotCached() throws Exception {
+    final ReplicationUser a = createMock(ReplicationUser.class);
+    final Cache<VisibilityCache.Key, Boolean> unused = createMock(Cache.class);
+    expectCheck(a, true, false);
+    replay(a, unused, controls);
+
+    visibility = new VisibilityCache(projectCache, unused, new Config());
+    assertTrue(visibility.forUser(a).isVisible(change));
+    verify(a, unused, controls);
+  }
+
+  @Test
+  public void testMemoChecksBranchOnce() throws Exception {
+    final CurrentUser a = user("a", "X");
+    expectCheck(a, true, true);
+    replay(controls);
+
+    final VisibilityCache.Memo memo = visibility.forUser(a);
+    assertTrue(memo.isVisible(change));
+    assertTrue(memo.isVisible(change));
+    verify(controls);
+  }
+
+  private ProjectState state(final String name, final String parent,
+      final String body) throws Exception {
+    final String inherit =
+        parent != null ? "[access]\n  inheritFrom = " + parent + "\n" : "";
+    final RevCommit rev = util.commit(util.tree( //
+        util.file("project.config", util.blob(inherit + body))));
+
+    final ProjectConfig cfg = new ProjectConfig(new Project.NameKey(name));
+    cfg.load(db, rev);
+    final ProjectState s = new ProjectState(projectCache, allProjectsName,
+        controls, null, null, null, cfg);
+    projects.put(cfg.getProject().getNameKey(), s);
+    return s;
+  }
+
+  private static CurrentUser user(final String name, final String... groups) {
+    final Set<AccountGroup.UUID> ids = new HashSet<AccountGroup.UUID>();
+    for (final String g : groups) {
+      ids.add(new AccountGroup.UUID(g));
+    }
+
+    final CurrentUser u = createMock(CurrentUser.class);
+    expect(u.getEffectiveGroups()).andReturn(ids).anyTimes();
+    expect(u.getUserName()).andReturn(name).anyTimes();
+    replay(u);
+    return u;
+  }
+
+  /** Expects one evaluation of the access rights of {@code user}. */
+  private void expectCheck(final CurrentUser user, final boolean visible,
+      final boolean userSpecific) {
+    final ProjectControl pc = createMock(ProjectControl.class);
+    final RefControl rc = createMock(RefControl.class);
+    expect(pc.controlForRef(MASTER)).andReturn(rc);
+    expect(rc.isVisible()).andReturn(visible);
+    expect(rc.isUserSpecific()).andReturn(userSpecific).anyTimes();
+    replay(pc, rc);
+    expect(controls.create(user, child)).andReturn(pc);
+  }
+
+  private class Projects implements ProjectCache {
+    @Override
+    public ProjectState getAllProjects() {
+      return projects.get(allProjectsName);
+    }
+
+    @Override
+    public ProjectState get(final Project.NameKey projectName) {
+      return projects.get(projectName);
+    }
+
+    @Override
+    public void evict(final Project p) {
+      projects.remove(p.getNameKey());
+    }
+
+    @Override
+    public Iterable<Project.NameKey> all() {
+      return projects.keySet();
+    }
+
+    @Override
+    public Iterable<Project.NameKey> byName(final String prefix) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void onCreateProject(final Project.NameKey newProjectName) {
+    }
+  }
+}
@@ -0,0 +1,171 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import static org.easymock.EasyMock.createStrictMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.PatchSet;
+import com.google.gerrit.reviewdb.PatchSetAccess;
+import com.google.gerrit.reviewdb.ReviewDb;
+import com.google.gerrit.server.util.IdRanges;
+import com.google.gwtorm.client.OrmException;
+import com.google.gwtorm.client.ResultSet;
+import com.google.gwtorm.client.impl.ListResultSet;
+import com.google.inject.Provider;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+public class ChangeDataTest extends TestCase {
+  private ReviewDb db;
+  private PatchSetAccess patchSets;
+  private Provider<ReviewDb> dbProvider;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    db = createStrictMock(ReviewDb.class);
+    patchSets = createStrictMock(PatchSetAccess.class);
+    dbProvider = new Provider<ReviewDb>() {
+      @Override
+      public ReviewDb get() {
+        return db;
+      }
+    };
+  }
+
+  private static List<ChangeData> changes(int... ids) {
+    final List<ChangeData> r = new ArrayList<ChangeData>(ids.length);
+    for (int id : ids) {
+      r.add(new ChangeData(new Change.Id(id)));
+    }
+    return r;
+  }
+
+  private static PatchSet patchSet(int change, int ps) {
+    return new PatchSet(new PatchSet.Id(new Change.Id(change), ps));
+  }
+
+  private static ResultSet<PatchSet> rs(PatchSet... rows) {
+    final List<PatchSet> l = new ArrayList<PatchSet>(rows.length);
+    Collections.addAll(l, rows);
+    return new ListResultSet<PatchSet>(l);
+  }
+
+  private void expectRange(int from, int to, PatchSet... rows)
+      throws OrmException {
+    expect(db.patchSets()).andReturn(patchSets);
+    expect(patchSets.byChangeRange(eq(new Change.Id(from)),
+        eq(new Change.Id(to)))).andReturn(rs(rows));
+  }
+
+  private void expectOne(int id, PatchSet... rows) throws OrmException {
+    expect(db.patchSets()).andReturn(patchSets);
+    expect(patchSets.byChange(eq(new Change.Id(id)))).andReturn(rs(rows));
+  }
+
+  private static void assertPatchSets(Collection<PatchSet> actual,
+      PatchSet... expected) {
+    assertEquals(expected.length, actual.size());
+    int i = 0;
+    for (PatchSet ps : actual) {
+      assertEquals(expected[i++].getId(), ps.getId());
+    }
+  }
+
+  public void testUnbatchedChangeReadsItself() throws OrmException {
+    final ChangeData cd = new ChangeData(new Change.Id(7));
+    final PatchSet ps = patchSet(7, 1);
+    expectOne(7, ps);
+    replay(db, patchSets);
+
+    assertPatchSets(cd.patches(dbProvider), ps);
+    assertPatchSets(cd.patches(dbProvider), ps);
+    verify(db, patchSets);
+  }
+
+  public void testBatchReadsNearbyChangesInOneRange() throws OrmException {
+    final List<ChangeData> cds = changes(5, 1, 1 + IdRanges.GAP);
+    final PatchSet a1 = patchSet(1, 1);
+    final PatchSet a2 = patchSet(1, 2);
+    final PatchSet other = patchSet(2, 1);
+    final PatchSet b = patchSet(5, 1);
+    expectRange(1, 1 + IdRanges.GAP, a1, a2, other, b);
+    replay(db, patchSets);
+
+    ChangeData.batch(cds);
+    assertPatchSets(cds.get(1).patches(dbProvider), a1, a2);
+    assertPatchSets(cds.get(0).patches(dbProvider), b);
+    assertPatchSets(cds.get(2).patches(dbProvider));
+    verify(db, patchSets);
+  }
+
+  public void testBatchSplitsDistantChanges() throws OrmException {
+    final int far = 2 + 2 * IdRanges.GAP;
+    final List<ChangeData> cds = changes(1, 2, far, 1000);
+    final PatchSet a = patchSet(1, 1);
+    final PatchSet b = patchSet(far, 1);
+    final PatchSet c = patchSet(1000, 1);
+    expectRange(1, 2, a);
+    expectOne(far, b);
+    expectOne(1000, c);
+    replay(db, patchSets);
+
+    ChangeData.batch(cds);
+    assertPatchSets(cds.get(2).patches(dbProvider), b);
+    assertPatchSets(cds.get(0).patches(dbProvider), a);
+    assertPatchSets(cds.get(1).patches(dbProvider));
+    assertPatchSets(cds.get(3).patches(dbProvider), c);
+    verify(db, patchSets);
+  }
+
+  public void testBatchesHoldBatchSizeChanges() throws OrmException {
+    final int[] ids = new int[ChangeData.BATCH_SIZE + 10];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = i + 1;
+    }
+    final List<ChangeData> cds = changes(ids);
+    expectRange(1, ChangeData.BATCH_SIZE);
+    expectRange(ChangeData.BATCH_SIZE + 1, ids.length);
+    replay(db, patchSets);
+
+    ChangeData.batch(cds);
+    for (ChangeData cd : cds) {
+      assertTrue(cd.patches(dbProvider).isEmpty());
+    }
+    verify(db, patchSets);
+  }
+
+  public void testUnbatchReleasesBatch() throws OrmException {
+    final List<ChangeData> cds = changes(1, 2);
+    final PatchSet b = patchSet(2, 1);
+    expectOne(2, b);
+    replay(db, patchSets);
+
+    ChangeData.batch(cds);
+    ChangeData.unbatch(cds);
+    assertPatchSets(cds.get(1).patches(dbProvider), b);
+    verify(db, patchSets);
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.RevId;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.index.CommitMessageIndex;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Config;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class MessagePredicateTest extends TestCase {
+  private CommitMessageIndex index;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    // The journal is never opened, so the index is only held in memory.
+    final Config cfg = new Config();
+    cfg.setBoolean("index", null, "enabled", true);
+    final SitePaths site = new SitePaths(new File("."));
+    index = Guice.createInjector(new AbstractModule() {
+      @Override
+      protected void configure() {
+        bind(SitePaths.class).toInstance(site);
+        bind(Config.class).annotatedWith(GerritServerConfig.class)
+            .toInstance(cfg);
+      }
+    }).getInstance(CommitMessageIndex.class);
+
+    put(1, "Prefix the bugs in parser");
+    put(2, "Fix the bug");
+    put(3, "fix thebug");
+    put(4, "Foobar barn");
+  }
+
+  private void put(int id, String message) {
+    index.put(new Change.Id(id), new RevId(Integer.toString(id)), message);
+  }
+
+  private int[] search(String text) {
+    final int[] ids = new MessagePredicate(null, null, text).search(index);
+    assertNotNull(text, ids);
+    return ids;
+  }
+
+  private static void assertIds(int[] actual, int... expected) {
+    assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+  }
+
+  public void testWordsInsideTextAreWhole() {
+    assertIds(search("fix the bug"), 1, 2);
+    assertIds(search("the"), 1, 2, 3);
+  }
+
+  public void testSeparatorClosesEnds() {
+    assertIds(search(" fix the bug"), 2);
+    assertIds(search("fix the bug "), 2);
+    assertIds(search(" the bug "), 2);
+  }
+
+  public void testSingleWordMatchesInsideWords() {
+    assertIds(search("bar"), 4);
+    assertIds(search("ars"), 1);
+    assertIds(search("oob"), 4);
+    assertIds(search("missing"));
+  }
+
+  public void testRegularExpressionIsNotIndexed() {
+    assertNull(new MessagePredicate(null, null, "fix.*bug").search(index));
+    assertNull(new MessagePredicate(null, null, " - ").search(index));
+  }
+}
@@ -0,0 +1,209 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+
+import com.google.gerrit.reviewdb.Account;
+import com.google.gerrit.reviewdb.Branch;
+import com.google.gerrit.reviewdb.Change;
+import com.google.gerrit.reviewdb.PatchSet;
+import com.google.gerrit.reviewdb.PatchSetAccess;
+import com.google.gerrit.reviewdb.PatchSetInfo;
+import com.google.gerrit.reviewdb.Project;
+import com.google.gerrit.reviewdb.RevId;
+import com.google.gerrit.reviewdb.ReviewDb;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.query.OperatorPredicate;
+import com.google.gerrit.server.query.Predicate;
+import com.google.gwtorm.client.impl.ListResultSet;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class ParallelMatcherTest extends LocalDiskRepositoryTestCase {
+  private static final Project.NameKey PROJECT = new Project.NameKey("test");
+  private static final int THREADS = 4;
+
+  private Repository repo;
+  private Injector injector;
+  private ParallelMatcher matcher;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    repo = createBareRepository();
+    injector = Guice.createInjector();
+    final Config cfg = new Config();
+    cfg.setInt("query", null, "threads", THREADS);
+    matcher = new ParallelMatcher(injector.getInstance(WorkQueue.class), cfg);
+  }
+
+  @Override
+  @After
+  public void tearDown() throws Exception {
+    injector.getInstance(WorkQueue.Lifecycle.class).stop();
+    super.tearDown();
+  }
+
+  /** Matches changes of even id, slowly, counting how often each matched. */
+  private static class SlowEvenPredicate extends OperatorPredicate<ChangeData>
+      implements ParallelPredicate {
+    final AtomicIntegerArray matched;
+
+    SlowEvenPredicate(int cnt) {
+      super("even", "slow");
+      matched = new AtomicIntegerArray(cnt);
+    }
+
+    @Override
+    public void prepare(ChangeData cd) {
+    }
+
+    @Override
+    public boolean match(ChangeData cd) {
+      matched.incrementAndGet(cd.getId().get());
+      try {
+        Thread.sleep(cd.getId().get() % 3);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return cd.getId().get() % 2 == 0;
+    }
+
+    @Override
+    public int getCost() {
+      return 1;
+    }
+  }
+
+  @Test
+  public void testEveryChangeMatchedOnceBeforeReturning() throws Exception {
+    for (int round = 0; round < 20; round++) {
+      final int cnt = 4 * THREADS + round;
+      final List<ChangeData> changes = new ArrayList<ChangeData>(cnt);
+      for (int i = 0; i < cnt; i++) {
+        changes.add(new ChangeData(new Change.Id(i)));
+      }
+      final SlowEvenPredicate p = new SlowEvenPredicate(cnt);
+
+      final boolean[] r = matcher.match(
+          Collections.<Predicate<ChangeData>> singletonList(p), changes);
+      for (int i = 0; i < cnt; i++) {
+        assertEquals("change " + i, i % 2 == 0, r[i]);
+        assertEquals("change " + i, 1, p.matched.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testRegexMessageMatchedOnSeveralThreads() throws Exception {
+    final TestRepository<Repository> util = new TestRepository<Repository>(repo);
+    final ReviewDb db = createMock(ReviewDb.class);
+    final PatchSetAccess patchSets = createMock(PatchSetAccess.class);
+    final List<ChangeData> changes = new ArrayList<ChangeData>();
+    final int cnt = 200;
+
+    final StringBuilder body = new StringBuilder();
+    for (int line = 0; line < 50; line++) {
+      body.append("Some line of text describing the change ").append(line)
+          .append('\n');
+    }
+    for (int i = 1; i <= cnt; i++) {
+      final String subject = i % 3 == 0 ? "Fixed bug " + i : "Other work " + i;
+      final RevCommit c = util.commit() //
+          .message(subject + "\n\n" + body) //
+          .add("file", "content " + i) //
+          .create();
+
+      final Change.Id id = new Change.Id(i);
+      final PatchSet.Id psId = new PatchSet.Id(id, 1);
+      final Change change = new Change(new Change.Key("I" + i), id,
+          new Account.Id(1), new Branch.NameKey(PROJECT, "refs/heads/master"));
+      change.setCurrentPatchSet(new PatchSetInfo(psId));
+      final PatchSet ps = new PatchSet(psId);
+      ps.setRevision(new RevId(c.name()));
+
+      expect(db.patchSets()).andReturn(patchSets);
+      expect(patchSets.byChange(eq(id))).andReturn(
+          new ListResultSet<PatchSet>(Collections.singletonList(ps)));
+      changes.add(new ChangeData(change));
+    }
+    replay(db, patchSets);
+
+    final MessagePredicate p = new MessagePredicate(
+        new Provider<ReviewDb>() {
+          @Override
+          public ReviewDb get() {
+            return db;
+          }
+        }, new SingleRepositoryManager(), "Fixed bug [0-9]+");
+    final boolean[] r = matcher.match(
+        Collections.<Predicate<ChangeData>> singletonList(p), changes);
+    for (int i = 0; i < cnt; i++) {
+      assertEquals("change " + (i + 1), (i + 1) % 3 == 0, r[i]);
+    }
+  }
+
+  private class SingleRepositoryManager implements GitRepositoryManager {
+    @Override
+    public Repository openRepository(Project.NameKey name) {
+      repo.incrementOpen();
+      return repo;
+    }
+
+    @Override
+    public Repository createRepository(Project.NameKey name) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SortedSet<Project.NameKey> list() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getProjectDescription(Project.NameKey name) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setProjectDescription(Project.NameKey name,
+        String description) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
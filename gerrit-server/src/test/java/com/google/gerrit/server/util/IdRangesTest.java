@@ -0,0 +1,51 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gerrit.server.util;
+
+import com.google.gerrit.reviewdb.Change;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class IdRangesTest extends TestCase {
+  private static final int GAP = IdRanges.GAP;
+
+  public void testEmpty() {
+    assertTrue(IdRanges.split(Collections.<Change.Id> emptyList()).isEmpty());
+  }
+
+  public void testSplitAtGap() {
+    final List<int[]> r = IdRanges.split(Arrays.asList(
+        new Change.Id(10 + GAP), new Change.Id(1), new Change.Id(10),
+        new Change.Id(11 + 2 * GAP)));
+    assertEquals(2, r.size());
+    assertEquals(1, r.get(0)[0]);
+    assertEquals(10 + GAP, r.get(0)[1]);
+    assertEquals(11 + 2 * GAP, r.get(1)[0]);
+    assertEquals(11 + 2 * GAP, r.get(1)[1]);
+  }
+
+  public void testDuplicates() {
+    final List<int[]> r = IdRanges.split(Arrays.asList(
+        new Change.Id(5), new Change.Id(5)));
+    assertEquals(1, r.size());
+    assertEquals(5, r.get(0)[0]);
+    assertEquals(5, r.get(0)[1]);
+  }
+}
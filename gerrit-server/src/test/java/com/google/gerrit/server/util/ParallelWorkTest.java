@@ -0,0 +1,119 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gerrit.server.util;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParallelWorkTest extends TestCase {
+  private ExecutorService executor;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    executor.shutdownNow();
+    super.tearDown();
+  }
+
+  public void testCallerFailureWaitsForRunningHelper() throws Exception {
+    final Thread caller = Thread.currentThread();
+    final CountDownLatch helperStarted = new CountDownLatch(1);
+    final AtomicBoolean helperDone = new AtomicBoolean();
+    try {
+      ParallelWork.run(executor, 1, new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          if (Thread.currentThread() == caller) {
+            assertTrue(helperStarted.await(10, TimeUnit.SECONDS));
+            throw new IOException("caller failed");
+          }
+          helperStarted.countDown();
+          Thread.sleep(200);
+          helperDone.set(true);
+          return null;
+        }
+      });
+      fail("expected ExecutionException");
+    } catch (ExecutionException e) {
+      assertEquals("caller failed", e.getCause().getMessage());
+    }
+    assertTrue(helperDone.get());
+  }
+
+  public void testUnstartedHelpersNeverRun() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    for (int i = 0; i < 2; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            blocked.await();
+          } catch (InterruptedException e) {
+            // Let the thread finish.
+          }
+        }
+      });
+    }
+
+    final AtomicInteger runs = new AtomicInteger();
+    ParallelWork.run(executor, 3, new Callable<Void>() {
+      @Override
+      public Void call() {
+        runs.incrementAndGet();
+        return null;
+      }
+    });
+    blocked.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(1, runs.get());
+  }
+
+  public void testHelperFailureIsReported() throws Exception {
+    final Thread caller = Thread.currentThread();
+    final CountDownLatch helperStarted = new CountDownLatch(1);
+    try {
+      ParallelWork.run(executor, 1, new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          if (Thread.currentThread() == caller) {
+            assertTrue(helperStarted.await(10, TimeUnit.SECONDS));
+            return null;
+          }
+          helperStarted.countDown();
+          throw new IllegalStateException("helper failed");
+        }
+      });
+      fail("expected ExecutionException");
+    } catch (ExecutionException e) {
+      assertEquals("helper failed", e.getCause().getMessage());
+    }
+  }
+}
@@ -0,0 +1,66 @@
+// Copyright (C) 2011 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.util;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class TopNTest extends TestCase {
+  private static final Comparator<Integer> DESC =
+      Collections.reverseOrder();
+
+  public void testKeepsFirst() {
+    final TopN<Integer> top = new TopN<Integer>(3, DESC);
+    for (int i : new int[] {4, 9, 1, 7, 3, 8}) {
+      top.add(i);
+    }
+    assertEquals(3, top.size());
+    assertFalse(top.accepts(7));
+    assertTrue(top.accepts(10));
+    assertEquals(Arrays.asList(9, 8, 7), top.drain());
+    assertEquals(0, top.size());
+  }
+
+  public void testFewerThanLimit() {
+    final TopN<Integer> top = new TopN<Integer>(10, DESC);
+    top.add(1);
+    top.add(2);
+    assertEquals(Arrays.asList(2, 1), top.drain());
+  }
+
+  public void testZeroLimit() {
+    final TopN<Integer> top = new TopN<Integer>(0, DESC);
+    assertFalse(top.add(1));
+    assertTrue(top.drain().isEmpty());
+  }
+
+  public void testRandom() {
+    final Random rng = new Random(42);
+    final Integer[] all = new Integer[5000];
+    final TopN<Integer> top = new TopN<Integer>(100, DESC);
+    for (int i = 0; i < all.length; i++) {
+      all[i] = rng.nextInt();
+      top.add(all[i]);
+    }
+    Arrays.sort(all, DESC);
+    final List<Integer> expect = Arrays.asList(all).subList(0, 100);
+    assertEquals(expect, top.drain());
+  }
+}
@@ -15,13 +15,11 @@
 package com.google.gerrit.sshd.commands;
 
 import com.google.gerrit.server.cache.CachePool;
+import com.google.gerrit.server.cache.CacheStore;
 import com.google.gerrit.sshd.BaseCommand;
 import com.google.inject.Inject;
 
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Ehcache;
-
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -31,20 +29,13 @@ abstract class CacheCommand extends BaseCommand {
 
   protected SortedSet<String> cacheNames() {
     final SortedSet<String> names = new TreeSet<String>();
-    for (final Ehcache c : getAllCaches()) {
+    for (final CacheStore<?, ?> c : getAllCaches()) {
       names.add(c.getName());
     }
     return names;
   }
 
-  protected Ehcache[] getAllCaches() {
-    final CacheManager cacheMgr = cachePool.getCacheManager();
-    final String[] cacheNames = cacheMgr.getCacheNames();
-    Arrays.sort(cacheNames);
-    final Ehcache[] r = new Ehcache[cacheNames.length];
-    for (int i = 0; i < cacheNames.length; i++) {
-      r[i] = cacheMgr.getEhcache(cacheNames[i]);
-    }
-    return r;
+  protected Collection<CacheStore<?, ?>> getAllCaches() {
+    return cachePool.getCaches();
   }
 }
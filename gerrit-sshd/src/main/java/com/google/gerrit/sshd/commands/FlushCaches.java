@@ -15,11 +15,10 @@
 package com.google.gerrit.sshd.commands;
 
 import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.cache.CacheStore;
 import com.google.gerrit.sshd.BaseCommand;
 import com.google.inject.Inject;
 
-import net.sf.ehcache.Ehcache;
-
 import org.apache.sshd.server.Environment;
 import org.kohsuke.args4j.Option;
 
@@ -114,7 +113,7 @@ final class FlushCaches extends CacheCommand {
 
   private void doBulkFlush() {
     try {
-      for (final Ehcache c : getAllCaches()) {
+      for (final CacheStore<?, ?> c : getAllCaches()) {
         final String name = c.getName();
         if (flush(name)) {
           try {
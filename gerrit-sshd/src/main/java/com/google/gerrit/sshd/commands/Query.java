@@ -56,6 +56,11 @@ class Query extends BaseCommand {
     processor.setIncludeComments(on);
   }
 
+  @Option(name = "--explain", usage = "Show how the query is executed")
+  void setExplain(boolean on) {
+    processor.setExplain(on);
+  }
+
   @Argument(index = 0, required = true, multiValued = true, metaVar = "QUERY", usage = "Query to execute")
   private List<String> query;
 
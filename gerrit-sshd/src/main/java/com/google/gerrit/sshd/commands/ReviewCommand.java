@@ -30,9 +30,11 @@ import com.google.gerrit.server.ChangeUtil;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.git.MergeOp;
 import com.google.gerrit.server.git.MergeQueue;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.mail.AbandonedSender;
 import com.google.gerrit.server.mail.EmailException;
 import com.google.gerrit.server.mail.RestoredSender;
+import com.google.gerrit.server.patch.AutoMerger;
 import com.google.gerrit.server.patch.PublishComments;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gerrit.server.project.InvalidChangeOperationException;
@@ -133,6 +135,12 @@ public class ReviewCommand extends BaseCommand {
   @Inject
   private ChangeHookRunner hooks;
 
+  @Inject
+  private AutoMerger autoMerger;
+
+  @Inject
+  private ChangeIndexer changeIndexer;
+
   private List<ApproveOption> optionList;
 
   private Set<PatchSet.Id> toSubmit = new HashSet<PatchSet.Id>();
@@ -194,7 +202,7 @@ public class ReviewCommand extends BaseCommand {
                         TimeUnit delayUnit) {
                       toMerge.add(branch);
                     }
-                  });
+                  }, changeIndexer);
             }
             for (Branch.NameKey branch : toMerge) {
               merger.merge(opFactory, branch);
@@ -232,7 +240,7 @@ public class ReviewCommand extends BaseCommand {
       if (abandonChange) {
         if (changeControl.canAbandon()) {
           ChangeUtil.abandon(patchSetId, currentUser, changeComment, db,
-              abandonedSenderFactory, hooks);
+              abandonedSenderFactory, hooks, autoMerger, changeIndexer);
         } else {
           throw error("Not permitted to abandon change");
         }
@@ -241,7 +249,7 @@ public class ReviewCommand extends BaseCommand {
       if (restoreChange) {
         if (changeControl.canRestore()) {
           ChangeUtil.restore(patchSetId, currentUser, changeComment, db,
-              restoredSenderFactory, hooks);
+              restoredSenderFactory, hooks, changeIndexer);
         } else {
           throw error("Not permitted to restore change");
         }
@@ -14,9 +14,15 @@
 
 package com.google.gerrit.sshd.commands;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 import com.google.gerrit.common.Version;
 import com.google.gerrit.lifecycle.LifecycleListener;
 import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.cache.CacheStatistics;
+import com.google.gerrit.server.cache.CacheStore;
+import com.google.gerrit.server.cache.LoadStatistics;
 import com.google.gerrit.server.config.SitePath;
 import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.git.WorkQueue.Task;
@@ -24,10 +30,6 @@ import com.google.gerrit.sshd.BaseCommand;
 import com.google.gerrit.sshd.SshDaemon;
 import com.google.inject.Inject;
 
-import net.sf.ehcache.Ehcache;
-import net.sf.ehcache.Statistics;
-import net.sf.ehcache.config.CacheConfiguration;
-
 import org.apache.mina.core.service.IoAcceptor;
 import org.apache.mina.core.session.IoSession;
 import org.apache.sshd.server.Environment;
@@ -67,6 +69,9 @@ final class ShowCaches extends CacheCommand {
   @Option(name = "--show-jvm", usage = "show details about the JVM")
   private boolean showJVM;
 
+  @Option(name = "--show-load-stats", usage = "show time spent loading cache entries")
+  private boolean showLoadStats;
+
   @Inject
   private IdentifiedUser currentUser;
 
@@ -139,40 +144,42 @@ final class ShowCaches extends CacheCommand {
     ));
     p.print("------------------"
         + "-------+--------------------+----------+--------------+\n");
-    for (final Ehcache cache : getAllCaches()) {
-      final CacheConfiguration cfg = cache.getCacheConfiguration();
-      final boolean useDisk = cfg.isDiskPersistent() || cfg.isOverflowToDisk();
-      final Statistics stat = cache.getStatistics();
-      final long total = stat.getCacheHits() + stat.getCacheMisses();
+    for (final CacheStore<?, ?> cache : getAllCaches()) {
+      final CacheStatistics stat = cache.getStatistics();
+      final long total = stat.hits + stat.misses;
 
-      if (useDisk) {
+      if (stat.disk) {
         p.print(String.format(//
             "D %-18s %-4s|%6s %6s %6s| %7s  |%4s %4s %4s|\n" //
             , cache.getName() //
-            , interval(cfg.getTimeToLiveSeconds()) //
-            , count(stat.getDiskStoreObjectCount()) //
-            , count(stat.getMemoryStoreObjectCount()) //
+            , interval(cache.getTimeToLive(SECONDS)) //
+            , count(stat.diskCount) //
+            , count(stat.memoryCount) //
             , count(stat.getObjectCount()) //
-            , duration(stat.getAverageGetTime()) //
-            , percent(stat.getOnDiskHits(), total) //
-            , percent(stat.getInMemoryHits(), total) //
-            , percent(stat.getCacheHits(), total) //
+            , duration(stat.averageGetTime) //
+            , percent(stat.diskHits, total) //
+            , percent(stat.memoryHits, total) //
+            , percent(stat.hits, total) //
             ));
       } else {
         p.print(String.format(//
             "  %-18s %-4s|%6s %6s %6s| %7s  |%4s %4s %4s|\n" //
             , cache.getName() //
-            , interval(cfg.getTimeToLiveSeconds()) //
+            , interval(cache.getTimeToLive(SECONDS)) //
             , "", "" //
             , count(stat.getObjectCount()) //
-            , duration(stat.getAverageGetTime()) //
+            , duration(stat.averageGetTime) //
             , "", "" //
-            , percent(stat.getCacheHits(), total) //
+            , percent(stat.hits, total) //
             ));
       }
     }
     p.print('\n');
 
+    if (showLoadStats) {
+      loadSummary();
+    }
+
     if (gc) {
       System.gc();
       System.runFinalization();
@@ -190,6 +197,63 @@ final class ShowCaches extends CacheCommand {
     p.flush();
   }
 
+  private void loadSummary() {
+    p.print(String.format(//
+        "%1s %-18s|%-14s|%-20s|%-6s|%-13s|\n" //
+        , "" //
+        , "Name" //
+        , "Loads" //
+        , "Load Time" //
+        , "Wait" //
+        , "Removed" //
+    ));
+    p.print(String.format(//
+        "%1s %-18s|%7s %6s|%6s %6s %6s|%6s|%6s %6s|\n" //
+        , "" //
+        , "" //
+        , "Cnt" //
+        , "Fail" //
+        , "Avg" //
+        , "99%" //
+        , "Max" //
+        , "Thr" //
+        , "Evict" //
+        , "Expire" //
+    ));
+    p.print("--------------------+--------------+"
+        + "--------------------+------+-------------+\n");
+    for (final CacheStore<?, ?> cache : getAllCaches()) {
+      final CacheStatistics stat = cache.getStatistics();
+      final LoadStatistics load = cachePool.getLoadStatistics(cache.getName());
+      if (load == null) {
+        p.print(String.format(//
+            "%1s %-18s|%14s|%20s|%6s|%6s %6s|\n" //
+            , stat.disk ? "D" : "" //
+            , cache.getName() //
+            , "", "", "" //
+            , count(stat.evictions) //
+            , count(stat.expirations) //
+            ));
+        continue;
+      }
+
+      p.print(String.format(//
+          "%1s %-18s|%7s %6s|%6s %6s %6s|%6s|%6s %6s|\n" //
+          , stat.disk ? "D" : "" //
+          , cache.getName() //
+          , count(load.getLoadCount()) //
+          , count(load.getFailureCount()) //
+          , millis(load.getAverageLoadTime(MILLISECONDS)) //
+          , millis(load.getPercentile(99)) //
+          , millis(load.getMaxLoadTime(MILLISECONDS)) //
+          , count(load.getWaitingThreads()) //
+          , count(stat.evictions) //
+          , count(stat.expirations) //
+          ));
+    }
+    p.print('\n');
+  }
+
   private void memSummary() {
     final Runtime r = Runtime.getRuntime();
     final long mMax = r.maxMemory();
@@ -337,6 +401,16 @@ final class ShowCaches extends CacheCommand {
     return String.format("%4.1f%s", ms, suffix);
   }
 
+  private String millis(double ms) {
+    if (ms < 0.5) {
+      return "";
+    }
+    if (ms < 10000) {
+      return String.format("%dms", Math.round(ms));
+    }
+    return String.format("%ds", Math.round(ms / 1000));
+  }
+
   private String interval(double ttl) {
     if (ttl == 0) {
       return "inf";